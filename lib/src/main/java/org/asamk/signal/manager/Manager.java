@@ -36,6 +36,8 @@ import org.asamk.signal.manager.api.PinLockMissingException;
 import org.asamk.signal.manager.api.PinLockedException;
 import org.asamk.signal.manager.api.RateLimitException;
 import org.asamk.signal.manager.api.ReceiveConfig;
+import org.asamk.signal.manager.api.ReceiveQueueConfig;
+import org.asamk.signal.manager.api.ReceiveQueueStatistics;
 import org.asamk.signal.manager.api.Recipient;
 import org.asamk.signal.manager.api.RecipientAddress;
 import org.asamk.signal.manager.api.RecipientIdentifier;
@@ -349,12 +351,30 @@ public interface Manager extends Closeable {
 
     void addReceiveHandler(ReceiveMessageHandler handler, final boolean isWeakListener);
 
+    /**
+     * Add a handler to receive new messages.
+     * Messages are queued for each handler separately, the queue config determines what happens if the handler
+     * doesn't keep up with incoming messages.
+     */
+    void addReceiveHandler(
+            ReceiveMessageHandler handler,
+            final boolean isWeakListener,
+            final ReceiveQueueConfig queueConfig
+    );
+
     /**
      * Remove a handler to receive new messages.
      * Will stop receiving messages from server, if this was the last registered receiver.
      */
     void removeReceiveHandler(ReceiveMessageHandler handler);
 
+    /**
+     * Get the queue statistics of a registered receive handler.
+     *
+     * @return the statistics or null, if the handler isn't registered.
+     */
+    ReceiveQueueStatistics getReceiveQueueStatistics(ReceiveMessageHandler handler);
+
     boolean isReceiving();
 
     /**
@@ -472,6 +492,12 @@ public interface Manager extends Closeable {
         };
 
         void handleMessage(MessageEnvelope envelope, Throwable e);
+
+        /**
+         * Called after the handler has been removed, because it didn't keep up with incoming messages.
+         */
+        default void handleDisconnect() {
+        }
     }
 
     interface CallEventListener {
@@ -18,6 +18,13 @@ public interface MultiAccountManager extends AutoCloseable {
 
     Manager getManager(String phoneNumber);
 
+    /**
+     * Whether the account of the manager is currently loaded, hibernated accounts are loaded again when they're used.
+     */
+    default boolean isLoaded(Manager manager) {
+        return true;
+    }
+
     URI getNewProvisioningDeviceLinkUri() throws TimeoutException, IOException;
 
     ProvisioningManager getProvisioningManagerFor(URI deviceLinkUri);
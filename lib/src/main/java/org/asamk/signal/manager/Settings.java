@@ -1,8 +1,25 @@
 package org.asamk.signal.manager;
 
+import org.asamk.signal.manager.api.MessageCacheType;
 import org.asamk.signal.manager.api.TrustNewIdentity;
 
-public record Settings(TrustNewIdentity trustNewIdentity, boolean disableMessageSendLog) {
+import java.time.Duration;
 
-    public static final Settings DEFAULT = new Settings(TrustNewIdentity.ON_FIRST_USE, false);
+public record Settings(
+        TrustNewIdentity trustNewIdentity,
+        boolean disableMessageSendLog,
+        MessageCacheType messageCacheType,
+        int sendConcurrency,
+        int accountWorkers,
+        Duration accountIdleTimeout,
+        Duration accountDrainInterval
+) {
+
+    public static final Settings DEFAULT = new Settings(TrustNewIdentity.ON_FIRST_USE,
+            false,
+            MessageCacheType.FILES,
+            16,
+            8,
+            Duration.ZERO,
+            Duration.ofMinutes(5));
 }
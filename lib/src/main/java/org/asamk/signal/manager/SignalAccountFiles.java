@@ -7,12 +7,14 @@ import org.asamk.signal.manager.api.ServiceEnvironment;
 import org.asamk.signal.manager.config.ServiceConfig;
 import org.asamk.signal.manager.config.ServiceEnvironmentConfig;
 import org.asamk.signal.manager.internal.AccountFileUpdaterImpl;
+import org.asamk.signal.manager.internal.AccountWorkers;
 import org.asamk.signal.manager.internal.ManagerImpl;
 import org.asamk.signal.manager.internal.MultiAccountManagerImpl;
 import org.asamk.signal.manager.internal.PathConfig;
 import org.asamk.signal.manager.internal.ProvisioningManagerImpl;
 import org.asamk.signal.manager.internal.RegistrationManagerImpl;
 import org.asamk.signal.manager.storage.SignalAccount;
+import org.asamk.signal.manager.storage.accounts.AccountsStorage;
 import org.asamk.signal.manager.storage.accounts.AccountsStore;
 import org.asamk.signal.manager.util.KeyUtils;
 import org.slf4j.Logger;
@@ -21,8 +23,11 @@ import org.whispersystems.signalservice.api.push.exceptions.DeprecatedVersionExc
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Objects;
+import java.util.ArrayList;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
 
 public class SignalAccountFiles {
@@ -35,6 +40,7 @@ public class SignalAccountFiles {
     private final String userAgent;
     private final Settings settings;
     private final AccountsStore accountsStore;
+    private final AccountWorkers accountWorkers;
 
     public SignalAccountFiles(
             final File settingsPath,
@@ -56,6 +62,7 @@ public class SignalAccountFiles {
         this.serviceEnvironmentConfig = ServiceConfig.getServiceEnvironmentConfig(this.serviceEnvironment, userAgent);
         this.userAgent = userAgent;
         this.settings = settings;
+        this.accountWorkers = new AccountWorkers(settings.accountWorkers());
         this.accountsStore = new AccountsStore(pathConfig.dataPath(), serviceEnvironment, accountPath -> {
             if (accountPath == null || !SignalAccount.accountFileExists(pathConfig.dataPath(), accountPath)) {
                 return null;
@@ -74,17 +81,42 @@ public class SignalAccountFiles {
     }
 
     public MultiAccountManager initMultiAccountManager() throws IOException {
-        final var managerPairs = accountsStore.getAllAccounts().parallelStream().map(a -> {
-            try {
-                return new Pair<Manager, Throwable>(initManager(a.number(), a.path()), null);
-            } catch (NotRegisteredException e) {
-                logger.warn("Ignoring {}: {} ({})", a.number(), e.getMessage(), e.getClass().getSimpleName());
-                return null;
-            } catch (AccountCheckException | IOException e) {
-                logger.error("Failed to load {}: {} ({})", a.number(), e.getMessage(), e.getClass().getSimpleName());
-                return new Pair<Manager, Throwable>(null, e);
+        if (settings.accountIdleTimeout().isPositive()) {
+            // Accounts are loaded when they are first used
+            final var accountNumbers = accountsStore.getAllAccounts()
+                    .stream()
+                    .map(AccountsStorage.Account::number)
+                    .toList();
+            return new MultiAccountManagerImpl(accountNumbers,
+                    this,
+                    accountWorkers,
+                    settings.accountIdleTimeout(),
+                    settings.accountDrainInterval());
+        }
+
+        final var managerPairs = new ArrayList<Pair<Manager, Throwable>>();
+        try (final var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            final var futures = new ArrayList<Future<Pair<Manager, Throwable>>>();
+            // Only as many accounts as there are account workers are loaded and checked at the same time
+            for (final var a : accountsStore.getAllAccounts()) {
+                final var number = a.number();
+                final var path = a.path();
+                futures.add(executor.submit(() -> accountWorkers.call(() -> initManagerOrFailure(number, path))));
+            }
+            for (final var future : futures) {
+                try {
+                    final var pair = future.get();
+                    if (pair != null) {
+                        managerPairs.add(pair);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while loading accounts", e);
+                } catch (ExecutionException e) {
+                    throw new IOException("Failed to load account", e.getCause());
+                }
             }
-        }).filter(Objects::nonNull).toList();
+        }
 
         for (final var pair : managerPairs) {
             if (pair.second() instanceof IOException e) {
@@ -93,12 +125,24 @@ public class SignalAccountFiles {
         }
 
         final var managers = managerPairs.stream()
-                .filter(p -> p != null && p.first() != null)
+                .filter(p -> p.first() != null)
                 .map(Pair::first)
                 .toList();
         return new MultiAccountManagerImpl(managers, this);
     }
 
+    private Pair<Manager, Throwable> initManagerOrFailure(String number, String accountPath) {
+        try {
+            return new Pair<>(initManager(number, accountPath), null);
+        } catch (NotRegisteredException e) {
+            logger.warn("Ignoring {}: {} ({})", number, e.getMessage(), e.getClass().getSimpleName());
+            return null;
+        } catch (AccountCheckException | IOException e) {
+            logger.error("Failed to load {}: {} ({})", number, e.getMessage(), e.getClass().getSimpleName());
+            return new Pair<>(null, e);
+        }
+    }
+
     public Manager initManager(String number) throws IOException, NotRegisteredException, AccountCheckException {
         final var accountPath = accountsStore.getPathByNumber(number);
         return this.initManager(number, accountPath);
@@ -136,7 +180,8 @@ public class SignalAccountFiles {
                 pathConfig,
                 new AccountFileUpdaterImpl(accountsStore, accountPath),
                 serviceEnvironmentConfig,
-                userAgent);
+                userAgent,
+                accountWorkers);
 
         try {
             manager.checkAccountState();
@@ -0,0 +1,19 @@
+package org.asamk.signal.manager.actions;
+
+import org.asamk.signal.manager.helper.Context;
+
+import java.util.List;
+
+/**
+ * Action that is executed in a single batch together with all other queued actions of the same class.
+ */
+public interface BatchHandleAction<T extends BatchHandleAction<T>> extends HandleAction {
+
+    void executeBatch(Context context, List<T> actions) throws Throwable;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    default void execute(Context context) throws Throwable {
+        executeBatch(context, List.of((T) this));
+    }
+}
@@ -1,6 +1,7 @@
 package org.asamk.signal.manager.actions;
 
 import org.asamk.signal.manager.helper.Context;
+import org.asamk.signal.manager.storage.recipients.RecipientId;
 
 public interface HandleAction {
 
@@ -8,4 +9,14 @@ public interface HandleAction {
 
     default void mergeOther(HandleAction action) {
     }
+
+    /**
+     * Actions for the same recipient are executed in the order they were queued, actions for different recipients
+     * are executed concurrently.
+     *
+     * @return the recipient or null, if the action doesn't target a single recipient.
+     */
+    default RecipientId getRecipientId() {
+        return null;
+    }
 }
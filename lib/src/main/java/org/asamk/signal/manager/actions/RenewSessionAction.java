@@ -22,6 +22,11 @@ public class RenewSessionAction implements HandleAction {
         context.getSendHelper().sendNullMessage(recipientId);
     }
 
+    @Override
+    public RecipientId getRecipientId() {
+        return recipientId;
+    }
+
     @Override
     public boolean equals(final Object o) {
         if (this == o) return true;
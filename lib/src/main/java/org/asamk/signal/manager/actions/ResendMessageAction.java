@@ -27,6 +27,11 @@ public class ResendMessageAction implements HandleAction {
         context.getSendHelper().resendMessage(recipientId, timestamp, messageSendLogEntry);
     }
 
+    @Override
+    public RecipientId getRecipientId() {
+        return recipientId;
+    }
+
     @Override
     public boolean equals(final Object o) {
         if (this == o) return true;
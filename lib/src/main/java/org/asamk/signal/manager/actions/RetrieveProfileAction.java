@@ -3,7 +3,9 @@ package org.asamk.signal.manager.actions;
 import org.asamk.signal.manager.helper.Context;
 import org.asamk.signal.manager.storage.recipients.RecipientId;
 
-public class RetrieveProfileAction implements HandleAction {
+import java.util.List;
+
+public class RetrieveProfileAction implements BatchHandleAction<RetrieveProfileAction> {
 
     private final RecipientId recipientId;
 
@@ -12,8 +14,9 @@ public class RetrieveProfileAction implements HandleAction {
     }
 
     @Override
-    public void execute(Context context) throws Throwable {
-        context.getProfileHelper().refreshRecipientProfile(recipientId);
+    public void executeBatch(Context context, List<RetrieveProfileAction> actions) throws Throwable {
+        // All profiles are fetched in a single bulk refresh
+        context.getProfileHelper().refreshRecipientProfiles(actions.stream().map(a -> a.recipientId).toList());
     }
 
     @Override
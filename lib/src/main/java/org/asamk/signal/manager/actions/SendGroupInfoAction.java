@@ -19,6 +19,11 @@ public class SendGroupInfoAction implements HandleAction {
         context.getGroupHelper().sendGroupInfoMessage(groupId, recipientId);
     }
 
+    @Override
+    public RecipientId getRecipientId() {
+        return recipientId;
+    }
+
     @Override
     public boolean equals(final Object o) {
         if (this == o) return true;
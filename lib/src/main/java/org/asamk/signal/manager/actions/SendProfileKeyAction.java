@@ -18,6 +18,11 @@ public class SendProfileKeyAction implements HandleAction {
         context.getSendHelper().sendProfileKey(recipientId);
     }
 
+    @Override
+    public RecipientId getRecipientId() {
+        return recipientId;
+    }
+
     @Override
     public boolean equals(final Object o) {
         if (this == o) return true;
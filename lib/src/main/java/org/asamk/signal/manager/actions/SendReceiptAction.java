@@ -34,6 +34,11 @@ public class SendReceiptAction implements HandleAction {
         context.getSendHelper().sendReceiptMessage(receiptMessage, recipientId);
     }
 
+    @Override
+    public RecipientId getRecipientId() {
+        return recipientId;
+    }
+
     @Override
     public void mergeOther(final HandleAction action) {
         if (action instanceof SendReceiptAction sendReceiptAction) {
@@ -67,6 +67,11 @@ public class SendRetryMessageRequestAction implements HandleAction {
         };
     }
 
+    @Override
+    public RecipientId getRecipientId() {
+        return recipientId;
+    }
+
     @Override
     public boolean equals(final Object o) {
         if (this == o) return true;
@@ -0,0 +1,12 @@
+package org.asamk.signal.manager.api;
+
+public enum MessageCacheType {
+    /**
+     * One file per cached envelope
+     */
+    FILES,
+    /**
+     * Append-only log of memory-mapped segment files
+     */
+    LOG,
+}
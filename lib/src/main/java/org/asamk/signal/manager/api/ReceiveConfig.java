@@ -5,5 +5,6 @@ public record ReceiveConfig(
         boolean ignoreStories,
         boolean ignoreAvatars,
         boolean ignoreStickers,
-        boolean sendReadReceipts
+        boolean sendReadReceipts,
+        int batchSize
 ) {}
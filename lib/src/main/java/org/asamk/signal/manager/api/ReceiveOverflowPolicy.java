@@ -0,0 +1,16 @@
+package org.asamk.signal.manager.api;
+
+public enum ReceiveOverflowPolicy {
+    /**
+     * Discard the oldest queued message to make room for the new one
+     */
+    DROP_OLDEST,
+    /**
+     * Remove the receive handler and discard its queued messages
+     */
+    DISCONNECT,
+    /**
+     * Wait until the receive handler has made room in its queue
+     */
+    BLOCK,
+}
@@ -0,0 +1,10 @@
+package org.asamk.signal.manager.api;
+
+/**
+ * @param capacity       maximum number of received messages queued for a receive handler
+ * @param overflowPolicy what to do with a new message if the queue is full
+ */
+public record ReceiveQueueConfig(int capacity, ReceiveOverflowPolicy overflowPolicy) {
+
+    public static final ReceiveQueueConfig DEFAULT = new ReceiveQueueConfig(1000, ReceiveOverflowPolicy.BLOCK);
+}
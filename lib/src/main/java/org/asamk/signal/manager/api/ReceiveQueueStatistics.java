@@ -0,0 +1,8 @@
+package org.asamk.signal.manager.api;
+
+/**
+ * @param queueDepth      number of messages currently waiting for the receive handler
+ * @param peakQueueDepth  highest number of messages that were waiting at the same time
+ * @param droppedMessages number of messages that were discarded because the queue was full
+ */
+public record ReceiveQueueStatistics(int queueDepth, int peakQueueDepth, long droppedMessages) {}
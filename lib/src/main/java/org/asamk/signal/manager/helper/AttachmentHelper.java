@@ -26,14 +26,26 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 public class AttachmentHelper {
 
     private static final Logger logger = LoggerFactory.getLogger(AttachmentHelper.class);
+    private static final int MAX_CONCURRENT_DOWNLOADS = 4;
+    private static final int MAX_CONCURRENT_UPLOADS = 4;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
 
     private final SignalDependencies dependencies;
     private final AttachmentStore attachmentStore;
+    // Limits the attachment downloads of this account, that run at the same time
+    private final Semaphore downloadPermits = new Semaphore(MAX_CONCURRENT_DOWNLOADS);
+    // Limits the attachment uploads of this account, that run at the same time
+    private final Semaphore uploadPermits = new Semaphore(MAX_CONCURRENT_UPLOADS);
 
     public AttachmentHelper(final Context context) {
         this.dependencies = context.getDependencies();
@@ -57,8 +69,20 @@ public class AttachmentHelper {
         try {
             // Upload attachments here, so we only upload once even for multiple recipients
             final var attachmentPointers = new ArrayList<SignalServiceAttachment>(attachmentStreams.size());
-            for (final var attachmentStream : attachmentStreams) {
-                attachmentPointers.add(uploadAttachment(attachmentStream));
+            try (final var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                final var uploads = new ArrayList<Future<SignalServiceAttachmentPointer>>(attachmentStreams.size());
+                for (final var attachmentStream : attachmentStreams) {
+                    uploads.add(executor.submit(() -> uploadAttachmentWithPermit(attachmentStream)));
+                }
+                try {
+                    for (final var upload : uploads) {
+                        attachmentPointers.add(getUploadResult(upload));
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // The message can't be sent anyway, so the remaining uploads are stopped
+                    uploads.forEach(upload -> upload.cancel(true));
+                    throw e;
+                }
             }
             return attachmentPointers;
         } finally {
@@ -117,12 +141,67 @@ public class AttachmentHelper {
         return uploadAttachment(attachmentStream);
     }
 
+    private static SignalServiceAttachmentPointer getUploadResult(
+            final Future<SignalServiceAttachmentPointer> upload
+    ) throws IOException {
+        try {
+            return upload.get();
+        } catch (ExecutionException e) {
+            switch (e.getCause()) {
+                case IOException ioException -> throw ioException;
+                case RuntimeException runtimeException -> throw runtimeException;
+                default -> throw new AssertionError(e.getCause());
+            }
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while uploading attachments", e);
+        }
+    }
+
+    private SignalServiceAttachmentPointer uploadAttachmentWithPermit(
+            final SignalServiceAttachmentStream attachment
+    ) throws IOException {
+        try {
+            uploadPermits.acquire();
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while waiting to upload attachment", e);
+        }
+        try {
+            return uploadAttachment(attachment);
+        } finally {
+            uploadPermits.release();
+        }
+    }
+
     public SignalServiceAttachmentPointer uploadAttachment(SignalServiceAttachmentStream attachment) throws IOException {
         var messageSender = dependencies.getMessageSender();
         return messageSender.uploadAttachment(attachment);
     }
 
+    /**
+     * Download and store the attachments in parallel and wait until all of them are stored.
+     */
+    public void downloadAttachments(final Collection<SignalServiceAttachment> attachments) {
+        if (attachments.size() <= 1) {
+            attachments.forEach(this::downloadAttachment);
+            return;
+        }
+        try (final var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (final var attachment : attachments) {
+                executor.execute(() -> downloadAttachment(attachment));
+            }
+        }
+    }
+
     public void downloadAttachment(final SignalServiceAttachment attachment) {
+        downloadPermits.acquireUninterruptibly();
+        try {
+            storeAttachment(attachment);
+        } finally {
+            downloadPermits.release();
+        }
+    }
+
+    private void storeAttachment(final SignalServiceAttachment attachment) {
         if (!attachment.isPointer()) {
             logger.warn("Invalid state, can't store an attachment stream.");
         }
@@ -146,7 +225,7 @@ public class AttachmentHelper {
     }
 
     void retrieveAttachment(SignalServiceAttachment attachment, OutputStream outputStream) throws IOException {
-        retrieveAttachment(attachment, input -> IOUtils.copyStream(input, outputStream));
+        retrieveAttachment(attachment, input -> IOUtils.copyStream(input, outputStream, COPY_BUFFER_SIZE));
     }
 
     public void retrieveAttachment(SignalServiceAttachment attachment, AttachmentHandler consumer) throws IOException {
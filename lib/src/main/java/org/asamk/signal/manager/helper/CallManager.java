@@ -62,11 +62,9 @@ public class CallManager implements AutoCloseable {
     private final SignalDependencies dependencies;
     private final Map<Long, CallState> activeCalls = new ConcurrentHashMap<>();
     private final List<Manager.CallEventListener> callEventListeners = new CopyOnWriteArrayList<>();
-    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
-        var t = new Thread(r, "call-timeout-scheduler");
-        t.setDaemon(true);
-        return t;
-    });
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual()
+            .name("call-timeout-scheduler")
+            .factory());
 
     public CallManager(final Context context) {
         this.context = context;
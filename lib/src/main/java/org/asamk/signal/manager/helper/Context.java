@@ -1,5 +1,6 @@
 package org.asamk.signal.manager.helper;
 
+import org.asamk.signal.manager.internal.AccountWorkers;
 import org.asamk.signal.manager.internal.JobExecutor;
 import org.asamk.signal.manager.internal.SignalDependencies;
 import org.asamk.signal.manager.storage.AttachmentStore;
@@ -46,7 +47,8 @@ public class Context implements AutoCloseable {
             final SignalDependencies dependencies,
             final AvatarStore avatarStore,
             final AttachmentStore attachmentStore,
-            final StickerPackStore stickerPackStore
+            final StickerPackStore stickerPackStore,
+            final AccountWorkers accountWorkers
     ) {
         this.account = account;
         this.accountFileUpdater = accountFileUpdater;
@@ -54,7 +56,7 @@ public class Context implements AutoCloseable {
         this.avatarStore = avatarStore;
         this.stickerPackStore = stickerPackStore;
         this.attachmentStore = attachmentStore;
-        this.jobExecutor = new JobExecutor(this);
+        this.jobExecutor = new JobExecutor(this, accountWorkers);
     }
 
     public SignalAccount getAccount() {
@@ -0,0 +1,125 @@
+package org.asamk.signal.manager.helper;
+
+import org.asamk.signal.manager.actions.BatchHandleAction;
+import org.asamk.signal.manager.actions.HandleAction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Executes the actions queued while handling received envelopes, without blocking the receive thread.
+ * <p>
+ * Batch actions of the same class are executed together. Actions for the same recipient are executed one after
+ * another in a lane of that recipient, independent lanes run concurrently on virtual threads.
+ */
+class HandleActionExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(HandleActionExecutor.class);
+
+    private final Context context;
+    private final Map<Object, Queue<Runnable>> lanes = new HashMap<>();
+    private final Semaphore activeLanes;
+    private final ExecutorService laneExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    HandleActionExecutor(final Context context, final int maxConcurrentLanes) {
+        this.context = context;
+        this.activeLanes = new Semaphore(maxConcurrentLanes);
+    }
+
+    /**
+     * Queue the actions for execution and return immediately.
+     */
+    void execute(final Collection<HandleAction> actions) {
+        if (actions.isEmpty()) {
+            return;
+        }
+        logger.debug("Handling {} message actions", actions.size());
+        final var batches = new LinkedHashMap<Class<?>, List<BatchHandleAction<?>>>();
+        for (final var action : actions) {
+            if (action instanceof BatchHandleAction<?> batchAction) {
+                batches.computeIfAbsent(action.getClass(), c -> new ArrayList<>()).add(batchAction);
+                continue;
+            }
+            final var recipientId = action.getRecipientId();
+            submit(recipientId == null ? action.getClass() : recipientId, () -> executeAction(action));
+        }
+        for (final var batch : batches.entrySet()) {
+            submit(batch.getKey(), () -> executeBatch(batch.getValue()));
+        }
+    }
+
+    /**
+     * Wait until all queued actions have been executed.
+     */
+    void awaitIdle() throws InterruptedException {
+        synchronized (lanes) {
+            while (!lanes.isEmpty()) {
+                lanes.wait();
+            }
+        }
+    }
+
+    private void submit(final Object laneKey, final Runnable task) {
+        synchronized (lanes) {
+            var lane = lanes.get(laneKey);
+            if (lane != null) {
+                lane.add(task);
+                return;
+            }
+            lane = new ArrayDeque<>();
+            lane.add(task);
+            lanes.put(laneKey, lane);
+        }
+        laneExecutor.execute(() -> runLane(laneKey));
+    }
+
+    private void runLane(final Object laneKey) {
+        activeLanes.acquireUninterruptibly();
+        try {
+            while (true) {
+                final Runnable task;
+                synchronized (lanes) {
+                    task = lanes.get(laneKey).poll();
+                    if (task == null) {
+                        lanes.remove(laneKey);
+                        lanes.notifyAll();
+                        return;
+                    }
+                }
+                task.run();
+            }
+        } finally {
+            activeLanes.release();
+        }
+    }
+
+    private void executeAction(final HandleAction action) {
+        logger.debug("Executing action {}", action.getClass().getSimpleName());
+        try {
+            action.execute(context);
+        } catch (Throwable e) {
+            logger.warn("Message action failed.", e);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void executeBatch(final List<BatchHandleAction<?>> actions) {
+        logger.debug("Executing {} actions {}", actions.size(), actions.getFirst().getClass().getSimpleName());
+        try {
+            ((BatchHandleAction) actions.getFirst()).executeBatch(context, actions);
+        } catch (Throwable e) {
+            logger.warn("Message action failed.", e);
+        }
+    }
+}
@@ -55,6 +55,7 @@ import org.whispersystems.signalservice.api.InvalidMessageStructureException;
 import org.whispersystems.signalservice.api.crypto.SignalGroupSessionBuilder;
 import org.whispersystems.signalservice.api.crypto.SignalServiceCipherResult;
 import org.whispersystems.signalservice.api.messages.EnvelopeContentValidator;
+import org.whispersystems.signalservice.api.messages.SignalServiceAttachment;
 import org.whispersystems.signalservice.api.messages.SignalServiceContent;
 import org.whispersystems.signalservice.api.messages.SignalServiceDataMessage;
 import org.whispersystems.signalservice.api.messages.SignalServiceEnvelope;
@@ -89,11 +90,15 @@ public final class IncomingMessageHandler {
     private final SignalAccount account;
     private final SignalDependencies dependencies;
     private final Context context;
+    private final Object[] groupLocks = new Object[64];
 
     public IncomingMessageHandler(final Context context) {
         this.account = context.getAccount();
         this.dependencies = context.getDependencies();
         this.context = context;
+        for (var i = 0; i < groupLocks.length; i++) {
+            groupLocks[i] = new Object();
+        }
     }
 
     public Pair<List<HandleAction>, Exception> handleRetryEnvelope(
@@ -130,6 +135,7 @@ public final class IncomingMessageHandler {
                 account.getIdentityKeyStore().setRetryingDecryption(false);
             }
         }
+        handleProtocolState(envelope, content);
         actions.addAll(checkAndHandleMessage(envelope, content, receiveConfig, handler, null));
         return new Pair<>(actions, null);
     }
@@ -139,6 +145,22 @@ public final class IncomingMessageHandler {
             final ReceiveConfig receiveConfig,
             final Manager.ReceiveMessageHandler handler
     ) {
+        final var decryptedEnvelope = decryptEnvelope(envelope);
+        if (decryptedEnvelope == null) {
+            return new Pair<>(List.of(), null);
+        }
+        return handleDecryptedEnvelope(decryptedEnvelope, receiveConfig, handler);
+    }
+
+    /**
+     * Decrypt the envelope and apply the protocol state changes later envelopes depend on.
+     * Envelopes must be decrypted in the order they were received from the server, the remaining handling can be
+     * done concurrently for envelopes from different senders with
+     * {@link #handleDecryptedEnvelope(DecryptedEnvelope, ReceiveConfig, Manager.ReceiveMessageHandler)}.
+     *
+     * @return the decrypted envelope or null, if the envelope should be dropped
+     */
+    public DecryptedEnvelope decryptEnvelope(final SignalServiceEnvelope envelope) {
         final var actions = new ArrayList<HandleAction>();
         SignalServiceContent content = null;
         Exception exception = null;
@@ -154,7 +176,7 @@ public final class IncomingMessageHandler {
                         .decrypt(envelope.getProto(), envelope.getServerDeliveredTimestamp());
                 content = validate(envelope.getProto(), cipherResult, envelope.getServerDeliveredTimestamp());
                 if (content == null) {
-                    return new Pair<>(List.of(), null);
+                    return null;
                 }
             } catch (ProtocolUntrustedIdentityException e) {
                 final var recipientId = account.getRecipientResolver().resolveRecipient(e.getSender());
@@ -189,15 +211,38 @@ public final class IncomingMessageHandler {
                 exception = e;
             } catch (SelfSendException e) {
                 logger.debug("Dropping unidentified message from self.");
-                return new Pair<>(List.of(), null);
+                return null;
             } catch (Exception e) {
                 logger.debug("Failed to handle incoming message", e);
                 exception = e;
             }
         }
 
-        actions.addAll(checkAndHandleMessage(envelope, content, receiveConfig, handler, exception));
-        return new Pair<>(actions, exception);
+        handleProtocolState(envelope, content);
+
+        final var senderAddress = content != null || (
+                !envelope.isUnidentifiedSender() && envelope.getSourceServiceId().isPresent()
+        ) ? getSender(envelope, content) : null;
+        return new DecryptedEnvelope(envelope,
+                content,
+                actions,
+                exception,
+                senderAddress == null ? null : senderAddress.recipientId(),
+                senderAddress == null ? 0 : senderAddress.deviceId());
+    }
+
+    public Pair<List<HandleAction>, Exception> handleDecryptedEnvelope(
+            final DecryptedEnvelope decryptedEnvelope,
+            final ReceiveConfig receiveConfig,
+            final Manager.ReceiveMessageHandler handler
+    ) {
+        final var actions = new ArrayList<>(decryptedEnvelope.actions());
+        actions.addAll(checkAndHandleMessage(decryptedEnvelope.envelope(),
+                decryptedEnvelope.content(),
+                receiveConfig,
+                handler,
+                decryptedEnvelope.exception()));
+        return new Pair<>(actions, decryptedEnvelope.exception());
     }
 
     private SignalServiceContent validate(
@@ -231,6 +276,41 @@ public final class IncomingMessageHandler {
                 serverDeliveredTimestamp);
     }
 
+    /**
+     * Handle the parts of the message that modify the protocol state, these need to be applied before decrypting the
+     * next envelope.
+     */
+    private void handleProtocolState(final SignalServiceEnvelope envelope, final SignalServiceContent content) {
+        if (content == null) {
+            return;
+        }
+
+        // Store uuid if we don't have it already
+        // address/uuid is validated by unidentified sender certificate
+        boolean handledPniSignature = false;
+        if (content.getPniSignatureMessage().isPresent()) {
+            final var message = content.getPniSignatureMessage().get();
+            final var senderAddress = getSenderAddress(envelope, content);
+            if (senderAddress != null) {
+                handledPniSignature = handlePniSignatureMessage(message, senderAddress);
+            }
+        }
+        if (!handledPniSignature) {
+            account.getRecipientTrustedResolver().resolveRecipientTrusted(content.getSender());
+        }
+
+        if (content.getSenderKeyDistributionMessage().isPresent()) {
+            final var message = content.getSenderKeyDistributionMessage().get();
+            final var senderDeviceAddress = getSender(envelope, content);
+            final var protocolAddress = senderDeviceAddress.serviceId().toProtocolAddress(senderDeviceAddress.deviceId());
+            logger.debug("Received a sender key distribution message for distributionId {} from {}",
+                    message.getDistributionId(),
+                    protocolAddress);
+            new SignalGroupSessionBuilder(dependencies.getSessionLock(),
+                    new GroupSessionBuilder(account.getSenderKeyStore())).process(protocolAddress, message);
+        }
+    }
+
     private List<HandleAction> checkAndHandleMessage(
             final SignalServiceEnvelope envelope,
             final SignalServiceContent content,
@@ -238,22 +318,6 @@ public final class IncomingMessageHandler {
             final Manager.ReceiveMessageHandler handler,
             final Exception exception
     ) {
-        if (content != null) {
-            // Store uuid if we don't have it already
-            // address/uuid is validated by unidentified sender certificate
-
-            boolean handledPniSignature = false;
-            if (content.getPniSignatureMessage().isPresent()) {
-                final var message = content.getPniSignatureMessage().get();
-                final var senderAddress = getSenderAddress(envelope, content);
-                if (senderAddress != null) {
-                    handledPniSignature = handlePniSignatureMessage(message, senderAddress);
-                }
-            }
-            if (!handledPniSignature) {
-                account.getRecipientTrustedResolver().resolveRecipientTrusted(content.getSender());
-            }
-        }
         if (envelope.isReceipt()) {
             final var senderDeviceAddress = getSender(envelope, content);
             final var sender = senderDeviceAddress.serviceId();
@@ -327,16 +391,6 @@ public final class IncomingMessageHandler {
             }
         }
 
-        if (content.getSenderKeyDistributionMessage().isPresent()) {
-            final var message = content.getSenderKeyDistributionMessage().get();
-            final var protocolAddress = senderServiceId.toProtocolAddress(senderDeviceId);
-            logger.debug("Received a sender key distribution message for distributionId {} from {}",
-                    message.getDistributionId(),
-                    protocolAddress);
-            new SignalGroupSessionBuilder(dependencies.getSessionLock(),
-                    new GroupSessionBuilder(account.getSenderKeyStore())).process(protocolAddress, message);
-        }
-
         if (content.getDecryptionErrorMessage().isPresent()) {
             var message = content.getDecryptionErrorMessage().get();
             logger.debug("Received a decryption error message from {}.{} (resend request for {})",
@@ -902,26 +956,14 @@ public final class IncomingMessageHandler {
             }
         }
         if (!receiveConfig.ignoreAttachments()) {
+            final var downloads = new ArrayList<SignalServiceAttachment>();
             if (message.getAttachments().isPresent()) {
-                for (var attachment : message.getAttachments().get()) {
-                    context.getAttachmentHelper().downloadAttachment(attachment);
-                    if (attachment.isPointer()) {
-                        final var file = context.getAttachmentHelper().getAttachmentFile(attachment.asPointer());
-                        if (MimeUtils.LONG_TEXT.equals(attachment.getContentType()) && attachment.isPointer()) {
-                            try {
-                                final var longText = Files.readString(file.toPath());
-                                longTexts.put(attachment.asPointer().getRemoteId().toString(), longText);
-                            } catch (IOException e) {
-                                logger.warn("Failed to read long text attachment, ignoring", e);
-                            }
-                        }
-                    }
-                }
+                downloads.addAll(message.getAttachments().get());
             }
             if (message.getSharedContacts().isPresent()) {
                 for (var contact : message.getSharedContacts().get()) {
                     if (contact.getAvatar().isPresent()) {
-                        context.getAttachmentHelper().downloadAttachment(contact.getAvatar().get().getAttachment());
+                        downloads.add(contact.getAvatar().get().getAttachment());
                     }
                 }
             }
@@ -929,7 +971,7 @@ public final class IncomingMessageHandler {
                 final var previews = message.getPreviews().get();
                 for (var preview : previews) {
                     if (preview.getImage().isPresent()) {
-                        context.getAttachmentHelper().downloadAttachment(preview.getImage().get());
+                        downloads.add(preview.getImage().get());
                     }
                 }
             }
@@ -940,7 +982,23 @@ public final class IncomingMessageHandler {
                     for (var quotedAttachment : quote.getAttachments()) {
                         final var thumbnail = quotedAttachment.getThumbnail();
                         if (thumbnail != null) {
-                            context.getAttachmentHelper().downloadAttachment(thumbnail);
+                            downloads.add(thumbnail);
+                        }
+                    }
+                }
+            }
+            // The attachments are downloaded in parallel, but stored before the message is passed to the handlers
+            context.getAttachmentHelper().downloadAttachments(downloads);
+
+            if (message.getAttachments().isPresent()) {
+                for (var attachment : message.getAttachments().get()) {
+                    if (MimeUtils.LONG_TEXT.equals(attachment.getContentType()) && attachment.isPointer()) {
+                        final var file = context.getAttachmentHelper().getAttachmentFile(attachment.asPointer());
+                        try {
+                            final var longText = Files.readString(file.toPath());
+                            longTexts.put(attachment.asPointer().getRemoteId().toString(), longText);
+                        } catch (IOException e) {
+                            logger.warn("Failed to read long text attachment, ignoring", e);
                         }
                     }
                 }
@@ -998,18 +1056,20 @@ public final class IncomingMessageHandler {
         }
 
         if (!receiveConfig.ignoreAttachments()) {
+            final var downloads = new ArrayList<SignalServiceAttachment>();
             if (message.getFileAttachment().isPresent()) {
-                context.getAttachmentHelper().downloadAttachment(message.getFileAttachment().get());
+                downloads.add(message.getFileAttachment().get());
             }
             if (message.getTextAttachment().isPresent()) {
                 final var textAttachment = message.getTextAttachment().get();
                 if (textAttachment.getPreview().isPresent()) {
                     final var preview = textAttachment.getPreview().get();
                     if (preview.getImage().isPresent()) {
-                        context.getAttachmentHelper().downloadAttachment(preview.getImage().get());
+                        downloads.add(preview.getImage().get());
                     }
                 }
             }
+            context.getAttachmentHelper().downloadAttachments(downloads);
         }
 
         if (message.getProfileKey().isPresent()) {
@@ -1021,12 +1081,16 @@ public final class IncomingMessageHandler {
 
     private void handleGroupV2Context(final SignalServiceGroupV2 groupContext, final boolean ignoreAvatars) {
         final var groupMasterKey = groupContext.getMasterKey();
+        final var groupId = GroupUtils.getGroupIdV2(groupMasterKey);
 
-        context.getGroupHelper()
-                .getOrMigrateGroup(groupMasterKey,
-                        groupContext.getRevision(),
-                        groupContext.hasSignedGroupChange() ? groupContext.getSignedGroupChange() : null,
-                        ignoreAvatars);
+        // Envelopes from different senders may be handled concurrently, serialize updates of the same group
+        synchronized (groupLocks[Math.floorMod(groupId.hashCode(), groupLocks.length)]) {
+            context.getGroupHelper()
+                    .getOrMigrateGroup(groupMasterKey,
+                            groupContext.getRevision(),
+                            groupContext.hasSignedGroupChange() ? groupContext.getSignedGroupChange() : null,
+                            ignoreAvatars);
+        }
     }
 
     private void handleIncomingProfileKey(final byte[] profileKeyBytes, final RecipientId source) {
@@ -1081,4 +1145,17 @@ public final class IncomingMessageHandler {
     }
 
     private record DeviceAddress(RecipientId recipientId, ServiceId serviceId, int deviceId) {}
+
+    /**
+     * @param sender       the sender of the envelope, or null if it couldn't be determined
+     * @param senderDevice the device id of the sender
+     */
+    public record DecryptedEnvelope(
+            SignalServiceEnvelope envelope,
+            SignalServiceContent content,
+            List<HandleAction> actions,
+            Exception exception,
+            RecipientId sender,
+            int senderDevice
+    ) {}
 }
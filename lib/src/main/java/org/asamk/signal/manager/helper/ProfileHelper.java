@@ -9,6 +9,7 @@ import org.asamk.signal.manager.internal.SignalDependencies;
 import org.asamk.signal.manager.jobs.SyncStorageJob;
 import org.asamk.signal.manager.storage.SignalAccount;
 import org.asamk.signal.manager.storage.groups.GroupInfoV2;
+import org.asamk.signal.manager.storage.profiles.ProfileUpdate;
 import org.asamk.signal.manager.storage.recipients.RecipientAddress;
 import org.asamk.signal.manager.storage.recipients.RecipientId;
 import org.asamk.signal.manager.util.IOUtils;
@@ -31,32 +32,49 @@ import org.whispersystems.signalservice.api.profiles.SignalServiceProfile;
 import org.whispersystems.signalservice.api.push.SignalServiceAddress;
 import org.whispersystems.signalservice.api.push.exceptions.NotFoundException;
 import org.whispersystems.signalservice.api.push.exceptions.PushNetworkException;
+import org.whispersystems.signalservice.api.push.exceptions.RateLimitException;
 import org.whispersystems.signalservice.api.services.ProfileService;
 import org.whispersystems.signalservice.api.util.ExpiringProfileCredentialUtil;
 
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import io.reactivex.rxjava3.core.Flowable;
-import io.reactivex.rxjava3.core.Maybe;
 import io.reactivex.rxjava3.core.Single;
 
 public final class ProfileHelper {
 
     private static final Logger logger = LoggerFactory.getLogger(ProfileHelper.class);
 
+    private static final long PROFILE_CACHE_DURATION = 24 * 60 * 60 * 1000;
+    private static final int MAX_CONCURRENT_PROFILE_FETCHES = 10;
+    private static final int MAX_PROFILE_UPDATES_PER_TRANSACTION = 100;
+    private static final int MAX_RATE_LIMIT_RETRIES = 3;
+    private static final long DEFAULT_RATE_LIMIT_BACKOFF = 60 * 1000;
+
     private final SignalAccount account;
     private final SignalDependencies dependencies;
     private final Context context;
 
+    private final Map<Long, CompletableFuture<Void>> pendingProfileFetches = new ConcurrentHashMap<>();
+    private volatile long rateLimitedUntil;
+
     public ProfileHelper(final Context context) {
         this.account = context.getAccount();
         this.dependencies = context.getDependencies();
@@ -112,15 +130,17 @@ public final class ProfileHelper {
     }
 
     public List<ExpiringProfileKeyCredential> getExpiringProfileKeyCredential(List<RecipientId> recipientIds) {
-        final var profileFetches = Flowable.fromIterable(recipientIds)
-                .filter(recipientId -> !ExpiringProfileCredentialUtil.isValid(account.getProfileStore()
+        final var profileStore = account.getProfileStore();
+        final var outdatedRecipientIds = recipientIds.stream()
+                .filter(recipientId -> !ExpiringProfileCredentialUtil.isValid(profileStore
                         .getExpiringProfileKeyCredential(recipientId)))
-                .map(recipientId -> retrieveProfile(recipientId,
-                        SignalServiceProfile.RequestType.PROFILE_AND_CREDENTIAL,
-                        false).onErrorComplete());
-        Maybe.merge(profileFetches, 10).blockingSubscribe();
+                .distinct()
+                .toList();
+        fetchAndStoreProfiles(outdatedRecipientIds,
+                SignalServiceProfile.RequestType.PROFILE_AND_CREDENTIAL,
+                recipientId -> {});
 
-        return recipientIds.stream().map(r -> account.getProfileStore().getExpiringProfileKeyCredential(r)).toList();
+        return recipientIds.stream().map(profileStore::getExpiringProfileKeyCredential).toList();
     }
 
     public ExpiringProfileKeyCredential getExpiringProfileKeyCredential(RecipientId recipientId) {
@@ -244,14 +264,9 @@ public final class ProfileHelper {
     }
 
     private List<Profile> getRecipientProfiles(Collection<RecipientId> recipientIds, boolean force) {
-        final var profileStore = account.getProfileStore();
-        final var profileFetches = Flowable.fromIterable(recipientIds)
-                .filter(recipientId -> force || isProfileRefreshRequired(profileStore.getProfile(recipientId)))
-                .map(recipientId -> retrieveProfile(recipientId,
-                        SignalServiceProfile.RequestType.PROFILE,
-                        false).onErrorComplete());
-        Maybe.merge(profileFetches, 10).blockingSubscribe();
+        refreshProfiles(recipientIds, force);
 
+        final var profileStore = account.getProfileStore();
         return recipientIds.stream().map(profileStore::getProfile).toList();
     }
 
@@ -262,15 +277,92 @@ public final class ProfileHelper {
             return profile;
         }
 
+        refreshProfiles(List.of(recipientId), true);
+
+        return account.getProfileStore().getProfile(recipientId);
+    }
+
+    /**
+     * Retrieve the profiles of the given recipients, skipping those that were refreshed recently unless forced.
+     * <p>
+     * Profiles that are already being retrieved by another caller are not requested a second time, instead this
+     * waits until the other retrieval is stored.
+     */
+    private void refreshProfiles(Collection<RecipientId> recipientIds, boolean force) {
+        final var uniqueRecipientIds = new LinkedHashMap<Long, RecipientId>();
+        for (final var recipientId : recipientIds) {
+            uniqueRecipientIds.putIfAbsent(recipientId.id(), recipientId);
+        }
+        if (!force && !uniqueRecipientIds.isEmpty()) {
+            final var freshRecipientIds = account.getProfileStore()
+                    .getRecipientIdsWithProfileUpdatedSince(uniqueRecipientIds.values(),
+                            System.currentTimeMillis() - PROFILE_CACHE_DURATION);
+            for (final var recipientId : freshRecipientIds) {
+                uniqueRecipientIds.remove(recipientId.id());
+            }
+        }
+        if (uniqueRecipientIds.isEmpty()) {
+            return;
+        }
+
+        final var ownFetches = new HashMap<Long, CompletableFuture<Void>>();
+        final var otherFetches = new ArrayList<CompletableFuture<Void>>();
+        for (final var recipientId : uniqueRecipientIds.values()) {
+            final var fetch = new CompletableFuture<Void>();
+            final var pendingFetch = pendingProfileFetches.putIfAbsent(recipientId.id(), fetch);
+            if (pendingFetch == null) {
+                ownFetches.put(recipientId.id(), fetch);
+            } else {
+                otherFetches.add(pendingFetch);
+            }
+        }
+
         try {
-            blockingGetProfile(retrieveProfile(recipientId, SignalServiceProfile.RequestType.PROFILE, false));
-        } catch (IOException e) {
-            logger.warn("Failed to retrieve profile for {}, ignoring",
-                    context.getRecipientHelper().resolveSignalServiceAddress(recipientId).getIdentifier(),
-                    e);
+            final var recipientsToFetch = uniqueRecipientIds.values()
+                    .stream()
+                    .filter(recipientId -> ownFetches.containsKey(recipientId.id()))
+                    .toList();
+            fetchAndStoreProfiles(recipientsToFetch,
+                    SignalServiceProfile.RequestType.PROFILE,
+                    recipientId -> completePendingFetch(recipientId.id(), ownFetches.get(recipientId.id())));
+        } finally {
+            ownFetches.forEach(this::completePendingFetch);
         }
+        otherFetches.forEach(CompletableFuture::join);
+    }
 
-        return account.getProfileStore().getProfile(recipientId);
+    private void completePendingFetch(final long recipientId, final CompletableFuture<Void> fetch) {
+        pendingProfileFetches.remove(recipientId, fetch);
+        fetch.complete(null);
+    }
+
+    /**
+     * Retrieve profiles with a limited number of concurrent requests and store the results in batches.
+     *
+     * @param onStored called for each recipient once its profile has been stored
+     */
+    private void fetchAndStoreProfiles(
+            final Collection<RecipientId> recipientIds,
+            final SignalServiceProfile.RequestType requestType,
+            final Consumer<RecipientId> onStored
+    ) {
+        if (recipientIds.isEmpty()) {
+            return;
+        }
+        logger.debug("Retrieving {} profiles", recipientIds.size());
+        Flowable.fromIterable(recipientIds)
+                .flatMapSingle(recipientId -> fetchProfileOrFailure(recipientId, requestType),
+                        false,
+                        MAX_CONCURRENT_PROFILE_FETCHES)
+                .buffer(1, TimeUnit.SECONDS, MAX_PROFILE_UPDATES_PER_TRANSACTION)
+                .filter(profileUpdates -> !profileUpdates.isEmpty())
+                .blockingForEach(profileUpdates -> {
+                    logger.trace("Storing {} retrieved profiles", profileUpdates.size());
+                    account.getProfileStore().storeProfiles(profileUpdates);
+                    for (final var profileUpdate : profileUpdates) {
+                        onStored.accept(profileUpdate.recipientId());
+                    }
+                });
     }
 
     private boolean isProfileRefreshRequired(final Profile profile) {
@@ -281,7 +373,7 @@ public final class ProfileHelper {
         final var now = System.currentTimeMillis();
         // DS: on high load querying profiles creates rate limiting issues, let's bump it to 24 for now
         // TODO: move this value to settings
-        return now - profile.getLastUpdateTimestamp() >= 24 * 60 * 60 * 1000;
+        return now - profile.getLastUpdateTimestamp() >= PROFILE_CACHE_DURATION;
     }
 
     public void downloadProfileAvatar(
@@ -300,7 +392,7 @@ public final class ProfileHelper {
         }
     }
 
-    private ProfileAndCredential blockingGetProfile(Single<ProfileAndCredential> profile) throws IOException {
+    private ProfileUpdate blockingGetProfile(Single<ProfileUpdate> profile) throws IOException {
         try {
             return profile.blockingGet();
         } catch (RuntimeException e) {
@@ -314,7 +406,46 @@ public final class ProfileHelper {
         }
     }
 
-    private Single<ProfileAndCredential> retrieveProfile(
+    private Single<ProfileUpdate> retrieveProfile(
+            RecipientId recipientId,
+            SignalServiceProfile.RequestType requestType,
+            final boolean ignoreAvatars
+    ) {
+        final var profileStore = account.getProfileStore();
+        return fetchProfile(recipientId, requestType, ignoreAvatars).doOnSuccess(profileUpdate -> {
+            logger.trace("Storing profile");
+            profileStore.storeProfiles(List.of(profileUpdate));
+        }).doOnError(e -> profileStore.storeProfiles(List.of(getFailedProfileUpdate(recipientId, e))));
+    }
+
+    /**
+     * Retrieve a profile without storing it.
+     * Requests that are rate limited by the server are retried after the requested delay. Until then other profile
+     * requests are delayed as well.
+     */
+    private Single<ProfileUpdate> fetchProfile(
+            RecipientId recipientId,
+            SignalServiceProfile.RequestType requestType,
+            final boolean ignoreAvatars
+    ) {
+        return Single.defer(() -> {
+            final var profileUpdate = fetchProfileOnce(recipientId, requestType, ignoreAvatars);
+            final var backoff = rateLimitedUntil - System.currentTimeMillis();
+            return backoff > 0 ? profileUpdate.delaySubscription(backoff, TimeUnit.MILLISECONDS) : profileUpdate;
+        }).retry((attempt, e) -> {
+            if (!(e instanceof RateLimitException rateLimitException) || attempt > MAX_RATE_LIMIT_RETRIES) {
+                return false;
+            }
+            final var retryAfter = rateLimitException.getRetryAfterMilliseconds().orElse(DEFAULT_RATE_LIMIT_BACKOFF);
+            rateLimitedUntil = Math.max(rateLimitedUntil, System.currentTimeMillis() + retryAfter);
+            logger.debug("Profile retrieval for {} was rate limited, retrying in {}ms", recipientId, retryAfter);
+            return true;
+        }).doOnError(e -> logger.warn("Failed to retrieve profile for {}, ignoring",
+                context.getRecipientHelper().resolveSignalServiceAddress(recipientId).getIdentifier(),
+                e));
+    }
+
+    private Single<ProfileUpdate> fetchProfileOnce(
             RecipientId recipientId,
             SignalServiceProfile.RequestType requestType,
             final boolean ignoreAvatars
@@ -327,17 +458,17 @@ public final class ProfileHelper {
                 recipientId,
                 profileKey.isPresent() ? "with profile key" : "without profile key");
         final var address = context.getRecipientHelper().resolveSignalServiceAddress(recipientId);
-        return retrieveProfile(address, profileKey, unidentifiedAccess, requestType).doOnSuccess(p -> {
+        return retrieveProfile(address, profileKey, unidentifiedAccess, requestType).map(p -> {
             logger.trace("Got new profile for {}", recipientId);
             final var encryptedProfile = p.getProfile();
 
-            if (requestType == SignalServiceProfile.RequestType.PROFILE_AND_CREDENTIAL
-                    || !ExpiringProfileCredentialUtil.isValid(account.getProfileStore()
-                    .getExpiringProfileKeyCredential(recipientId))) {
-                logger.trace("Storing profile credential");
-                final var profileKeyCredential = p.getExpiringProfileKeyCredential().orElse(null);
-                account.getProfileStore().storeExpiringProfileKeyCredential(recipientId, profileKeyCredential);
-            }
+            final var updateProfileKeyCredential =
+                    requestType == SignalServiceProfile.RequestType.PROFILE_AND_CREDENTIAL
+                            || !ExpiringProfileCredentialUtil.isValid(account.getProfileStore()
+                            .getExpiringProfileKeyCredential(recipientId));
+            final var profileKeyCredential = updateProfileKeyCredential
+                    ? p.getExpiringProfileKeyCredential().orElse(null)
+                    : null;
 
             final var profile = account.getProfileStore().getProfile(recipientId);
 
@@ -382,31 +513,34 @@ public final class ProfileHelper {
                         context.getRecipientHelper().resolveSignalServiceAddress(recipientId).getIdentifier());
             }
 
-            logger.trace("Storing profile");
-            account.getProfileStore().storeProfile(recipientId, newProfile);
-            account.getRecipientStore().markRegistered(recipientId, true);
-
             logger.trace("Done handling retrieved profile");
-        }).doOnError(e -> {
-            logger.warn("Failed to retrieve profile for {}, ignoring",
-                    context.getRecipientHelper().resolveSignalServiceAddress(recipientId).getIdentifier(),
-                    e);
-            final var profile = account.getProfileStore().getProfile(recipientId);
-            final var newProfile = (
-                    profile == null ? Profile.newBuilder() : Profile.newBuilder(profile)
-            ).withLastUpdateTimestamp(System.currentTimeMillis())
-                    .withUnidentifiedAccessMode(Profile.UnidentifiedAccessMode.UNKNOWN)
-                    .withCapabilities(Set.of())
-                    .build();
-            if (e instanceof NotFoundException) {
-                logger.debug("Marking recipient {} as unregistered after 404 profile fetch.", recipientId);
-                account.getRecipientStore().markRegistered(recipientId, false);
-            }
-
-            account.getProfileStore().storeProfile(recipientId, newProfile);
+            return new ProfileUpdate(recipientId, newProfile, updateProfileKeyCredential, profileKeyCredential, true);
         });
     }
 
+    private Single<ProfileUpdate> fetchProfileOrFailure(
+            final RecipientId recipientId,
+            final SignalServiceProfile.RequestType requestType
+    ) {
+        return fetchProfile(recipientId, requestType, false).onErrorReturn(e -> getFailedProfileUpdate(recipientId, e));
+    }
+
+    private ProfileUpdate getFailedProfileUpdate(final RecipientId recipientId, final Throwable e) {
+        final var profile = account.getProfileStore().getProfile(recipientId);
+        final var newProfile = (
+                profile == null ? Profile.newBuilder() : Profile.newBuilder(profile)
+        ).withLastUpdateTimestamp(System.currentTimeMillis())
+                .withUnidentifiedAccessMode(Profile.UnidentifiedAccessMode.UNKNOWN)
+                .withCapabilities(Set.of())
+                .build();
+        Boolean registered = null;
+        if (e instanceof NotFoundException) {
+            logger.debug("Marking recipient {} as unregistered after 404 profile fetch.", recipientId);
+            registered = false;
+        }
+        return new ProfileUpdate(recipientId, newProfile, false, null, registered);
+    }
+
     private Single<ProfileAndCredential> retrieveProfile(
             SignalServiceAddress address,
             Optional<ProfileKey> profileKey,
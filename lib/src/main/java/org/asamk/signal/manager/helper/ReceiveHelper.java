@@ -2,6 +2,7 @@ package org.asamk.signal.manager.helper;
 
 import org.asamk.signal.manager.Manager;
 import org.asamk.signal.manager.actions.HandleAction;
+import org.asamk.signal.manager.api.Pair;
 import org.asamk.signal.manager.api.ReceiveConfig;
 import org.asamk.signal.manager.api.UntrustedIdentityException;
 import org.asamk.signal.manager.internal.SignalDependencies;
@@ -9,6 +10,7 @@ import org.asamk.signal.manager.jobs.CleanOldPreKeysJob;
 import org.asamk.signal.manager.storage.SignalAccount;
 import org.asamk.signal.manager.storage.messageCache.CachedMessage;
 import org.asamk.signal.manager.storage.recipients.RecipientAddress;
+import org.asamk.signal.manager.storage.recipients.RecipientId;
 import org.signal.core.models.ServiceId;
 import org.signal.core.models.ServiceId.ACI;
 import org.slf4j.Logger;
@@ -20,7 +22,7 @@ import org.whispersystems.signalservice.api.websocket.WebSocketUnavailableExcept
 
 import java.io.IOException;
 import java.time.Duration;
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -35,13 +37,15 @@ public class ReceiveHelper {
 
     private static final Logger logger = LoggerFactory.getLogger(ReceiveHelper.class);
     private static final int MAX_BACKOFF_COUNTER = 9;
+    private static final int MAX_CONCURRENT_SENDERS = Math.max(2, Runtime.getRuntime().availableProcessors());
 
     private final SignalAccount account;
     private final SignalDependencies dependencies;
     private final Context context;
+    private final HandleActionExecutor actionExecutor;
 
-    private ReceiveConfig receiveConfig = new ReceiveConfig(false, false, false, false, false);
-    private boolean hasCaughtUpWithOldMessages = false;
+    private ReceiveConfig receiveConfig = new ReceiveConfig(false, false, false, false, false, 1);
+    private volatile boolean hasCaughtUpWithOldMessages = false;
     private volatile boolean isWaitingForMessage = false;
     private volatile boolean shouldStop = false;
     private Callable authenticationFailureListener;
@@ -51,6 +55,7 @@ public class ReceiveHelper {
         this.account = context.getAccount();
         this.dependencies = context.getDependencies();
         this.context = context;
+        this.actionExecutor = new HandleActionExecutor(context, account.getSendConcurrency());
     }
 
     public void setReceiveConfig(final ReceiveConfig receiveConfig) {
@@ -106,12 +111,15 @@ public class ReceiveHelper {
         signalWebSocket.connect();
         signalWebSocket.registerKeepAliveToken("receive");
 
+        final var pipeline = new ReceivePipeline(MAX_CONCURRENT_SENDERS);
         try {
-            receiveMessagesInternal(signalWebSocket, timeout, maxMessages, handler, queuedActions);
+            receiveMessagesInternal(signalWebSocket, timeout, maxMessages, pipeline, handler, queuedActions);
         } finally {
+            pipeline.close();
             hasCaughtUpWithOldMessages = false;
-            handleQueuedActions(queuedActions.keySet());
-            queuedActions.clear();
+            actionExecutor.execute(drainQueuedActions(queuedActions));
+            // Actions may send messages, wait for them before disconnecting
+            awaitQueuedActions();
             signalWebSocket.removeKeepAliveToken("receive");
             signalWebSocket.disconnect();
             webSocketStateDisposable.dispose();
@@ -122,20 +130,26 @@ public class ReceiveHelper {
             final SignalWebSocket.AuthenticatedWebSocket signalWebSocket,
             Optional<Duration> timeout,
             Integer maxMessages,
+            final ReceivePipeline pipeline,
             Manager.ReceiveMessageHandler handler,
             final Map<HandleAction, HandleAction> queuedActions
     ) throws IOException {
         int remainingMessages = maxMessages == null ? -1 : maxMessages;
         var backOffCounter = 0;
         isWaitingForMessage = false;
+        final var deliveryHandler = pipeline.deliverTo(handler);
 
         logger.debug("Start receiving messages");
         while (!shouldStop && remainingMessages != 0) {
             if (account.getNeedsToRetryFailedMessages()) {
-                retryFailedReceivedMessages(handler);
+                try {
+                    pipeline.awaitIdle();
+                } catch (InterruptedException e) {
+                    break;
+                }
+                retryFailedReceivedMessages(deliveryHandler);
             }
-            SignalServiceEnvelope envelope;
-            final CachedMessage[] cachedMessage = {null};
+            final List<CachedMessage> cachedMessages = new ArrayList<>();
             final var nowMillis = System.currentTimeMillis();
             if (nowMillis - account.getLastReceiveTimestamp() > 4 * 60 * 60 * 1000) {
                 account.setLastReceiveTimestamp(nowMillis);
@@ -147,9 +161,11 @@ public class ReceiveHelper {
                 if (timeoutMs <= 0L) {
                     return;
                 }
-                var queueNotEmpty = signalWebSocket.readMessageBatch(timeoutMs, 1, batch -> {
+                final var batchSize = Math.max(1, receiveConfig.batchSize());
+                var queueNotEmpty = signalWebSocket.readMessageBatch(timeoutMs, batchSize, batch -> {
                     logger.debug("Retrieved {} envelopes!", batch.size());
                     isWaitingForMessage = false;
+                    final var envelopes = new ArrayList<Pair<SignalServiceEnvelope, RecipientId>>(batch.size());
                     for (final var it : batch) {
                         SignalServiceEnvelope envelope1 = new SignalServiceEnvelope(it.getEnvelope(),
                                 it.getServerDeliveredTimestamp());
@@ -158,8 +174,11 @@ public class ReceiveHelper {
                                 .map(s -> account.getRecipientResolver().resolveRecipient(s))
                                 .orElse(null);
                         logger.trace("Storing new message from {}", recipientId);
-                        // store message on disk, before acknowledging receipt to the server
-                        cachedMessage[0] = account.getMessageCache().cacheMessage(envelope1, recipientId);
+                        envelopes.add(new Pair<>(envelope1, recipientId));
+                    }
+                    // store the whole batch on disk, before acknowledging receipt to the server
+                    cachedMessages.addAll(account.getMessageCache().cacheMessages(envelopes));
+                    for (final var it : batch) {
                         try {
                             signalWebSocket.sendAck(it);
                         } catch (IOException e) {
@@ -172,14 +191,14 @@ public class ReceiveHelper {
 
                 if (queueNotEmpty) {
                     if (remainingMessages > 0) {
-                        remainingMessages -= 1;
+                        remainingMessages = Math.max(0, remainingMessages - cachedMessages.size());
                     }
-                    envelope = cachedMessage[0].loadEnvelope();
                     logger.debug("New message received from server");
                 } else {
                     logger.debug("Received indicator that server queue is empty");
-                    handleQueuedActions(queuedActions.keySet());
-                    queuedActions.clear();
+                    pipeline.awaitIdle();
+                    // Actions are executed in the background, so new envelopes are handled in the meantime
+                    actionExecutor.execute(drainQueuedActions(queuedActions));
 
                     context.getJobExecutor().enqueueJob(new CleanOldPreKeysJob());
                     hasCaughtUpWithOldMessages = true;
@@ -194,6 +213,8 @@ public class ReceiveHelper {
                 } else {
                     throw e;
                 }
+            } catch (InterruptedException e) {
+                break;
             } catch (IOException e) {
                 logger.debug("Pipe unexpectedly unavailable: {}", e.getMessage());
                 if (e instanceof WebSocketUnavailableException || "Connection closed!".equals(e.getMessage())) {
@@ -224,44 +245,95 @@ public class ReceiveHelper {
             }
 
             try {
-                final var result = context.getIncomingMessageHandler().handleEnvelope(envelope, receiveConfig, handler);
-                for (final var h : result.first()) {
-                    final var existingAction = queuedActions.get(h);
-                    if (existingAction == null) {
-                        queuedActions.put(h, h);
-                    } else {
-                        existingAction.mergeOther(h);
-                    }
+                for (final var cachedMessage : cachedMessages) {
+                    decryptAndSubmit(pipeline, cachedMessage, deliveryHandler, queuedActions);
                 }
-                final var exception = result.second();
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
 
-                if (hasCaughtUpWithOldMessages) {
-                    handleQueuedActions(queuedActions.keySet());
-                    queuedActions.clear();
+    /**
+     * Decrypt the envelope in order of arrival and hand the remaining handling over to the sender's pipeline lane.
+     */
+    private void decryptAndSubmit(
+            final ReceivePipeline pipeline,
+            final CachedMessage cachedMessage,
+            final Manager.ReceiveMessageHandler handler,
+            final Map<HandleAction, HandleAction> queuedActions
+    ) throws InterruptedException {
+        final var envelope = cachedMessage.loadEnvelope();
+        if (envelope == null) {
+            cachedMessage.delete();
+            return;
+        }
+
+        final IncomingMessageHandler.DecryptedEnvelope decryptedEnvelope;
+        try {
+            decryptedEnvelope = context.getIncomingMessageHandler().decryptEnvelope(envelope);
+        } catch (Exception e) {
+            logger.error("Unknown error when handling messages", e);
+            return;
+        }
+        if (decryptedEnvelope == null) {
+            cachedMessage.delete();
+            return;
+        }
+
+        pipeline.submit(decryptedEnvelope.sender(),
+                decryptedEnvelope.senderDevice(),
+                () -> handleDecryptedEnvelope(decryptedEnvelope, cachedMessage, handler, queuedActions));
+    }
+
+    private void handleDecryptedEnvelope(
+            final IncomingMessageHandler.DecryptedEnvelope decryptedEnvelope,
+            final CachedMessage cachedMessage,
+            final Manager.ReceiveMessageHandler handler,
+            final Map<HandleAction, HandleAction> queuedActions
+    ) {
+        final var envelope = decryptedEnvelope.envelope();
+        final var result = context.getIncomingMessageHandler()
+                .handleDecryptedEnvelope(decryptedEnvelope, receiveConfig, handler);
+        synchronized (queuedActions) {
+            for (final var h : result.first()) {
+                final var existingAction = queuedActions.get(h);
+                if (existingAction == null) {
+                    queuedActions.put(h, h);
+                } else {
+                    existingAction.mergeOther(h);
                 }
-                if (cachedMessage[0] != null) {
-                    if (exception instanceof UntrustedIdentityException) {
-                        logger.debug("Keeping message with untrusted identity in message cache");
-                        final var address = ((UntrustedIdentityException) exception).getSender();
-                        if (envelope.getSourceServiceId().isEmpty() && address.aci().isPresent()) {
-                            final var recipientId = account.getRecipientResolver()
-                                    .resolveRecipient(ACI.parseOrThrow(address.aci().get()));
-                            try {
-                                cachedMessage[0] = account.getMessageCache()
-                                        .replaceSender(cachedMessage[0], recipientId);
-                            } catch (IOException ioException) {
-                                logger.warn("Failed to move cached message to recipient folder: {}",
-                                        ioException.getMessage(),
-                                        ioException);
-                            }
-                        }
-                    } else {
-                        cachedMessage[0].delete();
-                    }
+            }
+        }
+        final var exception = result.second();
+
+        if (hasCaughtUpWithOldMessages) {
+            actionExecutor.execute(drainQueuedActions(queuedActions));
+        }
+        if (exception instanceof UntrustedIdentityException) {
+            logger.debug("Keeping message with untrusted identity in message cache");
+            final var address = ((UntrustedIdentityException) exception).getSender();
+            if (envelope.getSourceServiceId().isEmpty() && address.aci().isPresent()) {
+                final var recipientId = account.getRecipientResolver()
+                        .resolveRecipient(ACI.parseOrThrow(address.aci().get()));
+                try {
+                    account.getMessageCache().replaceSender(cachedMessage, recipientId);
+                } catch (IOException ioException) {
+                    logger.warn("Failed to move cached message to recipient folder: {}",
+                            ioException.getMessage(),
+                            ioException);
                 }
-            } catch (Exception e) {
-                logger.error("Unknown error when handling messages", e);
             }
+        } else {
+            cachedMessage.delete();
+        }
+    }
+
+    private static List<HandleAction> drainQueuedActions(final Map<HandleAction, HandleAction> queuedActions) {
+        synchronized (queuedActions) {
+            final var actions = List.copyOf(queuedActions.keySet());
+            queuedActions.clear();
+            return actions;
         }
     }
 
@@ -273,7 +345,8 @@ public class ReceiveHelper {
                 queuedActions.addAll(actions);
             }
         }
-        handleQueuedActions(queuedActions);
+        actionExecutor.execute(queuedActions);
+        awaitQueuedActions();
         account.setNeedsToRetryFailedMessages(false);
     }
 
@@ -317,15 +390,11 @@ public class ReceiveHelper {
         return actions;
     }
 
-    private void handleQueuedActions(final Collection<HandleAction> queuedActions) {
-        logger.debug("Handling message actions");
-        for (var action : queuedActions) {
-            logger.debug("Executing action {}", action.getClass().getSimpleName());
-            try {
-                action.execute(context);
-            } catch (Throwable e) {
-                logger.warn("Message action failed.", e);
-            }
+    private void awaitQueuedActions() {
+        try {
+            actionExecutor.awaitIdle();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
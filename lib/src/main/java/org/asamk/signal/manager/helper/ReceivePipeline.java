@@ -0,0 +1,146 @@
+package org.asamk.signal.manager.helper;
+
+import org.asamk.signal.manager.Manager;
+import org.asamk.signal.manager.storage.recipients.RecipientId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Handles decrypted envelopes concurrently, while keeping the order of envelopes from the same sender device.
+ * <p>
+ * Each sender device gets its own lane, lanes are run on virtual threads with bounded concurrency.
+ * Calls to the receive handler are serialized on a separate delivery thread, so a slow handler doesn't stall the
+ * handling of further envelopes.
+ */
+class ReceivePipeline implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReceivePipeline.class);
+
+    private static final int MAX_PENDING_ENVELOPES = 1000;
+    private static final int MAX_PENDING_DELIVERIES = 1000;
+
+    private final Map<LaneKey, Queue<Runnable>> lanes = new HashMap<>();
+    private final Semaphore pendingEnvelopes = new Semaphore(MAX_PENDING_ENVELOPES);
+    private final Semaphore pendingDeliveries = new Semaphore(MAX_PENDING_DELIVERIES);
+    private final Semaphore activeLanes;
+    private final ExecutorService laneExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final ExecutorService deliveryExecutor = Executors.newSingleThreadExecutor(Thread.ofVirtual()
+            .name("receive-delivery")
+            .factory());
+
+    ReceivePipeline(final int maxConcurrentLanes) {
+        this.activeLanes = new Semaphore(maxConcurrentLanes);
+    }
+
+    /**
+     * Wrap the handler, so that it's called on the delivery thread in the order the envelopes were handled.
+     */
+    Manager.ReceiveMessageHandler deliverTo(final Manager.ReceiveMessageHandler handler) {
+        return (envelope, e) -> {
+            pendingDeliveries.acquireUninterruptibly();
+            deliveryExecutor.execute(() -> {
+                try {
+                    handler.handleMessage(envelope, e);
+                } catch (Throwable ex) {
+                    logger.warn("Message handler failed, ignoring", ex);
+                } finally {
+                    pendingDeliveries.release();
+                }
+            });
+        };
+    }
+
+    /**
+     * Queue a task in the lane of the given sender device.
+     * Blocks if too many envelopes are still pending.
+     *
+     * @param sender the sender of the envelope, envelopes without known sender share a single lane
+     */
+    void submit(final RecipientId sender, final int senderDevice, final Runnable task) throws InterruptedException {
+        pendingEnvelopes.acquire();
+        final var key = sender == null ? new LaneKey(-1, 0) : new LaneKey(sender.id(), senderDevice);
+        synchronized (lanes) {
+            var lane = lanes.get(key);
+            if (lane != null) {
+                lane.add(task);
+                return;
+            }
+            lane = new ArrayDeque<>();
+            lane.add(task);
+            lanes.put(key, lane);
+            final var newLane = lane;
+            laneExecutor.execute(() -> runLane(key, newLane));
+        }
+    }
+
+    /**
+     * Wait until all submitted envelopes have been handled and delivered.
+     */
+    void awaitIdle() throws InterruptedException {
+        synchronized (lanes) {
+            while (!lanes.isEmpty()) {
+                lanes.wait();
+            }
+        }
+        try {
+            deliveryExecutor.submit(() -> {}).get();
+        } catch (ExecutionException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        var interrupted = false;
+        while (true) {
+            try {
+                awaitIdle();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        laneExecutor.close();
+        deliveryExecutor.close();
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runLane(final LaneKey key, final Queue<Runnable> lane) {
+        activeLanes.acquireUninterruptibly();
+        try {
+            while (true) {
+                final Runnable task;
+                synchronized (lanes) {
+                    task = lane.poll();
+                    if (task == null) {
+                        lanes.remove(key);
+                        lanes.notifyAll();
+                        return;
+                    }
+                }
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    logger.error("Unknown error when handling messages", e);
+                } finally {
+                    pendingEnvelopes.release();
+                }
+            }
+        } finally {
+            activeLanes.release();
+        }
+    }
+
+    private record LaneKey(long recipientId, int deviceId) {}
+}
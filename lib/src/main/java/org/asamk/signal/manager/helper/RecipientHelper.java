@@ -5,6 +5,7 @@ import org.asamk.signal.manager.api.UnregisteredRecipientException;
 import org.asamk.signal.manager.api.UsernameLinkUrl;
 import org.asamk.signal.manager.internal.SignalDependencies;
 import org.asamk.signal.manager.storage.SignalAccount;
+import org.asamk.signal.manager.storage.recipients.RecipientAddress;
 import org.asamk.signal.manager.storage.recipients.RecipientId;
 import org.signal.core.models.ServiceId;
 import org.signal.core.models.ServiceId.ACI;
@@ -197,17 +198,29 @@ public class RecipientHelper {
             final Set<String> numbers,
             final boolean isPartialRefresh
     ) throws IOException {
+        final var queryStart = System.nanoTime();
         Map<String, RegisteredUser> registeredUsers = getRegisteredUsersV2(numbers, isPartialRefresh);
+        final var storeStart = System.nanoTime();
 
         // Store numbers as recipients, so we have the number/uuid association
-        registeredUsers.forEach((number, u) -> account.getRecipientTrustedResolver()
-                .resolveRecipientTrusted(u.aci, u.pni, Optional.of(number)));
-
+        final var registeredAddresses = registeredUsers.entrySet()
+                .stream()
+                .map(e -> new RecipientAddress(e.getValue().aci,
+                        e.getValue().pni,
+                        Optional.of(e.getKey()),
+                        Optional.empty()))
+                .toList();
         final var unregisteredUsers = new HashSet<>(numbers);
         unregisteredUsers.removeAll(registeredUsers.keySet());
-        account.getRecipientStore().markUndiscoverablePossiblyUnregistered(unregisteredUsers);
-        account.getRecipientStore().markDiscoverable(registeredUsers.keySet());
+        final var changedUsers = account.getRecipientStore().storeCdsiResult(registeredAddresses, unregisteredUsers);
 
+        logger.debug("CDSI query for {} numbers took {}ms, storing {} registered ({} changed), {} unregistered: {}ms",
+                numbers.size(),
+                (storeStart - queryStart) / 1_000_000,
+                registeredUsers.size(),
+                changedUsers,
+                unregisteredUsers.size(),
+                (System.nanoTime() - storeStart) / 1_000_000);
         return registeredUsers;
     }
 
@@ -238,13 +251,17 @@ public class RecipientHelper {
             logger.debug("No new numbers to query.");
             return Map.of();
         }
+        final var token = previousNumbers.isEmpty()
+                ? Optional.<byte[]>empty()
+                : Optional.ofNullable(account.getCdsiToken());
+        if (token.isEmpty()) {
+            // Without a token the previous numbers can't be sent as such, they need to be queried again
+            newNumbers.addAll(previousNumbers);
+        }
         logger.debug("Querying CDSI for {} new numbers ({} previous), isPartialRefresh={}",
                 newNumbers.size(),
                 previousNumbers.size(),
                 isPartialRefresh);
-        final var token = previousNumbers.isEmpty()
-                ? Optional.<byte[]>empty()
-                : Optional.ofNullable(account.getCdsiToken());
 
         final CdsiV2Service.Response response;
         try {
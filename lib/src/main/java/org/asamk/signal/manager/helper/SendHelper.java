@@ -5,12 +5,13 @@ import org.asamk.signal.manager.api.GroupId;
 import org.asamk.signal.manager.api.GroupNotFoundException;
 import org.asamk.signal.manager.api.GroupSendingNotAllowedException;
 import org.asamk.signal.manager.api.NotAGroupMemberException;
-import org.asamk.signal.manager.api.Pair;
 import org.asamk.signal.manager.api.Profile;
 import org.asamk.signal.manager.api.UnregisteredRecipientException;
 import org.asamk.signal.manager.groups.GroupUtils;
 import org.asamk.signal.manager.internal.SignalDependencies;
+import org.asamk.signal.manager.jobs.RefreshGroupSendEndorsementsJob;
 import org.asamk.signal.manager.storage.SignalAccount;
+import org.asamk.signal.manager.storage.groups.GroupEndorsements;
 import org.asamk.signal.manager.storage.groups.GroupInfo;
 import org.asamk.signal.manager.storage.groups.GroupInfoV2;
 import org.asamk.signal.manager.storage.recipients.RecipientId;
@@ -21,8 +22,8 @@ import org.signal.libsignal.protocol.InvalidRegistrationIdException;
 import org.signal.libsignal.protocol.NoSessionException;
 import org.signal.libsignal.protocol.SignalProtocolAddress;
 import org.signal.libsignal.protocol.message.DecryptionErrorMessage;
-import org.signal.libsignal.zkgroup.groups.GroupSecretParams;
 import org.signal.libsignal.zkgroup.groupsend.GroupSendEndorsement;
+import org.signal.libsignal.zkgroup.groupsend.GroupSendFullToken;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.whispersystems.signalservice.api.SignalServiceMessageSender;
@@ -50,16 +51,23 @@ import org.whispersystems.signalservice.internal.push.http.PartialSendCompleteLi
 
 import java.io.IOException;
 import java.time.Duration;
-import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import okio.ByteString;
@@ -67,10 +75,16 @@ import okio.ByteString;
 public class SendHelper {
 
     private static final Logger logger = LoggerFactory.getLogger(SendHelper.class);
+    // Endorsements expiring within this margin are updated before sending
+    private static final Duration ENDORSEMENT_EXPIRATION_MARGIN = Duration.ofHours(2);
+    // Endorsements expiring within this margin are updated in the background
+    private static final Duration ENDORSEMENT_REFRESH_MARGIN = Duration.ofHours(6);
+    private static final Duration ENDORSEMENT_REFRESH_INTERVAL = Duration.ofHours(1);
 
     private final SignalAccount account;
     private final SignalDependencies dependencies;
     private final Context context;
+    private final Map<GroupId, Long> lastEndorsementRefreshes = new ConcurrentHashMap<>();
 
     public SendHelper(final Context context) {
         this.account = context.getAccount();
@@ -507,28 +521,17 @@ public class SendHelper {
     ) throws IOException {
         long startTime = System.currentTimeMillis();
 
-        final var addressesMap = recipientIds.stream()
-                .collect(Collectors.toMap(id -> id, context.getRecipientHelper()::resolveSignalServiceAddress));
+        final var addressesMap = mapConcurrently(recipientIds,
+                context.getRecipientHelper()::resolveSignalServiceAddress);
         final var unidentifiedAccessesMap = context.getUnidentifiedAccessHelper().getAccessFor(recipientIds);
-        final var groupSendEndorsementsResult = getGroupSendEndorsements(groupInfo);
-        final var groupSecretParams = groupInfo instanceof GroupInfoV2 gv2
-                ? GroupSecretParams.deriveFromMasterKey((gv2.getMasterKey()))
-                : null;
-
-        final var groupSendEndorsements = groupSendEndorsementsResult == null
-                ? null
-                : groupSendEndorsementsResult.second();
-        final var groupSendEndorsementsExpirationMs = groupSendEndorsementsResult == null
-                ? 0
-                : groupSendEndorsementsResult.first();
+        final var groupEndorsements = getGroupSendEndorsements(groupInfo);
+        final var groupSendEndorsements = groupEndorsements == null ? null : groupEndorsements.getEndorsements();
         Set<RecipientId> senderKeyTargets = groupInfo.getDistributionId() == null || groupSendEndorsements == null
                 ? Set.of()
-                : recipientIds.stream()
-                  .filter(s -> this.isSenderKeyCapable(s,
-                          addressesMap.get(s),
-                          unidentifiedAccessesMap.get(s),
-                          groupSendEndorsements))
-                  .collect(Collectors.toSet());
+                : getSenderKeyCapableRecipients(recipientIds,
+                        addressesMap,
+                        unidentifiedAccessesMap,
+                        groupSendEndorsements);
         if (senderKeyTargets.size() < 2) {
             logger.debug("Too few sender-key-capable users ({}). Doing all legacy sends.", senderKeyTargets.size());
             senderKeyTargets = Set.of();
@@ -540,12 +543,12 @@ public class SendHelper {
         if (!senderKeyTargets.isEmpty()) {
             final var senderCertificate = this.context.getUnidentifiedAccessHelper().getSenderCertificateFor(null);
             final var addresses = senderKeyTargets.stream().map(addressesMap::get).toList();
-            final var requiredGroupSendEndorsements = new GroupSendEndorsements(groupSendEndorsementsExpirationMs,
+            final var requiredGroupSendEndorsements = new GroupSendEndorsements(groupEndorsements.getExpirationMs(),
                     senderKeyTargets.stream()
                             .collect(Collectors.toMap(recipientId -> (ACI) addressesMap.get(recipientId).getServiceId(),
                                     groupSendEndorsements::get)),
                     senderCertificate,
-                    groupSecretParams);
+                    groupEndorsements.getGroupSecretParams());
             final var results = sendGroupMessageInternalWithSenderKey(senderKeySender,
                     groupInfo.getDistributionId(),
                     addresses,
@@ -587,15 +590,13 @@ public class SendHelper {
                     .findFirst()
                     .map(UnidentifiedAccess::getUnidentifiedCertificate)
                     .orElse(null);
-            final var expirationMs = Instant.ofEpochMilli(groupSendEndorsementsExpirationMs);
-            final var groupSendTokens = groupSendEndorsements != null && groupSecretParams != null
-                    ? legacyTargets.stream()
-                      .map(groupSendEndorsements::get)
-                      .map(endorsement -> Optional.ofNullable(endorsement)
-                                          .map(e -> e.toFullToken(groupSecretParams, expirationMs))
-                                          .orElse(null))
-                      .toList()
-                    : null;
+            final List<GroupSendFullToken> groupSendTokens;
+            if (groupEndorsements != null) {
+                final var fullTokens = mapConcurrently(legacyTargets, groupEndorsements::getFullToken);
+                groupSendTokens = legacyTargets.stream().map(fullTokens::get).toList();
+            } else {
+                groupSendTokens = null;
+            }
             final var sealedSenderAccesses = SealedSenderAccess.forFanOutGroupSend(groupSendTokens,
                     senderCertificate,
                     unidentifiedAccess);
@@ -610,49 +611,103 @@ public class SendHelper {
         return allResults;
     }
 
-    private Pair<Long, Map<RecipientId, GroupSendEndorsement>> getGroupSendEndorsements(final GroupInfo groupInfo) {
+    /**
+     * Apply the function to each recipient on virtual threads, with at most the configured send concurrency running
+     * at the same time.
+     */
+    private <T> Map<RecipientId, T> mapConcurrently(
+            final Collection<RecipientId> recipientIds,
+            final Function<RecipientId, T> function
+    ) throws IOException {
+        final var permits = new Semaphore(account.getSendConcurrency());
+        final var futures = new HashMap<RecipientId, Future<T>>();
+        try (final var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (final var recipientId : recipientIds) {
+                futures.put(recipientId, executor.submit(() -> {
+                    permits.acquire();
+                    try {
+                        return function.apply(recipientId);
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+        }
+        final var results = new HashMap<RecipientId, T>();
+        for (final var entry : futures.entrySet()) {
+            try {
+                results.put(entry.getKey(), entry.getValue().get());
+            } catch (ExecutionException e) {
+                switch (e.getCause()) {
+                    case RuntimeException runtimeException -> throw runtimeException;
+                    case InterruptedException interruptedException -> {
+                        // The executor was interrupted while waiting for the tasks and cancelled them
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while preparing group message", interruptedException);
+                    }
+                    default -> throw new AssertionError(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while preparing group message", e);
+            }
+        }
+        return results;
+    }
+
+    private GroupEndorsements getGroupSendEndorsements(final GroupInfo groupInfo) {
         if (!(groupInfo instanceof GroupInfoV2 groupInfoV2)) {
             return null;
         }
 
-        var groupSendEndorsementMap = account.getGroupStore().getGroupEndorsements(groupInfoV2.getGroupId());
-        var groupSendEndorsementExpirationMs = account.getGroupStore()
-                .getGroupEndorsementExpirationMs(groupInfoV2.getGroupId());
-        if (groupSendEndorsementMap.isEmpty()
-                || groupSendEndorsementExpirationMs - TimeUnit.HOURS.toMillis(2) < System.currentTimeMillis()) {
+        var groupEndorsements = account.getGroupStore().getGroupEndorsements(groupInfoV2);
+        if (groupEndorsements.isExpiringWithin(ENDORSEMENT_EXPIRATION_MARGIN)) {
             logger.debug("No group send endorsements available, trying to update");
             this.context.getGroupHelper().updateGroupSendEndorsements(groupInfoV2.getGroupId());
-            groupSendEndorsementMap = account.getGroupStore().getGroupEndorsements(groupInfoV2.getGroupId());
-            groupSendEndorsementExpirationMs = account.getGroupStore()
-                    .getGroupEndorsementExpirationMs(groupInfoV2.getGroupId());
-            if (groupSendEndorsementMap.isEmpty()
-                    || groupSendEndorsementExpirationMs - TimeUnit.HOURS.toMillis(2) < System.currentTimeMillis()) {
+            groupEndorsements = account.getGroupStore().getGroupEndorsements(groupInfoV2);
+            if (groupEndorsements.isExpiringWithin(ENDORSEMENT_EXPIRATION_MARGIN)) {
                 logger.debug("Updating group send endorsements was not successful");
                 return null;
             }
+        } else if (groupEndorsements.isExpiringWithin(ENDORSEMENT_REFRESH_MARGIN)) {
+            // Refresh in the background, so sending doesn't have to wait for it
+            final var now = System.currentTimeMillis();
+            final var lastRefresh = lastEndorsementRefreshes.get(groupInfoV2.getGroupId());
+            if (lastRefresh == null || now - lastRefresh > ENDORSEMENT_REFRESH_INTERVAL.toMillis()) {
+                lastEndorsementRefreshes.put(groupInfoV2.getGroupId(), now);
+                context.getJobExecutor().enqueueJob(new RefreshGroupSendEndorsementsJob(groupInfoV2.getGroupId()));
+            }
         }
-        return new Pair<>(groupSendEndorsementExpirationMs, groupSendEndorsementMap);
+        return groupEndorsements;
     }
 
-    private boolean isSenderKeyCapable(
-            final RecipientId recipientId,
-            final SignalServiceAddress address,
-            final UnidentifiedAccess access,
+    private Set<RecipientId> getSenderKeyCapableRecipients(
+            final Set<RecipientId> recipientIds,
+            final Map<RecipientId, SignalServiceAddress> addressesMap,
+            final Map<RecipientId, UnidentifiedAccess> unidentifiedAccessesMap,
             final Map<RecipientId, GroupSendEndorsement> groupSendEndorsements
     ) {
-        if (access == null || !address.hasValidServiceId() || !(address.getServiceId() instanceof ACI aci)) {
-            return false;
-        }
-
-        if (!groupSendEndorsements.containsKey(recipientId)) {
-            return false;
+        final var candidates = new HashMap<RecipientId, ACI>();
+        for (final var recipientId : recipientIds) {
+            final var address = addressesMap.get(recipientId);
+            if (unidentifiedAccessesMap.get(recipientId) != null
+                    && address.hasValidServiceId()
+                    && address.getServiceId() instanceof ACI aci
+                    && groupSendEndorsements.containsKey(recipientId)) {
+                candidates.put(recipientId, aci);
+            }
         }
 
-        final var identity = account.getIdentityKeyStore().getIdentityInfo(aci);
-        if (identity == null || !identity.getTrustLevel().isTrusted()) {
-            return false;
-        }
-        return true;
+        // Look up the identities of all candidates at once, instead of one query per group member
+        final var identities = account.getIdentityKeyStore().getIdentityInfos(candidates.values());
+        return candidates.entrySet()
+                .stream()
+                .filter(e -> {
+                    final var identity = identities.get(e.getValue());
+                    return identity != null && identity.getTrustLevel().isTrusted();
+                })
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toSet());
     }
 
     private List<SendMessageResult> sendGroupMessageInternalWithLegacy(
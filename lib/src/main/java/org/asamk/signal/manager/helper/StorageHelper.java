@@ -34,12 +34,18 @@ import org.whispersystems.signalservice.internal.storage.protos.StorageRecord;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import static org.asamk.signal.manager.util.Utils.handleResponseException;
@@ -51,6 +57,9 @@ public class StorageHelper {
             ManifestRecord.Identifier.Type.GROUPV1.getValue(),
             ManifestRecord.Identifier.Type.GROUPV2.getValue(),
             ManifestRecord.Identifier.Type.ACCOUNT.getValue());
+    private static final int STORAGE_READ_CHUNK_SIZE = 1000;
+    private static final int MAX_CONCURRENT_STORAGE_READS = 4;
+    private static final int PROCESS_BATCH_SIZE = 100;
 
     private final SignalAccount account;
     private final SignalDependencies dependencies;
@@ -81,11 +90,7 @@ public class StorageHelper {
 
         var needsForcePush = false;
         final var remoteManifest = switch (result) {
-            case ManifestIfDifferentVersionResult.DifferentVersion diff -> {
-                final var manifest = diff.getManifest();
-                storeManifestLocally(manifest);
-                yield manifest;
-            }
+            case ManifestIfDifferentVersionResult.DifferentVersion diff -> diff.getManifest();
             case ManifestIfDifferentVersionResult.DecryptionError ignore -> {
                 logger.warn("Manifest couldn't be decrypted.");
                 if (account.isPrimaryDevice()) {
@@ -110,6 +115,10 @@ public class StorageHelper {
             } else if (remoteManifest.version < localManifest.version) {
                 logger.debug("Remote storage manifest version was older. User might have switched accounts.");
             }
+            if (result instanceof ManifestIfDifferentVersionResult.DifferentVersion) {
+                // Only stored once all records are read, so an interrupted sync is resumed with the next sync
+                storeManifestLocally(remoteManifest);
+            }
             logger.trace("Done reading data from remote storage");
 
             readRecordsWithPreviouslyUnknownTypes(storageKey, remoteManifest);
@@ -187,31 +196,29 @@ public class StorageHelper {
             final SignalStorageManifest remoteManifest
     ) throws IOException {
         var needsForcePush = false;
-        try (final var connection = account.getAccountDatabase().getConnection()) {
-            connection.setAutoCommit(false);
+        var idDifference = findIdDifference(remoteManifest.storageIds, localManifest.storageIds);
 
-            var idDifference = findIdDifference(remoteManifest.storageIds, localManifest.storageIds);
-
-            if (idDifference.hasTypeMismatches() && account.isPrimaryDevice()) {
-                logger.debug("Found type mismatches in the ID sets! Scheduling a force push after this sync completes.");
-                needsForcePush = true;
-            }
+        if (idDifference.hasTypeMismatches() && account.isPrimaryDevice()) {
+            logger.debug("Found type mismatches in the ID sets! Scheduling a force push after this sync completes.");
+            needsForcePush = true;
+        }
 
-            logger.debug("Pre-Merge ID Difference :: {}", idDifference);
+        logger.debug("Pre-Merge ID Difference :: {}", idDifference);
 
-            if (!idDifference.isEmpty()) {
-                final var remoteOnlyRecords = getSignalStorageRecords(storageKey,
-                        remoteManifest,
-                        idDifference.remoteOnlyIds());
+        if (idDifference.isEmpty()) {
+            logger.debug("Remote version was newer, but there were no remote-only IDs.");
+            return needsForcePush;
+        }
 
-                if (remoteOnlyRecords.size() != idDifference.remoteOnlyIds().size()) {
-                    logger.debug(
-                            "Could not find all remote-only records! Requested: {}, Found: {}. These stragglers should naturally get deleted during the sync.",
-                            idDifference.remoteOnlyIds().size(),
-                            remoteOnlyRecords.size());
-                }
+        // Records processed by a previous, interrupted sync already have their storage id locally
+        final var remoteOnlyIds = withoutLocalStorageIds(idDifference.remoteOnlyIds());
+        if (remoteOnlyIds.size() != idDifference.remoteOnlyIds().size()) {
+            logger.debug("Resuming previous sync, {} of {} remote-only records were already processed.",
+                    idDifference.remoteOnlyIds().size() - remoteOnlyIds.size(),
+                    idDifference.remoteOnlyIds().size());
+        }
 
-                // This logic is wrong, records should only be deleted if they're deleted remotely, not if the remote record is updated
+        // This logic is wrong, records should only be deleted if they're deleted remotely, not if the remote record is updated
 //                if (!idDifference.localOnlyIds().isEmpty()) {
 //                    final var updated = account.getRecipientStore()
 //                            .removeStorageIdsFromLocalOnlyUnregisteredRecipients(connection,
@@ -224,21 +231,34 @@ public class StorageHelper {
 //                    }
 //                }
 //
-                final var unknownInserts = processKnownRecords(connection, remoteOnlyRecords);
-                final var unknownDeletes = idDifference.localOnlyIds()
-                        .stream()
-                        .filter(id -> !KNOWN_TYPES.contains(id.getType()))
-                        .toList();
-
-                logger.debug("Storage ids with unknown type: {} inserts, {} deletes",
-                        unknownInserts.size(),
-                        unknownDeletes.size());
-
-                account.getUnknownStorageIdStore().addUnknownStorageIds(connection, unknownInserts);
-                account.getUnknownStorageIdStore().deleteUnknownStorageIds(connection, unknownDeletes);
-            } else {
-                logger.debug("Remote version was newer, but there were no remote-only IDs.");
-            }
+        final var unknownInsertCount = new AtomicInteger();
+        final var remoteOnlyRecordCount = readAndProcessRecords(storageKey,
+                remoteManifest,
+                remoteOnlyIds,
+                (connection, records, unknownIds) -> {
+                    account.getUnknownStorageIdStore().addUnknownStorageIds(connection, unknownIds);
+                    unknownInsertCount.addAndGet(unknownIds.size());
+                });
+
+        if (remoteOnlyRecordCount != remoteOnlyIds.size()) {
+            logger.debug(
+                    "Could not find all remote-only records! Requested: {}, Found: {}. These stragglers should naturally get deleted during the sync.",
+                    remoteOnlyIds.size(),
+                    remoteOnlyRecordCount);
+        }
+
+        final var unknownDeletes = idDifference.localOnlyIds()
+                .stream()
+                .filter(id -> !KNOWN_TYPES.contains(id.getType()))
+                .toList();
+
+        logger.debug("Storage ids with unknown type: {} inserts, {} deletes",
+                unknownInsertCount.get(),
+                unknownDeletes.size());
+
+        try (final var connection = account.getAccountDatabase().getConnection()) {
+            connection.setAutoCommit(false);
+            account.getUnknownStorageIdStore().deleteUnknownStorageIds(connection, unknownDeletes);
             connection.commit();
         } catch (SQLException e) {
             throw new RuntimeException("Failed to sync remote storage", e);
@@ -250,26 +270,126 @@ public class StorageHelper {
             final StorageKey storageKey,
             final SignalStorageManifest remoteManifest
     ) throws IOException {
+        final List<StorageId> knownUnknownIds;
         try (final var connection = account.getAccountDatabase().getConnection()) {
-            connection.setAutoCommit(false);
-            final var knownUnknownIds = account.getUnknownStorageIdStore()
-                    .getUnknownStorageIds(connection, KNOWN_TYPES);
+            knownUnknownIds = account.getUnknownStorageIdStore().getUnknownStorageIds(connection, KNOWN_TYPES);
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to sync remote storage", e);
+        }
+
+        if (!knownUnknownIds.isEmpty()) {
+            logger.debug("We have {} unknown records that we can now process.", knownUnknownIds.size());
 
-            if (!knownUnknownIds.isEmpty()) {
-                logger.debug("We have {} unknown records that we can now process.", knownUnknownIds.size());
+            final var remoteCount = readAndProcessRecords(storageKey,
+                    remoteManifest,
+                    knownUnknownIds,
+                    (connection, records, unknownIds) -> account.getUnknownStorageIdStore()
+                            .deleteUnknownStorageIds(connection,
+                                    records.stream().map(SignalStorageRecord::getId).toList()));
 
-                final var remote = getSignalStorageRecords(storageKey, remoteManifest, knownUnknownIds);
+            logger.debug("Found {} of the known-unknowns remotely.", remoteCount);
+        }
+    }
+
+    /**
+     * Reads the records in chunks, with several chunks read and decrypted concurrently, and processes them in order.
+     * <p>
+     * Processed records are committed in small batches, so other writes aren't blocked for the whole sync and an
+     * interrupted sync keeps the records processed so far.
+     *
+     * @return the number of records found remotely
+     */
+    private int readAndProcessRecords(
+            final StorageKey storageKey,
+            final SignalStorageManifest manifest,
+            final List<StorageId> storageIds,
+            final ProcessedRecordsHandler handler
+    ) throws IOException {
+        if (storageIds.isEmpty()) {
+            return 0;
+        }
+        final var chunkIds = new ArrayList<List<StorageId>>();
+        for (var i = 0; i < storageIds.size(); i += STORAGE_READ_CHUNK_SIZE) {
+            chunkIds.add(storageIds.subList(i, Math.min(i + STORAGE_READ_CHUNK_SIZE, storageIds.size())));
+        }
+        // Only a few chunks are read ahead, so records that are read faster than they're processed don't pile up
+        final var pendingChunks = new ArrayDeque<Future<List<SignalStorageRecord>>>();
+        try (final var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            var nextChunk = 0;
+            var recordCount = 0;
+            try {
+                while (nextChunk < chunkIds.size() && pendingChunks.size() < MAX_CONCURRENT_STORAGE_READS) {
+                    final var ids = chunkIds.get(nextChunk++);
+                    pendingChunks.add(executor.submit(() -> getSignalStorageRecords(storageKey, manifest, ids)));
+                }
+                while (!pendingChunks.isEmpty()) {
+                    final var records = getChunkResult(pendingChunks.poll());
+                    if (nextChunk < chunkIds.size()) {
+                        final var ids = chunkIds.get(nextChunk++);
+                        pendingChunks.add(executor.submit(() -> getSignalStorageRecords(storageKey, manifest, ids)));
+                    }
+                    processRecords(records, handler);
+                    recordCount += records.size();
+                    logger.debug("Processed {} of {} storage records", recordCount, storageIds.size());
+                }
+                return recordCount;
+            } finally {
+                pendingChunks.forEach(chunk -> chunk.cancel(true));
+            }
+        }
+    }
 
-                logger.debug("Found {} of the known-unknowns remotely.", remote.size());
+    /**
+     * Each batch gets its own connection, so no pooled connection is held while waiting for the next chunk.
+     */
+    private void processRecords(
+            final List<SignalStorageRecord> records,
+            final ProcessedRecordsHandler handler
+    ) {
+        for (var i = 0; i < records.size(); i += PROCESS_BATCH_SIZE) {
+            final var batch = records.subList(i, Math.min(i + PROCESS_BATCH_SIZE, records.size()));
+            try (final var connection = account.getAccountDatabase().getConnection()) {
+                connection.setAutoCommit(false);
+                final var unknownIds = new RecordProcessors(connection).process(batch);
+                handler.handle(connection, batch, unknownIds);
+                connection.commit();
+            } catch (SQLException e) {
+                throw new RuntimeException("Failed to sync remote storage", e);
+            }
+        }
+    }
 
-                processKnownRecords(connection, remote);
-                account.getUnknownStorageIdStore()
-                        .deleteUnknownStorageIds(connection, remote.stream().map(SignalStorageRecord::getId).toList());
+    private static List<SignalStorageRecord> getChunkResult(
+            final Future<List<SignalStorageRecord>> chunk
+    ) throws IOException {
+        try {
+            return chunk.get();
+        } catch (ExecutionException e) {
+            switch (e.getCause()) {
+                case IOException ioException -> throw ioException;
+                case RuntimeException runtimeException -> throw runtimeException;
+                case InterruptedException interruptedException ->
+                        throw new IOException("Interrupted while reading storage records", interruptedException);
+                default -> throw new AssertionError(e.getCause());
             }
-            connection.commit();
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while reading storage records", e);
+        }
+    }
+
+    private List<StorageId> withoutLocalStorageIds(final List<StorageId> storageIds) {
+        final var base64Encoder = Base64.getEncoder();
+        final Set<String> localRawIds;
+        try (final var connection = account.getAccountDatabase().getConnection()) {
+            localRawIds = getAllLocalStorageIds(connection).stream()
+                    .map(id -> base64Encoder.encodeToString(id.getRaw()))
+                    .collect(Collectors.toSet());
         } catch (SQLException e) {
             throw new RuntimeException("Failed to sync remote storage", e);
         }
+        return storageIds.stream()
+                .filter(id -> !localRawIds.contains(base64Encoder.encodeToString(id.getRaw())))
+                .toList();
     }
 
     private boolean writeToStorage(
@@ -630,40 +750,67 @@ public class StorageHelper {
         return new IdDifferenceResult(remoteOnlyKeys, localOnlyKeys, hasTypeMismatch);
     }
 
-    private List<StorageId> processKnownRecords(
-            final Connection connection,
-            List<SignalStorageRecord> records
-    ) throws SQLException {
-        final var unknownRecords = new ArrayList<StorageId>();
-
-        final var accountRecordProcessor = new AccountRecordProcessor(account, connection, context.getJobExecutor());
-        final var contactRecordProcessor = new ContactRecordProcessor(account, connection, context.getJobExecutor());
-        final var groupV1RecordProcessor = new GroupV1RecordProcessor(account, connection);
-        final var groupV2RecordProcessor = new GroupV2RecordProcessor(account, connection);
-
-        for (final var record : records) {
-            if (record.getProto().account != null) {
-                logger.debug("Reading record {} of type account", record.getId());
-                accountRecordProcessor.process(StorageRecordConvertersKt.toSignalAccountRecord(record.getProto().account,
-                        record.getId()));
-            } else if (record.getProto().groupV1 != null) {
-                logger.debug("Reading record {} of type groupV1", record.getId());
-                groupV1RecordProcessor.process(StorageRecordConvertersKt.toSignalGroupV1Record(record.getProto().groupV1,
-                        record.getId()));
-            } else if (record.getProto().groupV2 != null) {
-                logger.debug("Reading record {} of type groupV2", record.getId());
-                groupV2RecordProcessor.process(StorageRecordConvertersKt.toSignalGroupV2Record(record.getProto().groupV2,
-                        record.getId()));
-            } else if (record.getProto().contact != null) {
-                logger.debug("Reading record {} of type contact", record.getId());
-                contactRecordProcessor.process(StorageRecordConvertersKt.toSignalContactRecord(record.getProto().contact,
-                        record.getId()));
-            } else {
-                unknownRecords.add(record.getId());
+    /**
+     * The record processors of a sync, reused for all batches, so records mapping to the same local record are also
+     * detected across batches.
+     */
+    private final class RecordProcessors {
+
+        private final AccountRecordProcessor accountRecordProcessor;
+        private final ContactRecordProcessor contactRecordProcessor;
+        private final GroupV1RecordProcessor groupV1RecordProcessor;
+        private final GroupV2RecordProcessor groupV2RecordProcessor;
+
+        private RecordProcessors(final Connection connection) throws SQLException {
+            this.accountRecordProcessor = new AccountRecordProcessor(account, connection, context.getJobExecutor());
+            this.contactRecordProcessor = new ContactRecordProcessor(account, connection, context.getJobExecutor());
+            this.groupV1RecordProcessor = new GroupV1RecordProcessor(account, connection);
+            this.groupV2RecordProcessor = new GroupV2RecordProcessor(account, connection);
+        }
+
+        /**
+         * @return the storage ids of records with unknown type
+         */
+        private List<StorageId> process(final List<SignalStorageRecord> records) throws SQLException {
+            final var unknownRecords = new ArrayList<StorageId>();
+
+            for (final var record : records) {
+                if (record.getProto().account != null) {
+                    logger.debug("Reading record {} of type account", record.getId());
+                    final var accountRecord = StorageRecordConvertersKt.toSignalAccountRecord(record.getProto().account,
+                            record.getId());
+                    accountRecordProcessor.process(accountRecord);
+                } else if (record.getProto().groupV1 != null) {
+                    logger.debug("Reading record {} of type groupV1", record.getId());
+                    final var groupV1Record = StorageRecordConvertersKt.toSignalGroupV1Record(record.getProto().groupV1,
+                            record.getId());
+                    groupV1RecordProcessor.process(groupV1Record);
+                } else if (record.getProto().groupV2 != null) {
+                    logger.debug("Reading record {} of type groupV2", record.getId());
+                    final var groupV2Record = StorageRecordConvertersKt.toSignalGroupV2Record(record.getProto().groupV2,
+                            record.getId());
+                    groupV2RecordProcessor.process(groupV2Record);
+                } else if (record.getProto().contact != null) {
+                    logger.debug("Reading record {} of type contact", record.getId());
+                    final var contactRecord = StorageRecordConvertersKt.toSignalContactRecord(record.getProto().contact,
+                            record.getId());
+                    contactRecordProcessor.process(contactRecord);
+                } else {
+                    unknownRecords.add(record.getId());
+                }
             }
+
+            return unknownRecords;
         }
+    }
+
+    private interface ProcessedRecordsHandler {
 
-        return unknownRecords;
+        void handle(
+                Connection connection,
+                List<SignalStorageRecord> records,
+                List<StorageId> unknownIds
+        ) throws SQLException;
     }
 
     /**
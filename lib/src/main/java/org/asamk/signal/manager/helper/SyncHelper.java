@@ -5,7 +5,6 @@ import org.asamk.signal.manager.api.GroupId;
 import org.asamk.signal.manager.api.MessageEnvelope.Sync.MessageRequestResponse;
 import org.asamk.signal.manager.api.TrustLevel;
 import org.asamk.signal.manager.storage.SignalAccount;
-import org.asamk.signal.manager.storage.groups.GroupInfoV1;
 import org.asamk.signal.manager.storage.recipients.RecipientAddress;
 import org.asamk.signal.manager.storage.recipients.RecipientId;
 import org.asamk.signal.manager.storage.stickers.StickerPack;
@@ -41,6 +40,8 @@ import org.whispersystems.signalservice.api.push.SignalServiceAddress;
 import org.whispersystems.signalservice.api.util.StreamDetails;
 import org.whispersystems.signalservice.internal.push.SyncMessage;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -58,6 +59,8 @@ import okio.ByteString;
 public class SyncHelper {
 
     private static final Logger logger = LoggerFactory.getLogger(SyncHelper.class);
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int CONTACTS_PAGE_SIZE = 1000;
 
     private final Context context;
     private final SignalAccount account;
@@ -109,23 +112,27 @@ public class SyncHelper {
         var groupsFile = IOUtils.createTempFile();
 
         try {
-            try (OutputStream fos = new FileOutputStream(groupsFile)) {
+            try (OutputStream fos = new BufferedOutputStream(new FileOutputStream(groupsFile), BUFFER_SIZE)) {
                 var out = new DeviceGroupsOutputStream(fos);
-                for (var record : account.getGroupStore().getGroups()) {
-                    if (record instanceof GroupInfoV1 groupInfo) {
-                        out.write(new DeviceGroup(groupInfo.getGroupId().serialize(),
-                                Optional.ofNullable(groupInfo.name),
-                                groupInfo.getMemberRecipientIds()
-                                        .stream()
-                                        .map(context.getRecipientHelper()::resolveSignalServiceAddress)
-                                        .toList(),
-                                context.getGroupHelper().createGroupAvatarAttachment(groupInfo.getGroupId()),
-                                groupInfo.isMember(account.getSelfRecipientId()),
-                                Optional.of(groupInfo.messageExpirationTime),
-                                Optional.ofNullable(groupInfo.color),
-                                groupInfo.blocked,
-                                Optional.empty(),
-                                groupInfo.archived));
+                // Only v1 groups are part of the groups sync, v2 groups are synced via the storage service
+                for (var groupInfo : account.getGroupStore().getGroupsV1()) {
+                    final var deviceGroup = new DeviceGroup(groupInfo.getGroupId().serialize(),
+                            Optional.ofNullable(groupInfo.name),
+                            groupInfo.getMemberRecipientIds()
+                                    .stream()
+                                    .map(context.getRecipientHelper()::resolveSignalServiceAddress)
+                                    .toList(),
+                            context.getGroupHelper().createGroupAvatarAttachment(groupInfo.getGroupId()),
+                            groupInfo.isMember(account.getSelfRecipientId()),
+                            Optional.of(groupInfo.messageExpirationTime),
+                            Optional.ofNullable(groupInfo.color),
+                            groupInfo.blocked,
+                            Optional.empty(),
+                            groupInfo.archived);
+                    try {
+                        out.write(deviceGroup);
+                    } finally {
+                        deviceGroup.getAvatar().ifPresent(a -> closeAvatar(a.asStream().getInputStream()));
                     }
                 }
             }
@@ -159,21 +166,24 @@ public class SyncHelper {
         var contactsFile = IOUtils.createTempFile();
 
         try {
-            try (OutputStream fos = new FileOutputStream(contactsFile)) {
+            try (OutputStream fos = new BufferedOutputStream(new FileOutputStream(contactsFile), BUFFER_SIZE)) {
                 var out = new DeviceContactsOutputStream(fos, true, true);
-                for (var contactPair : account.getContactStore().getContacts()) {
-                    final var recipientId = contactPair.first();
-                    final var contact = contactPair.second();
-                    final var address = account.getRecipientAddressResolver().resolveRecipientAddress(recipientId);
-
-                    final var deviceContact = getDeviceContact(address, contact);
-                    out.write(deviceContact);
-                    deviceContact.getAvatar().ifPresent(a -> {
-                        try {
-                            a.getInputStream().close();
-                        } catch (IOException ignored) {
-                        }
-                    });
+                // Contacts are read page by page, so memory usage doesn't depend on the number of contacts
+                var count = 0;
+                RecipientId lastRecipientId = null;
+                while (true) {
+                    final var contacts = account.getContactStore().getContacts(lastRecipientId, CONTACTS_PAGE_SIZE);
+                    for (var contactPair : contacts) {
+                        final var address = account.getRecipientAddressResolver()
+                                .resolveRecipientAddress(contactPair.first());
+                        writeDeviceContact(out, address, contactPair.second());
+                    }
+                    count += contacts.size();
+                    if (contacts.size() < CONTACTS_PAGE_SIZE) {
+                        break;
+                    }
+                    lastRecipientId = contacts.getLast().first();
+                    logger.debug("Exported {} contacts for sync", count);
                 }
 
                 if (account.getProfileKey() != null) {
@@ -181,15 +191,9 @@ public class SyncHelper {
                     final var address = account.getSelfRecipientAddress();
                     final var recipientId = account.getSelfRecipientId();
                     final var contact = account.getContactStore().getContact(recipientId);
-                    final var deviceContact = getDeviceContact(address, contact);
-                    out.write(deviceContact);
-                    deviceContact.getAvatar().ifPresent(a -> {
-                        try {
-                            a.getInputStream().close();
-                        } catch (IOException ignored) {
-                        }
-                    });
+                    writeDeviceContact(out, address, contact);
                 }
+                logger.debug("Exported {} contacts for sync", count);
             }
 
             if (contactsFile.exists() && contactsFile.length() > 0) {
@@ -219,6 +223,27 @@ public class SyncHelper {
         }
     }
 
+    private void writeDeviceContact(
+            final DeviceContactsOutputStream out,
+            final RecipientAddress address,
+            final Contact contact
+    ) throws IOException {
+        // The avatar stream is only opened right before the contact is written
+        final var deviceContact = getDeviceContact(address, contact);
+        try {
+            out.write(deviceContact);
+        } finally {
+            deviceContact.getAvatar().ifPresent(a -> closeAvatar(a.getInputStream()));
+        }
+    }
+
+    private static void closeAvatar(final InputStream inputStream) {
+        try {
+            inputStream.close();
+        } catch (IOException ignored) {
+        }
+    }
+
     @NotNull
     private DeviceContact getDeviceContact(final RecipientAddress address, final Contact contact) throws IOException {
         return new DeviceContact(address.aci(),
@@ -232,21 +257,18 @@ public class SyncHelper {
 
     public SendMessageResult sendBlockedList() {
         var addresses = new ArrayList<BlockedListMessage.Individual>();
-        for (var record : account.getContactStore().getContacts()) {
-            if (record.second().isBlocked()) {
-                final var address = account.getRecipientAddressResolver().resolveRecipientAddress(record.first());
-                if (address.aci().isPresent() || address.number().isPresent()) {
-                    addresses.add(new BlockedListMessage.Individual(address.aci().orElse(null),
-                            address.number().orElse(null)));
-                }
-            }
-        }
-        var groupIds = new ArrayList<byte[]>();
-        for (var record : account.getGroupStore().getGroups()) {
-            if (record.isBlocked()) {
-                groupIds.add(record.getGroupId().serialize());
+        for (var recipientId : account.getContactStore().getBlockedRecipientIds()) {
+            final var address = account.getRecipientAddressResolver().resolveRecipientAddress(recipientId);
+            if (address.aci().isPresent() || address.number().isPresent()) {
+                addresses.add(new BlockedListMessage.Individual(address.aci().orElse(null),
+                        address.number().orElse(null)));
             }
         }
+        var groupIds = account.getGroupStore()
+                .getBlockedGroupIds()
+                .stream()
+                .map(GroupId::serialize)
+                .toList();
         return context.getSendHelper()
                 .sendSyncMessage(SignalServiceSyncMessage.forBlocked(new BlockedListMessage(addresses, groupIds)));
     }
@@ -300,7 +322,7 @@ public class SyncHelper {
     }
 
     public void handleSyncDeviceGroups(final InputStream input, final boolean ignoreAvatars) {
-        final var s = new DeviceGroupsInputStream(input);
+        final var s = new DeviceGroupsInputStream(new BufferedInputStream(input, BUFFER_SIZE));
         DeviceGroup g;
         while (true) {
             try {
@@ -342,9 +364,13 @@ public class SyncHelper {
     }
 
     public void handleSyncDeviceContacts(final InputStream input, final boolean ignoreAvatars) throws IOException {
-        final var s = new DeviceContactsInputStream(input);
+        final var s = new DeviceContactsInputStream(new BufferedInputStream(input, BUFFER_SIZE));
+        var count = 0;
         DeviceContact c;
         while (true) {
+            if (count > 0 && count % CONTACTS_PAGE_SIZE == 0) {
+                logger.debug("Imported {} contacts from sync", count);
+            }
             try {
                 c = s.read();
             } catch (IOException e) {
@@ -358,6 +384,7 @@ public class SyncHelper {
             if (c == null || (c.getAci().isEmpty() && c.getE164().isEmpty())) {
                 break;
             }
+            count++;
             final var address = new RecipientAddress(c.getAci(), Optional.empty(), c.getE164(), Optional.empty());
             final var recipientId = account.getRecipientTrustedResolver().resolveRecipientTrusted(address);
             var contact = account.getContactStore().getContact(recipientId);
@@ -394,6 +421,7 @@ public class SyncHelper {
                 }
             }
         }
+        logger.debug("Imported {} contacts from sync", count);
     }
 
     public SendMessageResult sendMessageRequestResponse(final MessageRequestResponse.Type type, final GroupId groupId) {
@@ -17,6 +17,7 @@ import org.whispersystems.signalservice.api.crypto.UnidentifiedAccess;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
@@ -60,9 +61,14 @@ public class UnidentifiedAccessHelper {
     }
 
     public Map<RecipientId, UnidentifiedAccess> getAccessFor(Collection<RecipientId> recipients) {
+        // Refresh outdated profiles in parallel, instead of one by one for each recipient
+        final var profileRecipients = new HashSet<>(recipients);
+        profileRecipients.add(account.getSelfRecipientId());
+        context.getProfileHelper().getRecipientProfiles(profileRecipients);
+
         final var result = new HashMap<RecipientId, UnidentifiedAccess>();
         for (final var recipient : recipients) {
-            final var access = this.getAccessFor(recipient);
+            final var access = this.getAccessFor(recipient, true);
             if (access != null) {
                 result.put(recipient, access);
             }
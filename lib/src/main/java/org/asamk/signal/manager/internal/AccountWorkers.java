@@ -0,0 +1,70 @@
+package org.asamk.signal.manager.internal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+/**
+ * Limits how many accounts run background work at the same time.
+ * <p>
+ * A single instance is shared by all accounts of a multi-account daemon. Waiting accounts are served in arrival
+ * order, so an account with a lot of work can't starve the others.
+ * Background jobs have their own lane with the same number of workers, so long running jobs don't delay loading and
+ * activating accounts.
+ */
+public class AccountWorkers {
+
+    private static final Logger logger = LoggerFactory.getLogger(AccountWorkers.class);
+
+    private final int workers;
+    private final Semaphore permits;
+    private final Semaphore jobPermits;
+
+    public AccountWorkers(final int workers) {
+        this.workers = workers;
+        this.permits = new Semaphore(workers, true);
+        this.jobPermits = new Semaphore(workers, true);
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * Run the task, once one of the workers is available.
+     */
+    public void run(final Runnable task) throws InterruptedException {
+        call(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * Run the task, once one of the workers is available, and return its result.
+     */
+    public <T> T call(final Supplier<T> task) throws InterruptedException {
+        return call(permits, "account", task);
+    }
+
+    /**
+     * Run the background job, once one of the job workers is available, and return its result.
+     */
+    public <T> T callJob(final Supplier<T> job) throws InterruptedException {
+        return call(jobPermits, "job", job);
+    }
+
+    private <T> T call(final Semaphore permits, final String lane, final Supplier<T> task) throws InterruptedException {
+        if (!permits.tryAcquire()) {
+            logger.trace("All {} {} workers are busy, waiting", workers, lane);
+            permits.acquire();
+        }
+        try {
+            return task.get();
+        } finally {
+            permits.release();
+        }
+    }
+}
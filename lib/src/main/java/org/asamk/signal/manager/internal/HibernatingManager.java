@@ -0,0 +1,403 @@
+package org.asamk.signal.manager.internal;
+
+import org.asamk.signal.manager.Manager;
+import org.asamk.signal.manager.Manager.ReceiveMessageHandler;
+import org.asamk.signal.manager.api.AccountCheckException;
+import org.asamk.signal.manager.api.MessageEnvelope;
+import org.asamk.signal.manager.api.NotRegisteredException;
+import org.asamk.signal.manager.api.ReceiveConfig;
+import org.asamk.signal.manager.api.ReceiveQueueConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Manager of an account, that is only loaded when it's used and closed again after it has been idle for a while.
+ * <p>
+ * Receive handlers, listeners and the receive config are kept while the account is hibernated and registered again,
+ * when it's activated. Messages aren't received while the account is hibernated, the server keeps them until the
+ * account is activated again to drain them.
+ */
+final class HibernatingManager implements InvocationHandler {
+
+    private static final Logger logger = LoggerFactory.getLogger(HibernatingManager.class);
+
+    private final Activator activator;
+    private final Manager proxy;
+
+    private final Map<ReceiveMessageHandler, ReceiveHandlerRegistration> receiveHandlers = new LinkedHashMap<>();
+    private final Set<Manager.CallEventListener> callEventListeners = new LinkedHashSet<>();
+    private final List<Runnable> closedListeners = new ArrayList<>();
+    private final List<Runnable> addressChangedListeners = new ArrayList<>();
+    private ReceiveConfig receiveConfig;
+
+    private volatile String number;
+    private Manager manager;
+    private int runningCalls;
+    // Set while the account is loaded or closed outside the lock, other transitions wait until it's done
+    private boolean transitioning;
+    private boolean closed;
+    private volatile long lastActivity = System.currentTimeMillis();
+    private long hibernatedAt = System.currentTimeMillis();
+
+    HibernatingManager(final String number, final Manager manager, final Activator activator) {
+        this.number = number;
+        this.activator = activator;
+        this.proxy = (Manager) Proxy.newProxyInstance(Manager.class.getClassLoader(),
+                new Class[]{Manager.class},
+                this);
+        if (manager != null) {
+            attach(manager);
+        }
+    }
+
+    Manager getManager() {
+        return proxy;
+    }
+
+    synchronized boolean isActive() {
+        return manager != null;
+    }
+
+    /**
+     * Whether messages should be received for this account, i.e. at least one non-weak receive handler is registered.
+     */
+    synchronized boolean isReceiving() {
+        return receiveHandlers.values().stream().anyMatch(r -> !r.isWeakListener());
+    }
+
+    synchronized boolean isHibernatedFor(final Duration duration) {
+        return !closed && manager == null && System.currentTimeMillis() - hibernatedAt >= duration.toMillis();
+    }
+
+    /**
+     * Load the account, if it's currently hibernated.
+     */
+    void activate() throws IOException, NotRegisteredException, AccountCheckException {
+        synchronized (this) {
+            while (true) {
+                if (closed) {
+                    throw new IOException("Account has been closed");
+                }
+                if (manager != null) {
+                    return;
+                }
+                if (!transitioning) {
+                    break;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted while waiting for account to be loaded", e);
+                }
+            }
+            transitioning = true;
+            lastActivity = System.currentTimeMillis();
+        }
+
+        // Load the account outside the lock, so calls that don't need the loaded account aren't blocked meanwhile
+        Manager loadedManager = null;
+        try {
+            loadedManager = activator.activate(number);
+        } catch (NotRegisteredException e) {
+            synchronized (this) {
+                closed = true;
+            }
+            runClosedListeners();
+            throw e;
+        } finally {
+            final var managerToClose = finishActivation(loadedManager);
+            if (managerToClose != null) {
+                managerToClose.close();
+            }
+        }
+    }
+
+    /**
+     * @return the loaded manager, if the account has been closed while it was loaded and it needs to be closed again
+     */
+    private synchronized Manager finishActivation(final Manager loadedManager) {
+        transitioning = false;
+        notifyAll();
+        if (loadedManager == null) {
+            return null;
+        }
+        if (closed) {
+            return loadedManager;
+        }
+        attach(loadedManager);
+        return null;
+    }
+
+    /**
+     * Close the loaded account, if it hasn't been used for the given duration.
+     */
+    void hibernateIfIdle(final Duration idleTimeout) {
+        final Manager manager;
+        synchronized (this) {
+            if (this.manager == null || transitioning || runningCalls > 0
+                    || System.currentTimeMillis() - lastActivity < idleTimeout.toMillis()) {
+                return;
+            }
+            logger.debug("Hibernating idle account {}", number);
+            manager = this.manager;
+            this.manager = null;
+            transitioning = true;
+        }
+        // Close the account outside the lock, as closing waits for the receive handlers to finish
+        try {
+            manager.close();
+        } finally {
+            synchronized (this) {
+                transitioning = false;
+                hibernatedAt = System.currentTimeMillis();
+                notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "equals" -> {
+                return proxy == args[0];
+            }
+            case "hashCode" -> {
+                return System.identityHashCode(proxy);
+            }
+            case "toString" -> {
+                return "HibernatingManager{" + number + "}";
+            }
+            case "getSelfNumber" -> {
+                return number;
+            }
+            case "addReceiveHandler" -> {
+                addReceiveHandler((ReceiveMessageHandler) args[0],
+                        args.length > 1 && (boolean) args[1],
+                        args.length > 2 ? (ReceiveQueueConfig) args[2] : ReceiveQueueConfig.DEFAULT);
+                return null;
+            }
+            case "removeReceiveHandler" -> {
+                removeReceiveHandler((ReceiveMessageHandler) args[0]);
+                return null;
+            }
+            case "getReceiveQueueStatistics" -> {
+                synchronized (this) {
+                    final var registration = receiveHandlers.get((ReceiveMessageHandler) args[0]);
+                    return registration == null || manager == null
+                            ? null
+                            : manager.getReceiveQueueStatistics(registration.wrapper());
+                }
+            }
+            case "isReceiving" -> {
+                synchronized (this) {
+                    if (manager == null) {
+                        return isReceiving();
+                    }
+                }
+            }
+            case "stopReceiveMessages" -> {
+                synchronized (this) {
+                    if (manager != null) {
+                        manager.stopReceiveMessages();
+                    }
+                    return null;
+                }
+            }
+            case "setReceiveConfig" -> {
+                synchronized (this) {
+                    receiveConfig = (ReceiveConfig) args[0];
+                    if (manager != null) {
+                        manager.setReceiveConfig(receiveConfig);
+                    }
+                    return null;
+                }
+            }
+            case "addCallEventListener", "removeCallEventListener" -> {
+                synchronized (this) {
+                    final var listener = (Manager.CallEventListener) args[0];
+                    if ("addCallEventListener".equals(method.getName())) {
+                        callEventListeners.add(listener);
+                    } else {
+                        callEventListeners.remove(listener);
+                    }
+                    if (manager != null) {
+                        invokeManager(manager, method, args);
+                    }
+                    return null;
+                }
+            }
+            case "addClosedListener" -> {
+                synchronized (closedListeners) {
+                    closedListeners.add((Runnable) args[0]);
+                }
+                return null;
+            }
+            case "addAddressChangedListener" -> {
+                synchronized (addressChangedListeners) {
+                    addressChangedListeners.add((Runnable) args[0]);
+                }
+                return null;
+            }
+            case "close" -> {
+                close();
+                return null;
+            }
+        }
+        final var manager = acquire();
+        try {
+            return invokeManager(manager, method, args);
+        } finally {
+            release();
+        }
+    }
+
+    private Manager acquire() {
+        while (true) {
+            try {
+                activate();
+            } catch (IOException | NotRegisteredException | AccountCheckException e) {
+                throw new IllegalStateException("Failed to activate account " + number + ": " + e.getMessage(), e);
+            }
+            synchronized (this) {
+                // The account may have been hibernated again in the meantime
+                if (manager != null) {
+                    runningCalls++;
+                    lastActivity = System.currentTimeMillis();
+                    return manager;
+                }
+            }
+        }
+    }
+
+    private synchronized void release() {
+        runningCalls--;
+        lastActivity = System.currentTimeMillis();
+    }
+
+    private void attach(final Manager manager) {
+        this.manager = manager;
+        manager.addClosedListener(() -> onManagerClosed(manager));
+        manager.addAddressChangedListener(() -> {
+            number = manager.getSelfNumber();
+            synchronized (addressChangedListeners) {
+                addressChangedListeners.forEach(Runnable::run);
+            }
+        });
+        if (receiveConfig != null) {
+            manager.setReceiveConfig(receiveConfig);
+        }
+        callEventListeners.forEach(manager::addCallEventListener);
+        for (final var registration : receiveHandlers.values()) {
+            manager.addReceiveHandler(registration.wrapper(),
+                    registration.isWeakListener(),
+                    registration.queueConfig());
+        }
+    }
+
+    private void onManagerClosed(final Manager closedManager) {
+        synchronized (this) {
+            // Hibernated managers have already been detached
+            if (manager != closedManager) {
+                return;
+            }
+            // The account was closed by itself, e.g. because it has been unregistered
+            manager = null;
+            closed = true;
+        }
+        runClosedListeners();
+    }
+
+    private synchronized void addReceiveHandler(
+            final ReceiveMessageHandler handler,
+            final boolean isWeakListener,
+            final ReceiveQueueConfig queueConfig
+    ) {
+        if (receiveHandlers.containsKey(handler)) {
+            return;
+        }
+        final var wrapper = new ReceiveMessageHandler() {
+            @Override
+            public void handleMessage(final MessageEnvelope envelope, final Throwable e) {
+                lastActivity = System.currentTimeMillis();
+                handler.handleMessage(envelope, e);
+            }
+
+            @Override
+            public void handleDisconnect() {
+                synchronized (HibernatingManager.this) {
+                    receiveHandlers.remove(handler);
+                }
+                handler.handleDisconnect();
+            }
+        };
+        receiveHandlers.put(handler, new ReceiveHandlerRegistration(wrapper, isWeakListener, queueConfig));
+        if (manager != null) {
+            manager.addReceiveHandler(wrapper, isWeakListener, queueConfig);
+        }
+    }
+
+    private synchronized void removeReceiveHandler(final ReceiveMessageHandler handler) {
+        final var registration = receiveHandlers.remove(handler);
+        if (registration != null && manager != null) {
+            manager.removeReceiveHandler(registration.wrapper());
+        }
+    }
+
+    private void close() {
+        final Manager manager;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            manager = this.manager;
+            this.manager = null;
+        }
+        if (manager != null) {
+            manager.close();
+        }
+        runClosedListeners();
+    }
+
+    private void runClosedListeners() {
+        final List<Runnable> listeners;
+        synchronized (closedListeners) {
+            listeners = new ArrayList<>(closedListeners);
+        }
+        listeners.forEach(Runnable::run);
+    }
+
+    private static Object invokeManager(
+            final Manager target,
+            final Method method,
+            final Object[] args
+    ) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    interface Activator {
+
+        Manager activate(String number) throws IOException, NotRegisteredException, AccountCheckException;
+    }
+
+    private record ReceiveHandlerRegistration(
+            ReceiveMessageHandler wrapper, boolean isWeakListener, ReceiveQueueConfig queueConfig
+    ) {}
+}
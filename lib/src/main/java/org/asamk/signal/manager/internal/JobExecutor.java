@@ -1,30 +1,94 @@
 package org.asamk.signal.manager.internal;
 
 import org.asamk.signal.manager.helper.Context;
+import org.asamk.signal.manager.jobs.CheckWhoAmIJob;
+import org.asamk.signal.manager.jobs.CleanOldPreKeysJob;
+import org.asamk.signal.manager.jobs.DownloadProfileAvatarJob;
 import org.asamk.signal.manager.jobs.Job;
+import org.asamk.signal.manager.jobs.RefreshRecipientsJob;
+import org.asamk.signal.manager.jobs.RetrieveStickerPackJob;
+import org.asamk.signal.manager.jobs.RetryLaterException;
+import org.asamk.signal.manager.jobs.SyncStorageJob;
+import org.asamk.signal.manager.storage.jobs.JobStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayDeque;
-import java.util.Queue;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
+/**
+ * Runs the background jobs of an account.
+ * <p>
+ * Pending jobs are run by priority, jobs with the same coalesce key are only queued once. Jobs that can be serialized
+ * are stored in the account database until they have finished, so they are run again after a restart.
+ * Failed jobs are retried with an exponential backoff.
+ */
 public class JobExecutor implements AutoCloseable {
 
     private static final Logger logger = LoggerFactory.getLogger(JobExecutor.class);
+
+    private static final int MAX_CONCURRENT_JOBS = 4;
+    private static final int MAX_ATTEMPTS = 8;
+    private static final Duration INITIAL_RETRY_DELAY = Duration.ofSeconds(30);
+    private static final Duration MAX_RETRY_DELAY = Duration.ofHours(1);
+
+    private static final Comparator<QueuedJob> JOB_ORDER = Comparator.comparing((QueuedJob j) -> j.job()
+            .getPriority()).thenComparingLong(QueuedJob::sequence);
+
     private final Context context;
+    private final AccountWorkers accountWorkers;
+    private final Supplier<JobStore> jobStore;
+    private final JobDeserializer jobDeserializer;
     private final ExecutorService executorService;
-    private Job running;
-    private final Queue<Job> queue = new ArrayDeque<>();
+
+    private final List<QueuedJob> queue = new ArrayList<>();
+    private final Map<String, QueuedJob> pendingByCoalesceKey = new HashMap<>();
+    // Ids of the stored jobs, that are queued or running
+    private final Set<Long> activeJobIds = new HashSet<>();
+    private final Map<Class<? extends Job>, Integer> runningByType = new HashMap<>();
+    private int running;
+    private long nextSequence;
+    private long nextWakeup = Long.MAX_VALUE;
+    private boolean restored;
     private boolean terminating = false;
 
-    public JobExecutor(final Context context) {
+    public JobExecutor(final Context context, final AccountWorkers accountWorkers) {
+        this(context, accountWorkers, () -> context.getAccount().getJobStore(), JobExecutor::deserializeJob);
+    }
+
+    JobExecutor(
+            final Context context,
+            final AccountWorkers accountWorkers,
+            final Supplier<JobStore> jobStore,
+            final JobDeserializer jobDeserializer
+    ) {
         this.context = context;
+        this.accountWorkers = accountWorkers;
+        this.jobStore = jobStore;
+        this.jobDeserializer = jobDeserializer;
         this.executorService = Executors.newVirtualThreadPerTaskExecutor();
     }
 
     public void enqueueJob(Job job) {
+        enqueueJob(job, Duration.ZERO);
+    }
+
+    /**
+     * Queue the job to run after the given delay.
+     */
+    public void enqueueJob(Job job, Duration delay) {
         boolean executorShutdown = executorService.isShutdown();
 
         synchronized (queue) {
@@ -36,43 +100,253 @@ public class JobExecutor implements AutoCloseable {
                 return;
             }
 
+            // Stored jobs are restored first, so a new job is coalesced with a pending stored job
+            restoreStoredJobs();
+
+            final var coalesceKey = job.getCoalesceKey();
+            if (coalesceKey != null && pendingByCoalesceKey.containsKey(coalesceKey)) {
+                logger.trace("Not enqueuing {} job, already pending", job.getClass().getSimpleName());
+                return;
+            }
+
             logger.trace("Enqueuing {} job", job.getClass().getSimpleName());
-            queue.add(job);
+            final var runAfter = System.currentTimeMillis() + delay.toMillis();
+            addToQueue(new QueuedJob(job, storeJob(job, runAfter), runAfter, 0, nextSequence++));
         }
 
-        runNextJob();
+        runNextJobs();
     }
 
-    private void runNextJob() {
-        Job job;
+    /**
+     * Queue the jobs, that were still pending when the account was closed last time.
+     * This happens at the latest before the first job is enqueued.
+     */
+    public void restoreJobs() {
         synchronized (queue) {
-            if (running != null) {
+            if (terminating) {
                 return;
             }
-            job = queue.poll();
-            running = job;
+            restoreStoredJobs();
+        }
 
-            // queue is empty
-            if (job == null) {
-                queue.notifyAll();
-                return;
+        runNextJobs();
+    }
+
+    private void restoreStoredJobs() {
+        if (restored) {
+            return;
+        }
+        restored = true;
+        final List<JobStore.StoredJob> storedJobs;
+        try {
+            storedJobs = getJobStore().getJobs();
+        } catch (RuntimeException e) {
+            logger.warn("Failed to restore stored jobs", e);
+            return;
+        }
+        for (final var storedJob : storedJobs) {
+            if (activeJobIds.contains(storedJob.id())) {
+                continue;
             }
+            final Job job;
+            try {
+                job = jobDeserializer.deserialize(storedJob.type(), storedJob.data());
+            } catch (IOException e) {
+                logger.warn("Dropping stored {} job: {}", storedJob.type(), e.getMessage());
+                getJobStore().deleteJob(storedJob.id());
+                continue;
+            }
+            final var coalesceKey = job.getCoalesceKey();
+            if (coalesceKey != null && pendingByCoalesceKey.containsKey(coalesceKey)) {
+                getJobStore().deleteJob(storedJob.id());
+                continue;
+            }
+            logger.trace("Restoring {} job", storedJob.type());
+            addToQueue(new QueuedJob(job, storedJob.id(), storedJob.runAfter(), storedJob.attempts(), nextSequence++));
+        }
+    }
+
+    private long storeJob(final Job job, final long runAfter) {
+        final var data = job.serialize();
+        if (data == null) {
+            return -1;
+        }
+        try {
+            return getJobStore().addJob(job.getClass().getSimpleName(), data, runAfter, 0);
+        } catch (RuntimeException e) {
+            logger.warn("Failed to store {} job, it won't be run after a restart", job.getClass().getSimpleName(), e);
+            return -1;
+        }
+    }
+
+    private void addToQueue(final QueuedJob queuedJob) {
+        queue.add(queuedJob);
+        if (queuedJob.id() >= 0) {
+            activeJobIds.add(queuedJob.id());
         }
+        final var coalesceKey = queuedJob.job().getCoalesceKey();
+        if (coalesceKey != null) {
+            pendingByCoalesceKey.put(coalesceKey, queuedJob);
+        }
+    }
 
+    private void runNextJobs() {
+        while (true) {
+            final QueuedJob queuedJob;
+            synchronized (queue) {
+                queuedJob = pollNextJob();
+                if (queuedJob == null) {
+                    if (running == 0 && !hasDueJobs()) {
+                        queue.notifyAll();
+                    }
+                    return;
+                }
+            }
+            executorService.execute(() -> runJob(queuedJob));
+        }
+    }
+
+    /**
+     * Remove the highest priority job from the queue, that is due and whose type hasn't reached its concurrency limit.
+     */
+    private QueuedJob pollNextJob() {
+        if (running >= MAX_CONCURRENT_JOBS) {
+            return null;
+        }
+        final var now = System.currentTimeMillis();
+        QueuedJob next = null;
+        var earliestDelayed = Long.MAX_VALUE;
+        for (final var queuedJob : queue) {
+            if (queuedJob.runAfter() > now) {
+                earliestDelayed = Math.min(earliestDelayed, queuedJob.runAfter());
+                continue;
+            }
+            final var job = queuedJob.job();
+            if (runningByType.getOrDefault(job.getClass(), 0) >= job.getMaxConcurrency()) {
+                continue;
+            }
+            if (next == null || JOB_ORDER.compare(queuedJob, next) < 0) {
+                next = queuedJob;
+            }
+        }
+        if (next == null) {
+            scheduleWakeup(earliestDelayed);
+            return null;
+        }
+
+        queue.remove(next);
+        final var coalesceKey = next.job().getCoalesceKey();
+        if (coalesceKey != null) {
+            pendingByCoalesceKey.remove(coalesceKey, next);
+        }
+        running++;
+        runningByType.merge(next.job().getClass(), 1, Integer::sum);
+        return next;
+    }
+
+    private boolean hasDueJobs() {
+        final var now = System.currentTimeMillis();
+        return queue.stream().anyMatch(j -> j.runAfter() <= now);
+    }
+
+    private void scheduleWakeup(final long time) {
+        if (terminating || time == Long.MAX_VALUE || time >= nextWakeup) {
+            return;
+        }
+        nextWakeup = time;
+        final var delay = Math.max(0, time - System.currentTimeMillis());
+        // The shared delay scheduler avoids a timer thread per account
+        CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS, executorService).execute(() -> {
+            synchronized (queue) {
+                if (nextWakeup == time) {
+                    nextWakeup = Long.MAX_VALUE;
+                }
+            }
+            runNextJobs();
+        });
+    }
+
+    private void runJob(final QueuedJob queuedJob) {
+        final var job = queuedJob.job();
         logger.debug("Running {} job", job.getClass().getSimpleName());
-        executorService.execute(() -> {
+        QueuedJob retry = null;
+        try {
+            // The shared job workers limit the jobs running at the same time across accounts
+            final var exception = accountWorkers.callJob(() -> {
+                try {
+                    job.run(context);
+                    return null;
+                } catch (RetryLaterException e) {
+                    return e;
+                }
+            });
+            if (exception != null) {
+                retry = getRetry(queuedJob, exception);
+            }
+        } catch (InterruptedException e) {
+            logger.debug("Interrupted while waiting to run {} job", job.getClass().getSimpleName());
+            retry = queuedJob;
+        } catch (Throwable e) {
+            logger.warn("Job {} failed", job.getClass().getSimpleName(), e);
+        } finally {
             try {
-                job.run(context);
-            } catch (Throwable e) {
-                logger.warn("Job {} failed", job.getClass().getSimpleName(), e);
-            } finally {
-                synchronized (queue) {
-                    running = null;
+                if (retry == null && queuedJob.id() >= 0) {
+                    getJobStore().deleteJob(queuedJob.id());
+                } else if (retry != null && queuedJob.id() >= 0) {
+                    getJobStore().updateJob(retry.id(), retry.runAfter(), retry.attempts());
                 }
-                logger.debug("Finished {} job", job.getClass().getSimpleName());
-                runNextJob();
+            } catch (RuntimeException e) {
+                logger.warn("Failed to update stored {} job", job.getClass().getSimpleName(), e);
             }
-        });
+            synchronized (queue) {
+                running--;
+                runningByType.merge(job.getClass(), -1, Integer::sum);
+                if (retry != null && !terminating) {
+                    addToQueue(retry);
+                } else {
+                    activeJobIds.remove(queuedJob.id());
+                }
+            }
+            logger.debug("Finished {} job", job.getClass().getSimpleName());
+            runNextJobs();
+        }
+    }
+
+    private QueuedJob getRetry(final QueuedJob queuedJob, final RetryLaterException e) {
+        final var job = queuedJob.job();
+        final var attempts = queuedJob.attempts() + 1;
+        if (attempts >= MAX_ATTEMPTS) {
+            logger.warn("Job {} failed {} times, giving up", job.getClass().getSimpleName(), attempts);
+            return null;
+        }
+        final var backoff = INITIAL_RETRY_DELAY.multipliedBy(1L << Math.min(attempts - 1, 20));
+        final var delay = e.getRetryAfter() != null
+                ? e.getRetryAfter()
+                : backoff.compareTo(MAX_RETRY_DELAY) > 0 ? MAX_RETRY_DELAY : backoff;
+        logger.debug("Retrying {} job in {}s", job.getClass().getSimpleName(), delay.toSeconds());
+        synchronized (queue) {
+            return new QueuedJob(job,
+                    queuedJob.id(),
+                    System.currentTimeMillis() + delay.toMillis(),
+                    attempts,
+                    nextSequence++);
+        }
+    }
+
+    private JobStore getJobStore() {
+        return jobStore.get();
+    }
+
+    private static Job deserializeJob(final String type, final String data) throws IOException {
+        return switch (type) {
+            case "CheckWhoAmIJob" -> new CheckWhoAmIJob();
+            case "CleanOldPreKeysJob" -> new CleanOldPreKeysJob();
+            case "DownloadProfileAvatarJob" -> new DownloadProfileAvatarJob(data);
+            case "RefreshRecipientsJob" -> new RefreshRecipientsJob();
+            case "RetrieveStickerPackJob" -> RetrieveStickerPackJob.deserialize(data);
+            case "SyncStorageJob" -> new SyncStorageJob("force".equals(data));
+            default -> throw new IOException("Unknown job type");
+        };
     }
 
     @Override
@@ -82,16 +356,18 @@ public class JobExecutor implements AutoCloseable {
             // Stop accepting new jobs.
             terminating = true;
 
-            // Wait till queued jobs are processed and the queue is empty.
-            while (!queue.isEmpty()){
+            // Wait till due jobs are processed, delayed jobs that are stored will run after the next start.
+            while (running > 0 || hasDueJobs()) {
                 try {
                     queue.wait(1000L);
                 } catch (InterruptedException e) {
                     logger.info("Discarding JobExecutor job queue");
-                    queue.clear();
                     break;
                 }
             }
+            queue.clear();
+            pendingByCoalesceKey.clear();
+            activeJobIds.clear();
         }
 
         logger.debug("Stopping JobExecutor: waiting for the last job to finish");
@@ -99,4 +375,15 @@ public class JobExecutor implements AutoCloseable {
 
         logger.debug("Stopped JobExecutor");
     }
+
+    interface JobDeserializer {
+
+        Job deserialize(String type, String data) throws IOException;
+    }
+
+    /**
+     * @param id       id of the stored job or -1, if the job isn't stored
+     * @param runAfter time in milliseconds, before which the job isn't run
+     */
+    private record QueuedJob(Job job, long id, long runAfter, int attempts, long sequence) {}
 }
@@ -55,6 +55,8 @@ import org.asamk.signal.manager.api.PinLockedException;
 import org.asamk.signal.manager.api.Profile;
 import org.asamk.signal.manager.api.RateLimitException;
 import org.asamk.signal.manager.api.ReceiveConfig;
+import org.asamk.signal.manager.api.ReceiveQueueConfig;
+import org.asamk.signal.manager.api.ReceiveQueueStatistics;
 import org.asamk.signal.manager.api.Recipient;
 import org.asamk.signal.manager.api.RecipientIdentifier;
 import org.asamk.signal.manager.api.SendGroupMessageResults;
@@ -134,7 +136,6 @@ import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -166,11 +167,12 @@ public class ManagerImpl implements Manager {
     private final Context context;
 
     private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final ExecutorService sendExecutor;
 
     private Thread receiveThread;
     private boolean isReceivingSynchronous;
-    private final Set<ReceiveMessageHandler> weakHandlers = new HashSet<>();
-    private final Set<ReceiveMessageHandler> messageHandlers = new HashSet<>();
+    private final Map<ReceiveMessageHandler, ReceiveHandlerQueue> weakHandlers = new HashMap<>();
+    private final Map<ReceiveMessageHandler, ReceiveHandlerQueue> messageHandlers = new HashMap<>();
     private final List<Runnable> closedListeners = new ArrayList<>();
     private final List<Runnable> addressChangedListeners = new ArrayList<>();
     private final CompositeDisposable disposable = new CompositeDisposable();
@@ -182,15 +184,34 @@ public class ManagerImpl implements Manager {
             AccountFileUpdater accountFileUpdater,
             ServiceEnvironmentConfig serviceEnvironmentConfig,
             String userAgent
+    ) {
+        this(account,
+                pathConfig,
+                accountFileUpdater,
+                serviceEnvironmentConfig,
+                userAgent,
+                new AccountWorkers(account.getAccountWorkers()));
+    }
+
+    public ManagerImpl(
+            SignalAccount account,
+            PathConfig pathConfig,
+            AccountFileUpdater accountFileUpdater,
+            ServiceEnvironmentConfig serviceEnvironmentConfig,
+            String userAgent,
+            AccountWorkers accountWorkers
     ) {
         this.account = account;
+        // Limits how many recipients a message is sent to at the same time
+        this.sendExecutor = Executors.newFixedThreadPool(account.getSendConcurrency(),
+                Thread.ofVirtual().name("send-", 0).factory());
 
         final var sessionLock = new ReentrantSignalSessionLock();
         this.dependencies = new SignalDependencies(serviceEnvironmentConfig,
                 userAgent,
                 account.getCredentialsProvider(),
                 account.getSignalServiceDataStore(),
-                executor,
+                sendExecutor,
                 sessionLock);
         final var avatarStore = new AvatarStore(pathConfig.avatarsPath());
         final var attachmentStore = new AttachmentStore(pathConfig.attachmentsPath());
@@ -209,7 +230,7 @@ public class ManagerImpl implements Manager {
             public void removeAccount() {
                 accountFileUpdater.removeAccount();
             }
-        }, dependencies, avatarStore, attachmentStore, stickerPackStore);
+        }, dependencies, avatarStore, attachmentStore, stickerPackStore, accountWorkers);
         this.context.getAccountHelper().setUnregisteredListener(this::close);
         this.context.getReceiveHelper().setAuthenticationFailureListener(this::close);
         this.context.getReceiveHelper().setCaughtUpWithOldMessagesListener(() -> {
@@ -250,6 +271,8 @@ public class ManagerImpl implements Manager {
     }
 
     public void checkAccountState() throws IOException {
+        // Restore stored jobs first, so they aren't mixed up with the jobs enqueued while checking the account
+        context.getJobExecutor().restoreJobs();
         context.getAccountHelper().checkAccountState();
         final var lastRecipientsRefresh = account.getLastRecipientsRefresh();
         if (lastRecipientsRefresh == null
@@ -1403,16 +1426,51 @@ public class ManagerImpl implements Manager {
 
     @Override
     public void addReceiveHandler(final ReceiveMessageHandler handler, final boolean isWeakListener) {
+        addReceiveHandler(handler, isWeakListener, ReceiveQueueConfig.DEFAULT);
+    }
+
+    @Override
+    public void addReceiveHandler(
+            final ReceiveMessageHandler handler,
+            final boolean isWeakListener,
+            final ReceiveQueueConfig queueConfig
+    ) {
         synchronized (messageHandlers) {
-            if (isWeakListener) {
-                weakHandlers.add(handler);
-            } else {
-                messageHandlers.add(handler);
+            final var handlers = isWeakListener ? weakHandlers : messageHandlers;
+            if (handlers.containsKey(handler)) {
+                return;
+            }
+            final var handlerQueue = new ReceiveHandlerQueue(handler,
+                    queueConfig,
+                    () -> executor.execute(() -> disconnectReceiveHandler(handler)));
+            handlers.put(handler, handlerQueue);
+            handlerQueue.start();
+            if (!isWeakListener) {
                 startReceiveThreadIfRequired();
             }
         }
     }
 
+    private void disconnectReceiveHandler(final ReceiveMessageHandler handler) {
+        removeReceiveHandler(handler);
+        try {
+            handler.handleDisconnect();
+        } catch (Throwable e) {
+            logger.warn("Message handler failed, ignoring", e);
+        }
+    }
+
+    @Override
+    public ReceiveQueueStatistics getReceiveQueueStatistics(final ReceiveMessageHandler handler) {
+        final ReceiveHandlerQueue handlerQueue;
+        synchronized (messageHandlers) {
+            handlerQueue = messageHandlers.containsKey(handler)
+                    ? messageHandlers.get(handler)
+                    : weakHandlers.get(handler);
+        }
+        return handlerQueue == null ? null : handlerQueue.getStatistics();
+    }
+
     private static final AtomicInteger threadNumber = new AtomicInteger(0);
 
     private void startReceiveThreadIfRequired() {
@@ -1420,7 +1478,7 @@ public class ManagerImpl implements Manager {
         if (receiveThread != null || isReceivingSynchronous) {
             return;
         }
-        receiveThread = Thread.ofPlatform().name("receive-" + threadNumber.getAndIncrement()).start(() -> {
+        receiveThread = Thread.ofVirtual().name("receive-" + threadNumber.getAndIncrement()).start(() -> {
             logger.debug("Starting receiving messages");
             context.getReceiveHelper().receiveMessagesContinuously(this::passReceivedMessageToHandlers);
             logger.debug("Finished receiving messages");
@@ -1437,14 +1495,12 @@ public class ManagerImpl implements Manager {
     }
 
     private void passReceivedMessageToHandlers(MessageEnvelope envelope, Throwable e) {
+        final List<ReceiveHandlerQueue> handlerQueues;
         synchronized (messageHandlers) {
-            Stream.concat(messageHandlers.stream(), weakHandlers.stream()).forEach(h -> {
-                try {
-                    h.handleMessage(envelope, e);
-                } catch (Throwable ex) {
-                    logger.warn("Message handler failed, ignoring", ex);
-                }
-            });
+            handlerQueues = Stream.concat(messageHandlers.values().stream(), weakHandlers.values().stream()).toList();
+        }
+        for (final var handlerQueue : handlerQueues) {
+            handlerQueue.offer(envelope, e);
         }
     }
 
@@ -1452,8 +1508,9 @@ public class ManagerImpl implements Manager {
     public void removeReceiveHandler(final ReceiveMessageHandler handler) {
         final Thread thread;
         synchronized (messageHandlers) {
-            weakHandlers.remove(handler);
-            messageHandlers.remove(handler);
+            Stream.of(weakHandlers.remove(handler), messageHandlers.remove(handler))
+                    .filter(Objects::nonNull)
+                    .forEach(ReceiveHandlerQueue::cancel);
             if (!messageHandlers.isEmpty() || receiveThread == null || isReceivingSynchronous) {
                 return;
             }
@@ -1934,12 +1991,22 @@ public class ManagerImpl implements Manager {
         if (thread != null) {
             stopReceiveThread(thread);
         }
+        final List<ReceiveHandlerQueue> handlerQueues;
         synchronized (messageHandlers) {
+            handlerQueues = Stream.concat(messageHandlers.values().stream(), weakHandlers.values().stream()).toList();
             weakHandlers.clear();
             messageHandlers.clear();
         }
+        handlerQueues.forEach(ReceiveHandlerQueue::close);
+        try {
+            for (final var handlerQueue : handlerQueues) {
+                handlerQueue.awaitTermination(Duration.ofSeconds(10));
+            }
+        } catch (InterruptedException ignored) {
+        }
         context.close();
         executor.close();
+        sendExecutor.close();
 
         dependencies.getAuthenticatedSignalWebSocket().disconnect();
         dependencies.getUnauthenticatedSignalWebSocket().disconnect();
@@ -12,6 +12,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.URI;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -19,12 +20,18 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
 
 public class MultiAccountManagerImpl implements MultiAccountManager {
 
     private static final Logger logger = LoggerFactory.getLogger(MultiAccountManagerImpl.class);
+    private static final Duration HIBERNATION_CHECK_INTERVAL = Duration.ofSeconds(10);
 
     private final Set<Consumer<Manager>> onManagerAddedHandlers = new HashSet<>();
     private final Set<Consumer<Manager>> onManagerRemovedHandlers = new HashSet<>();
@@ -32,10 +39,54 @@ public class MultiAccountManagerImpl implements MultiAccountManager {
     private final Map<URI, ProvisioningManager> provisioningManagers = new HashMap<>();
     private final SignalAccountFiles signalAccountFiles;
 
+    private final Map<Manager, HibernatingManager> hibernatingManagers = new HashMap<>();
+    private final Set<HibernatingManager> hibernationTasks = ConcurrentHashMap.newKeySet();
+    private final AccountWorkers accountWorkers;
+    private final Duration idleTimeout;
+    private final Duration drainInterval;
+    private final ScheduledExecutorService hibernationScheduler;
+    private final ExecutorService hibernationExecutor;
+
     public MultiAccountManagerImpl(final Collection<Manager> managers, final SignalAccountFiles signalAccountFiles) {
         this.signalAccountFiles = signalAccountFiles;
         this.managers.addAll(managers);
         managers.forEach(m -> m.addClosedListener(() -> this.removeManager(m)));
+        this.accountWorkers = null;
+        this.idleTimeout = null;
+        this.drainInterval = null;
+        this.hibernationScheduler = null;
+        this.hibernationExecutor = null;
+    }
+
+    /**
+     * Create a multi account manager, that loads accounts only when they are used and hibernates them again after they
+     * have been idle for the idle timeout.
+     * Hibernated accounts with a registered receive handler are loaded every drain interval to receive new messages.
+     */
+    public MultiAccountManagerImpl(
+            final Collection<String> accountNumbers,
+            final SignalAccountFiles signalAccountFiles,
+            final AccountWorkers accountWorkers,
+            final Duration idleTimeout,
+            final Duration drainInterval
+    ) {
+        this.signalAccountFiles = signalAccountFiles;
+        this.accountWorkers = accountWorkers;
+        this.idleTimeout = idleTimeout;
+        this.drainInterval = drainInterval;
+        for (final var number : accountNumbers) {
+            final var m = addHibernatingManager(number, null);
+            managers.add(m);
+            m.addClosedListener(() -> this.removeManager(m));
+        }
+        this.hibernationExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        this.hibernationScheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual()
+                .name("account-hibernation")
+                .factory());
+        hibernationScheduler.scheduleWithFixedDelay(this::hibernateIdleAccounts,
+                HIBERNATION_CHECK_INTERVAL.toMillis(),
+                HIBERNATION_CHECK_INTERVAL.toMillis(),
+                TimeUnit.MILLISECONDS);
     }
 
     @Override
@@ -52,8 +103,10 @@ public class MultiAccountManagerImpl implements MultiAccountManager {
         }
     }
 
-    private void addManager(final Manager m) {
+    private void addManager(final Manager manager) {
+        final Manager m;
         synchronized (managers) {
+            m = hibernationScheduler == null ? manager : addHibernatingManager(manager.getSelfNumber(), manager);
             if (managers.contains(m)) {
                 return;
             }
@@ -79,6 +132,7 @@ public class MultiAccountManagerImpl implements MultiAccountManager {
             if (!managers.remove(m)) {
                 return;
             }
+            hibernatingManagers.remove(m);
         }
         synchronized (onManagerRemovedHandlers) {
             for (final var handler : onManagerRemovedHandlers) {
@@ -96,25 +150,108 @@ public class MultiAccountManagerImpl implements MultiAccountManager {
 
     @Override
     public Manager getManager(final String number) {
+        final HibernatingManager hibernatingManager;
         synchronized (managers) {
             final var manager = managers.stream()
                     .filter(m -> m.getSelfNumber().equals(number))
                     .findFirst()
                     .orElse(null);
-            if (manager != null) {
+            hibernatingManager = manager == null ? null : hibernatingManagers.get(manager);
+            if (manager != null && hibernatingManager == null) {
                 return manager;
             }
-            try {
-                final var newManager = signalAccountFiles.initManager(number);
+            if (manager == null) {
+                return initManager(number);
+            }
+        }
+        // Load a hibernated account outside the lock, so other accounts can be accessed in the meantime
+        try {
+            hibernatingManager.activate();
+            return hibernatingManager.getManager();
+        } catch (IOException | NotRegisteredException | AccountCheckException e) {
+            logger.warn("Failed to load manager", e);
+            return null;
+        }
+    }
+
+    @Override
+    public boolean isLoaded(final Manager manager) {
+        final HibernatingManager hibernatingManager;
+        synchronized (managers) {
+            hibernatingManager = hibernatingManagers.get(manager);
+        }
+        return hibernatingManager == null || hibernatingManager.isActive();
+    }
+
+    private Manager initManager(final String number) {
+        try {
+            final var newManager = signalAccountFiles.initManager(number);
+            if (hibernationScheduler == null) {
                 managers.add(newManager);
                 return newManager;
-            } catch (IOException | NotRegisteredException | AccountCheckException e) {
-                logger.warn("Failed to load new manager", e);
-                return null;
+            }
+            final var m = addHibernatingManager(number, newManager);
+            managers.add(m);
+            m.addClosedListener(() -> this.removeManager(m));
+            return m;
+        } catch (IOException | NotRegisteredException | AccountCheckException e) {
+            logger.warn("Failed to load new manager", e);
+            return null;
+        }
+    }
+
+    private Manager addHibernatingManager(final String number, final Manager manager) {
+        final var hibernatingManager = new HibernatingManager(number, manager, signalAccountFiles::initManager);
+        final var m = hibernatingManager.getManager();
+        synchronized (managers) {
+            hibernatingManagers.put(m, hibernatingManager);
+        }
+        return m;
+    }
+
+    private void hibernateIdleAccounts() {
+        final List<HibernatingManager> accounts;
+        synchronized (managers) {
+            accounts = new ArrayList<>(hibernatingManagers.values());
+        }
+        for (final var account : accounts) {
+            if (account.isActive()) {
+                runHibernationTask(account, () -> account.hibernateIfIdle(idleTimeout));
+            } else if (account.isReceiving() && account.isHibernatedFor(drainInterval)) {
+                // Activated accounts start receiving and stay active until they have been idle for the idle timeout
+                runHibernationTask(account, () -> {
+                    try {
+                        accountWorkers.run(() -> {
+                            try {
+                                account.activate();
+                            } catch (IOException | NotRegisteredException | AccountCheckException e) {
+                                logger.warn("Failed to load account {} to receive messages: {}",
+                                        account.getManager().getSelfNumber(),
+                                        e.getMessage());
+                            }
+                        });
+                    } catch (InterruptedException ignored) {
+                    }
+                });
             }
         }
     }
 
+    private void runHibernationTask(final HibernatingManager account, final Runnable task) {
+        if (!hibernationTasks.add(account)) {
+            return;
+        }
+        hibernationExecutor.execute(() -> {
+            try {
+                task.run();
+            } catch (Throwable e) {
+                logger.warn("Failed to activate or hibernate account", e);
+            } finally {
+                hibernationTasks.remove(account);
+            }
+        });
+    }
+
     @Override
     public URI getNewProvisioningDeviceLinkUri() throws TimeoutException, IOException {
         final var provisioningManager = getNewProvisioningManager();
@@ -139,10 +276,14 @@ public class MultiAccountManagerImpl implements MultiAccountManager {
 
     @Override
     public void close() {
+        if (hibernationScheduler != null) {
+            hibernationScheduler.shutdownNow();
+            hibernationExecutor.shutdownNow();
+        }
         final List<Thread> closeThreads;
         synchronized (managers) {
             closeThreads = new ArrayList<>(managers).stream()
-                    .map(m -> Thread.ofPlatform().name("manager-close-" + m.getSelfNumber()).start(m::close))
+                    .map(m -> Thread.ofVirtual().name("manager-close-" + m.getSelfNumber()).start(m::close))
                     .toList();
         }
 
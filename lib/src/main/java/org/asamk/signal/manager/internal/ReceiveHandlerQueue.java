@@ -0,0 +1,154 @@
+package org.asamk.signal.manager.internal;
+
+import org.asamk.signal.manager.Manager;
+import org.asamk.signal.manager.api.MessageEnvelope;
+import org.asamk.signal.manager.api.ReceiveQueueConfig;
+import org.asamk.signal.manager.api.ReceiveQueueStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Delivers received messages to a single receive handler on its own virtual thread.
+ * <p>
+ * Messages are buffered in a bounded queue, so a slow handler stalls neither the receive thread nor other handlers.
+ * What happens when the queue is full is determined by the overflow policy of the queue config.
+ */
+final class ReceiveHandlerQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReceiveHandlerQueue.class);
+    private static final AtomicInteger threadNumber = new AtomicInteger(0);
+
+    private final Manager.ReceiveMessageHandler handler;
+    private final ReceiveQueueConfig config;
+    private final Runnable onDisconnect;
+    private final Queue<QueuedMessage> queue = new ArrayDeque<>();
+    private final Thread thread;
+
+    private boolean closed;
+    private int peakQueueDepth;
+    private long droppedMessages;
+
+    ReceiveHandlerQueue(
+            final Manager.ReceiveMessageHandler handler,
+            final ReceiveQueueConfig config,
+            final Runnable onDisconnect
+    ) {
+        this.handler = handler;
+        this.config = config;
+        this.onDisconnect = onDisconnect;
+        this.thread = Thread.ofVirtual().name("receive-handler-" + threadNumber.getAndIncrement()).unstarted(this::run);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Queue a message for the receive handler.
+     * Depending on the overflow policy this blocks until there's room in the queue.
+     */
+    void offer(final MessageEnvelope envelope, final Throwable exception) {
+        var disconnect = false;
+        synchronized (this) {
+            while (!closed && queue.size() >= config.capacity()) {
+                switch (config.overflowPolicy()) {
+                    case DROP_OLDEST -> {
+                        queue.remove();
+                        dropped(1);
+                    }
+                    case DISCONNECT -> {
+                        dropped(queue.size() + 1);
+                        queue.clear();
+                        closed = true;
+                        disconnect = true;
+                    }
+                    case BLOCK -> {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            dropped(1);
+                            return;
+                        }
+                    }
+                }
+            }
+            if (!closed) {
+                queue.add(new QueuedMessage(envelope, exception));
+                peakQueueDepth = Math.max(peakQueueDepth, queue.size());
+                notifyAll();
+            }
+        }
+        if (disconnect) {
+            logger.warn("Receive handler didn't keep up with {} queued messages, disconnecting", config.capacity());
+            onDisconnect.run();
+        }
+    }
+
+    synchronized ReceiveQueueStatistics getStatistics() {
+        return new ReceiveQueueStatistics(queue.size(), peakQueueDepth, droppedMessages);
+    }
+
+    /**
+     * Stop accepting new messages, already queued messages are still delivered.
+     */
+    synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    /**
+     * Stop accepting new messages and discard the queued messages.
+     * A message that is currently being handled isn't interrupted.
+     */
+    synchronized void cancel() {
+        closed = true;
+        queue.clear();
+        notifyAll();
+    }
+
+    void awaitTermination(final Duration timeout) throws InterruptedException {
+        if (thread != Thread.currentThread()) {
+            thread.join(timeout);
+        }
+    }
+
+    private void dropped(final int count) {
+        droppedMessages += count;
+        if (droppedMessages == count || droppedMessages / 1000 != (droppedMessages - count) / 1000) {
+            logger.warn("Receive handler queue is full, {} messages dropped so far", droppedMessages);
+        }
+    }
+
+    private void run() {
+        while (true) {
+            final QueuedMessage message;
+            synchronized (this) {
+                while (queue.isEmpty() && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                message = queue.poll();
+                if (message == null) {
+                    return;
+                }
+                notifyAll();
+            }
+            try {
+                handler.handleMessage(message.envelope(), message.exception());
+            } catch (Throwable ex) {
+                logger.warn("Message handler failed, ignoring", ex);
+            }
+        }
+    }
+
+    private record QueuedMessage(MessageEnvelope envelope, Throwable exception) {}
+}
@@ -30,7 +30,9 @@ final class SignalWebSocketHealthMonitor implements HealthMonitor {
      */
     private static final long KEEP_ALIVE_TIMEOUT = TimeUnit.SECONDS.toMillis(20);
 
-    private final Executor executor = Executors.newSingleThreadExecutor();
+    private final Executor executor = Executors.newSingleThreadExecutor(Thread.ofVirtual()
+            .name("websocket-health-monitor")
+            .factory());
     private final SleepTimer sleepTimer;
     private SignalWebSocket webSocket = null;
     private volatile KeepAliveSender keepAliveSender = null;
@@ -11,12 +11,28 @@ public class CheckWhoAmIJob implements Job {
     private static final Logger logger = LoggerFactory.getLogger(CheckWhoAmIJob.class);
 
     @Override
-    public void run(Context context) {
+    public void run(Context context) throws RetryLaterException {
         logger.trace("Checking whoAmI");
         try {
             context.getAccountHelper().checkWhoAmiI();
         } catch (IOException e) {
-            logger.warn("Failed to check whoAmI", e);
+            logger.warn("Failed to check whoAmI: {}", e.getMessage());
+            throw new RetryLaterException(e);
         }
     }
+
+    @Override
+    public JobPriority getPriority() {
+        return JobPriority.HIGH;
+    }
+
+    @Override
+    public String getCoalesceKey() {
+        return "CheckWhoAmIJob";
+    }
+
+    @Override
+    public String serialize() {
+        return "";
+    }
 }
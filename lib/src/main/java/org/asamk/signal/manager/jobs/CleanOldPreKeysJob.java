@@ -13,4 +13,14 @@ public class CleanOldPreKeysJob implements Job {
         logger.trace("Cleaning old prekeys");
         context.getPreKeyHelper().cleanOldPreKeys();
     }
+
+    @Override
+    public String getCoalesceKey() {
+        return "CleanOldPreKeysJob";
+    }
+
+    @Override
+    public String serialize() {
+        return "";
+    }
 }
@@ -20,4 +20,19 @@ public class DownloadProfileAvatarJob implements Job {
         context.getProfileHelper()
                 .downloadProfileAvatar(account.getSelfRecipientId(), avatarPath, account.getProfileKey());
     }
+
+    @Override
+    public JobPriority getPriority() {
+        return JobPriority.HIGH;
+    }
+
+    @Override
+    public String getCoalesceKey() {
+        return "DownloadProfileAvatarJob:" + avatarPath;
+    }
+
+    @Override
+    public String serialize() {
+        return avatarPath;
+    }
 }
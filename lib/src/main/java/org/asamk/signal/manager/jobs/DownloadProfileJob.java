@@ -21,4 +21,19 @@ public class DownloadProfileJob implements Job {
         final var recipientId = account.getRecipientStore().resolveRecipient(address);
         context.getProfileHelper().refreshRecipientProfile(recipientId);
     }
+
+    @Override
+    public JobPriority getPriority() {
+        return JobPriority.HIGH;
+    }
+
+    @Override
+    public int getMaxConcurrency() {
+        return 4;
+    }
+
+    @Override
+    public String getCoalesceKey() {
+        return "DownloadProfileJob:" + address;
+    }
 }
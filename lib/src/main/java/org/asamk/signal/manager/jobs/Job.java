@@ -4,5 +4,37 @@ import org.asamk.signal.manager.helper.Context;
 
 public interface Job {
 
-    void run(Context context);
+    void run(Context context) throws RetryLaterException;
+
+    /**
+     * Pending jobs with a higher priority are run first.
+     */
+    default JobPriority getPriority() {
+        return JobPriority.NORMAL;
+    }
+
+    /**
+     * Maximum number of jobs of this type, that run at the same time for one account.
+     */
+    default int getMaxConcurrency() {
+        return 1;
+    }
+
+    /**
+     * A new job isn't queued, if a pending job with the same key already exists.
+     *
+     * @return the key or null, if every job of this type should run.
+     */
+    default String getCoalesceKey() {
+        return null;
+    }
+
+    /**
+     * Data required to restore the job after a restart.
+     *
+     * @return the data or null, if the job isn't stored.
+     */
+    default String serialize() {
+        return null;
+    }
 }
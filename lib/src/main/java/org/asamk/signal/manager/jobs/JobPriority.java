@@ -0,0 +1,7 @@
+package org.asamk.signal.manager.jobs;
+
+public enum JobPriority {
+    HIGH,
+    NORMAL,
+    LOW,
+}
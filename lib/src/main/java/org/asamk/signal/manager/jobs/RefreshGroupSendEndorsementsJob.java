@@ -0,0 +1,27 @@
+package org.asamk.signal.manager.jobs;
+
+import org.asamk.signal.manager.api.GroupIdV2;
+import org.asamk.signal.manager.helper.Context;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class RefreshGroupSendEndorsementsJob implements Job {
+
+    private static final Logger logger = LoggerFactory.getLogger(RefreshGroupSendEndorsementsJob.class);
+    private final GroupIdV2 groupId;
+
+    public RefreshGroupSendEndorsementsJob(final GroupIdV2 groupId) {
+        this.groupId = groupId;
+    }
+
+    @Override
+    public void run(Context context) {
+        logger.trace("Refreshing group send endorsements of group {}", groupId.toBase64());
+        context.getGroupHelper().updateGroupSendEndorsements(groupId);
+    }
+
+    @Override
+    public String getCoalesceKey() {
+        return "RefreshGroupSendEndorsementsJob:" + groupId.toBase64();
+    }
+}
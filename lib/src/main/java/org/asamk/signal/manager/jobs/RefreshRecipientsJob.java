@@ -4,15 +4,22 @@ import org.asamk.signal.manager.helper.Context;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+
 public class RefreshRecipientsJob implements Job {
 
     private static final Logger logger = LoggerFactory.getLogger(RefreshRecipientsJob.class);
 
     @Override
-    public void run(Context context) {
+    public void run(Context context) throws RetryLaterException {
         logger.trace("Full CDSI recipients refresh");
         try {
             context.getRecipientHelper().refreshUsers();
+        } catch (IOException e) {
+            logger.warn("Full CDSI recipients refresh failed, retrying later: {} ({})",
+                    e.getMessage(),
+                    e.getClass().getSimpleName());
+            throw new RetryLaterException(e);
         } catch (Exception e) {
             logger.warn("Full CDSI recipients refresh failed, ignoring: {} ({})",
                     e.getMessage(),
@@ -20,4 +27,19 @@ public class RefreshRecipientsJob implements Job {
             logger.debug("Full CDSI refresh failed", e);
         }
     }
+
+    @Override
+    public JobPriority getPriority() {
+        return JobPriority.LOW;
+    }
+
+    @Override
+    public String getCoalesceKey() {
+        return "RefreshRecipientsJob";
+    }
+
+    @Override
+    public String serialize() {
+        return "";
+    }
 }
@@ -22,7 +22,7 @@ public class RetrieveStickerPackJob implements Job {
     }
 
     @Override
-    public void run(Context context) {
+    public void run(Context context) throws RetryLaterException {
         logger.trace("Downloading sticker pack {}", packId);
         try {
             context.getStickerHelper().retrieveStickerPack(packId, packKey);
@@ -30,10 +30,40 @@ public class RetrieveStickerPackJob implements Job {
             logger.warn("Failed to retrieve sticker pack {}: {}",
                     Hex.toStringCondensed(packId.serialize()),
                     e.getMessage());
+            throw new RetryLaterException(e);
         } catch (InvalidMessageException e) {
             logger.warn("Failed to retrieve sticker pack {}, invalid pack data: {}",
                     Hex.toStringCondensed(packId.serialize()),
                     e.getMessage());
         }
     }
+
+    @Override
+    public JobPriority getPriority() {
+        return JobPriority.HIGH;
+    }
+
+    @Override
+    public int getMaxConcurrency() {
+        return 2;
+    }
+
+    @Override
+    public String getCoalesceKey() {
+        return "RetrieveStickerPackJob:" + Hex.toStringCondensed(packId.serialize());
+    }
+
+    @Override
+    public String serialize() {
+        return Hex.toStringCondensed(packId.serialize()) + ":" + Hex.toStringCondensed(packKey);
+    }
+
+    public static RetrieveStickerPackJob deserialize(final String data) throws IOException {
+        final var parts = data.split(":", 2);
+        if (parts.length != 2) {
+            throw new IOException("Invalid sticker pack job data");
+        }
+        return new RetrieveStickerPackJob(StickerPackId.deserialize(Hex.fromStringCondensed(parts[0])),
+                Hex.fromStringCondensed(parts[1]));
+    }
 }
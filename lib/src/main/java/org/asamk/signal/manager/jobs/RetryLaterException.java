@@ -0,0 +1,27 @@
+package org.asamk.signal.manager.jobs;
+
+import java.time.Duration;
+
+/**
+ * Thrown by a job that failed temporarily and should be run again later.
+ */
+public class RetryLaterException extends Exception {
+
+    private final Duration retryAfter;
+
+    public RetryLaterException(final Throwable cause) {
+        this(cause, null);
+    }
+
+    /**
+     * @param retryAfter minimum delay before the job is run again, null to use the default backoff.
+     */
+    public RetryLaterException(final Throwable cause, final Duration retryAfter) {
+        super(cause);
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -21,7 +21,7 @@ public class SyncStorageJob implements Job {
     }
 
     @Override
-    public void run(Context context) {
+    public void run(Context context) throws RetryLaterException {
         logger.trace("Running storage sync job");
         try {
             if (forcePush) {
@@ -30,7 +30,18 @@ public class SyncStorageJob implements Job {
                 context.getStorageHelper().syncDataWithStorage();
             }
         } catch (IOException e) {
-            logger.warn("Failed to sync storage data", e);
+            logger.warn("Failed to sync storage data, retrying later: {}", e.getMessage());
+            throw new RetryLaterException(e);
         }
     }
+
+    @Override
+    public String getCoalesceKey() {
+        return forcePush ? "SyncStorageJob:force" : "SyncStorageJob";
+    }
+
+    @Override
+    public String serialize() {
+        return forcePush ? "force" : "";
+    }
 }
@@ -5,6 +5,7 @@ import com.zaxxer.hikari.HikariDataSource;
 import org.asamk.signal.manager.api.Pair;
 import org.asamk.signal.manager.storage.groups.GroupStore;
 import org.asamk.signal.manager.storage.identities.IdentityKeyStore;
+import org.asamk.signal.manager.storage.jobs.JobStore;
 import org.asamk.signal.manager.storage.keyValue.KeyValueStore;
 import org.asamk.signal.manager.storage.prekeys.KyberPreKeyStore;
 import org.asamk.signal.manager.storage.prekeys.PreKeyStore;
@@ -33,7 +34,7 @@ import java.util.UUID;
 public class AccountDatabase extends Database {
 
     private static final Logger logger = LoggerFactory.getLogger(AccountDatabase.class);
-    private static final long DATABASE_VERSION = 28;
+    private static final long DATABASE_VERSION = 29;
 
     private AccountDatabase(final HikariDataSource dataSource) {
         super(logger, DATABASE_VERSION, dataSource);
@@ -59,6 +60,7 @@ public class AccountDatabase extends Database {
         KeyValueStore.createSql(connection);
         CdsiStore.createSql(connection);
         UnknownStorageIdStore.createSql(connection);
+        JobStore.createSql(connection);
     }
 
     @Override
@@ -623,6 +625,20 @@ public class AccountDatabase extends Database {
                                         """);
             }
         }
+        if (oldVersion < 29) {
+            logger.debug("Updating database: Creating job table");
+            try (final var statement = connection.createStatement()) {
+                statement.executeUpdate("""
+                                        CREATE TABLE job (
+                                          _id INTEGER PRIMARY KEY,
+                                          type TEXT NOT NULL,
+                                          data TEXT NOT NULL,
+                                          run_after INTEGER NOT NULL,
+                                          attempts INTEGER NOT NULL DEFAULT 0
+                                        ) STRICT;
+                                        """);
+            }
+        }
     }
 
     private static void createUuidMappingTable(
@@ -7,14 +7,18 @@ import org.whispersystems.signalservice.api.messages.SignalServiceAttachmentPoin
 import org.whispersystems.signalservice.api.messages.SignalServiceAttachmentRemoteId;
 import org.whispersystems.signalservice.api.util.StreamDetails;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Optional;
 
 public class AttachmentStore {
 
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     private final File attachmentsPath;
 
     public AttachmentStore(final File attachmentsPath) {
@@ -48,10 +52,20 @@ public class AttachmentStore {
         return Utils.createStreamDetailsFromFile(attachmentFile);
     }
 
+    /**
+     * Write the attachment to a temporary file first and move it into place when it's complete, so concurrent
+     * downloads of the same attachment and readers never see a partial file.
+     */
     private void storeAttachment(final File attachmentFile, final AttachmentStorer storer) throws IOException {
         createAttachmentsDir();
-        try (OutputStream output = new FileOutputStream(attachmentFile)) {
-            storer.store(output);
+        final var tmpFile = Files.createTempFile(attachmentsPath.toPath(), attachmentFile.getName(), ".tmp");
+        try {
+            try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(tmpFile), BUFFER_SIZE)) {
+                storer.store(output);
+            }
+            Files.move(tmpFile, attachmentFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmpFile);
         }
     }
 
@@ -0,0 +1,16 @@
+package org.asamk.signal.manager.storage;
+
+/**
+ * @param hits      number of lookups that were answered from the cache
+ * @param misses    number of lookups that weren't found in the cache
+ * @param evictions number of entries that were removed to stay within the size limit
+ * @param size      number of entries currently in the cache
+ * @param weight    current total weight of the cached entries
+ */
+public record CacheStatistics(long hits, long misses, long evictions, long size, long weight) {
+
+    public double hitRate() {
+        final var lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+}
@@ -7,22 +7,46 @@ import org.slf4j.Logger;
 import org.sqlite.SQLiteConfig;
 
 import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Function;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 public abstract class Database implements AutoCloseable {
 
+    private static final int MAX_CACHED_STATEMENTS = 100;
+    private static final int BUSY_TIMEOUT_MS = 60_000;
+    // Writes are serialized by the write lock, so a few connections per database are enough for the concurrent reads
+    private static final int MAX_POOL_SIZE = 16;
+    private static final Pattern WRITE_KEYWORD_PATTERN = Pattern.compile("\\b(INSERT|UPDATE|DELETE|REPLACE)\\b",
+            Pattern.CASE_INSENSITIVE);
+    // Shared by the connection pools of all accounts, instead of a housekeeping thread per pool
+    private static final ScheduledThreadPoolExecutor housekeepingExecutor = createHousekeepingExecutor();
+
     private final Logger logger;
     private final long databaseVersion;
     private final HikariDataSource dataSource;
+    // Serializes write transactions of this process, instead of letting SQLite busy-wait for the write lock
+    private final ReentrantLock writeLock = new ReentrantLock(true);
+    private final Map<Connection, StatementCache> statementCaches = new IdentityHashMap<>();
 
     protected Database(final Logger logger, final long databaseVersion, final HikariDataSource dataSource) {
         this.logger = logger;
@@ -50,13 +74,50 @@ public abstract class Database implements AutoCloseable {
         }
     }
 
+    /**
+     * Get a connection from the pool.
+     * <p>
+     * Statements prepared with {@link Connection#prepareStatement(String)} are cached per pooled connection, closing
+     * them only resets them for the next use.
+     * Transactions, started with {@code setAutoCommit(false)}, hold the database write lock of this process from their
+     * first write statement until they're committed or rolled back, so read-only transactions don't block each other.
+     * Like any deferred SQLite transaction, a transaction that writes after reading fails, if another write has been
+     * committed since its first read. Writes outside of a transaction hold the write lock while they're executed.
+     */
     public final Connection getConnection() throws SQLException {
-        return dataSource.getConnection();
+        final var connection = dataSource.getConnection();
+        final StatementCache statementCache;
+        try {
+            statementCache = getStatementCache(connection.unwrap(Connection.class));
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class[]{Connection.class},
+                new ConnectionHandler(connection, statementCache));
+    }
+
+    /**
+     * Run the action after the current write transaction of the connection has ended, either with a commit or a
+     * rollback. If the connection isn't in a write transaction, the action is run immediately.
+     */
+    public static void runAfterTransaction(final Connection connection, final Runnable action) {
+        if (Proxy.isProxyClass(connection.getClass())
+                && Proxy.getInvocationHandler(connection) instanceof ConnectionHandler handler
+                && handler.inTransaction) {
+            handler.afterTransactionActions.add(action);
+        } else {
+            action.run();
+        }
     }
 
     @Override
     public void close() {
         dataSource.close();
+        synchronized (statementCaches) {
+            statementCaches.clear();
+        }
     }
 
     protected final void initDb() throws SQLException {
@@ -96,18 +157,346 @@ public abstract class Database implements AutoCloseable {
         }
     }
 
+    private StatementCache getStatementCache(final Connection physicalConnection) throws SQLException {
+        synchronized (statementCaches) {
+            var statementCache = statementCaches.get(physicalConnection);
+            if (statementCache == null) {
+                // A new connection has been opened by the pool, forget the statements of connections closed by the pool
+                final var iterator = statementCaches.keySet().iterator();
+                while (iterator.hasNext()) {
+                    if (iterator.next().isClosed()) {
+                        iterator.remove();
+                    }
+                }
+                statementCache = new StatementCache(physicalConnection);
+                statementCaches.put(physicalConnection, statementCache);
+            }
+            return statementCache;
+        }
+    }
+
+    private static Object invoke(final Object target, final Method method, final Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    static boolean isWriteStatement(final String sql) {
+        final var trimmedSql = sql.stripLeading();
+        if (trimmedSql.regionMatches(true, 0, "WITH", 0, 4)) {
+            // Common table expressions can only contain SELECTs, so the statement writes if it contains a DML keyword
+            return WRITE_KEYWORD_PATTERN.matcher(trimmedSql).find();
+        }
+        return !trimmedSql.regionMatches(true, 0, "SELECT", 0, 6)
+                && !trimmedSql.regionMatches(true, 0, "PRAGMA", 0, 6);
+    }
+
     private static HikariDataSource getHikariDataSource(final String databaseFile) {
         final var sqliteConfig = new SQLiteConfig();
-        sqliteConfig.setBusyTimeout(60_000);
-        sqliteConfig.setTransactionMode(SQLiteConfig.TransactionMode.IMMEDIATE);
+        sqliteConfig.setBusyTimeout(BUSY_TIMEOUT_MS);
+        // Transactions only take the SQLite write lock with their first write, after the write lock of this process
+        sqliteConfig.setTransactionMode(SQLiteConfig.TransactionMode.DEFERRED);
 
         HikariConfig config = new HikariConfig();
         config.setJdbcUrl("jdbc:sqlite:" + databaseFile + "?foreign_keys=ON&journal_mode=wal");
         config.setDataSourceProperties(sqliteConfig.toProperties());
         config.setMinimumIdle(1);
         config.setConnectionTimeout(90_000);
-        config.setMaximumPoolSize(50);
+        config.setMaximumPoolSize(MAX_POOL_SIZE);
+        config.setIdleTimeout(60_000);
         config.setMaxLifetime(0);
+        config.setScheduledExecutor(housekeepingExecutor);
         return new HikariDataSource(config);
     }
+
+    private static ScheduledThreadPoolExecutor createHousekeepingExecutor() {
+        final var executor = new ScheduledThreadPoolExecutor(1,
+                Thread.ofVirtual().name("database-housekeeping").factory());
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    private final class ConnectionHandler implements InvocationHandler {
+
+        private final Connection connection;
+        private final StatementCache statementCache;
+        private final List<StatementHandler> openStatements = new ArrayList<>();
+        private final List<Runnable> afterTransactionActions = new ArrayList<>();
+        private boolean inTransaction;
+        private boolean holdsWriteLock;
+        // Statements were executed in the transaction since the last commit or rollback
+        private boolean uncommitted;
+
+        private ConnectionHandler(final Connection connection, final StatementCache statementCache) {
+            this.connection = connection;
+            this.statementCache = statementCache;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "prepareStatement" -> {
+                    if (args.length == 1) {
+                        return prepareStatement((String) args[0]);
+                    }
+                }
+                case "setAutoCommit" -> {
+                    final var autoCommit = (boolean) args[0];
+                    if (!autoCommit && !inTransaction) {
+                        inTransaction = true;
+                        uncommitted = true;
+                    }
+                    try {
+                        if (autoCommit) {
+                            rollbackUncommitted();
+                        }
+                        return Database.invoke(connection, method, args);
+                    } finally {
+                        if (autoCommit) {
+                            endTransaction();
+                        }
+                    }
+                }
+                case "commit", "rollback" -> {
+                    final var result = Database.invoke(connection, method, args);
+                    uncommitted = false;
+                    unlockWrites();
+                    return result;
+                }
+                case "close" -> {
+                    for (final var statement : List.copyOf(openStatements)) {
+                        statement.close();
+                    }
+                    try {
+                        rollbackUncommitted();
+                    } catch (SQLException e) {
+                        // Returning the connection to the pool would commit the transaction, close it instead
+                        dataSource.evictConnection(connection);
+                        endTransaction();
+                        throw e;
+                    }
+                    try {
+                        return Database.invoke(connection, method, args);
+                    } finally {
+                        endTransaction();
+                    }
+                }
+            }
+            return Database.invoke(connection, method, args);
+        }
+
+        /**
+         * The statements are executed on the physical connection, so the pool doesn't know about the transaction
+         * and would commit it when resetting the auto-commit mode.
+         */
+        private void rollbackUncommitted() throws SQLException {
+            if (inTransaction && uncommitted) {
+                connection.rollback();
+                uncommitted = false;
+            }
+        }
+
+        private PreparedStatement prepareStatement(final String sql) throws SQLException {
+            final var statementHandler = statementCache.acquire(sql, this);
+            openStatements.add(statementHandler);
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class[]{PreparedStatement.class},
+                    statementHandler);
+        }
+
+        private void lockWritesForTransaction() throws SQLException {
+            if (!holdsWriteLock) {
+                lockWrites();
+                holdsWriteLock = true;
+            }
+        }
+
+        private void unlockWrites() {
+            if (holdsWriteLock) {
+                holdsWriteLock = false;
+                writeLock.unlock();
+            }
+        }
+
+        private void endTransaction() {
+            if (inTransaction) {
+                inTransaction = false;
+                unlockWrites();
+                final var actions = List.copyOf(afterTransactionActions);
+                afterTransactionActions.clear();
+                actions.forEach(Runnable::run);
+            }
+        }
+    }
+
+    /**
+     * Wait for the write lock at most as long as SQLite would wait for a busy database, so a write that can't get the
+     * lock fails instead of waiting forever.
+     */
+    private void lockWrites() throws SQLException {
+        try {
+            if (!writeLock.tryLock(BUSY_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Timed out waiting for the database write lock");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the database write lock", e);
+        }
+    }
+
+    private final class StatementHandler implements InvocationHandler {
+
+        private final StatementCache statementCache;
+        private final String sql;
+        private final PreparedStatement statement;
+        private final boolean isWrite;
+        private boolean isCached;
+        private ConnectionHandler connectionHandler;
+        private ResultSet resultSet;
+
+        private StatementHandler(
+                final StatementCache statementCache,
+                final String sql,
+                final PreparedStatement statement,
+                final boolean isCached
+        ) {
+            this.statementCache = statementCache;
+            this.sql = sql;
+            this.statement = statement;
+            this.isWrite = isWriteStatement(sql);
+            this.isCached = isCached;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            if (connectionHandler == null && !"isClosed".equals(method.getName())) {
+                throw new SQLException("Statement is closed");
+            }
+            return switch (method.getName()) {
+                case "close" -> {
+                    close();
+                    yield null;
+                }
+                case "isClosed" -> connectionHandler == null;
+                case "executeQuery" -> {
+                    final var result = (ResultSet) execute(method, args);
+                    resultSet = result;
+                    yield result;
+                }
+                case "execute", "executeUpdate", "executeLargeUpdate", "executeBatch", "executeLargeBatch" ->
+                        execute(method, args);
+                default -> Database.invoke(statement, method, args);
+            };
+        }
+
+        private Object execute(final Method method, final Object[] args) throws Throwable {
+            if (connectionHandler.inTransaction) {
+                connectionHandler.uncommitted = true;
+                if (isWrite) {
+                    connectionHandler.lockWritesForTransaction();
+                }
+                return Database.invoke(statement, method, args);
+            }
+            if (!isWrite) {
+                return Database.invoke(statement, method, args);
+            }
+            lockWrites();
+            try {
+                return Database.invoke(statement, method, args);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        private void acquire(final ConnectionHandler connectionHandler) {
+            this.connectionHandler = connectionHandler;
+        }
+
+        private boolean isInUse() {
+            return connectionHandler != null;
+        }
+
+        private void evict() {
+            isCached = false;
+            if (!isInUse()) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                    logger.debug("Failed to close evicted statement: {}", e.getMessage());
+                }
+            }
+        }
+
+        private void close() throws SQLException {
+            if (connectionHandler == null) {
+                return;
+            }
+            connectionHandler.openStatements.remove(this);
+            final boolean keep;
+            synchronized (statementCache) {
+                connectionHandler = null;
+                keep = isCached;
+            }
+            if (!keep) {
+                statement.close();
+                return;
+            }
+            try {
+                if (resultSet != null) {
+                    resultSet.close();
+                    resultSet = null;
+                }
+                statement.clearParameters();
+                statement.clearBatch();
+            } catch (SQLException e) {
+                logger.debug("Failed to reset cached statement, closing it: {}", e.getMessage());
+                statementCache.remove(this);
+                statement.close();
+            }
+        }
+    }
+
+    /**
+     * LRU cache of the prepared statements of a single physical connection.
+     */
+    private final class StatementCache {
+
+        private final Connection physicalConnection;
+        private final LinkedHashMap<String, StatementHandler> statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, StatementHandler> eldest) {
+                if (size() <= MAX_CACHED_STATEMENTS) {
+                    return false;
+                }
+                eldest.getValue().evict();
+                return true;
+            }
+        };
+
+        private StatementCache(final Connection physicalConnection) {
+            this.physicalConnection = physicalConnection;
+        }
+
+        private synchronized StatementHandler acquire(
+                final String sql,
+                final ConnectionHandler connectionHandler
+        ) throws SQLException {
+            var statementHandler = statements.get(sql);
+            if (statementHandler != null && statementHandler.isInUse()) {
+                // The same statement is used twice at the same time, e.g. in a nested loop
+                statementHandler = new StatementHandler(this, sql, physicalConnection.prepareStatement(sql), false);
+            } else if (statementHandler == null) {
+                statementHandler = new StatementHandler(this, sql, physicalConnection.prepareStatement(sql), true);
+                statements.put(sql, statementHandler);
+            }
+            statementHandler.acquire(connectionHandler);
+            return statementHandler;
+        }
+
+        private synchronized void remove(final StatementHandler statementHandler) {
+            statements.remove(statementHandler.sql, statementHandler);
+        }
+    }
 }
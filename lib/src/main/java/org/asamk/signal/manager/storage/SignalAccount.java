@@ -2,10 +2,12 @@ package org.asamk.signal.manager.storage;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import org.asamk.signal.manager.Settings;
 import org.asamk.signal.manager.api.Contact;
 import org.asamk.signal.manager.api.GroupId;
+import org.asamk.signal.manager.api.MessageCacheType;
 import org.asamk.signal.manager.api.Pair;
 import org.asamk.signal.manager.api.Profile;
 import org.asamk.signal.manager.api.ServiceEnvironment;
@@ -21,8 +23,11 @@ import org.asamk.signal.manager.storage.groups.LegacyGroupStore;
 import org.asamk.signal.manager.storage.identities.IdentityKeyStore;
 import org.asamk.signal.manager.storage.identities.LegacyIdentityKeyStore;
 import org.asamk.signal.manager.storage.identities.SignalIdentityKeyStore;
+import org.asamk.signal.manager.storage.jobs.JobStore;
 import org.asamk.signal.manager.storage.keyValue.KeyValueEntry;
 import org.asamk.signal.manager.storage.keyValue.KeyValueStore;
+import org.asamk.signal.manager.storage.messageCache.FileMessageCache;
+import org.asamk.signal.manager.storage.messageCache.LogMessageCache;
 import org.asamk.signal.manager.storage.messageCache.MessageCache;
 import org.asamk.signal.manager.storage.prekeys.KyberPreKeyStore;
 import org.asamk.signal.manager.storage.prekeys.LegacyPreKeyStore;
@@ -116,7 +121,7 @@ public class SignalAccount implements Closeable {
     private static final Logger logger = LoggerFactory.getLogger(SignalAccount.class);
 
     private static final int MINIMUM_STORAGE_VERSION = 1;
-    private static final int CURRENT_STORAGE_VERSION = 10;
+    private static final int CURRENT_STORAGE_VERSION = 11;
 
     private final Object LOCK = new Object();
 
@@ -126,6 +131,7 @@ public class SignalAccount implements Closeable {
     private final FileLock lock;
 
     private int previousStorageVersion;
+    private Storage lastSavedStorage;
 
     private File dataPath;
     private String accountPath;
@@ -180,6 +186,7 @@ public class SignalAccount implements Closeable {
     private ConfigurationStore configurationStore;
     private KeyValueStore keyValueStore;
     private CdsiStore cdsiStore;
+    private JobStore jobStore;
 
     private MessageCache messageCache;
     private MessageSendLogStore messageSendLogStore;
@@ -246,8 +253,8 @@ public class SignalAccount implements Closeable {
         signalAccount.pniAccountData.setIdentityKeyPair(pniIdentityKey);
         signalAccount.aciAccountData.setLocalRegistrationId(KeyHelper.generateRegistrationId(false));
         signalAccount.pniAccountData.setLocalRegistrationId(KeyHelper.generateRegistrationId(false));
-        signalAccount.initAllPreKeyIds();
         signalAccount.settings = settings;
+        signalAccount.initAllPreKeyIds();
 
         signalAccount.registered = false;
 
@@ -443,6 +450,10 @@ public class SignalAccount implements Closeable {
         return new File(getUserPath(dataPath, account), "msg-cache");
     }
 
+    private static File getMessageLogPath(File dataPath, String account) {
+        return new File(getUserPath(dataPath, account), "msg-log");
+    }
+
     private static File getStorageManifestFile(File dataPath, String account) {
         return new File(getUserPath(dataPath, account), "storage-manifest");
     }
@@ -505,6 +516,10 @@ public class SignalAccount implements Closeable {
             password = storage.password;
             setAccountData(aciAccountData, storage.aciAccountData, ACI::parseOrThrow);
             setAccountData(pniAccountData, storage.pniAccountData, PNI::parseOrThrow);
+            if (previousStorageVersion < 11) {
+                loadLegacyPreKeyMetadata(aciAccountData, rootNode.get("aciAccountData"));
+                loadLegacyPreKeyMetadata(pniAccountData, rootNode.get("pniAccountData"));
+            }
             registrationLockPin = storage.registrationLockPin;
             final var base64 = Base64.getDecoder();
             if (storage.pinMasterKey != null) {
@@ -534,8 +549,19 @@ public class SignalAccount implements Closeable {
             }
         }
 
+        if (previousStorageVersion < 11) {
+            // Pre key metadata is stored in the database since version 11
+            savePreKeyMetadata(ServiceIdType.ACI);
+            savePreKeyMetadata(ServiceIdType.PNI);
+        } else {
+            loadPreKeyMetadata(ServiceIdType.ACI);
+            loadPreKeyMetadata(ServiceIdType.PNI);
+        }
+
         if (migratedLegacyConfig) {
             save();
+        } else {
+            lastSavedStorage = createStorage();
         }
     }
 
@@ -559,11 +585,20 @@ public class SignalAccount implements Closeable {
             final var keyPair = KeyUtils.getIdentityKeyPair(publicKeyBytes, privateKeyBytes);
             accountData.setIdentityKeyPair(keyPair);
         }
-        accountData.preKeyMetadata.nextPreKeyId = storage.nextPreKeyId;
-        accountData.preKeyMetadata.nextSignedPreKeyId = storage.nextSignedPreKeyId;
-        accountData.preKeyMetadata.activeSignedPreKeyId = storage.activeSignedPreKeyId;
-        accountData.preKeyMetadata.nextKyberPreKeyId = storage.nextKyberPreKeyId;
-        accountData.preKeyMetadata.activeLastResortKyberPreKeyId = storage.activeLastResortKyberPreKeyId;
+    }
+
+    private static void loadLegacyPreKeyMetadata(final AccountData<?> accountData, final JsonNode node) {
+        if (node == null) {
+            return;
+        }
+        final var preKeyMetadata = accountData.preKeyMetadata;
+        preKeyMetadata.nextPreKeyId = node.path("nextPreKeyId").asInt(preKeyMetadata.nextPreKeyId);
+        preKeyMetadata.nextSignedPreKeyId = node.path("nextSignedPreKeyId").asInt(preKeyMetadata.nextSignedPreKeyId);
+        preKeyMetadata.activeSignedPreKeyId = node.path("activeSignedPreKeyId")
+                .asInt(preKeyMetadata.activeSignedPreKeyId);
+        preKeyMetadata.nextKyberPreKeyId = node.path("nextKyberPreKeyId").asInt(preKeyMetadata.nextKyberPreKeyId);
+        preKeyMetadata.activeLastResortKyberPreKeyId = node.path("activeLastResortKyberPreKeyId")
+                .asInt(preKeyMetadata.activeLastResortKyberPreKeyId);
     }
 
     private void loadLegacyFile(final File userPath, final JsonNode rootNode) throws IOException {
@@ -985,45 +1020,93 @@ public class SignalAccount implements Closeable {
         }
     }
 
+    /**
+     * Write the account file, if its content has changed since it was last written.
+     * <p>
+     * Frequently changing state, like the pre key metadata, is stored in the account database instead.
+     */
     private void save() {
         synchronized (fileChannel) {
-            final var base64 = Base64.getEncoder();
-            final var storage = new Storage(CURRENT_STORAGE_VERSION,
-                    System.currentTimeMillis(),
-                    serviceEnvironment.name(),
-                    registered,
-                    number,
-                    username,
-                    encryptedDeviceName,
-                    deviceId,
-                    isMultiDevice,
-                    password,
-                    Storage.AccountData.from(aciAccountData),
-                    Storage.AccountData.from(pniAccountData),
-                    registrationLockPin,
-                    pinMasterKey == null ? null : base64.encodeToString(pinMasterKey.serialize()),
-                    storageKey == null ? null : base64.encodeToString(storageKey.serialize()),
-                    accountEntropyPool == null ? null : accountEntropyPool.getValue(),
-                    mediaRootBackupKey == null ? null : base64.encodeToString(mediaRootBackupKey.getValue()),
-                    profileKey == null ? null : base64.encodeToString(profileKey.serialize()),
-                    usernameLink == null ? null : base64.encodeToString(usernameLink.getEntropy()),
-                    usernameLink == null ? null : usernameLink.getServerId().toString());
+            final var storage = createStorage();
+            if (storage.equals(lastSavedStorage)) {
+                return;
+            }
             try {
                 try (var output = new ByteArrayOutputStream()) {
                     // Write to memory first to prevent corrupting the file in case of serialization errors
-                    jsonProcessor.writeValue(output, storage);
+                    final ObjectNode rootNode = jsonProcessor.valueToTree(storage);
+                    rootNode.put("timestamp", System.currentTimeMillis());
+                    jsonProcessor.writeValue(output, rootNode);
                     var input = new ByteArrayInputStream(output.toByteArray());
                     fileChannel.position(0);
                     input.transferTo(Channels.newOutputStream(fileChannel));
                     fileChannel.truncate(fileChannel.position());
                     fileChannel.force(false);
                 }
+                lastSavedStorage = storage;
             } catch (Exception e) {
                 logger.error("Error saving file: {}", e.getMessage(), e);
             }
         }
     }
 
+    /**
+     * @return the account file content, the timestamp is only set when writing the file
+     */
+    private Storage createStorage() {
+        final var base64 = Base64.getEncoder();
+        return new Storage(CURRENT_STORAGE_VERSION,
+                0,
+                serviceEnvironment.name(),
+                registered,
+                number,
+                username,
+                encryptedDeviceName,
+                deviceId,
+                isMultiDevice,
+                password,
+                Storage.AccountData.from(aciAccountData),
+                Storage.AccountData.from(pniAccountData),
+                registrationLockPin,
+                pinMasterKey == null ? null : base64.encodeToString(pinMasterKey.serialize()),
+                storageKey == null ? null : base64.encodeToString(storageKey.serialize()),
+                accountEntropyPool == null ? null : accountEntropyPool.getValue(),
+                mediaRootBackupKey == null ? null : base64.encodeToString(mediaRootBackupKey.getValue()),
+                profileKey == null ? null : base64.encodeToString(profileKey.serialize()),
+                usernameLink == null ? null : base64.encodeToString(usernameLink.getEntropy()),
+                usernameLink == null ? null : usernameLink.getServerId().toString());
+    }
+
+    private void loadPreKeyMetadata(final ServiceIdType serviceIdType) {
+        final var preKeyMetadata = getAccountData(serviceIdType).preKeyMetadata;
+        final var keyValueStore = getKeyValueStore();
+        final var entries = PreKeyMetadataEntries.of(serviceIdType);
+        preKeyMetadata.nextPreKeyId = keyValueStore.getEntry(entries.nextPreKeyId());
+        preKeyMetadata.nextSignedPreKeyId = keyValueStore.getEntry(entries.nextSignedPreKeyId());
+        preKeyMetadata.activeSignedPreKeyId = keyValueStore.getEntry(entries.activeSignedPreKeyId());
+        preKeyMetadata.nextKyberPreKeyId = keyValueStore.getEntry(entries.nextKyberPreKeyId());
+        preKeyMetadata.activeLastResortKyberPreKeyId = keyValueStore.getEntry(entries.activeLastResortKyberPreKeyId());
+    }
+
+    private void savePreKeyMetadata(final ServiceIdType serviceIdType) {
+        final var preKeyMetadata = getAccountData(serviceIdType).preKeyMetadata;
+        final var keyValueStore = getKeyValueStore();
+        final var entries = PreKeyMetadataEntries.of(serviceIdType);
+        try (final var connection = getAccountDatabase().getConnection()) {
+            connection.setAutoCommit(false);
+            keyValueStore.storeEntry(connection, entries.nextPreKeyId(), preKeyMetadata.nextPreKeyId);
+            keyValueStore.storeEntry(connection, entries.nextSignedPreKeyId(), preKeyMetadata.nextSignedPreKeyId);
+            keyValueStore.storeEntry(connection, entries.activeSignedPreKeyId(), preKeyMetadata.activeSignedPreKeyId);
+            keyValueStore.storeEntry(connection, entries.nextKyberPreKeyId(), preKeyMetadata.nextKyberPreKeyId);
+            keyValueStore.storeEntry(connection,
+                    entries.activeLastResortKyberPreKeyId(),
+                    preKeyMetadata.activeLastResortKyberPreKeyId);
+            connection.commit();
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed update key_value store", e);
+        }
+    }
+
     private static Pair<FileChannel, FileLock> openFileChannel(File fileName, boolean waitForLock) throws IOException {
         var fileChannel = new RandomAccessFile(fileName, "rw").getChannel();
         try {
@@ -1066,7 +1149,6 @@ public class SignalAccount implements Closeable {
         accountData.getPreKeyStore().removeAllPreKeys();
         accountData.getSignedPreKeyStore().removeAllSignedPreKeys();
         accountData.getKyberPreKeyStore().removeAllKyberPreKeys();
-        save();
     }
 
     private void setPreKeys(ServiceIdType serviceIdType, PreKeyCollection preKeyCollection) {
@@ -1081,8 +1163,6 @@ public class SignalAccount implements Closeable {
 
         addSignedPreKey(serviceIdType, preKeyCollection.getSignedPreKey());
         addLastResortKyberPreKey(serviceIdType, preKeyCollection.getLastResortKyberPreKey());
-
-        save();
     }
 
     public void resetPreKeyOffsets(final ServiceIdType serviceIdType) {
@@ -1090,7 +1170,7 @@ public class SignalAccount implements Closeable {
         preKeyMetadata.nextPreKeyId = getRandomPreKeyIdOffset();
         preKeyMetadata.nextSignedPreKeyId = getRandomPreKeyIdOffset();
         preKeyMetadata.activeSignedPreKeyId = -1;
-        save();
+        savePreKeyMetadata(serviceIdType);
     }
 
     private static int getRandomPreKeyIdOffset() {
@@ -1114,7 +1194,7 @@ public class SignalAccount implements Closeable {
             accountData.getPreKeyStore().storePreKey(record.getId(), record);
             preKeyMetadata.nextPreKeyId = (preKeyMetadata.nextPreKeyId + 1) % PREKEY_MAXIMUM_ID;
         }
-        save();
+        savePreKeyMetadata(serviceIdType);
     }
 
     public void addSignedPreKey(ServiceIdType serviceIdType, SignedPreKeyRecord record) {
@@ -1130,14 +1210,14 @@ public class SignalAccount implements Closeable {
         accountData.getSignedPreKeyStore().storeSignedPreKey(record.getId(), record);
         preKeyMetadata.nextSignedPreKeyId = (preKeyMetadata.nextSignedPreKeyId + 1) % PREKEY_MAXIMUM_ID;
         preKeyMetadata.activeSignedPreKeyId = record.getId();
-        save();
+        savePreKeyMetadata(serviceIdType);
     }
 
     public void resetKyberPreKeyOffsets(final ServiceIdType serviceIdType) {
         final var preKeyMetadata = getAccountData(serviceIdType).getPreKeyMetadata();
         preKeyMetadata.nextKyberPreKeyId = getRandomPreKeyIdOffset();
         preKeyMetadata.activeLastResortKyberPreKeyId = -1;
-        save();
+        savePreKeyMetadata(serviceIdType);
     }
 
     public void addKyberPreKeys(ServiceIdType serviceIdType, List<KyberPreKeyRecord> records) {
@@ -1159,7 +1239,7 @@ public class SignalAccount implements Closeable {
             accountData.getKyberPreKeyStore().storeKyberPreKey(record.getId(), record);
             preKeyMetadata.nextKyberPreKeyId = (preKeyMetadata.nextKyberPreKeyId + 1) % PREKEY_MAXIMUM_ID;
         }
-        save();
+        savePreKeyMetadata(serviceIdType);
     }
 
     public void addLastResortKyberPreKey(ServiceIdType serviceIdType, KyberPreKeyRecord record) {
@@ -1177,7 +1257,7 @@ public class SignalAccount implements Closeable {
         accountData.getKyberPreKeyStore().storeLastResortKyberPreKey(record.getId(), record);
         preKeyMetadata.activeLastResortKyberPreKeyId = record.getId();
         preKeyMetadata.nextKyberPreKeyId = (preKeyMetadata.nextKyberPreKeyId + 1) % PREKEY_MAXIMUM_ID;
-        save();
+        savePreKeyMetadata(serviceIdType);
     }
 
     public int getPreviousStorageVersion() {
@@ -1275,6 +1355,10 @@ public class SignalAccount implements Closeable {
         return getRecipientStore();
     }
 
+    public JobStore getJobStore() {
+        return getOrCreate(() -> jobStore, () -> jobStore = new JobStore(getAccountDatabase()));
+    }
+
     public StickerStore getStickerStore() {
         return getOrCreate(() -> stickerStore, () -> stickerStore = new StickerStore(getAccountDatabase()));
     }
@@ -1297,8 +1381,12 @@ public class SignalAccount implements Closeable {
     }
 
     public MessageCache getMessageCache() {
-        return getOrCreate(() -> messageCache,
-                () -> messageCache = new MessageCache(getMessageCachePath(dataPath, accountPath)));
+        return getOrCreate(() -> messageCache, () -> {
+            final var messageCachePath = getMessageCachePath(dataPath, accountPath);
+            messageCache = settings.messageCacheType() == MessageCacheType.LOG
+                    ? new LogMessageCache(getMessageLogPath(dataPath, accountPath), messageCachePath)
+                    : new FileMessageCache(messageCachePath);
+        });
     }
 
     public AccountDatabase getAccountDatabase() {
@@ -1765,6 +1853,14 @@ public class SignalAccount implements Closeable {
         getKeyValueStore().storeEntry(unrestrictedUnidentifiedAccess, value);
     }
 
+    public int getSendConcurrency() {
+        return settings.sendConcurrency();
+    }
+
+    public int getAccountWorkers() {
+        return settings.accountWorkers();
+    }
+
     public boolean isDiscoverableByPhoneNumber() {
         final var phoneNumberUnlisted = getConfigurationStore().getPhoneNumberUnlisted();
         return phoneNumberUnlisted == null || !phoneNumberUnlisted;
@@ -1796,11 +1892,15 @@ public class SignalAccount implements Closeable {
     @Override
     public void close() {
         synchronized (fileChannel) {
+            if (messageSendLogStore != null) {
+                // Writes the queued entries, so it has to be closed before the database
+                messageSendLogStore.close();
+            }
             if (accountDatabase != null) {
                 accountDatabase.close();
             }
-            if (messageSendLogStore != null) {
-                messageSendLogStore.close();
+            if (messageCache != null) {
+                messageCache.close();
             }
             try {
                 try {
@@ -1864,6 +1964,33 @@ public class SignalAccount implements Closeable {
         }
     }
 
+    private record PreKeyMetadataEntries(
+            KeyValueEntry<Integer> nextPreKeyId,
+            KeyValueEntry<Integer> nextSignedPreKeyId,
+            KeyValueEntry<Integer> activeSignedPreKeyId,
+            KeyValueEntry<Integer> nextKyberPreKeyId,
+            KeyValueEntry<Integer> activeLastResortKyberPreKeyId
+    ) {
+
+        private static final PreKeyMetadataEntries ACI_ENTRIES = create("aci");
+        private static final PreKeyMetadataEntries PNI_ENTRIES = create("pni");
+
+        private static PreKeyMetadataEntries of(ServiceIdType serviceIdType) {
+            return switch (serviceIdType) {
+                case ACI -> ACI_ENTRIES;
+                case PNI -> PNI_ENTRIES;
+            };
+        }
+
+        private static PreKeyMetadataEntries create(String prefix) {
+            return new PreKeyMetadataEntries(new KeyValueEntry<>(prefix + "-next-pre-key-id", int.class, 1),
+                    new KeyValueEntry<>(prefix + "-next-signed-pre-key-id", int.class, 1),
+                    new KeyValueEntry<>(prefix + "-active-signed-pre-key-id", int.class, -1),
+                    new KeyValueEntry<>(prefix + "-next-kyber-pre-key-id", int.class, 1),
+                    new KeyValueEntry<>(prefix + "-active-last-resort-kyber-pre-key-id", int.class, -1));
+        }
+    }
+
     public class AccountData<SERVICE_ID extends ServiceId> {
 
         private final ServiceIdType serviceIdType;
@@ -1978,18 +2105,11 @@ public class SignalAccount implements Closeable {
                 String serviceId,
                 int registrationId,
                 String identityPrivateKey,
-                String identityPublicKey,
-
-                int nextPreKeyId,
-                int nextSignedPreKeyId,
-                int activeSignedPreKeyId,
-                int nextKyberPreKeyId,
-                int activeLastResortKyberPreKeyId
+                String identityPublicKey
         ) {
 
             private static AccountData from(final SignalAccount.AccountData<?> accountData) {
                 final var base64 = Base64.getEncoder();
-                final var preKeyMetadata = accountData.getPreKeyMetadata();
                 return new AccountData(accountData.getServiceId() == null
                         ? null
                         : accountData.getServiceId().toString(),
@@ -1999,12 +2119,7 @@ public class SignalAccount implements Closeable {
                                 : base64.encodeToString(accountData.getIdentityKeyPair().getPrivateKey().serialize()),
                         accountData.getIdentityKeyPair() == null
                                 ? null
-                                : base64.encodeToString(accountData.getIdentityKeyPair().getPublicKey().serialize()),
-                        preKeyMetadata.getNextPreKeyId(),
-                        preKeyMetadata.getNextSignedPreKeyId(),
-                        preKeyMetadata.getActiveSignedPreKeyId(),
-                        preKeyMetadata.getNextKyberPreKeyId(),
-                        preKeyMetadata.getActiveLastResortKyberPreKeyId());
+                                : base64.encodeToString(accountData.getIdentityKeyPair().getPublicKey().serialize()));
             }
         }
     }
@@ -0,0 +1,131 @@
+package org.asamk.signal.manager.storage;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Bounded in-memory cache, that evicts the least recently used entries once the total weight of its entries exceeds
+ * the maximum weight.
+ * <p>
+ * Entries are spread over independently locked stripes. All keys with the same stripe key end up in the same stripe,
+ * so they can be invalidated together without touching the rest of the cache.
+ */
+public class StripedLruCache<K, V> {
+
+    private static final int STRIPE_COUNT = 16;
+
+    private final Function<K, ?> stripeKey;
+    private final Stripe<K, V>[] stripes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxWeight maximum total weight of all cached entries
+     * @param stripeKey derives the stripe key from a cache key
+     */
+    @SuppressWarnings("unchecked")
+    public StripedLruCache(final long maxWeight, final Function<K, ?> stripeKey) {
+        this.stripeKey = stripeKey;
+        this.stripes = new Stripe[STRIPE_COUNT];
+        for (var i = 0; i < STRIPE_COUNT; i++) {
+            stripes[i] = new Stripe<>(Math.max(1, maxWeight / STRIPE_COUNT));
+        }
+    }
+
+    public V get(final K key) {
+        final var stripe = getStripe(stripeKey.apply(key));
+        final Entry<V> entry;
+        synchronized (stripe) {
+            entry = stripe.entries.get(key);
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.value();
+    }
+
+    public void put(final K key, final V value, final int weight) {
+        final var stripe = getStripe(stripeKey.apply(key));
+        synchronized (stripe) {
+            final var previous = stripe.entries.put(key, new Entry<>(value, weight));
+            stripe.weight += weight - (previous == null ? 0 : previous.weight());
+            final var iterator = stripe.entries.values().iterator();
+            while (stripe.weight > stripe.maxWeight && stripe.entries.size() > 1) {
+                stripe.weight -= iterator.next().weight();
+                iterator.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    public void remove(final K key) {
+        final var stripe = getStripe(stripeKey.apply(key));
+        synchronized (stripe) {
+            final var previous = stripe.entries.remove(key);
+            if (previous != null) {
+                stripe.weight -= previous.weight();
+            }
+        }
+    }
+
+    /**
+     * Remove all entries with the given stripe key, that match the predicate.
+     */
+    public void removeIf(final Object stripeKey, final Predicate<K> predicate) {
+        final var stripe = getStripe(stripeKey);
+        synchronized (stripe) {
+            final var iterator = stripe.entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                final var entry = iterator.next();
+                if (predicate.test(entry.getKey())) {
+                    stripe.weight -= entry.getValue().weight();
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        for (final var stripe : stripes) {
+            synchronized (stripe) {
+                stripe.entries.clear();
+                stripe.weight = 0;
+            }
+        }
+    }
+
+    public CacheStatistics getStatistics() {
+        var size = 0L;
+        var weight = 0L;
+        for (final var stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.entries.size();
+                weight += stripe.weight;
+            }
+        }
+        return new CacheStatistics(hits.sum(), misses.sum(), evictions.sum(), size, weight);
+    }
+
+    private Stripe<K, V> getStripe(final Object stripeKey) {
+        return stripes[Math.floorMod(stripeKey.hashCode(), stripes.length)];
+    }
+
+    private static final class Stripe<K, V> {
+
+        private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private final long maxWeight;
+        private long weight;
+
+        private Stripe(final long maxWeight) {
+            this.maxWeight = maxWeight;
+        }
+    }
+
+    private record Entry<V>(V value, int weight) {}
+}
@@ -14,5 +14,13 @@ public interface ContactsStore {
 
     List<Pair<RecipientId, Contact>> getContacts();
 
+    /**
+     * @param after the last recipient of the previous page, or null for the first page
+     * @return at most limit contacts, ordered by their recipient id
+     */
+    List<Pair<RecipientId, Contact>> getContacts(RecipientId after, int limit);
+
+    List<RecipientId> getBlockedRecipientIds();
+
     void deleteContact(RecipientId recipientId);
 }
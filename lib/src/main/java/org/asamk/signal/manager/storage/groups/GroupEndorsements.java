@@ -0,0 +1,65 @@
+package org.asamk.signal.manager.storage.groups;
+
+import org.asamk.signal.manager.storage.recipients.RecipientId;
+import org.signal.libsignal.zkgroup.groups.GroupSecretParams;
+import org.signal.libsignal.zkgroup.groupsend.GroupSendEndorsement;
+import org.signal.libsignal.zkgroup.groupsend.GroupSendFullToken;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The deserialized group send endorsements of a group, valid until their expiration time.
+ * <p>
+ * Full tokens are derived once per recipient and kept until the endorsements are replaced.
+ */
+public final class GroupEndorsements {
+
+    private final long expirationMs;
+    private final Map<RecipientId, GroupSendEndorsement> endorsements;
+    private final GroupSecretParams groupSecretParams;
+    private final Map<RecipientId, GroupSendFullToken> fullTokens = new ConcurrentHashMap<>();
+
+    GroupEndorsements(
+            final long expirationMs,
+            final Map<RecipientId, GroupSendEndorsement> endorsements,
+            final GroupSecretParams groupSecretParams
+    ) {
+        this.expirationMs = expirationMs;
+        this.endorsements = Map.copyOf(endorsements);
+        this.groupSecretParams = groupSecretParams;
+    }
+
+    public long getExpirationMs() {
+        return expirationMs;
+    }
+
+    public Map<RecipientId, GroupSendEndorsement> getEndorsements() {
+        return endorsements;
+    }
+
+    public GroupSecretParams getGroupSecretParams() {
+        return groupSecretParams;
+    }
+
+    /**
+     * Whether there are no endorsements or they expire within the given duration.
+     */
+    public boolean isExpiringWithin(final Duration duration) {
+        return endorsements.isEmpty() || expirationMs - duration.toMillis() < System.currentTimeMillis();
+    }
+
+    /**
+     * @return the full token of the recipient or null, if there's no endorsement for the recipient.
+     */
+    public GroupSendFullToken getFullToken(final RecipientId recipientId) {
+        final var endorsement = endorsements.get(recipientId);
+        if (endorsement == null) {
+            return null;
+        }
+        return fullTokens.computeIfAbsent(recipientId,
+                r -> endorsement.toFullToken(groupSecretParams, Instant.ofEpochMilli(expirationMs)));
+    }
+}
@@ -27,6 +27,8 @@ public final class GroupInfoV2 extends GroupInfo {
     private DecryptedGroup group;
     private byte[] storageRecord;
     private boolean permissionDenied;
+    // Shared with the copies of this group info, until the group is changed
+    private MemberRecipientIds memberRecipientIds = new MemberRecipientIds();
 
     private final RecipientResolver recipientResolver;
 
@@ -85,6 +87,7 @@ public final class GroupInfoV2 extends GroupInfo {
             this.permissionDenied = false;
         }
         this.group = group;
+        this.memberRecipientIds = new MemberRecipientIds();
     }
 
     public DecryptedGroup getGroup() {
@@ -128,6 +131,22 @@ public final class GroupInfoV2 extends GroupInfo {
         return group.members.stream().map(m -> (GroupMemberInfo) new GroupMemberInfoV2(m, recipientResolver)).toList();
     }
 
+    @Override
+    public Set<RecipientId> getMemberRecipientIds() {
+        final var memberRecipientIds = this.memberRecipientIds;
+        var recipientIds = memberRecipientIds.recipientIds;
+        if (recipientIds == null) {
+            recipientIds = Set.copyOf(super.getMemberRecipientIds());
+            memberRecipientIds.recipientIds = recipientIds;
+        }
+        return recipientIds;
+    }
+
+    @Override
+    public boolean isMember(final RecipientId recipientId) {
+        return getMemberRecipientIds().contains(recipientId);
+    }
+
     @Override
     public Set<RecipientId> getBannedMembers() {
         if (this.group == null) {
@@ -236,6 +255,23 @@ public final class GroupInfoV2 extends GroupInfo {
         return permissionDenied;
     }
 
+    /**
+     * Create an independent copy, that shares the already resolved member recipient ids.
+     */
+    GroupInfoV2 copy() {
+        final var copy = new GroupInfoV2(groupId,
+                masterKey,
+                group,
+                distributionId,
+                blocked,
+                profileSharingEnabled,
+                permissionDenied,
+                storageRecord,
+                recipientResolver);
+        copy.memberRecipientIds = memberRecipientIds;
+        return copy;
+    }
+
     private AccessControl getAccessControl() {
         if (this.group == null || this.group.accessControl == null) {
             return null;
@@ -250,4 +286,9 @@ public final class GroupInfoV2 extends GroupInfo {
             default -> GroupPermission.EVERY_MEMBER;
         };
     }
+
+    private static final class MemberRecipientIds {
+
+        private volatile Set<RecipientId> recipientIds;
+    }
 }
@@ -5,7 +5,9 @@ import org.asamk.signal.manager.api.GroupIdV1;
 import org.asamk.signal.manager.api.GroupIdV2;
 import org.asamk.signal.manager.api.Pair;
 import org.asamk.signal.manager.groups.GroupUtils;
+import org.asamk.signal.manager.storage.CacheStatistics;
 import org.asamk.signal.manager.storage.Database;
+import org.asamk.signal.manager.storage.StripedLruCache;
 import org.asamk.signal.manager.storage.Utils;
 import org.asamk.signal.manager.storage.recipients.RecipientId;
 import org.asamk.signal.manager.storage.recipients.RecipientIdCreator;
@@ -34,6 +36,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -44,11 +47,25 @@ public class GroupStore {
     private static final String TABLE_GROUP_V2_MEMBER = "group_v2_member";
     private static final String TABLE_GROUP_V1 = "group_v1";
     private static final String TABLE_GROUP_V1_MEMBER = "group_v1_member";
+    // Maximum number of group members of all cached groups
+    private static final long MAX_CACHED_GROUP_MEMBERS = 20_000;
+    // Maximum number of endorsements of all cached groups
+    private static final long MAX_CACHED_GROUP_ENDORSEMENTS = 20_000;
 
     private final Database database;
     private final RecipientResolver recipientResolver;
     private final RecipientIdCreator recipientIdCreator;
 
+    // Decoded v2 groups, the cached instances are only copied and never returned directly
+    private final StripedLruCache<GroupIdV2, GroupInfoV2> cachedGroups = new StripedLruCache<>(
+            MAX_CACHED_GROUP_MEMBERS,
+            groupId -> groupId);
+    private final StripedLruCache<GroupIdV2, GroupEndorsements> cachedEndorsements = new StripedLruCache<>(
+            MAX_CACHED_GROUP_ENDORSEMENTS,
+            groupId -> groupId);
+    // Incremented on every invalidation, so entries read concurrently with a change aren't added to the caches
+    private final AtomicLong cacheVersion = new AtomicLong();
+
     public static void createSql(Connection connection) throws SQLException {
         // When modifying the CREATE statement here, also add a migration in AccountDatabase.java
         try (final var statement = connection.createStatement()) {
@@ -181,6 +198,7 @@ public class GroupStore {
                     }
                 }
             }
+            invalidateCache(connection, () -> cachedEndorsements.remove(groupId));
             connection.commit();
         } catch (SQLException e) {
             throw new RuntimeException("Failed update group store", e);
@@ -188,6 +206,17 @@ public class GroupStore {
     }
 
     public long getGroupEndorsementExpirationMs(final GroupIdV2 groupId) {
+        try (final var connection = database.getConnection()) {
+            return getGroupEndorsementExpirationMs(connection, groupId);
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed read from group store", e);
+        }
+    }
+
+    private long getGroupEndorsementExpirationMs(
+            final Connection connection,
+            final GroupIdV2 groupId
+    ) throws SQLException {
         final var sql = (
                 """
                 SELECT g.endorsement_expiration_time
@@ -195,17 +224,20 @@ public class GroupStore {
                 WHERE g.group_id = ?
                 """
         ).formatted(TABLE_GROUP_V2);
-        try (final var connection = database.getConnection()) {
-            try (final var statement = connection.prepareStatement(sql)) {
-                statement.setBytes(1, groupId.serialize());
-                return Utils.executeQueryForOptional(statement, this::getGroupEndorsementMsFromResultSet).orElse(0L);
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed read from group store", e);
+        try (final var statement = connection.prepareStatement(sql)) {
+            statement.setBytes(1, groupId.serialize());
+            return Utils.executeQueryForOptional(statement, this::getGroupEndorsementMsFromResultSet).orElse(0L);
         }
     }
 
-    public Map<RecipientId, GroupSendEndorsement> getGroupEndorsements(final GroupIdV2 groupId) {
+    public GroupEndorsements getGroupEndorsements(final GroupInfoV2 group) {
+        final var groupId = group.getGroupId();
+        final var cachedGroupEndorsements = cachedEndorsements.get(groupId);
+        if (cachedGroupEndorsements != null) {
+            return cachedGroupEndorsements;
+        }
+
+        final var version = cacheVersion.get();
         final var sql = (
                 """
                 SELECT gm.recipient_id, gm.endorsement
@@ -213,16 +245,26 @@ public class GroupStore {
                 WHERE gm.group_id = g._id AND g.group_id = ?
                 """
         ).formatted(TABLE_GROUP_V2_MEMBER, TABLE_GROUP_V2);
+        final long expirationMs;
+        final Map<RecipientId, GroupSendEndorsement> endorsements;
         try (final var connection = database.getConnection()) {
+            expirationMs = getGroupEndorsementExpirationMs(connection, groupId);
             try (final var statement = connection.prepareStatement(sql)) {
                 statement.setBytes(1, groupId.serialize());
-                return Utils.executeQueryForStream(statement, this::getGroupEndorsementsFromResultSet)
+                endorsements = Utils.executeQueryForStream(statement, this::getGroupEndorsementsFromResultSet)
                         .filter(Objects::nonNull)
                         .collect(Collectors.toMap(Pair::first, Pair::second));
             }
         } catch (SQLException e) {
             throw new RuntimeException("Failed read from group store", e);
         }
+        final var groupEndorsements = new GroupEndorsements(expirationMs,
+                endorsements,
+                GroupSecretParams.deriveFromMasterKey(group.getMasterKey()));
+        if (!endorsements.isEmpty()) {
+            putIfUnchanged(cachedEndorsements, version, groupId, groupEndorsements, 1 + endorsements.size());
+        }
+        return groupEndorsements;
     }
 
     private Pair<RecipientId, GroupSendEndorsement> getGroupEndorsementsFromResultSet(ResultSet resultSet) throws SQLException {
@@ -275,6 +317,9 @@ public class GroupStore {
             statement.setBytes(3, groupId.serialize());
             statement.executeUpdate();
         }
+        if (groupId instanceof GroupIdV2 groupIdV2) {
+            invalidateCache(connection, () -> cachedGroups.remove(groupIdV2));
+        }
     }
 
     public void deleteGroup(GroupId groupId) {
@@ -318,6 +363,10 @@ public class GroupStore {
                 statement.setBytes(1, groupIdV2.serialize());
                 statement.executeUpdate();
             }
+            invalidateCache(connection, () -> {
+                cachedGroups.remove(groupIdV2);
+                cachedEndorsements.remove(groupIdV2);
+            });
         } catch (SQLException e) {
             throw new RuntimeException("Failed update group store", e);
         }
@@ -448,6 +497,42 @@ public class GroupStore {
         }
     }
 
+    /**
+     * @return the ids of all blocked groups, without decoding the groups
+     */
+    public List<GroupId> getBlockedGroupIds() {
+        final var sqlV1 = (
+                """
+                SELECT g.group_id
+                FROM %s g
+                WHERE g.blocked = TRUE
+                """
+        ).formatted(TABLE_GROUP_V1);
+        final var sqlV2 = (
+                """
+                SELECT g.group_id
+                FROM %s g
+                WHERE g.blocked = TRUE
+                """
+        ).formatted(TABLE_GROUP_V2);
+        try (final var connection = database.getConnection()) {
+            final var groupIds = new ArrayList<GroupId>();
+            try (final var statement = connection.prepareStatement(sqlV2)) {
+                try (var result = Utils.executeQueryForStream(statement, this::getGroupIdV2FromResultSet)) {
+                    result.forEach(groupIds::add);
+                }
+            }
+            try (final var statement = connection.prepareStatement(sqlV1)) {
+                try (var result = Utils.executeQueryForStream(statement, this::getGroupIdV1FromResultSet)) {
+                    result.forEach(groupIds::add);
+                }
+            }
+            return groupIds;
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed read from group store", e);
+        }
+    }
+
     public void mergeRecipients(
             final Connection connection,
             final RecipientId recipientId,
@@ -483,6 +568,11 @@ public class GroupStore {
                 logger.debug("Updated {} group v2 members when merging recipients", updatedRows);
             }
         }
+        // The member recipient ids of the cached groups and endorsements may refer to the merged recipient
+        invalidateCache(connection, () -> {
+            cachedGroups.clear();
+            cachedEndorsements.clear();
+        });
     }
 
     public List<StorageId> getStorageIds(Connection connection) throws SQLException {
@@ -683,6 +773,7 @@ public class GroupStore {
                 statement.setBoolean(9, groupV2.isProfileSharingEnabled());
                 statement.executeUpdate();
             }
+            invalidateCache(connection, () -> cachedGroups.remove(groupV2.getGroupId()));
         } else {
             throw new AssertionError("Invalid group id type");
         }
@@ -696,9 +787,25 @@ public class GroupStore {
                 """
         ).formatted(TABLE_GROUP_V2);
         try (final var connection = database.getConnection()) {
+            final var groupIds = getGroupV2Ids(connection);
+            final var groups = new ArrayList<GroupInfoV2>(groupIds.size());
+            for (final var groupId : groupIds) {
+                final var cachedGroup = cachedGroups.get(groupId);
+                if (cachedGroup == null) {
+                    groups.clear();
+                    break;
+                }
+                groups.add(cachedGroup.copy());
+            }
+            if (groups.size() == groupIds.size()) {
+                return groups;
+            }
+
+            final var version = cacheVersion.get();
             try (final var statement = connection.prepareStatement(sql)) {
                 return Utils.executeQueryForStream(statement, this::getGroupInfoV2FromResultSet)
                         .filter(Objects::nonNull)
+                        .map(group -> cacheGroup(version, group))
                         .toList();
             }
         } catch (SQLException e) {
@@ -707,6 +814,12 @@ public class GroupStore {
     }
 
     public GroupInfoV2 getGroup(Connection connection, GroupIdV2 groupIdV2) throws SQLException {
+        final var cachedGroup = cachedGroups.get(groupIdV2);
+        if (cachedGroup != null) {
+            return cachedGroup.copy();
+        }
+
+        final var version = cacheVersion.get();
         final var sql = (
                 """
                 SELECT g.group_id, g.master_key, g.group_data, g.distribution_id, g.blocked, g.profile_sharing, g.permission_denied, g.storage_record
@@ -716,10 +829,61 @@ public class GroupStore {
         ).formatted(TABLE_GROUP_V2);
         try (final var statement = connection.prepareStatement(sql)) {
             statement.setBytes(1, groupIdV2.serialize());
-            return Utils.executeQueryForOptional(statement, this::getGroupInfoV2FromResultSet).orElse(null);
+            return Utils.executeQueryForOptional(statement, this::getGroupInfoV2FromResultSet)
+                    .map(group -> cacheGroup(version, group))
+                    .orElse(null);
+        }
+    }
+
+    public CacheStatistics getCacheStatistics() {
+        return cachedGroups.getStatistics();
+    }
+
+    public CacheStatistics getEndorsementCacheStatistics() {
+        return cachedEndorsements.getStatistics();
+    }
+
+    /**
+     * Add the group to the cache, if nothing has been changed since the given cache version.
+     *
+     * @return a copy of the group, so the cached instance isn't modified
+     */
+    private GroupInfoV2 cacheGroup(final long version, final GroupInfoV2 group) {
+        final var memberCount = group.getGroup() == null ? 0 : group.getGroup().members.size();
+        putIfUnchanged(cachedGroups, version, group.getGroupId(), group, 1 + memberCount);
+        return group.copy();
+    }
+
+    private <V> void putIfUnchanged(
+            final StripedLruCache<GroupIdV2, V> cache,
+            final long version,
+            final GroupIdV2 groupId,
+            final V value,
+            final int weight
+    ) {
+        if (cacheVersion.get() != version) {
+            return;
+        }
+        cache.put(groupId, value, weight);
+        // A concurrent change may have happened after the check above
+        if (cacheVersion.get() != version) {
+            cache.remove(groupId);
         }
     }
 
+    /**
+     * Remove changed entries from the caches, and again after the current transaction of the connection has ended.
+     * Otherwise a concurrent reader could add the previous entry again before the change is committed.
+     */
+    private void invalidateCache(final Connection connection, final Runnable invalidation) {
+        cacheVersion.incrementAndGet();
+        invalidation.run();
+        Database.runAfterTransaction(connection, () -> {
+            cacheVersion.incrementAndGet();
+            invalidation.run();
+        });
+    }
+
     public StorageId getGroupStorageId(Connection connection, GroupIdV2 groupIdV2) throws SQLException {
         final var sql = (
                 """
@@ -797,7 +961,7 @@ public class GroupStore {
                 : StorageId.forGroupV2(storageId);
     }
 
-    private List<GroupInfoV1> getGroupsV1() {
+    public List<GroupInfoV1> getGroupsV1() {
         final var sql = (
                 """
                 SELECT g.group_id, g.group_id_v2, g.name, g.color, (select group_concat(gm.recipient_id) from %s gm where gm.group_id = g._id) as members, g.expiration_time, g.blocked, g.archived, g.storage_record
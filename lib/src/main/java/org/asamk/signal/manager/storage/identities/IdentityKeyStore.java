@@ -2,7 +2,9 @@ package org.asamk.signal.manager.storage.identities;
 
 import org.asamk.signal.manager.api.TrustLevel;
 import org.asamk.signal.manager.api.TrustNewIdentity;
+import org.asamk.signal.manager.storage.CacheStatistics;
 import org.asamk.signal.manager.storage.Database;
+import org.asamk.signal.manager.storage.StripedLruCache;
 import org.asamk.signal.manager.storage.Utils;
 import org.asamk.signal.manager.storage.recipients.RecipientStore;
 import org.signal.core.models.ServiceId;
@@ -17,8 +19,13 @@ import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 import io.reactivex.rxjava3.core.Observable;
 import io.reactivex.rxjava3.subjects.PublishSubject;
@@ -27,11 +34,19 @@ public class IdentityKeyStore {
 
     private static final Logger logger = LoggerFactory.getLogger(IdentityKeyStore.class);
     private static final String TABLE_IDENTITY = "identity";
+    private static final long MAX_CACHED_IDENTITIES = 20_000;
     private final Database database;
     private final TrustNewIdentity trustNewIdentity;
     private final RecipientStore recipientStore;
     private final PublishSubject<ServiceId> identityChanges = PublishSubject.create();
 
+    // Deserialized identities by address, an empty value means that no identity is stored for the address
+    private final StripedLruCache<String, Optional<IdentityInfo>> cachedIdentities = new StripedLruCache<>(
+            MAX_CACHED_IDENTITIES,
+            address -> address);
+    // Incremented on every invalidation, so identities read concurrently with a change aren't added to the cache
+    private final AtomicLong cacheVersion = new AtomicLong();
+
     private boolean isRetryingDecryption = false;
 
     public static void createSql(Connection connection) throws SQLException {
@@ -200,6 +215,63 @@ public class IdentityKeyStore {
         return loadIdentity(connection, address);
     }
 
+    /**
+     * Get the identities of multiple recipients at once, identities that aren't cached are read with a single query.
+     *
+     * @return the stored identities, recipients without an identity are missing from the map
+     */
+    public Map<ServiceId, IdentityInfo> getIdentityInfos(final Collection<? extends ServiceId> serviceIds) {
+        final var identities = new HashMap<ServiceId, IdentityInfo>(serviceIds.size());
+        final var missingAddresses = new HashMap<String, ServiceId>();
+        for (final var serviceId : serviceIds) {
+            final var address = serviceId.toString();
+            final var cachedIdentity = cachedIdentities.get(address);
+            if (cachedIdentity == null) {
+                missingAddresses.put(address, serviceId);
+            } else {
+                cachedIdentity.ifPresent(identityInfo -> identities.put(serviceId, identityInfo));
+            }
+        }
+        if (missingAddresses.isEmpty()) {
+            return identities;
+        }
+
+        final var version = cacheVersion.get();
+        final var sql = (
+                """
+                SELECT i.address, i.identity_key, i.added_timestamp, i.trust_level
+                FROM %s AS i
+                WHERE i.address IN (SELECT value FROM json_each(?))
+                """
+        ).formatted(TABLE_IDENTITY);
+        final var addressesJson = missingAddresses.keySet()
+                .stream()
+                .map(address -> "\"" + address + "\"")
+                .collect(Collectors.joining(",", "[", "]"));
+        try (final var connection = database.getConnection()) {
+            try (final var statement = connection.prepareStatement(sql)) {
+                statement.setString(1, addressesJson);
+                try (var result = Utils.executeQueryForStream(statement, this::getIdentityInfoFromResultSet)) {
+                    result.filter(Objects::nonNull).forEach(identityInfo -> {
+                        final var address = identityInfo.getAddress();
+                        identities.put(missingAddresses.remove(address), identityInfo);
+                        putIfUnchanged(version, address, Optional.of(identityInfo));
+                    });
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed read from identity store", e);
+        }
+        for (final var address : missingAddresses.keySet()) {
+            putIfUnchanged(version, address, Optional.empty());
+        }
+        return identities;
+    }
+
+    public CacheStatistics getCacheStatistics() {
+        return cachedIdentities.getStatistics();
+    }
+
     public List<IdentityInfo> getIdentities() {
         try (final var connection = database.getConnection()) {
             final var sql = (
@@ -242,6 +314,17 @@ public class IdentityKeyStore {
     }
 
     private IdentityInfo loadIdentity(final Connection connection, final String address) throws SQLException {
+        // Inside a transaction the connection sees its own uncommitted changes, those must neither be cached nor be
+        // hidden by the cached committed identity
+        final var inTransaction = !connection.getAutoCommit();
+        if (!inTransaction) {
+            final var cachedIdentity = cachedIdentities.get(address);
+            if (cachedIdentity != null) {
+                return cachedIdentity.orElse(null);
+            }
+        }
+
+        final var version = cacheVersion.get();
         final var sql = (
                 """
                 SELECT i.address, i.identity_key, i.added_timestamp, i.trust_level
@@ -251,7 +334,11 @@ public class IdentityKeyStore {
         ).formatted(TABLE_IDENTITY);
         try (final var statement = connection.prepareStatement(sql)) {
             statement.setString(1, address);
-            return Utils.executeQueryForOptional(statement, this::getIdentityInfoFromResultSet).orElse(null);
+            final var identityInfo = Utils.executeQueryForOptional(statement, this::getIdentityInfoFromResultSet);
+            if (!inTransaction) {
+                putIfUnchanged(version, address, identityInfo);
+            }
+            return identityInfo.orElse(null);
         }
     }
 
@@ -292,6 +379,7 @@ public class IdentityKeyStore {
             statement.setInt(4, identityInfo.getTrustLevel().ordinal());
             statement.executeUpdate();
         }
+        invalidateCache(connection, identityInfo.getAddress());
         recipientStore.rotateStorageId(connection, identityInfo.getServiceId());
     }
 
@@ -306,6 +394,31 @@ public class IdentityKeyStore {
             statement.setString(1, address);
             statement.executeUpdate();
         }
+        invalidateCache(connection, address);
+    }
+
+    private void putIfUnchanged(final long version, final String address, final Optional<IdentityInfo> identityInfo) {
+        if (cacheVersion.get() != version) {
+            return;
+        }
+        cachedIdentities.put(address, identityInfo, 1);
+        // A concurrent change may have happened after the check above
+        if (cacheVersion.get() != version) {
+            cachedIdentities.remove(address);
+        }
+    }
+
+    /**
+     * Remove the changed identity from the cache, and again after the current transaction of the connection has ended.
+     * Otherwise a concurrent reader could add the previous identity again before the change is committed.
+     */
+    private void invalidateCache(final Connection connection, final String address) {
+        cacheVersion.incrementAndGet();
+        cachedIdentities.remove(address);
+        Database.runAfterTransaction(connection, () -> {
+            cacheVersion.incrementAndGet();
+            cachedIdentities.remove(address);
+        });
     }
 
     private IdentityInfo getIdentityInfoFromResultSet(ResultSet resultSet) throws SQLException {
@@ -0,0 +1,130 @@
+package org.asamk.signal.manager.storage.jobs;
+
+import org.asamk.signal.manager.storage.Database;
+import org.asamk.signal.manager.storage.Utils;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Pending jobs, that are run again after a restart.
+ */
+public class JobStore {
+
+    private static final String TABLE_JOB = "job";
+
+    private static final String SQL_INSERT_JOB = (
+            """
+            INSERT INTO %s (type, data, run_after, attempts)
+            VALUES (?, ?, ?, ?)
+            RETURNING _id
+            """
+    ).formatted(TABLE_JOB);
+    private static final String SQL_UPDATE_JOB = (
+            """
+            UPDATE %s
+            SET run_after = ?, attempts = ?
+            WHERE _id = ?
+            """
+    ).formatted(TABLE_JOB);
+    private static final String SQL_DELETE_JOB = (
+            """
+            DELETE FROM %s
+            WHERE _id = ?
+            """
+    ).formatted(TABLE_JOB);
+
+    private final Database database;
+
+    public static void createSql(Connection connection) throws SQLException {
+        // When modifying the CREATE statement here, also add a migration in AccountDatabase.java
+        try (final var statement = connection.createStatement()) {
+            statement.executeUpdate("""
+                                    CREATE TABLE job (
+                                      _id INTEGER PRIMARY KEY,
+                                      type TEXT NOT NULL,
+                                      data TEXT NOT NULL,
+                                      run_after INTEGER NOT NULL,
+                                      attempts INTEGER NOT NULL DEFAULT 0
+                                    ) STRICT;
+                                    """);
+        }
+    }
+
+    public JobStore(final Database database) {
+        this.database = database;
+    }
+
+    public List<StoredJob> getJobs() {
+        final var sql = (
+                """
+                SELECT j._id, j.type, j.data, j.run_after, j.attempts
+                FROM %s j
+                ORDER BY j._id
+                """
+        ).formatted(TABLE_JOB);
+        try (final var connection = database.getConnection()) {
+            try (final var statement = connection.prepareStatement(sql)) {
+                try (var result = Utils.executeQueryForStream(statement, this::getStoredJobFromResultSet)) {
+                    return result.toList();
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed read from job store", e);
+        }
+    }
+
+    /**
+     * @return the id of the stored job
+     */
+    public long addJob(final String type, final String data, final long runAfter, final int attempts) {
+        try (final var connection = database.getConnection()) {
+            try (final var statement = connection.prepareStatement(SQL_INSERT_JOB)) {
+                statement.setString(1, type);
+                statement.setString(2, data);
+                statement.setLong(3, runAfter);
+                statement.setInt(4, attempts);
+                return Utils.executeQueryForOptional(statement, Utils::getIdMapper)
+                        .orElseThrow(() -> new RuntimeException("Failed to add new job to database"));
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed update job store", e);
+        }
+    }
+
+    public void updateJob(final long id, final long runAfter, final int attempts) {
+        try (final var connection = database.getConnection()) {
+            try (final var statement = connection.prepareStatement(SQL_UPDATE_JOB)) {
+                statement.setLong(1, runAfter);
+                statement.setInt(2, attempts);
+                statement.setLong(3, id);
+                statement.executeUpdate();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed update job store", e);
+        }
+    }
+
+    public void deleteJob(final long id) {
+        try (final var connection = database.getConnection()) {
+            try (final var statement = connection.prepareStatement(SQL_DELETE_JOB)) {
+                statement.setLong(1, id);
+                statement.executeUpdate();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed update job store", e);
+        }
+    }
+
+    private StoredJob getStoredJobFromResultSet(ResultSet resultSet) throws SQLException {
+        return new StoredJob(resultSet.getLong("_id"),
+                resultSet.getString("type"),
+                resultSet.getString("data"),
+                resultSet.getLong("run_after"),
+                resultSet.getInt("attempts"));
+    }
+
+    public record StoredJob(long id, String type, String data, long runAfter, int attempts) {}
+}
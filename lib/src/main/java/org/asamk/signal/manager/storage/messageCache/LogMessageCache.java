@@ -0,0 +1,614 @@
+package org.asamk.signal.manager.storage.messageCache;
+
+import org.asamk.signal.manager.api.Pair;
+import org.asamk.signal.manager.storage.recipients.RecipientId;
+import org.asamk.signal.manager.util.IOUtils;
+import org.asamk.signal.manager.util.MessageCacheUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.signalservice.api.messages.SignalServiceEnvelope;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32C;
+
+/**
+ * Message cache backed by an append-only log of memory-mapped segment files.
+ * <p>
+ * A record in the log is either a received envelope, a tombstone for a deleted envelope or the move of an envelope to
+ * another recipient. The index of live envelopes is rebuilt by replaying all segments on startup.
+ * Mostly dead segments are compacted in the background by copying their live envelopes to the end of the log, the
+ * segment with the fewest live envelopes first. Tombstones and moves, that still refer to an envelope in another
+ * segment, are copied as well, so a tombstone can't be removed before the envelope it refers to.
+ * <p>
+ * Record layout: type (1 byte), payload length (4), record id (8), recipient id (8), payload, CRC32C (4)
+ */
+public class LogMessageCache implements MessageCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(LogMessageCache.class);
+
+    private static final int SEGMENT_SIZE = 8 * 1024 * 1024;
+    private static final byte TYPE_ENVELOPE = 1;
+    private static final byte TYPE_TOMBSTONE = 2;
+    private static final byte TYPE_MOVE = 3;
+    private static final int HEADER_SIZE = 1 + 4 + 8 + 8;
+    private static final int CHECKSUM_SIZE = 4;
+    private static final long NO_RECIPIENT = -1;
+    private static final byte[] EMPTY_PAYLOAD = new byte[0];
+    // Tombstones are synced together after this delay, unless they're synced earlier with the next received batch
+    private static final long TOMBSTONE_SYNC_DELAY_MS = 1000;
+
+    private final File logPath;
+    private final List<Segment> segments = new ArrayList<>();
+    private final Map<Long, Entry> entries = new TreeMap<>();
+    private final Map<Long, Set<Long>> recipientIndex = new HashMap<>();
+    private long nextRecordId = 1;
+    private long nextSegmentId = 0;
+    private boolean compactionRunning = false;
+    private boolean syncScheduled = false;
+    private boolean closed = false;
+
+    /**
+     * @param logPath                directory for the log segments
+     * @param legacyMessageCachePath directory of the file based message cache, existing messages are moved to the log
+     */
+    public LogMessageCache(final File logPath, final File legacyMessageCachePath) {
+        this.logPath = logPath;
+        try {
+            IOUtils.createPrivateDirectories(logPath);
+            openSegments();
+            migrateLegacyMessageCache(legacyMessageCachePath);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open message cache log", e);
+        }
+    }
+
+    @Override
+    public synchronized Iterable<CachedMessage> getCachedMessages() {
+        return entries.keySet().stream().<CachedMessage>map(recordId -> new LogCachedMessage(recordId, null)).toList();
+    }
+
+    @Override
+    public CachedMessage cacheMessage(final SignalServiceEnvelope envelope, final RecipientId recipientId) {
+        return cacheMessages(List.of(new Pair<>(envelope, recipientId))).getFirst();
+    }
+
+    @Override
+    public synchronized List<CachedMessage> cacheMessages(
+            final List<Pair<SignalServiceEnvelope, RecipientId>> messages
+    ) {
+        final var cachedMessages = new ArrayList<CachedMessage>(messages.size());
+        for (final var message : messages) {
+            final var envelope = message.first();
+            final var recordId = nextRecordId++;
+            try {
+                final var recipientId = message.second() == null ? NO_RECIPIENT : message.second().id();
+                addEntry(append(TYPE_ENVELOPE, recordId, recipientId, encodeEnvelope(envelope)));
+            } catch (IOException e) {
+                logger.warn("Failed to store encrypted message in disk cache, ignoring: {}", e.getMessage());
+            }
+            cachedMessages.add(new LogCachedMessage(recordId, envelope));
+        }
+        // A single sync for the whole batch, it's acknowledged to the server afterwards
+        sync();
+        return cachedMessages;
+    }
+
+    @Override
+    public synchronized CachedMessage replaceSender(
+            final CachedMessage cachedMessage,
+            final RecipientId sender
+    ) throws IOException {
+        final var recordId = ((LogCachedMessage) cachedMessage).recordId;
+        final var entry = entries.get(recordId);
+        if (entry == null || entry.recipientId == sender.id()) {
+            return cachedMessage;
+        }
+        logger.debug("Moving cached message {} to recipient {}", recordId, sender.id());
+        append(TYPE_MOVE, recordId, sender.id(), EMPTY_PAYLOAD);
+        moveEntry(recordId, sender.id());
+        return cachedMessage;
+    }
+
+    @Override
+    public synchronized void deleteMessages(final RecipientId recipientId) {
+        final var recordIds = recipientIndex.get(recipientId.id());
+        if (recordIds == null) {
+            return;
+        }
+        for (final var recordId : List.copyOf(recordIds)) {
+            delete(recordId);
+        }
+    }
+
+    @Override
+    public synchronized void mergeRecipients(final RecipientId recipientId, final RecipientId toBeMergedRecipientId) {
+        final var recordIds = recipientIndex.get(toBeMergedRecipientId.id());
+        if (recordIds == null) {
+            return;
+        }
+        for (final var recordId : List.copyOf(recordIds)) {
+            try {
+                append(TYPE_MOVE, recordId, recipientId.id(), EMPTY_PAYLOAD);
+                moveEntry(recordId, recipientId.id());
+            } catch (IOException e) {
+                logger.warn("Failed to move cached message {}, ignoring: {}", recordId, e.getMessage(), e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        sync();
+        for (final var segment : segments) {
+            segment.close();
+        }
+    }
+
+    private synchronized SignalServiceEnvelope loadEnvelope(final long recordId) {
+        final var entry = entries.get(recordId);
+        // The segments are unmapped, once the cache is closed
+        if (entry == null || closed) {
+            return null;
+        }
+        try {
+            return MessageCacheUtils.loadEnvelope(new ByteArrayInputStream(readPayload(entry)));
+        } catch (Exception e) {
+            logger.error("Failed to load cached message envelope {}: {}", recordId, e.getMessage(), e);
+            return null;
+        }
+    }
+
+    private synchronized void delete(final long recordId) {
+        final var entry = removeEntry(recordId);
+        if (entry == null) {
+            return;
+        }
+        try {
+            append(TYPE_TOMBSTONE, recordId, entry.recipientId, EMPTY_PAYLOAD);
+        } catch (IOException e) {
+            logger.warn("Failed to delete cached message {}, ignoring: {}", recordId, e.getMessage());
+        }
+        // Only a crash before the sync handles the envelope again, no need for a sync per deleted envelope
+        scheduleSync();
+        scheduleCompactionIfRequired();
+    }
+
+    private void scheduleSync() {
+        if (syncScheduled || closed) {
+            return;
+        }
+        syncScheduled = true;
+        Thread.ofVirtual().name("msg-cache-sync").start(() -> {
+            try {
+                Thread.sleep(TOMBSTONE_SYNC_DELAY_MS);
+            } catch (InterruptedException ignored) {
+            }
+            synchronized (this) {
+                syncScheduled = false;
+                if (!closed) {
+                    sync();
+                }
+            }
+        });
+    }
+
+    private void openSegments() throws IOException {
+        final var files = Objects.requireNonNull(logPath.listFiles((dir, name) -> name.matches("[0-9]+\\.log")));
+        final var sortedFiles = Arrays.stream(files)
+                .sorted(Comparator.comparingLong(LogMessageCache::getSegmentId))
+                .toList();
+        for (final var file : sortedFiles) {
+            final var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            final var segment = new Segment(file, channel, channel.size());
+            segments.add(segment);
+            nextSegmentId = getSegmentId(file) + 1;
+            replay(segment);
+        }
+        logger.debug("Loaded {} cached messages from {} message cache segments", entries.size(), segments.size());
+    }
+
+    private void replay(final Segment segment) {
+        final var buffer = segment.buffer;
+        var position = 0;
+        while (position + HEADER_SIZE + CHECKSUM_SIZE <= buffer.capacity()) {
+            final var type = buffer.get(position);
+            if (type == 0) {
+                break;
+            }
+            final var payloadLength = buffer.getInt(position + 1);
+            final var size = HEADER_SIZE + payloadLength + CHECKSUM_SIZE;
+            if (payloadLength < 0 || size > buffer.capacity() - position || !isChecksumValid(buffer, position, size)) {
+                logger.warn("Message cache segment “{}” contains an incomplete record at {}, ignoring the rest",
+                        segment.file,
+                        position);
+                for (var i = position; i < buffer.capacity(); i++) {
+                    buffer.put(i, (byte) 0);
+                }
+                break;
+            }
+            final var recordId = buffer.getLong(position + 5);
+            final var recipientId = buffer.getLong(position + 13);
+            switch (type) {
+                case TYPE_ENVELOPE -> {
+                    segment.envelopeRecordIds.add(recordId);
+                    addEntry(new Entry(recordId, segment, position, size, recipientId));
+                }
+                case TYPE_TOMBSTONE -> removeEntry(recordId);
+                case TYPE_MOVE -> moveEntry(recordId, recipientId);
+                default -> logger.warn("Unknown message cache record type {}, ignoring", type);
+            }
+            nextRecordId = Math.max(nextRecordId, recordId + 1);
+            position += size;
+        }
+        segment.writePosition = position;
+    }
+
+    private void migrateLegacyMessageCache(final File messageCachePath) throws IOException {
+        if (!messageCachePath.exists()) {
+            return;
+        }
+
+        final var previousCount = entries.size();
+        final var migratedFiles = new ArrayList<File>();
+        for (final var file : Objects.requireNonNull(messageCachePath.listFiles())) {
+            if (file.isFile()) {
+                migrateLegacyMessage(file, NO_RECIPIENT);
+                migratedFiles.add(file);
+                continue;
+            }
+            final long recipientId;
+            try {
+                recipientId = Long.parseLong(file.getName());
+            } catch (NumberFormatException e) {
+                logger.warn("Unexpected message cache directory “{}”, ignoring", file);
+                continue;
+            }
+            final var messageFiles = Objects.requireNonNull(file.listFiles(File::isFile));
+            Arrays.sort(messageFiles);
+            for (final var messageFile : messageFiles) {
+                migrateLegacyMessage(messageFile, recipientId);
+                migratedFiles.add(messageFile);
+            }
+            migratedFiles.add(file);
+        }
+        sync();
+
+        logger.info("Migrated {} cached messages to message cache log", entries.size() - previousCount);
+        for (final var file : migratedFiles) {
+            Files.delete(file.toPath());
+        }
+        Files.delete(messageCachePath.toPath());
+    }
+
+    private void migrateLegacyMessage(final File file, final long recipientId) throws IOException {
+        final SignalServiceEnvelope envelope;
+        try {
+            envelope = MessageCacheUtils.loadEnvelope(file);
+        } catch (Exception e) {
+            logger.warn("Failed to load cached message envelope “{}”, dropping: {}", file, e.getMessage());
+            return;
+        }
+        if (envelope == null) {
+            return;
+        }
+        addEntry(append(TYPE_ENVELOPE, nextRecordId++, recipientId, encodeEnvelope(envelope)));
+    }
+
+    private Entry append(
+            final byte type,
+            final long recordId,
+            final long recipientId,
+            final byte[] payload
+    ) throws IOException {
+        if (closed) {
+            throw new IOException("Message cache is already closed");
+        }
+        final var size = HEADER_SIZE + payload.length + CHECKSUM_SIZE;
+        var segment = segments.isEmpty() ? null : segments.getLast();
+        if (segment == null || size > segment.buffer.capacity() - segment.writePosition) {
+            segment = createSegment(size);
+        }
+
+        final var buffer = segment.buffer;
+        final var position = segment.writePosition;
+        buffer.put(position, type);
+        buffer.putInt(position + 1, payload.length);
+        buffer.putLong(position + 5, recordId);
+        buffer.putLong(position + 13, recipientId);
+        buffer.put(position + HEADER_SIZE, payload);
+        buffer.putInt(position + size - CHECKSUM_SIZE, checksum(buffer, position, size));
+        segment.writePosition += size;
+        segment.dirty = true;
+        if (type == TYPE_ENVELOPE) {
+            segment.envelopeRecordIds.add(recordId);
+        }
+        return new Entry(recordId, segment, position, size, recipientId);
+    }
+
+    private Segment createSegment(final int minimumSize) throws IOException {
+        final var file = new File(logPath, nextSegmentId++ + ".log");
+        IOUtils.createPrivateFile(file);
+        final var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final var segment = new Segment(file, channel, Math.max(SEGMENT_SIZE, minimumSize));
+        segments.add(segment);
+        return segment;
+    }
+
+    private void sync() {
+        for (final var segment : segments) {
+            if (segment.dirty) {
+                segment.mapping.force();
+                segment.dirty = false;
+            }
+        }
+    }
+
+    private void addEntry(final Entry entry) {
+        final var previous = entries.put(entry.recordId, entry);
+        if (previous != null) {
+            // Envelope was copied during an interrupted compaction
+            previous.segment.liveBytes -= previous.size;
+            removeFromIndex(previous);
+        }
+        entry.segment.liveBytes += entry.size;
+        recipientIndex.computeIfAbsent(entry.recipientId, k -> new HashSet<>()).add(entry.recordId);
+    }
+
+    private Entry removeEntry(final long recordId) {
+        final var entry = entries.remove(recordId);
+        if (entry != null) {
+            entry.segment.liveBytes -= entry.size;
+            removeFromIndex(entry);
+        }
+        return entry;
+    }
+
+    private void moveEntry(final long recordId, final long recipientId) {
+        final var entry = entries.get(recordId);
+        if (entry == null) {
+            return;
+        }
+        removeFromIndex(entry);
+        entry.recipientId = recipientId;
+        recipientIndex.computeIfAbsent(recipientId, k -> new HashSet<>()).add(recordId);
+    }
+
+    private void removeFromIndex(final Entry entry) {
+        final var recordIds = recipientIndex.get(entry.recipientId);
+        if (recordIds != null) {
+            recordIds.remove(entry.recordId);
+            if (recordIds.isEmpty()) {
+                recipientIndex.remove(entry.recipientId);
+            }
+        }
+    }
+
+    private void scheduleCompactionIfRequired() {
+        if (compactionRunning || closed || !isCompactionRequired()) {
+            return;
+        }
+        compactionRunning = true;
+        Thread.ofVirtual().name("msg-cache-compaction").start(this::compact);
+    }
+
+    private boolean isCompactionRequired() {
+        return findSegmentToCompact() != null;
+    }
+
+    /**
+     * @return the mostly dead segment with the lowest share of live envelopes, or null if there's none
+     */
+    private Segment findSegmentToCompact() {
+        Segment candidate = null;
+        // The last segment is still written to
+        for (final var segment : segments.subList(0, Math.max(0, segments.size() - 1))) {
+            if (segment.liveBytes * 2 >= segment.writePosition && segment.writePosition > 0) {
+                continue;
+            }
+            if (candidate == null
+                    || segment.liveBytes * candidate.writePosition < candidate.liveBytes * segment.writePosition) {
+                candidate = segment;
+            }
+        }
+        return candidate;
+    }
+
+    private void compact() {
+        while (true) {
+            synchronized (this) {
+                final var segment = closed ? null : findSegmentToCompact();
+                if (segment == null) {
+                    compactionRunning = false;
+                    return;
+                }
+                try {
+                    compactSegment(segment);
+                } catch (IOException e) {
+                    logger.warn("Failed to compact message cache: {}", e.getMessage(), e);
+                    compactionRunning = false;
+                    return;
+                }
+            }
+        }
+    }
+
+    private void compactSegment(final Segment segment) throws IOException {
+        final var buffer = segment.buffer;
+        var movedEnvelopes = 0;
+        var position = 0;
+        while (position < segment.writePosition) {
+            final var type = buffer.get(position);
+            final var size = HEADER_SIZE + buffer.getInt(position + 1) + CHECKSUM_SIZE;
+            final var recordId = buffer.getLong(position + 5);
+            final var entry = entries.get(recordId);
+            switch (type) {
+                case TYPE_ENVELOPE -> {
+                    if (entry != null && entry.segment == segment && entry.offset == position) {
+                        final var copy = append(TYPE_ENVELOPE, recordId, entry.recipientId, readPayload(entry));
+                        segment.liveBytes -= entry.size;
+                        copy.segment.liveBytes += copy.size;
+                        entry.segment = copy.segment;
+                        entry.offset = copy.offset;
+                        movedEnvelopes++;
+                    }
+                }
+                case TYPE_TOMBSTONE -> {
+                    if (isEnvelopeInOtherSegment(segment, recordId)) {
+                        append(TYPE_TOMBSTONE, recordId, buffer.getLong(position + 13), EMPTY_PAYLOAD);
+                    }
+                }
+                case TYPE_MOVE -> {
+                    if (entry != null && entry.segment != segment) {
+                        append(TYPE_MOVE, recordId, entry.recipientId, EMPTY_PAYLOAD);
+                    }
+                }
+                default -> {
+                }
+            }
+            position += size;
+        }
+        // The copies must be persisted, before the old segment is removed
+        sync();
+        segments.remove(segment);
+        segment.close();
+        Files.delete(segment.file.toPath());
+        logger.debug("Compacted message cache segment “{}”, moved {} envelopes", segment.file, movedEnvelopes);
+    }
+
+    private boolean isEnvelopeInOtherSegment(final Segment segment, final long recordId) {
+        for (final var other : segments) {
+            if (other != segment && other.envelopeRecordIds.contains(recordId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] readPayload(final Entry entry) {
+        final var payload = new byte[entry.size - HEADER_SIZE - CHECKSUM_SIZE];
+        entry.segment.buffer.get(entry.offset + HEADER_SIZE, payload);
+        return payload;
+    }
+
+    private static byte[] encodeEnvelope(final SignalServiceEnvelope envelope) throws IOException {
+        final var output = new ByteArrayOutputStream();
+        MessageCacheUtils.storeEnvelope(envelope, output);
+        return output.toByteArray();
+    }
+
+    private static boolean isChecksumValid(final ByteBuffer buffer, final int position, final int size) {
+        return buffer.getInt(position + size - CHECKSUM_SIZE) == checksum(buffer, position, size);
+    }
+
+    private static int checksum(final ByteBuffer buffer, final int position, final int size) {
+        final var crc = new CRC32C();
+        crc.update(buffer.slice(position, size - CHECKSUM_SIZE));
+        return (int) crc.getValue();
+    }
+
+    private static long getSegmentId(final File file) {
+        final var name = file.getName();
+        return Long.parseLong(name.substring(0, name.length() - ".log".length()));
+    }
+
+    private final class LogCachedMessage implements CachedMessage {
+
+        private final long recordId;
+        private SignalServiceEnvelope envelope;
+
+        private LogCachedMessage(final long recordId, final SignalServiceEnvelope envelope) {
+            this.recordId = recordId;
+            this.envelope = envelope;
+        }
+
+        @Override
+        public SignalServiceEnvelope loadEnvelope() {
+            if (envelope == null) {
+                envelope = LogMessageCache.this.loadEnvelope(recordId);
+            }
+            return envelope;
+        }
+
+        @Override
+        public void delete() {
+            LogMessageCache.this.delete(recordId);
+        }
+    }
+
+    private static final class Segment {
+
+        private final File file;
+        private final FileChannel channel;
+        // The mapping is released when the arena is closed, instead of whenever the buffer is garbage collected
+        private final Arena arena = Arena.ofShared();
+        private final MemorySegment mapping;
+        private final ByteBuffer buffer;
+        // Ids of all envelope records in the segment, including deleted ones
+        private final Set<Long> envelopeRecordIds = new HashSet<>();
+        private int writePosition;
+        private long liveBytes;
+        private boolean dirty;
+
+        private Segment(final File file, final FileChannel channel, final long size) throws IOException {
+            this.file = file;
+            this.channel = channel;
+            this.mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, size, arena);
+            this.buffer = mapping.asByteBuffer();
+        }
+
+        private void close() {
+            arena.close();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close message cache segment “{}”: {}", file, e.getMessage());
+            }
+        }
+    }
+
+    private static final class Entry {
+
+        private final long recordId;
+        private final int size;
+        private Segment segment;
+        private int offset;
+        private long recipientId;
+
+        private Entry(
+                final long recordId,
+                final Segment segment,
+                final int offset,
+                final int size,
+                final long recipientId
+        ) {
+            this.recordId = recordId;
+            this.segment = segment;
+            this.offset = offset;
+            this.size = size;
+            this.recipientId = recipientId;
+        }
+    }
+}
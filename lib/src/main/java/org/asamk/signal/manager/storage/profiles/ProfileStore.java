@@ -5,16 +5,29 @@ import org.asamk.signal.manager.storage.recipients.RecipientId;
 import org.signal.libsignal.zkgroup.profiles.ExpiringProfileKeyCredential;
 import org.signal.libsignal.zkgroup.profiles.ProfileKey;
 
+import java.util.Collection;
+import java.util.Set;
+
 public interface ProfileStore {
 
     Profile getProfile(RecipientId recipientId);
 
+    /**
+     * @return the given recipients, whose profile was last updated at or after the given timestamp
+     */
+    Set<RecipientId> getRecipientIdsWithProfileUpdatedSince(Collection<RecipientId> recipientIds, long timestamp);
+
     ProfileKey getProfileKey(RecipientId recipientId);
 
     ExpiringProfileKeyCredential getExpiringProfileKeyCredential(RecipientId recipientId);
 
     void storeProfile(RecipientId recipientId, Profile profile);
 
+    /**
+     * Store multiple retrieved profiles in a single transaction.
+     */
+    void storeProfiles(Collection<ProfileUpdate> profileUpdates);
+
     void storeProfileKey(RecipientId recipientId, ProfileKey profileKey);
 
     void storeExpiringProfileKeyCredential(
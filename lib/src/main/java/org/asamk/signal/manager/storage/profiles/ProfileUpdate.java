@@ -0,0 +1,19 @@
+package org.asamk.signal.manager.storage.profiles;
+
+import org.asamk.signal.manager.api.Profile;
+import org.asamk.signal.manager.storage.recipients.RecipientId;
+import org.signal.libsignal.zkgroup.profiles.ExpiringProfileKeyCredential;
+
+/**
+ * Result of a profile retrieval, that's stored together with other results by {@link ProfileStore#storeProfiles}.
+ *
+ * @param updateExpiringProfileKeyCredential if false, the stored profile key credential is kept
+ * @param registered                         null, if the registration state of the recipient is unknown
+ */
+public record ProfileUpdate(
+        RecipientId recipientId,
+        Profile profile,
+        boolean updateExpiringProfileKeyCredential,
+        ExpiringProfileKeyCredential expiringProfileKeyCredential,
+        Boolean registered
+) {}
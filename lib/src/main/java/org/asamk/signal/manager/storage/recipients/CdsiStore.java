@@ -50,6 +50,7 @@ public class CdsiStore {
     public void updateAfterFullCdsQuery(Set<String> fullNumbers, Set<String> seenNumbers) {
         final var lastSeen = System.currentTimeMillis();
         try (final var connection = database.getConnection()) {
+            connection.setAutoCommit(false);
             final var existingNumbers = getAllNumbers(connection);
 
             final var removedNumbers = new HashSet<>(existingNumbers) {{
@@ -63,6 +64,7 @@ public class CdsiStore {
             addNumbers(connection, addedNumbers, lastSeen);
 
             updateLastSeen(connection, seenNumbers, lastSeen);
+            connection.commit();
         } catch (SQLException e) {
             throw new RuntimeException("Failed update cdsi store", e);
         }
@@ -78,7 +80,9 @@ public class CdsiStore {
         final var lastSeen = System.currentTimeMillis();
 
         try (final var connection = database.getConnection()) {
+            connection.setAutoCommit(false);
             updateLastSeen(connection, seenNumbers, lastSeen);
+            connection.commit();
         } catch (SQLException e) {
             throw new RuntimeException("Failed update cdsi store", e);
         }
@@ -0,0 +1,125 @@
+package org.asamk.signal.manager.storage.recipients;
+
+import org.asamk.signal.manager.storage.CacheStatistics;
+import org.signal.core.models.ServiceId;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded index of recipient addresses, that finds a recipient by its id, ACI, PNI, number or username.
+ * <p>
+ * Each recipient is stored once, the other keys refer to its id. So removing a recipient only touches the keys of its
+ * own address. The least recently used recipients are evicted, when the index is full.
+ */
+final class RecipientAddressIndex {
+
+    private final int maxSize;
+    private final LinkedHashMap<Long, RecipientWithAddress> recipients;
+    private final Map<ServiceId, Long> byServiceId = new HashMap<>();
+    private final Map<String, Long> byNumber = new HashMap<>();
+    private final Map<String, Long> byUsername = new HashMap<>();
+    private long version;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    RecipientAddressIndex(final int maxSize) {
+        this.maxSize = maxSize;
+        this.recipients = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    synchronized RecipientWithAddress getById(final long recipientId) {
+        return count(recipients.get(recipientId));
+    }
+
+    synchronized RecipientWithAddress getByServiceId(final ServiceId serviceId) {
+        return count(get(byServiceId.get(serviceId)));
+    }
+
+    synchronized RecipientWithAddress getByNumber(final String number) {
+        return count(get(byNumber.get(number)));
+    }
+
+    synchronized RecipientWithAddress getByUsername(final String username) {
+        return count(get(byUsername.get(username)));
+    }
+
+    /**
+     * The version changes with every removal, recipients read from the database before a removal must not be added.
+     */
+    synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Add the recipient read from the database, if nothing has been removed since the given version.
+     */
+    synchronized void put(final long version, final RecipientWithAddress recipient) {
+        if (this.version != version) {
+            return;
+        }
+        final var recipientId = recipient.id().id();
+        removeEntry(recipientId);
+        final var address = recipient.address();
+        // Keys can only refer to one recipient, a different recipient with the same key is outdated
+        address.aci().map(byServiceId::get).ifPresent(this::removeEntry);
+        address.pni().map(byServiceId::get).ifPresent(this::removeEntry);
+        address.number().map(byNumber::get).ifPresent(this::removeEntry);
+        address.username().map(byUsername::get).ifPresent(this::removeEntry);
+
+        recipients.put(recipientId, recipient);
+        address.aci().ifPresent(aci -> byServiceId.put(aci, recipientId));
+        address.pni().ifPresent(pni -> byServiceId.put(pni, recipientId));
+        address.number().ifPresent(number -> byNumber.put(number, recipientId));
+        address.username().ifPresent(username -> byUsername.put(username, recipientId));
+
+        if (recipients.size() > maxSize) {
+            removeEntry(recipients.keySet().iterator().next());
+            evictions++;
+        }
+    }
+
+    synchronized void remove(final RecipientId recipientId) {
+        version++;
+        removeEntry(recipientId.id());
+    }
+
+    synchronized void clear() {
+        version++;
+        recipients.clear();
+        byServiceId.clear();
+        byNumber.clear();
+        byUsername.clear();
+    }
+
+    synchronized CacheStatistics getStatistics() {
+        return new CacheStatistics(hits, misses, evictions, recipients.size(), recipients.size());
+    }
+
+    private RecipientWithAddress get(final Long recipientId) {
+        return recipientId == null ? null : recipients.get(recipientId);
+    }
+
+    private RecipientWithAddress count(final RecipientWithAddress recipient) {
+        if (recipient == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return recipient;
+    }
+
+    private void removeEntry(final Long recipientId) {
+        final var recipient = recipients.remove(recipientId);
+        if (recipient == null) {
+            return;
+        }
+        final var address = recipient.address();
+        address.aci().ifPresent(aci -> byServiceId.remove(aci, recipientId));
+        address.pni().ifPresent(pni -> byServiceId.remove(pni, recipientId));
+        address.number().ifPresent(number -> byNumber.remove(number, recipientId));
+        address.username().ifPresent(username -> byUsername.remove(username, recipientId));
+    }
+}
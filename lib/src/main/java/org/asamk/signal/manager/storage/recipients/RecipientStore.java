@@ -5,10 +5,12 @@ import org.asamk.signal.manager.api.Pair;
 import org.asamk.signal.manager.api.PhoneNumberSharingMode;
 import org.asamk.signal.manager.api.Profile;
 import org.asamk.signal.manager.api.UnregisteredRecipientException;
+import org.asamk.signal.manager.storage.CacheStatistics;
 import org.asamk.signal.manager.storage.Database;
 import org.asamk.signal.manager.storage.Utils;
 import org.asamk.signal.manager.storage.contacts.ContactsStore;
 import org.asamk.signal.manager.storage.profiles.ProfileStore;
+import org.asamk.signal.manager.storage.profiles.ProfileUpdate;
 import org.asamk.signal.manager.util.KeyUtils;
 import org.signal.core.models.ServiceId;
 import org.signal.core.models.ServiceId.ACI;
@@ -28,7 +30,6 @@ import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -42,6 +43,8 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
 
     private static final Logger logger = LoggerFactory.getLogger(RecipientStore.class);
     private static final String TABLE_RECIPIENT = "recipient";
+    private static final int MAX_INDEXED_RECIPIENTS = 20_000;
+    private static final int MAX_UPDATE_BATCH_SIZE = 500;
     private static final String SQL_IS_CONTACT = "r.given_name IS NOT NULL OR r.family_name IS NOT NULL OR r.nick_name IS NOT NULL OR r.nick_name_given_name IS NOT NULL OR r.nick_name_family_name IS NOT NULL OR r.note IS NOT NULL OR r.expiration_time > 0 OR r.profile_sharing = TRUE OR r.color IS NOT NULL OR r.blocked = TRUE OR r.archived = TRUE";
 
     private final RecipientMergeHandler recipientMergeHandler;
@@ -51,7 +54,7 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
 
     private final Map<Long, Long> recipientsMerged = new HashMap<>();
 
-    private final Map<ServiceId, RecipientWithAddress> recipientAddressCache = Collections.synchronizedMap(new HashMap<>());
+    private final RecipientAddressIndex recipientAddressIndex = new RecipientAddressIndex(MAX_INDEXED_RECIPIENTS);
 
     public static void createSql(Connection connection) throws SQLException {
         // When modifying the CREATE statement here, also add a migration in AccountDatabase.java
@@ -113,6 +116,7 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
         this.selfAddressProvider = selfAddressProvider;
         this.selfProfileKeyProvider = selfProfileKeyProvider;
         this.database = database;
+        loadRecipientAddressIndex();
     }
 
     public RecipientAddress resolveRecipientAddress(RecipientId recipientId) {
@@ -185,7 +189,7 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
 
     @Override
     public RecipientId resolveRecipient(final ServiceId serviceId) {
-        final var recipientWithAddress = recipientAddressCache.get(serviceId);
+        final var recipientWithAddress = recipientAddressIndex.getByServiceId(serviceId);
         if (recipientWithAddress != null) {
             return recipientWithAddress.id();
         }
@@ -356,6 +360,52 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
         }
     }
 
+    @Override
+    public List<Pair<RecipientId, Contact>> getContacts(final RecipientId after, final int limit) {
+        final var sql = (
+                """
+                SELECT r._id, r.given_name, r.family_name, r.nick_name, r.nick_name_given_name, r.nick_name_family_name, r.note, r.expiration_time, r.expiration_time_version, r.mute_until, r.hide_story, r.profile_sharing, r.color, r.blocked, r.archived, r.hidden, r.unregistered_timestamp
+                FROM %s r
+                WHERE (r.number IS NOT NULL OR r.pni IS NOT NULL OR r.aci IS NOT NULL) AND (%s) AND r.hidden = FALSE AND r._id > ?
+                ORDER BY r._id
+                LIMIT ?
+                """
+        ).formatted(TABLE_RECIPIENT, SQL_IS_CONTACT);
+        try (final var connection = database.getConnection()) {
+            try (final var statement = connection.prepareStatement(sql)) {
+                statement.setLong(1, after == null ? 0 : after.id());
+                statement.setInt(2, limit);
+                try (var result = Utils.executeQueryForStream(statement,
+                        resultSet -> new Pair<>(getRecipientIdFromResultSet(resultSet),
+                                getContactFromResultSet(resultSet)))) {
+                    return result.toList();
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed read from recipient store", e);
+        }
+    }
+
+    @Override
+    public List<RecipientId> getBlockedRecipientIds() {
+        final var sql = (
+                """
+                SELECT r._id
+                FROM %s r
+                WHERE (r.number IS NOT NULL OR r.pni IS NOT NULL OR r.aci IS NOT NULL) AND r.blocked = TRUE AND r.hidden = FALSE
+                """
+        ).formatted(TABLE_RECIPIENT);
+        try (final var connection = database.getConnection()) {
+            try (final var statement = connection.prepareStatement(sql)) {
+                try (var result = Utils.executeQueryForStream(statement, this::getRecipientIdFromResultSet)) {
+                    return result.toList();
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed read from recipient store", e);
+        }
+    }
+
     public Recipient getRecipient(Connection connection, RecipientId recipientId) throws SQLException {
         final var sql = (
                 """
@@ -573,7 +623,6 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
         logger.debug("Deleting recipient data for {}", recipientId);
         try (final var connection = database.getConnection()) {
             connection.setAutoCommit(false);
-            recipientAddressCache.entrySet().removeIf(e -> e.getValue().id().equals(recipientId));
             storeContact(connection, recipientId, null);
             storeProfile(connection, recipientId, null);
             storeProfileKey(connection, recipientId, null, false);
@@ -594,6 +643,34 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
         }
     }
 
+    @Override
+    public Set<RecipientId> getRecipientIdsWithProfileUpdatedSince(
+            final Collection<RecipientId> recipientIds,
+            final long timestamp
+    ) {
+        final var sql = (
+                """
+                SELECT r._id
+                FROM %s r
+                WHERE r._id IN (SELECT value FROM json_each(?)) AND r.profile_capabilities IS NOT NULL AND r.profile_last_update_timestamp >= ?
+                """
+        ).formatted(TABLE_RECIPIENT);
+        final var recipientIdsJson = recipientIds.stream()
+                .map(recipientId -> String.valueOf(recipientId.id()))
+                .collect(Collectors.joining(",", "[", "]"));
+        try (final var connection = database.getConnection()) {
+            try (final var statement = connection.prepareStatement(sql)) {
+                statement.setString(1, recipientIdsJson);
+                statement.setLong(2, timestamp);
+                try (var result = Utils.executeQueryForStream(statement, this::getRecipientIdFromResultSet)) {
+                    return result.collect(Collectors.toSet());
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed read from recipient store", e);
+        }
+    }
+
     @Override
     public ProfileKey getProfileKey(final RecipientId recipientId) {
         try (final var connection = database.getConnection()) {
@@ -621,6 +698,31 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
         }
     }
 
+    @Override
+    public void storeProfiles(final Collection<ProfileUpdate> profileUpdates) {
+        try (final var connection = database.getConnection()) {
+            connection.setAutoCommit(false);
+            for (final var profileUpdate : profileUpdates) {
+                final var recipientId = profileUpdate.recipientId();
+                if (profileUpdate.updateExpiringProfileKeyCredential()) {
+                    storeExpiringProfileKeyCredential(connection,
+                            recipientId,
+                            profileUpdate.expiringProfileKeyCredential());
+                }
+                storeProfile(connection, recipientId, profileUpdate.profile());
+                if (Boolean.TRUE.equals(profileUpdate.registered())) {
+                    markRegistered(connection, recipientId);
+                } else if (Boolean.FALSE.equals(profileUpdate.registered())) {
+                    logger.debug("Marking {} as registered=false", recipientId);
+                    markUnregisteredAndSplitIfNecessary(connection, recipientId);
+                }
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed update recipient store", e);
+        }
+    }
+
     @Override
     public void storeProfileKey(RecipientId recipientId, final ProfileKey profileKey) {
         try (final var connection = database.getConnection()) {
@@ -792,6 +894,7 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
             try (final var statement = connection.prepareStatement("DELETE FROM %s".formatted(TABLE_RECIPIENT))) {
                 statement.executeUpdate();
             }
+            recipientAddressIndex.clear();
             try (final var statement = connection.prepareStatement(sql)) {
                 for (final var recipient : recipients.values()) {
                     statement.setLong(1, recipient.getRecipientId().id());
@@ -935,44 +1038,64 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
         }
     }
 
-    public void markUndiscoverablePossiblyUnregistered(final Set<String> numbers) {
-        logger.debug("Marking {} numbers as undiscoverable", numbers.size());
+    /**
+     * Stores the result of a CDSI query, in transactions of at most {@value MAX_UPDATE_BATCH_SIZE} recipients.
+     * <p>
+     * Registered addresses that are already stored unchanged are only marked as registered and discoverable. Only new
+     * or changed addresses go through the recipient resolution and merge.
+     *
+     * @param registeredAddresses the addresses of the registered numbers, with number and service ids
+     * @param unregisteredNumbers the numbers that aren't discoverable
+     * @return the number of registered addresses that were new or changed
+     */
+    public int storeCdsiResult(
+            final Collection<RecipientAddress> registeredAddresses,
+            final Set<String> unregisteredNumbers
+    ) {
+        final var changedAddresses = new ArrayList<RecipientAddress>();
+        final var unchangedRecipientIds = new ArrayList<RecipientId>();
         try (final var connection = database.getConnection()) {
-            connection.setAutoCommit(false);
-            for (final var number : numbers) {
-                final var recipientAddress = findByNumber(connection, number);
-                if (recipientAddress.isPresent()) {
-                    final var recipientId = recipientAddress.get().id();
-                    markDiscoverable(connection, recipientId, false);
-                    final var contact = getContact(connection, recipientId);
-                    if (recipientAddress.get().address().aci().isEmpty() || (
-                            contact != null && contact.unregisteredTimestamp() != null
-                    )) {
-                        markUnregisteredAndSplitIfNecessary(connection, recipientId);
-                    }
+            for (final var address : registeredAddresses) {
+                final var existing = findByNumber(connection, address.number().orElseThrow());
+                if (existing.isPresent()
+                        && existing.get().address().aci().equals(address.aci())
+                        && existing.get().address().pni().equals(address.pni())) {
+                    unchangedRecipientIds.add(existing.get().id());
+                } else {
+                    changedAddresses.add(address);
                 }
             }
-            connection.commit();
         } catch (SQLException e) {
-            throw new RuntimeException("Failed update recipient store", e);
+            throw new RuntimeException("Failed read from recipient store", e);
         }
+
+        logger.debug("Storing {} changed and {} unchanged registered recipients",
+                changedAddresses.size(),
+                unchangedRecipientIds.size());
+        updateInBatches(changedAddresses, (connection, address) -> {
+            final var recipientId = resolveRecipientTrusted(connection, address);
+            markDiscoverable(connection, recipientId, true);
+        });
+        updateInBatches(unchangedRecipientIds, this::markRegisteredAndDiscoverable);
+        markUndiscoverablePossiblyUnregistered(unregisteredNumbers);
+        return changedAddresses.size();
     }
 
-    public void markDiscoverable(final Set<String> numbers) {
-        logger.debug("Marking {} numbers as discoverable", numbers.size());
-        try (final var connection = database.getConnection()) {
-            connection.setAutoCommit(false);
-            for (final var number : numbers) {
-                final var recipientAddress = findByNumber(connection, number);
-                if (recipientAddress.isPresent()) {
-                    final var recipientId = recipientAddress.get().id();
-                    markDiscoverable(connection, recipientId, true);
+    public void markUndiscoverablePossiblyUnregistered(final Set<String> numbers) {
+        logger.debug("Marking {} numbers as undiscoverable", numbers.size());
+        updateInBatches(List.copyOf(numbers), (connection, number) -> {
+            final var recipientAddress = findByNumber(connection, number);
+            if (recipientAddress.isPresent()) {
+                final var recipientId = recipientAddress.get().id();
+                markDiscoverable(connection, recipientId, false);
+                final var contact = getContact(connection, recipientId);
+                if (recipientAddress.get().address().aci().isEmpty() || (
+                        contact != null && contact.unregisteredTimestamp() != null
+                )) {
+                    markUnregisteredAndSplitIfNecessary(connection, recipientId);
                 }
             }
-            connection.commit();
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed update recipient store", e);
-        }
+        });
     }
 
     public void markRegistered(final RecipientId recipientId, final boolean registered) {
@@ -1041,6 +1164,23 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
         }
     }
 
+    private void markRegisteredAndDiscoverable(
+            final Connection connection,
+            final RecipientId recipientId
+    ) throws SQLException {
+        final var sql = (
+                """
+                UPDATE %s
+                SET unregistered_timestamp = NULL, discoverable = TRUE
+                WHERE _id = ? AND (unregistered_timestamp IS NOT NULL OR discoverable IS NOT TRUE)
+                """
+        ).formatted(TABLE_RECIPIENT);
+        try (final var statement = connection.prepareStatement(sql)) {
+            statement.setLong(1, recipientId.id());
+            statement.executeUpdate();
+        }
+    }
+
     private void markUnregistered(final Connection connection, final RecipientId recipientId) throws SQLException {
         final var sql = (
                 """
@@ -1149,6 +1289,11 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
             final Connection connection,
             final RecipientId recipientId
     ) throws SQLException {
+        final var indexedRecipient = recipientAddressIndex.getById(recipientId.id());
+        if (indexedRecipient != null) {
+            return indexedRecipient.address();
+        }
+        final var version = recipientAddressIndex.getVersion();
         final var sql = (
                 """
                 SELECT r.number, r.aci, r.pni, r.username
@@ -1158,7 +1303,71 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
         ).formatted(TABLE_RECIPIENT);
         try (final var statement = connection.prepareStatement(sql)) {
             statement.setLong(1, recipientId.id());
-            return Utils.executeQuerySingleRow(statement, this::getRecipientAddressFromResultSet);
+            final var address = Utils.executeQuerySingleRow(statement, this::getRecipientAddressFromResultSet);
+            recipientAddressIndex.put(version, new RecipientWithAddress(recipientId, address));
+            return address;
+        }
+    }
+
+    public CacheStatistics getCacheStatistics() {
+        return recipientAddressIndex.getStatistics();
+    }
+
+    /**
+     * Fill the address index with the most recently added recipients.
+     */
+    private void loadRecipientAddressIndex() {
+        final var sql = (
+                """
+                SELECT r._id, r.number, r.aci, r.pni, r.username
+                FROM %s r
+                WHERE r.number IS NOT NULL OR r.aci IS NOT NULL OR r.pni IS NOT NULL OR r.username IS NOT NULL
+                ORDER BY r._id DESC
+                LIMIT ?
+                """
+        ).formatted(TABLE_RECIPIENT);
+        final var start = System.nanoTime();
+        final var version = recipientAddressIndex.getVersion();
+        try (final var connection = database.getConnection()) {
+            try (final var statement = connection.prepareStatement(sql)) {
+                statement.setInt(1, MAX_INDEXED_RECIPIENTS);
+                try (var result = Utils.executeQueryForStream(statement, this::getRecipientWithAddressFromResultSet)) {
+                    // Added in reverse, so the most recent recipients are evicted last
+                    result.toList().reversed().forEach(r -> recipientAddressIndex.put(version, r));
+                }
+            }
+        } catch (SQLException | InvalidAddress e) {
+            logger.warn("Failed to load recipient address index, continuing without: {}", e.getMessage());
+            recipientAddressIndex.clear();
+            return;
+        }
+        logger.debug("Loading recipient address index took {}ms", (System.nanoTime() - start) / 1000000);
+    }
+
+    /**
+     * Remove the recipient from the address index, now and again after the current transaction has ended, so a
+     * concurrent reader can't add the previous address again.
+     */
+    private void invalidateRecipientAddress(final Connection connection, final RecipientId recipientId) {
+        recipientAddressIndex.remove(recipientId);
+        Database.runAfterTransaction(connection, () -> recipientAddressIndex.remove(recipientId));
+    }
+
+    /**
+     * Applies the update to all items, each batch of items in its own transaction, so the write lock isn't held for
+     * long.
+     */
+    private <T> void updateInBatches(final List<T> items, final BatchUpdate<T> update) {
+        for (var i = 0; i < items.size(); i += MAX_UPDATE_BATCH_SIZE) {
+            try (final var connection = database.getConnection()) {
+                connection.setAutoCommit(false);
+                for (final var item : items.subList(i, Math.min(i + MAX_UPDATE_BATCH_SIZE, items.size()))) {
+                    update.update(connection, item);
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                throw new RuntimeException("Failed update recipient store", e);
+            }
         }
     }
 
@@ -1213,7 +1422,6 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
         for (final var toBeMergedRecipientId : toBeMergedRecipientIds) {
             recipientMergeHandler.mergeRecipients(connection, recipientId, toBeMergedRecipientId);
             deleteRecipient(connection, toBeMergedRecipientId);
-            recipientAddressCache.entrySet().removeIf(e -> e.getValue().id().equals(toBeMergedRecipientId));
         }
     }
 
@@ -1301,7 +1509,7 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
     }
 
     private void removeRecipientAddress(Connection connection, RecipientId recipientId) throws SQLException {
-        recipientAddressCache.entrySet().removeIf(e -> e.getValue().id().equals(recipientId));
+        invalidateRecipientAddress(connection, recipientId);
         final var sql = (
                 """
                 UPDATE %s
@@ -1320,7 +1528,7 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
             RecipientId recipientId,
             final RecipientAddress address
     ) throws SQLException {
-        recipientAddressCache.entrySet().removeIf(e -> e.getValue().id().equals(recipientId));
+        invalidateRecipientAddress(connection, recipientId);
         final var sql = (
                 """
                 UPDATE %s
@@ -1340,6 +1548,7 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
     }
 
     private void deleteRecipient(final Connection connection, final RecipientId recipientId) throws SQLException {
+        invalidateRecipientAddress(connection, recipientId);
         final var sql = (
                 """
                 DELETE FROM %s
@@ -1389,6 +1598,11 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
             final Connection connection,
             final String number
     ) throws SQLException {
+        final var indexedRecipient = recipientAddressIndex.getByNumber(number);
+        if (indexedRecipient != null) {
+            return Optional.of(indexedRecipient);
+        }
+        final var version = recipientAddressIndex.getVersion();
         final var sql = """
                         SELECT r._id, r.number, r.aci, r.pni, r.username
                         FROM %s r
@@ -1397,7 +1611,10 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
                         """.formatted(TABLE_RECIPIENT);
         try (final var statement = connection.prepareStatement(sql)) {
             statement.setString(1, number);
-            return Utils.executeQueryForOptional(statement, this::getRecipientWithAddressFromResultSet);
+            final var recipientWithAddress = Utils.executeQueryForOptional(statement,
+                    this::getRecipientWithAddressFromResultSet);
+            recipientWithAddress.ifPresent(r -> recipientAddressIndex.put(version, r));
+            return recipientWithAddress;
         }
     }
 
@@ -1405,6 +1622,11 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
             final Connection connection,
             final String username
     ) throws SQLException {
+        final var indexedRecipient = recipientAddressIndex.getByUsername(username);
+        if (indexedRecipient != null) {
+            return Optional.of(indexedRecipient);
+        }
+        final var version = recipientAddressIndex.getVersion();
         final var sql = """
                         SELECT r._id, r.number, r.aci, r.pni, r.username
                         FROM %s r
@@ -1413,7 +1635,10 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
                         """.formatted(TABLE_RECIPIENT);
         try (final var statement = connection.prepareStatement(sql)) {
             statement.setString(1, username);
-            return Utils.executeQueryForOptional(statement, this::getRecipientWithAddressFromResultSet);
+            final var recipientWithAddress = Utils.executeQueryForOptional(statement,
+                    this::getRecipientWithAddressFromResultSet);
+            recipientWithAddress.ifPresent(r -> recipientAddressIndex.put(version, r));
+            return recipientWithAddress;
         }
     }
 
@@ -1421,10 +1646,11 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
             final Connection connection,
             final ServiceId serviceId
     ) throws SQLException {
-        var recipientWithAddress = Optional.ofNullable(recipientAddressCache.get(serviceId));
-        if (recipientWithAddress.isPresent()) {
-            return recipientWithAddress;
+        final var indexedRecipient = recipientAddressIndex.getByServiceId(serviceId);
+        if (indexedRecipient != null) {
+            return Optional.of(indexedRecipient);
         }
+        final var version = recipientAddressIndex.getVersion();
         final var sql = """
                         SELECT r._id, r.number, r.aci, r.pni, r.username
                         FROM %s r
@@ -1433,8 +1659,9 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
                         """.formatted(TABLE_RECIPIENT, serviceId instanceof ACI ? "r.aci" : "r.pni");
         try (final var statement = connection.prepareStatement(sql)) {
             statement.setString(1, serviceId.toString());
-            recipientWithAddress = Utils.executeQueryForOptional(statement, this::getRecipientWithAddressFromResultSet);
-            recipientWithAddress.ifPresent(r -> recipientAddressCache.put(serviceId, r));
+            final var recipientWithAddress = Utils.executeQueryForOptional(statement,
+                    this::getRecipientWithAddressFromResultSet);
+            recipientWithAddress.ifPresent(r -> recipientAddressIndex.put(version, r));
             return recipientWithAddress;
         }
     }
@@ -1647,6 +1874,11 @@ public class RecipientStore implements RecipientIdCreator, RecipientResolver, Re
         return resultSet.getBytes("storage_record");
     }
 
+    private interface BatchUpdate<T> {
+
+        void update(Connection connection, T item) throws SQLException;
+    }
+
     public interface RecipientMergeHandler {
 
         void mergeRecipients(
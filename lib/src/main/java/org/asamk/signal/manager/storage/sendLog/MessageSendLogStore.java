@@ -18,10 +18,25 @@ import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
-
+import java.util.Set;
+
+/**
+ * Log of sent messages, so they can be resent if a recipient fails to decrypt them.
+ * <p>
+ * Writes are queued and committed by a single writer thread, writes from concurrent sends are grouped into one
+ * transaction. The entries of recently sent messages are also kept in memory, so resend requests for them don't need
+ * to read the database. Outdated entries are removed in small chunks, so other writes aren't blocked for long.
+ */
 public class MessageSendLogStore implements AutoCloseable {
 
     private static final Logger logger = LoggerFactory.getLogger(MessageSendLogStore.class);
@@ -30,31 +45,67 @@ public class MessageSendLogStore implements AutoCloseable {
     private static final String TABLE_MESSAGE_SEND_LOG_CONTENT = "message_send_log_content";
 
     private static final Duration LOG_DURATION = Duration.ofDays(1);
+    private static final Duration CLEANUP_INTERVAL = Duration.ofHours(1);
+    private static final int CLEANUP_CHUNK_SIZE = 500;
+    private static final int MAX_BATCH_SIZE = 500;
+    // Senders wait, while this many writes are queued
+    private static final int MAX_QUEUED_WRITES = 10 * MAX_BATCH_SIZE;
+    private static final int MAX_INDEXED_TIMESTAMPS = 1000;
+
+    private static final String SQL_INSERT_CONTENT = (
+            """
+            INSERT INTO %s (_id, timestamp, group_id, content, content_hint, urgent)
+            VALUES (?,?,?,?,?,?)
+            """
+    ).formatted(TABLE_MESSAGE_SEND_LOG_CONTENT);
+    private static final String SQL_INSERT_RECIPIENT = (
+            """
+            INSERT INTO %s (address, device_id, content_id)
+            VALUES (?,?,?)
+            """
+    ).formatted(TABLE_MESSAGE_SEND_LOG);
+    private static final String SQL_DELETE_ORPHANED_CONTENTS = (
+            """
+            DELETE FROM %s AS lc
+            WHERE lc.timestamp = ? AND NOT EXISTS (SELECT 1 FROM %s l WHERE l.content_id = lc._id)
+            """
+    ).formatted(TABLE_MESSAGE_SEND_LOG_CONTENT, TABLE_MESSAGE_SEND_LOG);
+    private static final String SQL_DELETE_OUTDATED_CONTENTS = (
+            """
+            DELETE FROM %s
+            WHERE _id IN (SELECT _id FROM %s WHERE timestamp < ? LIMIT ?)
+            """
+    ).formatted(TABLE_MESSAGE_SEND_LOG_CONTENT, TABLE_MESSAGE_SEND_LOG_CONTENT);
 
     private final Database database;
-    private final Thread cleanupThread;
     private final boolean sendLogDisabled;
+    private final long createdAt = System.currentTimeMillis();
+    private final Thread writerThread;
+
+    private final ArrayDeque<Write> writes = new ArrayDeque<>();
+    private long enqueuedWrites;
+    private long finishedWrites;
+    private boolean closed;
+
+    private final Map<Long, IndexedContent> indexedContents = new HashMap<>();
+    private long maxEvictedTimestamp = Long.MIN_VALUE;
+    private final Map<Long, IndexedTimestamp> index = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Long, IndexedTimestamp> eldest) {
+            if (size() <= MAX_INDEXED_TIMESTAMPS) {
+                return false;
+            }
+            eldest.getValue().contents().forEach(c -> indexedContents.remove(c.id()));
+            maxEvictedTimestamp = Math.max(maxEvictedTimestamp, eldest.getKey());
+            return true;
+        }
+    };
+    private long nextContentId = -1;
 
     public MessageSendLogStore(final Database database, final boolean disableMessageSendLog) {
         this.database = database;
         this.sendLogDisabled = disableMessageSendLog;
-        this.cleanupThread = Thread.ofPlatform().name("msl-cleanup").daemon().start(() -> {
-            try {
-                final var interval = Duration.ofHours(1).toMillis();
-                while (!Thread.interrupted()) {
-                    try (final var connection = database.getConnection()) {
-                        deleteOutdatedEntries(connection);
-                    } catch (SQLException e) {
-                        logger.debug("MSL", e);
-                        logger.warn("Deleting outdated entries failed");
-                        break;
-                    }
-                    Thread.sleep(interval);
-                }
-            } catch (InterruptedException e) {
-                logger.debug("Stopping msl cleanup thread");
-            }
-        });
+        this.writerThread = Thread.ofVirtual().name("msl-writer").start(this::runWriter);
     }
 
     public static void createSql(Connection connection) throws SQLException {
@@ -88,6 +139,24 @@ public class MessageSendLogStore implements AutoCloseable {
             final long timestamp,
             final boolean isSenderKey
     ) {
+        if (timestamp < System.currentTimeMillis() - LOG_DURATION.toMillis()) {
+            return List.of();
+        }
+
+        final var recipientDevice = new RecipientDevice(serviceId.toString(), deviceId);
+        synchronized (index) {
+            final var indexedTimestamp = index.get(timestamp);
+            if (indexedTimestamp != null && indexedTimestamp.complete()) {
+                return indexedTimestamp.contents()
+                        .stream()
+                        .filter(c -> c.recipients().contains(recipientDevice))
+                        .map(IndexedContent::entry)
+                        .filter(e -> !isSenderKey || e.groupId().isPresent())
+                        .toList();
+            }
+        }
+
+        awaitWrites();
         final var sql = """
                         SELECT group_id, content, content_hint, urgent
                         FROM %s l
@@ -95,8 +164,6 @@ public class MessageSendLogStore implements AutoCloseable {
                         WHERE l.address = ? AND l.device_id = ? AND lc.timestamp = ?
                         """.formatted(TABLE_MESSAGE_SEND_LOG, TABLE_MESSAGE_SEND_LOG_CONTENT);
         try (final var connection = database.getConnection()) {
-            deleteOutdatedEntries(connection);
-
             try (final var statement = connection.prepareStatement(sql)) {
                 statement.setString(1, serviceId.toString());
                 statement.setInt(2, deviceId);
@@ -191,39 +258,40 @@ public class MessageSendLogStore implements AutoCloseable {
     }
 
     public void deleteEntryForGroup(long sentTimestamp, GroupId groupId) {
+        final var groupIdBytes = groupId.serialize();
+        removeFromIndex(sentTimestamp, c -> Arrays.equals(c.groupId(), groupIdBytes));
+
         final var sql = """
                         DELETE FROM %s AS lc
                         WHERE lc.timestamp = ? AND lc.group_id = ?
                         """.formatted(TABLE_MESSAGE_SEND_LOG_CONTENT);
-        try (final var connection = database.getConnection()) {
+        enqueue(connection -> {
             try (final var statement = connection.prepareStatement(sql)) {
                 statement.setLong(1, sentTimestamp);
-                statement.setBytes(2, groupId.serialize());
+                statement.setBytes(2, groupIdBytes);
                 statement.executeUpdate();
             }
-        } catch (SQLException e) {
-            logger.warn("Failed delete from message send log", e);
-        }
+        });
     }
 
     public void deleteEntryForRecipientNonGroup(long sentTimestamp, ServiceId serviceId) {
+        final var address = serviceId.toString();
+        removeFromIndex(sentTimestamp,
+                c -> c.groupId() == null && c.recipients().stream().anyMatch(r -> r.address().equals(address)));
+
         final var sql = """
                         DELETE FROM %s AS lc
                         WHERE lc.timestamp = ? AND lc.group_id IS NULL AND lc._id IN (SELECT content_id FROM %s l WHERE l.address = ?)
                         """.formatted(TABLE_MESSAGE_SEND_LOG_CONTENT, TABLE_MESSAGE_SEND_LOG);
-        try (final var connection = database.getConnection()) {
-            connection.setAutoCommit(false);
+        enqueue(connection -> {
             try (final var statement = connection.prepareStatement(sql)) {
                 statement.setLong(1, sentTimestamp);
-                statement.setString(2, serviceId.toString());
+                statement.setString(2, address);
                 statement.executeUpdate();
             }
 
-            deleteOrphanedLogContents(connection);
-            connection.commit();
-        } catch (SQLException e) {
-            logger.warn("Failed delete from message send log", e);
-        }
+            deleteOrphanedLogContents(connection, sentTimestamp);
+        });
     }
 
     public void deleteEntryForRecipient(long sentTimestamp, ServiceId serviceId, int deviceId) {
@@ -231,33 +299,39 @@ public class MessageSendLogStore implements AutoCloseable {
     }
 
     public void deleteEntriesForRecipient(List<Long> sentTimestamps, ServiceId serviceId, int deviceId) {
+        final var recipientDevice = new RecipientDevice(serviceId.toString(), deviceId);
+        for (final var sentTimestamp : sentTimestamps) {
+            removeFromIndex(sentTimestamp, c -> c.recipients().remove(recipientDevice) && c.recipients().isEmpty());
+        }
+
         final var sql = """
                         DELETE FROM %s AS l
                         WHERE l.content_id IN (SELECT _id FROM %s lc WHERE lc.timestamp = ?) AND l.address = ? AND l.device_id = ?
                         """.formatted(TABLE_MESSAGE_SEND_LOG, TABLE_MESSAGE_SEND_LOG_CONTENT);
-        try (final var connection = database.getConnection()) {
-            connection.setAutoCommit(false);
+        enqueue(connection -> {
             try (final var statement = connection.prepareStatement(sql)) {
                 for (final var sentTimestamp : sentTimestamps) {
                     statement.setLong(1, sentTimestamp);
-                    statement.setString(2, serviceId.toString());
+                    statement.setString(2, recipientDevice.address());
                     statement.setInt(3, deviceId);
                     statement.executeUpdate();
                 }
             }
 
-            deleteOrphanedLogContents(connection);
-            connection.commit();
-        } catch (SQLException e) {
-            logger.warn("Failed delete from message send log", e);
-        }
+            for (final var sentTimestamp : sentTimestamps) {
+                deleteOrphanedLogContents(connection, sentTimestamp);
+            }
+        });
     }
 
     @Override
     public void close() {
-        cleanupThread.interrupt();
+        synchronized (writes) {
+            closed = true;
+            writes.notifyAll();
+        }
         try {
-            cleanupThread.join();
+            writerThread.join();
         } catch (InterruptedException ignored) {
         }
     }
@@ -280,40 +354,60 @@ public class MessageSendLogStore implements AutoCloseable {
     ) {
         byte[] groupId = getGroupId(content);
 
-        final var sql = """
-                        INSERT INTO %s (timestamp, group_id, content, content_hint, urgent)
-                        VALUES (?,?,?,?,?)
-                        RETURNING _id
-                        """.formatted(TABLE_MESSAGE_SEND_LOG_CONTENT);
-        try (final var connection = database.getConnection()) {
-            connection.setAutoCommit(false);
-            final long contentId;
-            try (final var statement = connection.prepareStatement(sql)) {
-                statement.setLong(1, sentTimestamp);
-                statement.setBytes(2, groupId);
-                statement.setBytes(3, content.encode());
-                statement.setInt(4, contentHint.getType());
-                statement.setBoolean(5, urgent);
-                final var generatedKey = Utils.executeQueryForOptional(statement, Utils::getIdMapper);
-                if (generatedKey.isPresent()) {
-                    contentId = generatedKey.get();
-                } else {
-                    contentId = -1;
-                }
-            }
+        final long contentId;
+        synchronized (index) {
+            contentId = allocateContentId();
             if (contentId == -1) {
-                logger.warn("Failed to insert message send log content");
-                connection.commit();
                 return -1;
             }
+            final var entry = new MessageSendLogEntry(Optional.ofNullable(groupId).map(GroupId::unknownVersion),
+                    content,
+                    contentHint,
+                    urgent);
+            final var indexedContent = new IndexedContent(contentId, groupId, entry, new HashSet<>());
+            addRecipientDevices(indexedContent, recipientDevices);
+            index.computeIfAbsent(sentTimestamp,
+                            // Older entries may have been written by a previous run or evicted from the index
+                            t -> new IndexedTimestamp(t >= createdAt && t > maxEvictedTimestamp, new ArrayList<>()))
+                    .contents()
+                    .add(indexedContent);
+            indexedContents.put(contentId, indexedContent);
+        }
+
+        enqueue(connection -> {
+            try (final var statement = connection.prepareStatement(SQL_INSERT_CONTENT)) {
+                statement.setLong(1, contentId);
+                statement.setLong(2, sentTimestamp);
+                statement.setBytes(3, groupId);
+                statement.setBytes(4, content.encode());
+                statement.setInt(5, contentHint.getType());
+                statement.setBoolean(6, urgent);
+                statement.executeUpdate();
+            }
             insertRecipientsForExistingContent(contentId, recipientDevices, connection);
+        });
+        return contentId;
+    }
 
-            connection.commit();
-            return contentId;
-        } catch (SQLException e) {
-            logger.warn("Failed to insert into message send log", e);
-            return -1;
+    /**
+     * Content ids are assigned before the content is written, so senders don't have to wait for the writer.
+     */
+    private long allocateContentId() {
+        if (nextContentId == -1) {
+            final var sql = """
+                            SELECT MAX(_id) FROM %s
+                            """.formatted(TABLE_MESSAGE_SEND_LOG_CONTENT);
+            try (final var connection = database.getConnection()) {
+                try (final var statement = connection.prepareStatement(sql)) {
+                    nextContentId = Utils.executeQueryForOptional(statement, resultSet -> resultSet.getLong(1))
+                            .orElse(0L) + 1;
+                }
+            } catch (SQLException e) {
+                logger.warn("Failed to read message send log content id", e);
+                return -1;
+            }
         }
+        return nextContentId++;
     }
 
     private byte[] getGroupId(final Content content) {
@@ -336,13 +430,13 @@ public class MessageSendLogStore implements AutoCloseable {
             final long contentId,
             final List<RecipientDevices> recipientDevices
     ) {
-        try (final var connection = database.getConnection()) {
-            connection.setAutoCommit(false);
-            insertRecipientsForExistingContent(contentId, recipientDevices, connection);
-            connection.commit();
-        } catch (SQLException e) {
-            logger.warn("Failed to append recipients to message send log", e);
+        synchronized (index) {
+            final var indexedContent = indexedContents.get(contentId);
+            if (indexedContent != null) {
+                addRecipientDevices(indexedContent, recipientDevices);
+            }
         }
+        enqueue(connection -> insertRecipientsForExistingContent(contentId, recipientDevices, connection));
     }
 
     private void insertRecipientsForExistingContent(
@@ -350,11 +444,7 @@ public class MessageSendLogStore implements AutoCloseable {
             final List<RecipientDevices> recipientDevices,
             final Connection connection
     ) throws SQLException {
-        final var sql = """
-                        INSERT INTO %s (address, device_id, content_id)
-                        VALUES (?,?,?)
-                        """.formatted(TABLE_MESSAGE_SEND_LOG);
-        try (final var statement = connection.prepareStatement(sql)) {
+        try (final var statement = connection.prepareStatement(SQL_INSERT_RECIPIENT)) {
             for (final var recipientDevice : recipientDevices) {
                 for (final var deviceId : recipientDevice.deviceIds()) {
                     statement.setString(1, recipientDevice.serviceId().toString());
@@ -366,28 +456,175 @@ public class MessageSendLogStore implements AutoCloseable {
         }
     }
 
-    private void deleteOutdatedEntries(final Connection connection) throws SQLException {
-        final var sql = """
-                        DELETE FROM %s
-                        WHERE timestamp < ?
-                        """.formatted(TABLE_MESSAGE_SEND_LOG_CONTENT);
-        try (final var statement = connection.prepareStatement(sql)) {
-            statement.setLong(1, System.currentTimeMillis() - LOG_DURATION.toMillis());
-            final var rowCount = statement.executeUpdate();
-            if (rowCount > 0) {
-                logger.debug("Removed {} outdated entries from the message send log", rowCount);
-            } else {
-                logger.trace("No outdated entries to be removed from message send log.");
+    private static void addRecipientDevices(
+            final IndexedContent indexedContent,
+            final List<RecipientDevices> recipientDevices
+    ) {
+        for (final var recipientDevice : recipientDevices) {
+            final var address = recipientDevice.serviceId().toString();
+            for (final var deviceId : recipientDevice.deviceIds()) {
+                indexedContent.recipients().add(new RecipientDevice(address, deviceId));
             }
         }
     }
 
-    private void deleteOrphanedLogContents(final Connection connection) throws SQLException {
-        final var sql = """
-                        DELETE FROM %s
-                        WHERE _id NOT IN (SELECT content_id FROM %s)
-                        """.formatted(TABLE_MESSAGE_SEND_LOG_CONTENT, TABLE_MESSAGE_SEND_LOG);
-        try (final var statement = connection.prepareStatement(sql)) {
+    private void removeFromIndex(final long sentTimestamp, final ContentFilter filter) {
+        synchronized (index) {
+            final var indexedTimestamp = index.get(sentTimestamp);
+            if (indexedTimestamp == null) {
+                return;
+            }
+            final var iterator = indexedTimestamp.contents().iterator();
+            while (iterator.hasNext()) {
+                final var indexedContent = iterator.next();
+                if (filter.matches(indexedContent)) {
+                    iterator.remove();
+                    indexedContents.remove(indexedContent.id());
+                }
+            }
+        }
+    }
+
+    private void enqueue(final Write write) {
+        synchronized (writes) {
+            while (writes.size() >= MAX_QUEUED_WRITES && !closed && writerThread.isAlive()) {
+                try {
+                    writes.wait(1000L);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    logger.debug("Interrupted while waiting for message send log writes, dropping write");
+                    return;
+                }
+            }
+            if (closed) {
+                logger.debug("Message send log is closed, dropping write");
+                return;
+            }
+            writes.add(write);
+            enqueuedWrites++;
+            writes.notifyAll();
+        }
+    }
+
+    /**
+     * Wait until all writes queued so far have been committed.
+     */
+    private void awaitWrites() {
+        synchronized (writes) {
+            final var target = enqueuedWrites;
+            while (finishedWrites < target && writerThread.isAlive()) {
+                try {
+                    writes.wait(1000L);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void runWriter() {
+        var nextCleanup = System.currentTimeMillis();
+        while (true) {
+            final var batch = new ArrayList<Write>();
+            synchronized (writes) {
+                try {
+                    while (writes.isEmpty() && !closed) {
+                        final var timeout = nextCleanup - System.currentTimeMillis();
+                        if (timeout <= 0) {
+                            break;
+                        }
+                        writes.wait(timeout);
+                    }
+                } catch (InterruptedException e) {
+                    logger.debug("Stopping msl writer thread");
+                    return;
+                }
+                if (writes.isEmpty() && closed) {
+                    return;
+                }
+                while (!writes.isEmpty() && batch.size() < MAX_BATCH_SIZE) {
+                    batch.add(writes.poll());
+                }
+                // Wake up senders waiting for space in the queue
+                writes.notifyAll();
+            }
+
+            if (!batch.isEmpty()) {
+                try {
+                    executeWrites(batch);
+                } catch (Throwable e) {
+                    // The writer thread must survive, otherwise all following writes would be lost
+                    logger.warn("Failed to write to message send log", e);
+                } finally {
+                    synchronized (writes) {
+                        finishedWrites += batch.size();
+                        writes.notifyAll();
+                    }
+                }
+            }
+
+            if (System.currentTimeMillis() >= nextCleanup) {
+                try {
+                    final var rowCount = deleteOutdatedEntries();
+                    // Continue with the next chunk after the queued writes
+                    nextCleanup = rowCount < CLEANUP_CHUNK_SIZE
+                            ? System.currentTimeMillis() + CLEANUP_INTERVAL.toMillis()
+                            : System.currentTimeMillis();
+                } catch (SQLException | RuntimeException e) {
+                    logger.debug("MSL", e);
+                    logger.warn("Deleting outdated entries failed");
+                    nextCleanup = Long.MAX_VALUE;
+                }
+            }
+        }
+    }
+
+    private void executeWrites(final List<Write> batch) {
+        try (final var connection = database.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                for (final var write : batch) {
+                    write.execute(connection);
+                }
+                connection.commit();
+                logger.trace("Committed {} message send log writes", batch.size());
+                return;
+            } catch (SQLException e) {
+                connection.rollback();
+                if (batch.size() == 1) {
+                    throw e;
+                }
+                logger.debug("Failed to commit message send log writes, retrying them separately", e);
+            }
+        } catch (SQLException e) {
+            logger.warn("Failed to write to message send log", e);
+            return;
+        }
+        for (final var write : batch) {
+            executeWrites(List.of(write));
+        }
+    }
+
+    private int deleteOutdatedEntries() throws SQLException {
+        try (final var connection = database.getConnection()) {
+            try (final var statement = connection.prepareStatement(SQL_DELETE_OUTDATED_CONTENTS)) {
+                statement.setLong(1, System.currentTimeMillis() - LOG_DURATION.toMillis());
+                statement.setInt(2, CLEANUP_CHUNK_SIZE);
+                final var rowCount = statement.executeUpdate();
+                if (rowCount > 0) {
+                    logger.debug("Removed {} outdated entries from the message send log", rowCount);
+                } else {
+                    logger.trace("No outdated entries to be removed from message send log.");
+                }
+                return rowCount;
+            }
+        }
+    }
+
+    private void deleteOrphanedLogContents(final Connection connection, final long sentTimestamp) throws SQLException {
+        try (final var statement = connection.prepareStatement(SQL_DELETE_ORPHANED_CONTENTS)) {
+            statement.setLong(1, sentTimestamp);
             statement.executeUpdate();
         }
     }
@@ -406,5 +643,26 @@ public class MessageSendLogStore implements AutoCloseable {
         return new MessageSendLogEntry(groupId, content, contentHint, urgent);
     }
 
+    private interface Write {
+
+        void execute(Connection connection) throws SQLException;
+    }
+
+    private interface ContentFilter {
+
+        boolean matches(IndexedContent indexedContent);
+    }
+
     private record RecipientDevices(ServiceId serviceId, List<Integer> deviceIds) {}
+
+    private record RecipientDevice(String address, int deviceId) {}
+
+    /**
+     * @param complete whether all entries with this timestamp are in the index, otherwise the database is queried
+     */
+    private record IndexedTimestamp(boolean complete, List<IndexedContent> contents) {}
+
+    private record IndexedContent(
+            long id, byte[] groupId, MessageSendLogEntry entry, Set<RecipientDevice> recipients
+    ) {}
 }
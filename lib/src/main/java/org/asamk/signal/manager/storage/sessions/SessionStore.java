@@ -1,7 +1,9 @@
 package org.asamk.signal.manager.storage.sessions;
 
 import org.asamk.signal.manager.api.Pair;
+import org.asamk.signal.manager.storage.CacheStatistics;
 import org.asamk.signal.manager.storage.Database;
+import org.asamk.signal.manager.storage.StripedLruCache;
 import org.asamk.signal.manager.storage.Utils;
 import org.signal.core.models.ServiceId;
 import org.signal.libsignal.protocol.NoSessionException;
@@ -18,7 +20,6 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -27,9 +28,40 @@ import java.util.stream.Collectors;
 public class SessionStore implements SignalServiceSessionStore {
 
     private static final String TABLE_SESSION = "session";
+    private static final String SQL_LOAD_SESSION = (
+            """
+            SELECT s.record
+            FROM %s AS s
+            WHERE s.account_id_type = ? AND s.address = ? AND s.device_id = ?
+            """
+    ).formatted(TABLE_SESSION);
+    private static final String SQL_STORE_SESSION = (
+            """
+            INSERT INTO %s (account_id_type, address, device_id, record)
+            VALUES (?, ?, ?, ?)
+            ON CONFLICT (account_id_type, address, device_id) DO UPDATE SET record=excluded.record
+            """
+    ).formatted(TABLE_SESSION);
+    private static final String SQL_DELETE_ALL_SESSIONS = (
+            """
+            DELETE FROM %s AS s
+            WHERE s.account_id_type = ? AND s.address = ?
+            """
+    ).formatted(TABLE_SESSION);
+    private static final String SQL_DELETE_SESSION = (
+            """
+            DELETE FROM %s AS s
+            WHERE s.account_id_type = ? AND s.address = ? AND s.device_id = ?
+            """
+    ).formatted(TABLE_SESSION);
     private static final Logger logger = LoggerFactory.getLogger(SessionStore.class);
+    private static final long MAX_CACHED_SESSIONS_BYTES = 32 * 1024 * 1024;
+    // Approximate memory used by a cache entry in addition to the serialized session record
+    private static final int CACHED_SESSION_OVERHEAD_BYTES = 256;
 
-    private final Map<Key, SessionRecord> cachedSessions = new HashMap<>();
+    private final StripedLruCache<Key, SessionRecord> cachedSessions = new StripedLruCache<>(
+            MAX_CACHED_SESSIONS_BYTES,
+            Key::address);
 
     private final Database database;
     private final int accountIdType;
@@ -59,11 +91,13 @@ public class SessionStore implements SignalServiceSessionStore {
     public SessionRecord loadSession(SignalProtocolAddress address) {
         final var key = getKey(address);
         try (final var connection = database.getConnection()) {
-            final var sessionRecord = Objects.requireNonNullElseGet(loadSession(connection, key), SessionRecord::new);
-            synchronized (cachedSessions) {
-                cachedSessions.put(key, sessionRecord);
+            final var sessionRecord = loadSession(connection, key);
+            if (sessionRecord != null) {
+                return sessionRecord;
             }
-            return sessionRecord;
+            final var newSessionRecord = new SessionRecord();
+            cachedSessions.put(key, newSessionRecord, CACHED_SESSION_OVERHEAD_BYTES);
+            return newSessionRecord;
         } catch (SQLException e) {
             throw new RuntimeException("Failed read from session store", e);
         }
@@ -300,29 +334,32 @@ public class SessionStore implements SignalServiceSessionStore {
         logger.debug("Complete sessions migration took {}ms", (System.nanoTime() - start) / 1000000);
     }
 
+    public CacheStatistics getCacheStatistics() {
+        return cachedSessions.getStatistics();
+    }
+
     private Key getKey(final SignalProtocolAddress address) {
         return new Key(address.getName(), address.getDeviceId());
     }
 
     private SessionRecord loadSession(Connection connection, final Key key) throws SQLException {
-        synchronized (cachedSessions) {
-            final var session = cachedSessions.get(key);
-            if (session != null) {
-                return session;
-            }
+        final var cachedSession = cachedSessions.get(key);
+        if (cachedSession != null) {
+            return cachedSession;
         }
-        final var sql = (
-                """
-                SELECT s.record
-                FROM %s AS s
-                WHERE s.account_id_type = ? AND s.address = ? AND s.device_id = ?
-                """
-        ).formatted(TABLE_SESSION);
-        try (final var statement = connection.prepareStatement(sql)) {
+        try (final var statement = connection.prepareStatement(SQL_LOAD_SESSION)) {
             statement.setInt(1, accountIdType);
             statement.setString(2, key.address());
             statement.setInt(3, key.deviceId());
-            return Utils.executeQueryForOptional(statement, this::getSessionRecordFromResultSet).orElse(null);
+            final var record = Utils.executeQueryForOptional(statement, res -> res.getBytes("record")).orElse(null);
+            if (record == null) {
+                return null;
+            }
+            final var session = getSessionRecord(record);
+            if (session != null) {
+                cachedSessions.put(key, session, record.length + CACHED_SESSION_OVERHEAD_BYTES);
+            }
+            return session;
         }
     }
 
@@ -332,9 +369,12 @@ public class SessionStore implements SignalServiceSessionStore {
         return new Key(address, deviceId);
     }
 
-    private SessionRecord getSessionRecordFromResultSet(ResultSet resultSet) {
+    private SessionRecord getSessionRecordFromResultSet(ResultSet resultSet) throws SQLException {
+        return getSessionRecord(resultSet.getBytes("record"));
+    }
+
+    private SessionRecord getSessionRecord(byte[] record) {
         try {
-            final var record = resultSet.getBytes("record");
             return new SessionRecord(record);
         } catch (Exception e) {
             logger.warn("Failed to load session, resetting session: {}", e.getMessage());
@@ -347,36 +387,22 @@ public class SessionStore implements SignalServiceSessionStore {
             final Key key,
             final SessionRecord session
     ) throws SQLException {
-        synchronized (cachedSessions) {
-            cachedSessions.put(key, session);
-        }
+        final var record = session.serialize();
+        cachedSessions.put(key, session, record.length + CACHED_SESSION_OVERHEAD_BYTES);
 
-        final var sql = """
-                        INSERT INTO %s (account_id_type, address, device_id, record)
-                        VALUES (?, ?, ?, ?)
-                        ON CONFLICT (account_id_type, address, device_id) DO UPDATE SET record=excluded.record
-                        """.formatted(TABLE_SESSION);
-        try (final var statement = connection.prepareStatement(sql)) {
+        try (final var statement = connection.prepareStatement(SQL_STORE_SESSION)) {
             statement.setInt(1, accountIdType);
             statement.setString(2, key.address());
             statement.setInt(3, key.deviceId());
-            statement.setBytes(4, session.serialize());
+            statement.setBytes(4, record);
             statement.executeUpdate();
         }
     }
 
     private void deleteAllSessions(final Connection connection, final String address) throws SQLException {
-        synchronized (cachedSessions) {
-            cachedSessions.clear();
-        }
+        cachedSessions.removeIf(address, key -> key.address().equals(address));
 
-        final var sql = (
-                """
-                DELETE FROM %s AS s
-                WHERE s.account_id_type = ? AND s.address = ?
-                """
-        ).formatted(TABLE_SESSION);
-        try (final var statement = connection.prepareStatement(sql)) {
+        try (final var statement = connection.prepareStatement(SQL_DELETE_ALL_SESSIONS)) {
             statement.setInt(1, accountIdType);
             statement.setString(2, address);
             statement.executeUpdate();
@@ -384,17 +410,9 @@ public class SessionStore implements SignalServiceSessionStore {
     }
 
     private void deleteSession(Connection connection, final Key key) throws SQLException {
-        synchronized (cachedSessions) {
-            cachedSessions.remove(key);
-        }
+        cachedSessions.remove(key);
 
-        final var sql = (
-                """
-                DELETE FROM %s AS s
-                WHERE s.account_id_type = ? AND s.address = ? AND s.device_id = ?
-                """
-        ).formatted(TABLE_SESSION);
-        try (final var statement = connection.prepareStatement(sql)) {
+        try (final var statement = connection.prepareStatement(SQL_DELETE_SESSION)) {
             statement.setInt(1, accountIdType);
             statement.setString(2, key.address());
             statement.setInt(3, key.deviceId());
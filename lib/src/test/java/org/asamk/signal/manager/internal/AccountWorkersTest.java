@@ -0,0 +1,114 @@
+package org.asamk.signal.manager.internal;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AccountWorkersTest {
+
+    @Test
+    void jobsDontDelayAccountWork() throws Exception {
+        final var workers = new AccountWorkers(1);
+        final var jobRunning = new CountDownLatch(1);
+        final var finishJob = new CountDownLatch(1);
+
+        try (final var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            final var job = executor.submit(() -> workers.callJob(() -> {
+                jobRunning.countDown();
+                await(finishJob);
+                return null;
+            }));
+            assertTrue(jobRunning.await(5, TimeUnit.SECONDS));
+
+            final var accountWork = executor.submit(() -> workers.call(() -> "loaded"));
+            assertEquals("loaded", accountWork.get(5, TimeUnit.SECONDS));
+
+            finishJob.countDown();
+            job.get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void limitsConcurrentJobs() throws Exception {
+        final var workers = new AccountWorkers(2);
+        final var running = new AtomicInteger();
+        final var maxRunning = new AtomicInteger();
+
+        try (final var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (var i = 0; i < 10; i++) {
+                executor.submit(() -> workers.callJob(() -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        throw new AssertionError(e);
+                    }
+                    running.decrementAndGet();
+                    return null;
+                }));
+            }
+        }
+
+        assertEquals(2, maxRunning.get());
+    }
+
+    @Test
+    void servesWaitingAccountsInArrivalOrder() throws Exception {
+        final var workers = new AccountWorkers(1);
+        final var finishFirst = new CountDownLatch(1);
+        final var order = Collections.synchronizedList(new ArrayList<String>());
+
+        final var threads = new ArrayList<Thread>();
+        threads.add(Thread.ofVirtual().start(() -> callJob(workers, () -> {
+            await(finishFirst);
+            order.add("first");
+        })));
+        for (final var name : List.of("second", "third", "fourth")) {
+            awaitWaiting(threads.getLast());
+            threads.add(Thread.ofVirtual().start(() -> callJob(workers, () -> order.add(name))));
+        }
+        awaitWaiting(threads.getLast());
+
+        finishFirst.countDown();
+        for (final var thread : threads) {
+            thread.join(5000);
+        }
+
+        assertEquals(List.of("first", "second", "third", "fourth"), order);
+    }
+
+    private static void callJob(final AccountWorkers workers, final Runnable job) {
+        try {
+            workers.callJob(() -> {
+                job.run();
+                return null;
+            });
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void awaitWaiting(final Thread thread) throws InterruptedException {
+        for (var i = 0; i < 500 && thread.getState() != Thread.State.WAITING; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(Thread.State.WAITING, thread.getState());
+    }
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
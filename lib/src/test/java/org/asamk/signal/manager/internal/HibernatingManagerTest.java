@@ -0,0 +1,183 @@
+package org.asamk.signal.manager.internal;
+
+import org.asamk.signal.manager.Manager;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HibernatingManagerTest {
+
+    static final String NUMBER = "+AAA";
+
+    @Test
+    void neverLoadedAccountIsOnlyDrainedAfterInterval() {
+        final var account = new HibernatingManager(NUMBER, null, number -> new FakeManager().proxy());
+
+        assertFalse(account.isActive());
+        assertFalse(account.isHibernatedFor(Duration.ofMinutes(1)));
+        assertTrue(account.isHibernatedFor(Duration.ZERO));
+    }
+
+    @Test
+    void concurrentActivationsLoadAccountOnce() throws Exception {
+        final var activations = new AtomicInteger();
+        final var loading = new CountDownLatch(1);
+        final var finishLoading = new CountDownLatch(1);
+        final var account = new HibernatingManager(NUMBER, null, number -> {
+            activations.incrementAndGet();
+            loading.countDown();
+            await(finishLoading);
+            return new FakeManager().proxy();
+        });
+
+        try (final var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            final var first = executor.submit(() -> {
+                account.activate();
+                return null;
+            });
+            assertTrue(loading.await(5, TimeUnit.SECONDS));
+            final var second = executor.submit(() -> {
+                account.activate();
+                return null;
+            });
+            // The lock isn't held while the account is loaded
+            assertFalse(account.isActive());
+            finishLoading.countDown();
+            first.get(5, TimeUnit.SECONDS);
+            second.get(5, TimeUnit.SECONDS);
+        }
+
+        assertEquals(1, activations.get());
+        assertTrue(account.isActive());
+    }
+
+    @Test
+    void hibernationClosesManagerOutsideLock() throws Exception {
+        final var closing = new CountDownLatch(1);
+        final var finishClosing = new CountDownLatch(1);
+        final var manager = new FakeManager() {
+            @Override
+            void onClose() {
+                closing.countDown();
+                await(finishClosing);
+            }
+        };
+        final var activations = new AtomicInteger();
+        final var account = new HibernatingManager(NUMBER, manager.proxy(), number -> {
+            activations.incrementAndGet();
+            return new FakeManager().proxy();
+        });
+
+        try (final var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            final var hibernation = executor.submit(() -> account.hibernateIfIdle(Duration.ZERO));
+            assertTrue(closing.await(5, TimeUnit.SECONDS));
+            assertFalse(account.isActive());
+
+            // The account isn't loaded again, before the previous manager has been closed
+            final var activation = executor.submit(() -> {
+                account.activate();
+                return null;
+            });
+            Thread.sleep(100);
+            assertEquals(0, activations.get());
+
+            finishClosing.countDown();
+            hibernation.get(5, TimeUnit.SECONDS);
+            activation.get(5, TimeUnit.SECONDS);
+        }
+
+        assertEquals(1, manager.closeCount.get());
+        assertEquals(1, activations.get());
+        assertTrue(account.isActive());
+    }
+
+    @Test
+    void hibernationKeepsRecentlyUsedAccount() {
+        final var manager = new FakeManager();
+        final var account = new HibernatingManager(NUMBER, manager.proxy(), number -> new FakeManager().proxy());
+
+        account.hibernateIfIdle(Duration.ofMinutes(1));
+
+        assertTrue(account.isActive());
+        assertEquals(0, manager.closeCount.get());
+    }
+
+    @Test
+    void closeDuringActivationClosesLoadedManager() throws Exception {
+        final var loading = new CountDownLatch(1);
+        final var finishLoading = new CountDownLatch(1);
+        final var manager = new FakeManager();
+        final var account = new HibernatingManager(NUMBER, null, number -> {
+            loading.countDown();
+            await(finishLoading);
+            return manager.proxy();
+        });
+        final var closedListenerCalls = new AtomicInteger();
+        account.getManager().addClosedListener(closedListenerCalls::incrementAndGet);
+
+        try (final var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            final var activation = executor.submit(() -> {
+                account.activate();
+                return null;
+            });
+            assertTrue(loading.await(5, TimeUnit.SECONDS));
+            account.getManager().close();
+            finishLoading.countDown();
+            activation.get(5, TimeUnit.SECONDS);
+        }
+
+        assertFalse(account.isActive());
+        assertEquals(1, manager.closeCount.get());
+        assertEquals(1, closedListenerCalls.get());
+        assertThrows(Exception.class, account::activate);
+    }
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static class FakeManager {
+
+        final AtomicInteger closeCount = new AtomicInteger();
+
+        Manager proxy() {
+            return (Manager) Proxy.newProxyInstance(Manager.class.getClassLoader(),
+                    new Class[]{Manager.class},
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "close" -> {
+                                closeCount.incrementAndGet();
+                                onClose();
+                            }
+                            case "getSelfNumber" -> {
+                                return NUMBER;
+                            }
+                            case "hashCode" -> {
+                                return System.identityHashCode(proxy);
+                            }
+                            case "equals" -> {
+                                return proxy == args[0];
+                            }
+                        }
+                        return method.getReturnType() == boolean.class ? false : null;
+                    });
+        }
+
+        void onClose() {
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package org.asamk.signal.manager.internal;
+
+import org.asamk.signal.manager.helper.Context;
+import org.asamk.signal.manager.jobs.Job;
+import org.asamk.signal.manager.jobs.JobPriority;
+import org.asamk.signal.manager.storage.AccountDatabase;
+import org.asamk.signal.manager.storage.jobs.JobStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JobExecutorTest {
+
+    @TempDir
+    File tempDir;
+
+    AccountDatabase database;
+    JobStore jobStore;
+    final List<String> runJobs = Collections.synchronizedList(new ArrayList<>());
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        database = AccountDatabase.init(new File(tempDir, "account.db"));
+        jobStore = new JobStore(database);
+    }
+
+    @AfterEach
+    void tearDown() {
+        database.close();
+    }
+
+    @Test
+    void restoresStoredJobsBeforeFirstEnqueue() {
+        jobStore.addJob("TestJob", "stored", 0, 0);
+
+        try (final var executor = createExecutor()) {
+            executor.enqueueJob(new TestJob("new", JobPriority.NORMAL, "key", "new"));
+        }
+
+        // The new job is coalesced with the restored one
+        assertEquals(List.of("stored"), runJobs);
+        assertEquals(List.of(), jobStore.getJobs());
+    }
+
+    @Test
+    void restoreSkipsQueuedJobs() throws InterruptedException {
+        final var running = new CountDownLatch(1);
+        final var finish = new CountDownLatch(1);
+
+        try (final var executor = createExecutor()) {
+            executor.enqueueJob(blockingJob(running, finish));
+            assertTrue(running.await(5, TimeUnit.SECONDS));
+            executor.enqueueJob(new TestJob("queued", JobPriority.NORMAL, null, "queued"));
+            executor.restoreJobs();
+            assertEquals(2, jobStore.getJobs().size());
+            finish.countDown();
+        }
+
+        assertEquals(List.of("blocking", "queued"), runJobs);
+        assertEquals(List.of(), jobStore.getJobs());
+    }
+
+    @Test
+    void coalescesPendingJobs() throws InterruptedException {
+        final var running = new CountDownLatch(1);
+        final var finish = new CountDownLatch(1);
+
+        try (final var executor = createExecutor()) {
+            executor.enqueueJob(blockingJob(running, finish));
+            assertTrue(running.await(5, TimeUnit.SECONDS));
+            // Only one test job runs at a time, so these stay pending
+            executor.enqueueJob(new TestJob("first", JobPriority.NORMAL, "key", null));
+            executor.enqueueJob(new TestJob("second", JobPriority.NORMAL, "key", null));
+            executor.enqueueJob(new TestJob("other", JobPriority.NORMAL, "other", null));
+            finish.countDown();
+        }
+
+        assertEquals(List.of("blocking", "first", "other"), runJobs);
+    }
+
+    @Test
+    void runsPendingJobsByPriority() throws InterruptedException {
+        final var running = new CountDownLatch(1);
+        final var finish = new CountDownLatch(1);
+
+        try (final var executor = createExecutor()) {
+            executor.enqueueJob(blockingJob(running, finish));
+            assertTrue(running.await(5, TimeUnit.SECONDS));
+            executor.enqueueJob(new TestJob("low", JobPriority.LOW, null, null));
+            executor.enqueueJob(new TestJob("normal", JobPriority.NORMAL, null, null));
+            executor.enqueueJob(new TestJob("high", JobPriority.HIGH, null, null));
+            executor.enqueueJob(new TestJob("normal2", JobPriority.NORMAL, null, null));
+            finish.countDown();
+        }
+
+        assertEquals(List.of("blocking", "high", "normal", "normal2", "low"), runJobs);
+    }
+
+    private JobExecutor createExecutor() {
+        return new JobExecutor(null, new AccountWorkers(2), () -> jobStore, (type, data) -> {
+            if (!"TestJob".equals(type)) {
+                throw new IOException("Unknown job type");
+            }
+            return new TestJob(data, JobPriority.NORMAL, "key", data);
+        });
+    }
+
+    private TestJob blockingJob(final CountDownLatch running, final CountDownLatch finish) {
+        return new TestJob("blocking", JobPriority.HIGH, null, "blocking", running, finish);
+    }
+
+    /**
+     * All test jobs have the same type, so only one of them runs at a time.
+     */
+    private final class TestJob implements Job {
+
+        private final String name;
+        private final JobPriority priority;
+        private final String coalesceKey;
+        private final String data;
+        private final CountDownLatch running;
+        private final CountDownLatch finish;
+
+        private TestJob(final String name, final JobPriority priority, final String coalesceKey, final String data) {
+            this(name, priority, coalesceKey, data, null, null);
+        }
+
+        private TestJob(
+                final String name,
+                final JobPriority priority,
+                final String coalesceKey,
+                final String data,
+                final CountDownLatch running,
+                final CountDownLatch finish
+        ) {
+            this.name = name;
+            this.priority = priority;
+            this.coalesceKey = coalesceKey;
+            this.data = data;
+            this.running = running;
+            this.finish = finish;
+        }
+
+        @Override
+        public void run(final Context context) {
+            if (running != null) {
+                running.countDown();
+                try {
+                    finish.await();
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            }
+            runJobs.add(name);
+        }
+
+        @Override
+        public JobPriority getPriority() {
+            return priority;
+        }
+
+        @Override
+        public String getCoalesceKey() {
+            return coalesceKey;
+        }
+
+        @Override
+        public String serialize() {
+            return data;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package org.asamk.signal.manager.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DatabaseTest {
+
+    @TempDir
+    File tempDir;
+
+    AccountDatabase database;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        database = AccountDatabase.init(new File(tempDir, "account.db"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        database.close();
+    }
+
+    @Test
+    void failedTransactionIsRolledBack() {
+        assertThrows(SQLException.class, () -> {
+            try (final var connection = database.getConnection()) {
+                connection.setAutoCommit(false);
+                insert(connection, "a");
+                throw new SQLException("Failed write");
+            }
+        });
+
+        assertFalse(exists("a"));
+    }
+
+    @Test
+    void endingTransactionWithoutCommitRollsBack() throws SQLException {
+        try (final var connection = database.getConnection()) {
+            connection.setAutoCommit(false);
+            insert(connection, "a");
+            connection.setAutoCommit(true);
+        }
+
+        assertFalse(exists("a"));
+    }
+
+    @Test
+    void committedTransactionIsKept() throws SQLException {
+        try (final var connection = database.getConnection()) {
+            connection.setAutoCommit(false);
+            insert(connection, "a");
+            connection.commit();
+            insert(connection, "b");
+        }
+
+        assertTrue(exists("a"));
+        assertFalse(exists("b"));
+    }
+
+    @Test
+    void readingTransactionDoesNotBlockWrites() throws Exception {
+        try (final var connection = database.getConnection()) {
+            connection.setAutoCommit(false);
+            assertFalse(exists(connection, "a"));
+
+            try (final var executor = Executors.newSingleThreadExecutor()) {
+                executor.submit(() -> {
+                    try (final var writeConnection = database.getConnection()) {
+                        insert(writeConnection, "a");
+                    }
+                    return null;
+                }).get(5, TimeUnit.SECONDS);
+            }
+            connection.commit();
+        }
+
+        assertTrue(exists("a"));
+    }
+
+    @Test
+    void classifiesWriteStatements() {
+        assertFalse(Database.isWriteStatement("SELECT * FROM key_value"));
+        assertFalse(Database.isWriteStatement("WITH k AS (SELECT key FROM key_value) SELECT * FROM k"));
+        assertTrue(Database.isWriteStatement(
+                "WITH k AS (SELECT key FROM key_value) DELETE FROM key_value WHERE key IN k"));
+        assertTrue(Database.isWriteStatement("INSERT INTO key_value (key, value) VALUES ('a', 1)"));
+    }
+
+    private static void insert(final Connection connection, final String key) throws SQLException {
+        try (final var statement = connection.prepareStatement("INSERT INTO key_value (key, value) VALUES (?, 1)")) {
+            statement.setString(1, key);
+            statement.executeUpdate();
+        }
+    }
+
+    private boolean exists(final String key) throws SQLException {
+        try (final var connection = database.getConnection()) {
+            return exists(connection, key);
+        }
+    }
+
+    private static boolean exists(final Connection connection, final String key) throws SQLException {
+        try (final var statement = connection.prepareStatement("SELECT COUNT(*) FROM key_value WHERE key = ?")) {
+            statement.setString(1, key);
+            final var resultSet = statement.executeQuery();
+            return resultSet.getLong(1) == 1;
+        }
+    }
+}
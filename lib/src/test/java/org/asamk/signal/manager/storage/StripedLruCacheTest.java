@@ -0,0 +1,43 @@
+package org.asamk.signal.manager.storage;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class StripedLruCacheTest {
+
+    private record Key(String address, int deviceId) {}
+
+    @Test
+    void evictsLeastRecentlyUsedEntries() {
+        final var cache = new StripedLruCache<Key, String>(16 * 10, Key::address);
+        cache.put(new Key("a", 1), "a1", 4);
+        cache.put(new Key("a", 2), "a2", 4);
+        cache.get(new Key("a", 1));
+        cache.put(new Key("a", 3), "a3", 4);
+
+        assertEquals("a1", cache.get(new Key("a", 1)));
+        assertNull(cache.get(new Key("a", 2)));
+        assertEquals("a3", cache.get(new Key("a", 3)));
+        assertEquals(1, cache.getStatistics().evictions());
+    }
+
+    @Test
+    void removeIfOnlyInvalidatesMatchingEntries() {
+        final var cache = new StripedLruCache<Key, String>(1024 * 1024, Key::address);
+        cache.put(new Key("a", 1), "a1", 1);
+        cache.put(new Key("a", 2), "a2", 1);
+        cache.put(new Key("b", 1), "b1", 1);
+
+        cache.removeIf("a", key -> key.address().equals("a"));
+
+        assertNull(cache.get(new Key("a", 1)));
+        assertNull(cache.get(new Key("a", 2)));
+        assertEquals("b1", cache.get(new Key("b", 1)));
+        final var statistics = cache.getStatistics();
+        assertEquals(1, statistics.hits());
+        assertEquals(2, statistics.misses());
+        assertEquals(1, statistics.size());
+    }
+}
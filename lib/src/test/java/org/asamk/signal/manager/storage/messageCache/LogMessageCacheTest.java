@@ -0,0 +1,147 @@
+package org.asamk.signal.manager.storage.messageCache;
+
+import org.asamk.signal.manager.api.Pair;
+import org.asamk.signal.manager.util.MessageCacheUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.whispersystems.signalservice.api.messages.SignalServiceEnvelope;
+import org.whispersystems.signalservice.internal.push.Envelope;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import okio.ByteString;
+
+import static org.asamk.signal.manager.storage.recipients.TestRecipientId.createTestId;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class LogMessageCacheTest {
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    void cachedMessagesSurviveReopen() {
+        final var logPath = new File(tempDir, "msg-log");
+        final var legacyPath = new File(tempDir, "msg-cache");
+        try (final var cache = new LogMessageCache(logPath, legacyPath)) {
+            final var cached = cache.cacheMessages(List.of(new Pair<>(envelope(1), createTestId(1)),
+                    new Pair<>(envelope(2), createTestId(2)),
+                    new Pair<>(envelope(3), null)));
+            cached.get(1).delete();
+        }
+
+        try (final var cache = new LogMessageCache(logPath, legacyPath)) {
+            assertEquals(List.of(1L, 3L), timestamps(cache));
+        }
+    }
+
+    @Test
+    void deleteMessagesOfMovedRecipient() throws IOException {
+        final var logPath = new File(tempDir, "msg-log");
+        final var legacyPath = new File(tempDir, "msg-cache");
+        try (final var cache = new LogMessageCache(logPath, legacyPath)) {
+            final var cached = cache.cacheMessage(envelope(1), null);
+            cache.cacheMessage(envelope(2), createTestId(2));
+            cache.replaceSender(cached, createTestId(1));
+            cache.mergeRecipients(createTestId(2), createTestId(1));
+        }
+
+        try (final var cache = new LogMessageCache(logPath, legacyPath)) {
+            cache.deleteMessages(createTestId(2));
+            assertEquals(List.of(), timestamps(cache));
+        }
+    }
+
+    @Test
+    void compactsOldSegments() {
+        final var logPath = new File(tempDir, "msg-log");
+        final var legacyPath = new File(tempDir, "msg-cache");
+        try (final var cache = new LogMessageCache(logPath, legacyPath)) {
+            final var cached = new ArrayList<CachedMessage>();
+            for (var i = 0; i < 20; i++) {
+                cached.add(cache.cacheMessage(envelope(i, new byte[1024 * 1024]), createTestId(1)));
+            }
+            for (var i = 0; i < 19; i++) {
+                cached.get(i).delete();
+            }
+        }
+
+        try (final var cache = new LogMessageCache(logPath, legacyPath)) {
+            assertEquals(List.of(19L), timestamps(cache));
+        }
+    }
+
+    @Test
+    void compactsNewerSegmentsWhileOldestStaysLive() throws InterruptedException {
+        final var logPath = new File(tempDir, "msg-log");
+        final var legacyPath = new File(tempDir, "msg-cache");
+        try (final var cache = new LogMessageCache(logPath, legacyPath)) {
+            final var cached = new ArrayList<CachedMessage>();
+            for (var i = 0; i < 14; i++) {
+                cached.add(cache.cacheMessage(envelope(i, new byte[1024 * 1024]), createTestId(1)));
+            }
+            // The tombstone is written to the second segment, but the envelope stays in the oldest one
+            cached.getFirst().delete();
+            for (var i = 14; i < 28; i++) {
+                cached.add(cache.cacheMessage(envelope(i, new byte[1024 * 1024]), createTestId(1)));
+            }
+            for (var i = 7; i < 28; i++) {
+                cached.get(i).delete();
+            }
+            for (var i = 0; i < 50 && segmentCount(logPath) > 2; i++) {
+                Thread.sleep(100);
+            }
+            assertEquals(2, segmentCount(logPath));
+        }
+
+        try (final var cache = new LogMessageCache(logPath, legacyPath)) {
+            assertEquals(List.of(1L, 2L, 3L, 4L, 5L, 6L), timestamps(cache));
+        }
+    }
+
+    @Test
+    void migratesLegacyMessageFiles() throws IOException {
+        final var logPath = new File(tempDir, "msg-log");
+        final var legacyPath = new File(tempDir, "msg-cache");
+        final var recipientPath = new File(legacyPath, "5");
+        Files.createDirectories(recipientPath.toPath());
+        MessageCacheUtils.storeEnvelope(envelope(1), new File(legacyPath, "1_1"));
+        MessageCacheUtils.storeEnvelope(envelope(2), new File(recipientPath, "2_2"));
+
+        try (final var cache = new LogMessageCache(logPath, legacyPath)) {
+            assertFalse(legacyPath.exists());
+            assertEquals(List.of(1L, 2L), timestamps(cache));
+            cache.deleteMessages(createTestId(5));
+            assertEquals(List.of(1L), timestamps(cache));
+        }
+    }
+
+    private static int segmentCount(final File logPath) {
+        return Objects.requireNonNull(logPath.listFiles()).length;
+    }
+
+    private static List<Long> timestamps(final MessageCache cache) {
+        final var timestamps = new ArrayList<Long>();
+        for (final var cachedMessage : cache.getCachedMessages()) {
+            timestamps.add(cachedMessage.loadEnvelope().getTimestamp());
+        }
+        return timestamps;
+    }
+
+    private static SignalServiceEnvelope envelope(final long timestamp) {
+        return envelope(timestamp, new byte[0]);
+    }
+
+    private static SignalServiceEnvelope envelope(final long timestamp, final byte[] content) {
+        final var envelope = new Envelope.Builder().timestamp(timestamp)
+                .content(ByteString.of(content))
+                .build();
+        return new SignalServiceEnvelope(envelope, timestamp);
+    }
+}
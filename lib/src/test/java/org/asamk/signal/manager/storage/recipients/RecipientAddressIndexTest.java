@@ -0,0 +1,81 @@
+package org.asamk.signal.manager.storage.recipients;
+
+import org.junit.jupiter.api.Test;
+import org.signal.core.models.ServiceId.ACI;
+import org.signal.core.models.ServiceId.PNI;
+
+import java.util.UUID;
+
+import static org.asamk.signal.manager.storage.recipients.TestRecipientId.createTestId;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class RecipientAddressIndexTest {
+
+    static final ACI ACI_A = ACI.from(UUID.randomUUID());
+    static final ACI ACI_B = ACI.from(UUID.randomUUID());
+    static final PNI PNI_A = PNI.from(UUID.randomUUID());
+    static final String NUMBER_A = "+AAA";
+    static final String USERNAME_A = "a.01";
+
+    @Test
+    void findsRecipientByEveryKey() {
+        final var index = new RecipientAddressIndex(10);
+        final var recipient = new RecipientWithAddress(createTestId(1),
+                new RecipientAddress(ACI_A, PNI_A, NUMBER_A, USERNAME_A));
+        index.put(index.getVersion(), recipient);
+
+        assertEquals(recipient, index.getById(1));
+        assertEquals(recipient, index.getByServiceId(ACI_A));
+        assertEquals(recipient, index.getByServiceId(PNI_A));
+        assertEquals(recipient, index.getByNumber(NUMBER_A));
+        assertEquals(recipient, index.getByUsername(USERNAME_A));
+    }
+
+    @Test
+    void removeOnlyInvalidatesKeysOfRecipient() {
+        final var index = new RecipientAddressIndex(10);
+        index.put(index.getVersion(), new RecipientWithAddress(createTestId(1), new RecipientAddress(ACI_A, NUMBER_A)));
+        index.put(index.getVersion(), new RecipientWithAddress(createTestId(2), new RecipientAddress(ACI_B, null)));
+
+        index.remove(createTestId(1));
+
+        assertNull(index.getByServiceId(ACI_A));
+        assertNull(index.getByNumber(NUMBER_A));
+        assertEquals(2, index.getByServiceId(ACI_B).id().id());
+    }
+
+    @Test
+    void putReplacesRecipientWithSameKey() {
+        final var index = new RecipientAddressIndex(10);
+        index.put(index.getVersion(), new RecipientWithAddress(createTestId(1), new RecipientAddress(ACI_A, NUMBER_A)));
+        index.put(index.getVersion(), new RecipientWithAddress(createTestId(2), new RecipientAddress(ACI_B, NUMBER_A)));
+
+        assertNull(index.getById(1));
+        assertNull(index.getByServiceId(ACI_A));
+        assertEquals(2, index.getByNumber(NUMBER_A).id().id());
+    }
+
+    @Test
+    void ignoresRecipientsReadBeforeRemoval() {
+        final var index = new RecipientAddressIndex(10);
+        final var version = index.getVersion();
+        index.remove(createTestId(1));
+        index.put(version, new RecipientWithAddress(createTestId(1), new RecipientAddress(ACI_A, NUMBER_A)));
+
+        assertNull(index.getByServiceId(ACI_A));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedRecipients() {
+        final var index = new RecipientAddressIndex(2);
+        index.put(index.getVersion(), new RecipientWithAddress(createTestId(1), new RecipientAddress(ACI_A, null)));
+        index.put(index.getVersion(), new RecipientWithAddress(createTestId(2), new RecipientAddress(ACI_B, null)));
+        index.getByServiceId(ACI_A);
+        index.put(index.getVersion(), new RecipientWithAddress(createTestId(3), new RecipientAddress(NUMBER_A)));
+
+        assertEquals(1, index.getByServiceId(ACI_A).id().id());
+        assertNull(index.getByServiceId(ACI_B));
+        assertEquals(1, index.getStatistics().evictions());
+    }
+}
@@ -21,6 +21,7 @@ import org.asamk.signal.manager.RegistrationManager;
 import org.asamk.signal.manager.Settings;
 import org.asamk.signal.manager.SignalAccountFiles;
 import org.asamk.signal.manager.api.AccountCheckException;
+import org.asamk.signal.manager.api.MessageCacheType;
 import org.asamk.signal.manager.api.NotRegisteredException;
 import org.asamk.signal.manager.api.ServiceEnvironment;
 import org.asamk.signal.manager.api.TrustNewIdentity;
@@ -35,6 +36,7 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.time.Duration;
 import java.util.Set;
 
 import static net.sourceforge.argparse4j.DefaultSettings.VERSION_0_9_0_DEFAULT_SETTINGS;
@@ -99,6 +101,35 @@ public class App {
                 .help("Disable message send log (for resending messages that recipient couldn't decrypt)")
                 .action(Arguments.storeTrue());
 
+        parser.addArgument("--message-cache")
+                .help("Choose how received messages are stored until they have been handled.")
+                .type(Arguments.enumStringType(MessageCacheTypeCli.class))
+                .setDefault(MessageCacheTypeCli.FILES);
+
+        parser.addArgument("--send-concurrency")
+                .help("Maximum number of recipients a message is prepared and sent to in parallel.")
+                .type(Integer.class)
+                .choices(Arguments.range(1, 256))
+                .setDefault(Settings.DEFAULT.sendConcurrency());
+
+        parser.addArgument("--account-workers")
+                .help("Maximum number of accounts that run background work, like loading the account or syncing, in parallel.")
+                .type(Integer.class)
+                .choices(Arguments.range(1, 1024))
+                .setDefault(Settings.DEFAULT.accountWorkers());
+
+        parser.addArgument("--account-idle-timeout")
+                .help("Load accounts of the daemon only when they are used and close them again after they have been idle for the given number of seconds (default: keep all accounts loaded).")
+                .type(Integer.class)
+                .choices(Arguments.range(0, Integer.MAX_VALUE))
+                .setDefault((int) Settings.DEFAULT.accountIdleTimeout().toSeconds());
+
+        parser.addArgument("--account-drain-interval")
+                .help("Load idle accounts that receive messages every given number of seconds, to receive the messages queued on the server.")
+                .type(Integer.class)
+                .choices(Arguments.range(1, Integer.MAX_VALUE))
+                .setDefault((int) Settings.DEFAULT.accountDrainInterval().toSeconds());
+
         parser.epilog(
                 "The global arguments are shown with 'signal-cli -h' and need to come before the subcommand, while the subcommand-specific arguments (shown with 'signal-cli SUBCOMMAND -h') need to be given after the subcommand.");
 
@@ -239,11 +270,27 @@ public class App {
 
         final var disableSendLog = Boolean.TRUE.equals(ns.getBoolean("disable-send-log"));
 
+        final var messageCacheTypeCli = ns.<MessageCacheTypeCli>get("message-cache");
+        final var messageCacheType = messageCacheTypeCli == MessageCacheTypeCli.LOG
+                ? MessageCacheType.LOG
+                : MessageCacheType.FILES;
+
+        final var sendConcurrency = ns.getInt("send-concurrency");
+        final var accountWorkers = ns.getInt("account-workers");
+        final var accountIdleTimeout = Duration.ofSeconds(ns.getInt("account-idle-timeout"));
+        final var accountDrainInterval = Duration.ofSeconds(ns.getInt("account-drain-interval"));
+
         try {
             return new SignalAccountFiles(configPath,
                     serviceEnvironment,
                     BaseConfig.USER_AGENT,
-                    new Settings(trustNewIdentity, disableSendLog));
+                    new Settings(trustNewIdentity,
+                            disableSendLog,
+                            messageCacheType,
+                            sendConcurrency,
+                            accountWorkers,
+                            accountIdleTimeout,
+                            accountDrainInterval));
         } catch (IOException e) {
             throw new IOErrorException("Failed to read local accounts list", e);
         }
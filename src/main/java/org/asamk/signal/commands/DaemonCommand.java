@@ -17,6 +17,8 @@ import org.asamk.signal.json.JsonReceiveMessageHandler;
 import org.asamk.signal.jsonrpc.SocketHandler;
 import org.asamk.signal.manager.Manager;
 import org.asamk.signal.manager.MultiAccountManager;
+import org.asamk.signal.manager.api.ReceiveOverflowPolicy;
+import org.asamk.signal.manager.api.ReceiveQueueConfig;
 import org.asamk.signal.output.JsonWriter;
 import org.asamk.signal.output.OutputWriter;
 import org.asamk.signal.output.PlainTextWriter;
@@ -91,6 +93,19 @@ public class DaemonCommand implements MultiLocalCommand, LocalCommand {
         subparser.addArgument("--send-read-receipts")
                 .help("Send read receipts for all incoming data messages (in addition to the default delivery receipts)")
                 .action(Arguments.storeTrue());
+        subparser.addArgument("--receive-batch-size")
+                .type(Integer.class)
+                .choices(Arguments.range(1, 100))
+                .help("Number of messages to retrieve from the server at once, they are stored and acknowledged together.");
+        subparser.addArgument("--receive-queue-size")
+                .type(Integer.class)
+                .choices(Arguments.range(1, 1000000))
+                .setDefault(ReceiveQueueConfig.DEFAULT.capacity())
+                .help("Maximum number of received messages queued for each JSON-RPC or HTTP client.");
+        subparser.addArgument("--receive-overflow")
+                .help("Specify what happens when a JSON-RPC or HTTP client doesn't keep up with received messages.")
+                .type(Arguments.enumStringType(ReceiveOverflow.class))
+                .setDefault(ReceiveOverflow.BLOCK);
     }
 
     @Override
@@ -113,7 +128,7 @@ public class DaemonCommand implements MultiLocalCommand, LocalCommand {
         m.setReceiveConfig(receiveConfig);
         addDefaultReceiveHandler(m, noReceiveStdOut ? null : outputWriter, receiveMode != ReceiveMode.ON_START);
 
-        try (final var daemonHandler = new SingleAccountDaemonHandler(m, receiveMode)) {
+        try (final var daemonHandler = new SingleAccountDaemonHandler(m, receiveMode, getReceiveQueueConfig(ns))) {
             setup(ns, daemonHandler);
 
             m.addClosedListener(Shutdown::triggerShutdown);
@@ -145,7 +160,7 @@ public class DaemonCommand implements MultiLocalCommand, LocalCommand {
             addDefaultReceiveHandler(m, noReceiveStdOut ? null : outputWriter, receiveMode != ReceiveMode.ON_START);
         });
 
-        try (final var daemonHandler = new MultiAccountDaemonHandler(c, receiveMode)) {
+        try (final var daemonHandler = new MultiAccountDaemonHandler(c, receiveMode, getReceiveQueueConfig(ns))) {
             setup(ns, daemonHandler);
 
             synchronized (this) {
@@ -213,6 +228,15 @@ public class DaemonCommand implements MultiLocalCommand, LocalCommand {
         }
     }
 
+    private static ReceiveQueueConfig getReceiveQueueConfig(final Namespace ns) {
+        final var overflowPolicy = switch (ns.<ReceiveOverflow>get("receive-overflow")) {
+            case BLOCK -> ReceiveOverflowPolicy.BLOCK;
+            case DROP_OLDEST -> ReceiveOverflowPolicy.DROP_OLDEST;
+            case DISCONNECT -> ReceiveOverflowPolicy.DISCONNECT;
+        };
+        return new ReceiveQueueConfig(ns.getInt("receive-queue-size"), overflowPolicy);
+    }
+
     private void addDefaultReceiveHandler(Manager m, OutputWriter outputWriter, final boolean isWeakListener) {
         final var handler = switch (outputWriter) {
             case PlainTextWriter writer -> new ReceiveMessageHandler(m, writer);
@@ -225,10 +249,12 @@ public class DaemonCommand implements MultiLocalCommand, LocalCommand {
     private static abstract class DaemonHandler implements AutoCloseable {
 
         protected final ReceiveMode receiveMode;
+        protected final ReceiveQueueConfig receiveQueueConfig;
         protected final List<AutoCloseable> closeables = new ArrayList<>();
 
-        protected DaemonHandler(final ReceiveMode receiveMode) {
+        protected DaemonHandler(final ReceiveMode receiveMode, final ReceiveQueueConfig receiveQueueConfig) {
             this.receiveMode = receiveMode;
+            this.receiveQueueConfig = receiveQueueConfig;
         }
 
         public abstract void runSocket(ServerSocketChannel serverChannel) throws CommandException;
@@ -275,14 +301,18 @@ public class DaemonCommand implements MultiLocalCommand, LocalCommand {
 
         private final Manager m;
 
-        public SingleAccountDaemonHandler(final Manager m, final ReceiveMode receiveMode) {
-            super(receiveMode);
+        public SingleAccountDaemonHandler(
+                final Manager m,
+                final ReceiveMode receiveMode,
+                final ReceiveQueueConfig receiveQueueConfig
+        ) {
+            super(receiveMode, receiveQueueConfig);
             this.m = m;
         }
 
         @Override
         public void runSocket(final ServerSocketChannel serverChannel) {
-            runSocket(new SocketHandler(serverChannel, m, receiveMode == ReceiveMode.MANUAL));
+            runSocket(new SocketHandler(serverChannel, m, receiveMode == ReceiveMode.MANUAL, receiveQueueConfig));
         }
 
         @Override
@@ -292,7 +322,7 @@ public class DaemonCommand implements MultiLocalCommand, LocalCommand {
 
         @Override
         public void runHttp(InetSocketAddress address) throws CommandException {
-            runHttp(new HttpServerHandler(address, m));
+            runHttp(new HttpServerHandler(address, m, receiveQueueConfig));
         }
     }
 
@@ -300,14 +330,18 @@ public class DaemonCommand implements MultiLocalCommand, LocalCommand {
 
         private final MultiAccountManager c;
 
-        public MultiAccountDaemonHandler(final MultiAccountManager c, final ReceiveMode receiveMode) {
-            super(receiveMode);
+        public MultiAccountDaemonHandler(
+                final MultiAccountManager c,
+                final ReceiveMode receiveMode,
+                final ReceiveQueueConfig receiveQueueConfig
+        ) {
+            super(receiveMode, receiveQueueConfig);
             this.c = c;
         }
 
         @Override
         public void runSocket(final ServerSocketChannel serverChannel) {
-            runSocket(new SocketHandler(serverChannel, c, receiveMode == ReceiveMode.MANUAL));
+            runSocket(new SocketHandler(serverChannel, c, receiveMode == ReceiveMode.MANUAL, receiveQueueConfig));
         }
 
         @Override
@@ -317,7 +351,7 @@ public class DaemonCommand implements MultiLocalCommand, LocalCommand {
 
         @Override
         public void runHttp(final InetSocketAddress address) throws CommandException {
-            runHttp(new HttpServerHandler(address, c));
+            runHttp(new HttpServerHandler(address, c, receiveQueueConfig));
         }
     }
 }
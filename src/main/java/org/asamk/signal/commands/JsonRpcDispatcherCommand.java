@@ -53,6 +53,10 @@ public class JsonRpcDispatcherCommand implements LocalCommand, MultiLocalCommand
         subparser.addArgument("--send-read-receipts")
                 .help("Send read receipts for all incoming data messages (in addition to the default delivery receipts)")
                 .action(Arguments.storeTrue());
+        subparser.addArgument("--receive-batch-size")
+                .type(Integer.class)
+                .choices(Arguments.range(1, 100))
+                .help("Number of messages to retrieve from the server at once, they are stored and acknowledged together.");
         subparser.addArgument("--receive-mode")
                 .help("Specify when to start receiving messages.")
                 .type(Arguments.enumStringType(ReceiveMode.class))
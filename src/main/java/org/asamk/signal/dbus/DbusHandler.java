@@ -40,7 +40,7 @@ public class DbusHandler implements AutoCloseable {
         this.isDbusSystem = isDbusSystem;
         this.dbusRunner = (connection) -> {
             try {
-                exportDbusObject(connection, DbusConfig.getObjectPath(), m).join();
+                exportDbusObject(connection, DbusConfig.getObjectPath(), m, true).join();
             } catch (InterruptedException ignored) {
             }
         };
@@ -60,7 +60,7 @@ public class DbusHandler implements AutoCloseable {
             connection.exportObject(signalControl);
 
             c.addOnManagerAddedHandler(m -> {
-                final var thread = exportManager(connection, m);
+                final var thread = exportManager(connection, m, true);
                 try {
                     thread.join();
                 } catch (InterruptedException ignored) {
@@ -78,7 +78,11 @@ public class DbusHandler implements AutoCloseable {
                 }
             });
 
-            final var initThreads = c.getManagers().stream().map(m -> exportManager(connection, m)).toList();
+            // Hibernated accounts aren't loaded to export their objects, that's done when they're first listed
+            final var initThreads = c.getManagers()
+                    .stream()
+                    .map(m -> exportManager(connection, m, c.isLoaded(m)))
+                    .toList();
 
             for (var t : initThreads) {
                 try {
@@ -131,16 +135,23 @@ public class DbusHandler implements AutoCloseable {
         dBusConnection = null;
     }
 
-    private Thread exportDbusObject(final DBusConnection conn, final String objectPath, final Manager m) {
+    private Thread exportDbusObject(
+            final DBusConnection conn,
+            final String objectPath,
+            final Manager m,
+            final boolean exportAccountObjects
+    ) {
         final var signal = new DbusSignalImpl(m, conn, objectPath, noReceiveOnStart);
         closeables.add(signal);
 
-        return Thread.ofPlatform().name("dbus-init-" + m.getSelfNumber()).start(signal::initObjects);
+        return Thread.ofPlatform()
+                .name("dbus-init-" + m.getSelfNumber())
+                .start(() -> signal.initObjects(exportAccountObjects));
     }
 
-    private Thread exportManager(final DBusConnection conn, final Manager m) {
+    private Thread exportManager(final DBusConnection conn, final Manager m, final boolean exportAccountObjects) {
         final var objectPath = DbusConfig.getObjectPath(m.getSelfNumber());
-        return exportDbusObject(conn, objectPath, m);
+        return exportDbusObject(conn, objectPath, m, exportAccountObjects);
     }
 
     private interface DbusRunner {
@@ -35,6 +35,8 @@ import org.asamk.signal.manager.api.Pair;
 import org.asamk.signal.manager.api.PinLockedException;
 import org.asamk.signal.manager.api.RateLimitException;
 import org.asamk.signal.manager.api.ReceiveConfig;
+import org.asamk.signal.manager.api.ReceiveQueueConfig;
+import org.asamk.signal.manager.api.ReceiveQueueStatistics;
 import org.asamk.signal.manager.api.Recipient;
 import org.asamk.signal.manager.api.RecipientAddress;
 import org.asamk.signal.manager.api.RecipientIdentifier;
@@ -695,6 +697,21 @@ public class DbusManagerImpl implements Manager {
         }
     }
 
+    @Override
+    public void addReceiveHandler(
+            final ReceiveMessageHandler handler,
+            final boolean isWeakListener,
+            final ReceiveQueueConfig queueConfig
+    ) {
+        // Messages are delivered by the dbus connection threads, there's no queue to configure
+        addReceiveHandler(handler, isWeakListener);
+    }
+
+    @Override
+    public ReceiveQueueStatistics getReceiveQueueStatistics(final ReceiveMessageHandler handler) {
+        return null;
+    }
+
     @Override
     public void removeReceiveHandler(final ReceiveMessageHandler handler) {
         synchronized (messageHandlers) {
@@ -98,8 +98,17 @@ public class DbusSignalImpl implements Signal, AutoCloseable {
         });
     }
 
-    public void initObjects() {
-        exportObjects();
+    /**
+     * @param exportAccountObjects if false, the devices, groups and identities are only exported when they're first
+     *                             listed, so a hibernated account isn't loaded just to export them
+     */
+    public void initObjects(final boolean exportAccountObjects) {
+        if (exportAccountObjects) {
+            exportObjects();
+        } else {
+            exportObject(this);
+            updateConfiguration();
+        }
         if (!noReceiveOnStart) {
             subscribeReceive();
         }
@@ -1102,6 +1111,9 @@ public class DbusSignalImpl implements Signal, AutoCloseable {
 
     @Override
     public DBusPath getIdentity(String number) throws Error.Failure {
+        if (identities.isEmpty()) {
+            updateIdentities();
+        }
         final var found = identities.stream()
                 .filter(identity -> identity.getNumber().equals(number) || identity.getUuid().equals(number))
                 .findFirst();
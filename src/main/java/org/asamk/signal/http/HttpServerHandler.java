@@ -5,6 +5,7 @@ import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpServer;
 
 import org.asamk.signal.commands.Commands;
+import org.asamk.signal.json.JsonReceiveEvent;
 import org.asamk.signal.json.JsonReceiveMessageHandler;
 import org.asamk.signal.jsonrpc.JsonRpcReader;
 import org.asamk.signal.jsonrpc.JsonRpcResponse;
@@ -13,20 +14,22 @@ import org.asamk.signal.jsonrpc.SignalJsonRpcCommandHandler;
 import org.asamk.signal.manager.Manager;
 import org.asamk.signal.manager.MultiAccountManager;
 import org.asamk.signal.manager.api.Pair;
+import org.asamk.signal.manager.api.ReceiveQueueConfig;
 import org.asamk.signal.util.Util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 public class HttpServerHandler implements AutoCloseable {
 
     private static final Logger logger = LoggerFactory.getLogger(HttpServerHandler.class);
+    private static final int BACKLOG = 1024;
 
     private final ObjectMapper objectMapper = Util.createJsonObjectMapper();
 
@@ -35,21 +38,32 @@ public class HttpServerHandler implements AutoCloseable {
     private final SignalJsonRpcCommandHandler commandHandler;
     private final MultiAccountManager c;
     private final Manager m;
+    private final ReceiveQueueConfig receiveQueueConfig;
     private HttpServer server;
-    private final AtomicBoolean shutdown = new AtomicBoolean(false);
+    private ServerSentEventBroadcaster eventBroadcaster;
 
-    public HttpServerHandler(final InetSocketAddress address, final Manager m) {
+    public HttpServerHandler(
+            final InetSocketAddress address,
+            final Manager m,
+            final ReceiveQueueConfig receiveQueueConfig
+    ) {
         this.address = address;
         commandHandler = new SignalJsonRpcCommandHandler(m, Commands::getCommand);
         this.c = null;
         this.m = m;
+        this.receiveQueueConfig = receiveQueueConfig;
     }
 
-    public HttpServerHandler(final InetSocketAddress address, final MultiAccountManager c) {
+    public HttpServerHandler(
+            final InetSocketAddress address,
+            final MultiAccountManager c,
+            final ReceiveQueueConfig receiveQueueConfig
+    ) {
         this.address = address;
         commandHandler = new SignalJsonRpcCommandHandler(c, Commands::getCommand);
         this.c = c;
         this.m = null;
+        this.receiveQueueConfig = receiveQueueConfig;
     }
 
     public void init() throws IOException {
@@ -58,8 +72,10 @@ public class HttpServerHandler implements AutoCloseable {
         }
         logger.debug("Starting HTTP server on {}", address);
 
-        server = HttpServer.create(address, 0);
+        // The server implementation can be replaced with the com.sun.net.httpserver.HttpServerProvider system property
+        server = HttpServer.create(address, BACKLOG);
         server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        eventBroadcaster = new ServerSentEventBroadcaster();
 
         server.createContext("/api/v1/rpc", this::handleRpcEndpoint);
         server.createContext("/api/v1/events", this::handleEventsEndpoint);
@@ -72,25 +88,21 @@ public class HttpServerHandler implements AutoCloseable {
     @Override
     public void close() {
         if (server != null) {
-            shutdown.set(true);
-            synchronized (this) {
-                this.notifyAll();
-            }
+            eventBroadcaster.close();
+            eventBroadcaster = null;
             // Increase this delay when https://bugs.openjdk.org/browse/JDK-8304065 is fixed
             server.stop(2);
             server = null;
-            shutdown.set(false);
         }
     }
 
     private void sendResponse(int status, Object response, HttpExchange httpExchange) throws IOException {
         if (response != null) {
-            final var byteResponse = objectMapper.writeValueAsBytes(response);
-
             httpExchange.getResponseHeaders().add("Content-Type", "application/json");
-            httpExchange.sendResponseHeaders(status, byteResponse.length);
+            // Stream the response with chunked encoding, large results don't need to be serialized up front
+            httpExchange.sendResponseHeaders(status, 0);
 
-            httpExchange.getResponseBody().write(byteResponse);
+            objectMapper.writeValue(httpExchange.getResponseBody(), response);
         } else {
             httpExchange.sendResponseHeaders(status, -1);
         }
@@ -137,6 +149,11 @@ public class HttpServerHandler implements AutoCloseable {
 
         } catch (Throwable aEx) {
             logger.error("Failed to process request.", aEx);
+            if (httpExchange.getResponseCode() != -1) {
+                // The response was already partly sent, the client sees an incomplete chunked response
+                httpExchange.close();
+                return;
+            }
             sendResponse(200,
                     JsonRpcResponse.forError(new JsonRpcResponse.Error(JsonRpcResponse.Error.INTERNAL_ERROR,
                             "An internal server error has occurred.",
@@ -169,41 +186,24 @@ public class HttpServerHandler implements AutoCloseable {
             httpExchange.sendResponseHeaders(200, 0);
             final var sender = new ServerSentEventSender(httpExchange.getResponseBody());
 
-            final var shouldStop = new AtomicBoolean(false);
-            final var handlers = subscribeReceiveHandlers(managers, sender, () -> {
-                shouldStop.set(true);
-                synchronized (this) {
-                    this.notifyAll();
-                }
-            });
-
+            // The stream stays open after this handler returns, until the client goes away or the server is closed.
+            // It's registered before subscribing, so a failing subscription closes the stream and all handlers.
+            final var broadcaster = eventBroadcaster;
+            final var subscription = new EventSubscription(httpExchange);
+            broadcaster.register(sender, subscription::close);
             try {
-                while (true) {
-                    synchronized (this) {
-                        wait(15_000);
-                    }
-                    if (shouldStop.get() || shutdown.get()) {
-                        break;
-                    }
-
-                    try {
-                        sender.sendKeepAlive();
-                    } catch (IOException e) {
-                        break;
-                    }
-                }
-            } finally {
-                for (final var pair : handlers) {
-                    unsubscribeReceiveHandler(pair);
-                }
-                try {
-                    httpExchange.getResponseBody().close();
-                } catch (IOException ignored) {
+                for (final var manager : managers) {
+                    subscription.add(subscribeReceiveHandler(manager, sender, () -> broadcaster.close(sender)));
                 }
+            } catch (Throwable e) {
+                broadcaster.close(sender);
+                throw e;
             }
         } catch (Throwable aEx) {
             logger.error("Failed to process request.", aEx);
-            sendResponse(500, null, httpExchange);
+            if (httpExchange.getResponseCode() == -1) {
+                sendResponse(500, null, httpExchange);
+            }
         }
     }
 
@@ -239,22 +239,29 @@ public class HttpServerHandler implements AutoCloseable {
         throw new AssertionError("Unreachable state");
     }
 
-    private List<Pair<Manager, Manager.ReceiveMessageHandler>> subscribeReceiveHandlers(
-            final List<Manager> managers,
+    private Pair<Manager, Manager.ReceiveMessageHandler> subscribeReceiveHandler(
+            final Manager m1,
             final ServerSentEventSender sender,
             Callable unsubscribe
     ) {
-        return managers.stream().map(m1 -> {
-            final var receiveMessageHandler = new JsonReceiveMessageHandler(m1, s -> {
-                try {
-                    sender.sendEvent(null, "receive", List.of(objectMapper.writeValueAsString(s)));
-                } catch (IOException e) {
-                    unsubscribe.call();
-                }
-            });
-            m1.addReceiveHandler(receiveMessageHandler);
-            return new Pair<>(m1, (Manager.ReceiveMessageHandler) receiveMessageHandler);
-        }).toList();
+        final var receiveMessageHandler = new JsonReceiveMessageHandler(m1, s -> {
+            try {
+                final var data = s instanceof JsonReceiveEvent event
+                        ? event.toString()
+                        : objectMapper.writeValueAsString(s);
+                sender.sendEvent(null, "receive", List.of(data));
+            } catch (IOException e) {
+                unsubscribe.call();
+            }
+        }) {
+            @Override
+            public void handleDisconnect() {
+                logger.info("Closing event stream, because the client didn't keep up with received messages");
+                unsubscribe.call();
+            }
+        };
+        m1.addReceiveHandler(receiveMessageHandler, false, receiveQueueConfig);
+        return new Pair<>(m1, receiveMessageHandler);
     }
 
     private void unsubscribeReceiveHandler(final Pair<Manager, Manager.ReceiveMessageHandler> pair) {
@@ -267,4 +274,42 @@ public class HttpServerHandler implements AutoCloseable {
 
         void call();
     }
+
+    /**
+     * The receive handlers of an event stream, they are unsubscribed when the stream is closed.
+     */
+    private final class EventSubscription {
+
+        private final HttpExchange httpExchange;
+        private final List<Pair<Manager, Manager.ReceiveMessageHandler>> handlers = new ArrayList<>();
+        private boolean closed;
+
+        private EventSubscription(final HttpExchange httpExchange) {
+            this.httpExchange = httpExchange;
+        }
+
+        private void add(final Pair<Manager, Manager.ReceiveMessageHandler> handler) {
+            synchronized (this) {
+                if (!closed) {
+                    handlers.add(handler);
+                    return;
+                }
+            }
+            // The stream has been closed while the handler was subscribed
+            unsubscribeReceiveHandler(handler);
+        }
+
+        private void close() {
+            final List<Pair<Manager, Manager.ReceiveMessageHandler>> subscribedHandlers;
+            synchronized (this) {
+                closed = true;
+                subscribedHandlers = List.copyOf(handlers);
+                handlers.clear();
+            }
+            for (final var handler : subscribedHandlers) {
+                unsubscribeReceiveHandler(handler);
+            }
+            httpExchange.close();
+        }
+    }
 }
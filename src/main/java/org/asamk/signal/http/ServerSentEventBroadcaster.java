@@ -0,0 +1,98 @@
+package org.asamk.signal.http;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps all open event streams alive from a single timer, instead of a waiting thread per stream.
+ * <p>
+ * Events themselves are written by the receive handlers of each stream, this only sends the keep-alive comments and
+ * closes the streams whose client has gone away.
+ */
+final class ServerSentEventBroadcaster implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ServerSentEventBroadcaster.class);
+    private static final Duration KEEP_ALIVE_INTERVAL = Duration.ofSeconds(15);
+
+    private final Map<ServerSentEventSender, Stream> streams = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual()
+            .name("sse-keep-alive")
+            .factory());
+
+    ServerSentEventBroadcaster() {
+        scheduler.scheduleWithFixedDelay(this::sendKeepAlives,
+                KEEP_ALIVE_INTERVAL.toMillis(),
+                KEEP_ALIVE_INTERVAL.toMillis(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param onClose called once on a separate thread, when the client has gone away or the broadcaster is closed
+     */
+    void register(final ServerSentEventSender sender, final Runnable onClose) {
+        streams.put(sender, new Stream(sender, onClose));
+    }
+
+    /**
+     * Stop sending keep-alive comments to the stream and close it.
+     */
+    void close(final ServerSentEventSender sender) {
+        final var stream = streams.remove(sender);
+        if (stream != null) {
+            stream.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        for (final var sender : List.copyOf(streams.keySet())) {
+            close(sender);
+        }
+    }
+
+    private void sendKeepAlives() {
+        for (final var stream : streams.values()) {
+            // Writing blocks while the client isn't reading, so one slow client mustn't delay the others
+            if (stream.keepAliveInProgress.compareAndSet(false, true)) {
+                Thread.ofVirtual().name("sse-keep-alive-send").start(() -> {
+                    try {
+                        stream.sender.sendKeepAlive();
+                    } catch (IOException e) {
+                        logger.debug("Failed to send keep-alive, closing event stream: {}", e.getMessage());
+                        close(stream.sender);
+                    } finally {
+                        stream.keepAliveInProgress.set(false);
+                    }
+                });
+            }
+        }
+    }
+
+    private static final class Stream {
+
+        private final ServerSentEventSender sender;
+        private final Runnable onClose;
+        private final AtomicBoolean keepAliveInProgress = new AtomicBoolean();
+
+        private Stream(final ServerSentEventSender sender, final Runnable onClose) {
+            this.sender = sender;
+            this.onClose = onClose;
+        }
+
+        private void close() {
+            // Closing unsubscribes receive handlers, which mustn't happen on a receive handler's own thread
+            Thread.ofVirtual().name("sse-close").start(onClose);
+        }
+    }
+}
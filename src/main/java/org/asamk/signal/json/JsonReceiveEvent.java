@@ -0,0 +1,150 @@
+package org.asamk.signal.json;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+
+import org.asamk.signal.manager.Manager;
+import org.asamk.signal.manager.api.MessageEnvelope;
+import org.asamk.signal.util.Util;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A received message event, serialized to JSON once and written as is by every receive handler.
+ * <p>
+ * All receive handlers of an account are called with the same envelope instance, so the most recently encoded
+ * envelopes are kept by identity. The cache only holds weak references to the envelope and exception, and none to
+ * the manager, so it doesn't keep closed accounts reachable. The UTF-8 encoding of the JSON is computed on the first
+ * write and shared as well.
+ */
+public final class JsonReceiveEvent extends JsonSerializable.Base {
+
+    private static final int MAX_CACHED_EVENTS = 256;
+    private static final ObjectMapper objectMapper = Util.createJsonObjectMapper();
+    private static final Map<Key, Encoding> encodings = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Key, Encoding> eldest) {
+            return size() > MAX_CACHED_EVENTS;
+        }
+    };
+
+    private final SerializedString json;
+
+    private JsonReceiveEvent(final String json) {
+        this.json = new SerializedString(json);
+    }
+
+    public static JsonReceiveEvent from(final Manager m, final MessageEnvelope envelope, final Throwable exception) {
+        final var key = new Key(envelope, exception);
+        final Encoding encoding;
+        synchronized (encodings) {
+            encoding = encodings.computeIfAbsent(key, k -> new Encoding());
+        }
+        return encoding.get(m, envelope, exception);
+    }
+
+    @Override
+    public void serialize(final JsonGenerator gen, final SerializerProvider serializers) throws IOException {
+        gen.writeRawValue(json);
+    }
+
+    @Override
+    public void serializeWithType(
+            final JsonGenerator gen,
+            final SerializerProvider serializers,
+            final TypeSerializer typeSer
+    ) throws IOException {
+        serialize(gen, serializers);
+    }
+
+    /**
+     * @return the serialized JSON of the event
+     */
+    @Override
+    public String toString() {
+        return json.getValue();
+    }
+
+    private static JsonReceiveEvent encode(
+            final Manager m,
+            final MessageEnvelope envelope,
+            final Throwable exception
+    ) {
+        final var object = new HashMap<String, Object>();
+        object.put("account", m.getSelfNumber());
+        if (exception != null) {
+            object.put("exception", JsonError.from(exception));
+        }
+
+        if (envelope != null) {
+            object.put("envelope", JsonMessageEnvelope.from(envelope, exception, m));
+        }
+
+        try {
+            return new JsonReceiveEvent(objectMapper.writeValueAsString(object));
+        } catch (JsonProcessingException e) {
+            // Some issue with json serialization, probably caused by a bug
+            throw new AssertionError(e);
+        }
+    }
+
+    private static final class Encoding {
+
+        private JsonReceiveEvent event;
+
+        synchronized JsonReceiveEvent get(
+                final Manager m,
+                final MessageEnvelope envelope,
+                final Throwable exception
+        ) {
+            if (event == null) {
+                event = encode(m, envelope, exception);
+            }
+            return event;
+        }
+    }
+
+    private static final class Key {
+
+        private final WeakReference<MessageEnvelope> envelope;
+        private final WeakReference<Throwable> exception;
+        private final int hashCode;
+
+        Key(final MessageEnvelope envelope, final Throwable exception) {
+            this.envelope = envelope == null ? null : new WeakReference<>(envelope);
+            this.exception = exception == null ? null : new WeakReference<>(exception);
+            this.hashCode = 31 * System.identityHashCode(envelope) + System.identityHashCode(exception);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof Key other
+                    && hashCode == other.hashCode
+                    && sameReferent(envelope, other.envelope)
+                    && sameReferent(exception, other.exception);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        private static boolean sameReferent(final WeakReference<?> a, final WeakReference<?> b) {
+            if (a == null || b == null) {
+                return a == b;
+            }
+            // A cleared reference never matches, its event can't be requested again
+            final var referent = a.get();
+            return referent != null && referent == b.get();
+        }
+    }
+}
@@ -3,15 +3,9 @@ package org.asamk.signal.json;
 import org.asamk.signal.manager.Manager;
 import org.asamk.signal.manager.api.MessageEnvelope;
 import org.asamk.signal.output.JsonWriter;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import java.util.HashMap;
 
 public class JsonReceiveMessageHandler implements Manager.ReceiveMessageHandler {
 
-    private static final Logger logger = LoggerFactory.getLogger(JsonReceiveMessageHandler.class);
-
     private final Manager m;
     private final JsonWriter jsonWriter;
 
@@ -22,16 +16,6 @@ public class JsonReceiveMessageHandler implements Manager.ReceiveMessageHandler
 
     @Override
     public void handleMessage(MessageEnvelope envelope, Throwable exception) {
-        final var object = new HashMap<String, Object>();
-        object.put("account", m.getSelfNumber());
-        if (exception != null) {
-            object.put("exception", JsonError.from(exception));
-        }
-
-        if (envelope != null) {
-            object.put("envelope", JsonMessageEnvelope.from(envelope, exception, m));
-        }
-
-        jsonWriter.write(object);
+        jsonWriter.write(JsonReceiveEvent.from(m, envelope, exception));
     }
 }
@@ -0,0 +1,149 @@
+package org.asamk.signal.jsonrpc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Splits the newline delimited input of a channel into frames, without decoding it to strings.
+ * <p>
+ * The frames are read into a buffer, that's reused for all frames of the channel and returned to a shared pool when
+ * the reader is closed. The buffer grows for larger frames up to the maximum frame size, a longer frame ends the input.
+ */
+public class ChannelFrameReader implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChannelFrameReader.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Large enough for a request with a base64 encoded attachment of the maximum attachment size
+    private static final int MAX_FRAME_SIZE = 160 * 1024 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 64;
+    private static final Queue<byte[]> bufferPool = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooledBuffers = new AtomicInteger();
+
+    private final ReadableByteChannel channel;
+    private final int maxFrameSize;
+
+    private byte[] buffer;
+    private ByteBuffer readView;
+    private ByteBuffer frameView;
+    private int start;
+    private int scanned;
+    private int end;
+    private boolean endOfInput;
+
+    public ChannelFrameReader(final ReadableByteChannel channel) {
+        this(channel, MAX_FRAME_SIZE);
+    }
+
+    ChannelFrameReader(final ReadableByteChannel channel, final int maxFrameSize) {
+        this.channel = channel;
+        this.maxFrameSize = maxFrameSize;
+        final var pooledBuffer = bufferPool.poll();
+        if (pooledBuffer != null) {
+            pooledBuffers.decrementAndGet();
+        }
+        setBuffer(pooledBuffer == null ? new byte[BUFFER_SIZE] : pooledBuffer);
+    }
+
+    /**
+     * Read the next frame, without the trailing line separator.
+     * The returned buffer is only valid until the next call to this method.
+     *
+     * @return the next frame, or null if the end of the input has been reached or a frame exceeds the maximum size
+     */
+    public ByteBuffer readFrame() {
+        while (true) {
+            for (var i = scanned; i < end; i++) {
+                if (buffer[i] == '\n') {
+                    final var frameEnd = i > start && buffer[i - 1] == '\r' ? i - 1 : i;
+                    final var frame = frame(start, frameEnd);
+                    start = i + 1;
+                    scanned = start;
+                    return frame;
+                }
+            }
+            scanned = end;
+
+            if (endOfInput) {
+                if (start == end) {
+                    return null;
+                }
+                final var frame = frame(start, end);
+                start = end;
+                scanned = end;
+                return frame;
+            }
+
+            if (end == buffer.length && !makeRoom()) {
+                logger.warn("Received frame exceeds the maximum size of {} bytes, closing connection", maxFrameSize);
+                return null;
+            }
+            try {
+                readView.limit(buffer.length).position(end);
+                final var read = channel.read(readView);
+                if (read < 0) {
+                    endOfInput = true;
+                } else {
+                    end += read;
+                }
+            } catch (ClosedChannelException ignored) {
+                logger.trace("Frame reader has been interrupted.");
+                return null;
+            } catch (IOException e) {
+                logger.error("Error occurred while reading frame", e);
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (buffer.length == BUFFER_SIZE && pooledBuffers.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+            bufferPool.add(buffer);
+        } else if (buffer.length == BUFFER_SIZE) {
+            pooledBuffers.decrementAndGet();
+        }
+        buffer = null;
+    }
+
+    private ByteBuffer frame(final int frameStart, final int frameEnd) {
+        frameView.clear();
+        frameView.position(frameStart).limit(frameEnd);
+        return frameView;
+    }
+
+    /**
+     * @return false, if the buffer is full with a single frame and can't grow any further
+     */
+    private boolean makeRoom() {
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            scanned -= start;
+            start = 0;
+        } else {
+            // A single frame doesn't fit into the buffer
+            if (buffer.length >= maxFrameSize) {
+                return false;
+            }
+            final var newBuffer = new byte[(int) Math.min(buffer.length * 2L, maxFrameSize)];
+            System.arraycopy(buffer, 0, newBuffer, 0, end);
+            setBuffer(newBuffer);
+        }
+        return true;
+    }
+
+    private void setBuffer(final byte[] buffer) {
+        this.buffer = buffer;
+        this.readView = ByteBuffer.wrap(buffer);
+        this.frameView = ByteBuffer.wrap(buffer);
+    }
+}
@@ -14,6 +14,8 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.concurrent.Executors;
 import java.util.concurrent.locks.ReentrantLock;
@@ -29,11 +31,13 @@ public class JsonRpcReader {
     private final ObjectMapper objectMapper;
     private final InputStream input;
     private final Supplier<String> lineSupplier;
+    private final ChannelFrameReader frameReader;
 
     public JsonRpcReader(final JsonRpcSender jsonRpcSender, final Supplier<String> lineSupplier) {
         this.jsonRpcSender = jsonRpcSender;
         this.input = null;
         this.lineSupplier = lineSupplier;
+        this.frameReader = null;
         this.objectMapper = Util.createJsonObjectMapper();
     }
 
@@ -41,6 +45,15 @@ public class JsonRpcReader {
         this.jsonRpcSender = jsonRpcSender;
         this.input = input;
         this.lineSupplier = null;
+        this.frameReader = null;
+        this.objectMapper = Util.createJsonObjectMapper();
+    }
+
+    public JsonRpcReader(final JsonRpcSender jsonRpcSender, final ChannelFrameReader frameReader) {
+        this.jsonRpcSender = jsonRpcSender;
+        this.input = null;
+        this.lineSupplier = null;
+        this.frameReader = frameReader;
         this.objectMapper = Util.createJsonObjectMapper();
     }
 
@@ -57,14 +70,29 @@ public class JsonRpcReader {
 
         try (final var executor = Executors.newVirtualThreadPerTaskExecutor()) {
             while (!Thread.interrupted()) {
-                final var input = lineSupplier.get();
-                if (input == null) {
-                    logger.trace("Reached end of JSON-RPC input stream.");
-                    break;
+                final JsonRpcMessage message;
+                if (frameReader != null) {
+                    final var frame = frameReader.readFrame();
+                    if (frame == null) {
+                        logger.trace("Reached end of JSON-RPC input stream.");
+                        break;
+                    }
+
+                    if (logger.isTraceEnabled()) {
+                        logger.trace("Incoming JSON-RPC message: {}",
+                                StandardCharsets.UTF_8.decode(frame.duplicate()));
+                    }
+                    message = parseJsonRpcMessage(frame);
+                } else {
+                    final var input = lineSupplier.get();
+                    if (input == null) {
+                        logger.trace("Reached end of JSON-RPC input stream.");
+                        break;
+                    }
+
+                    logger.trace("Incoming JSON-RPC message: {}", input);
+                    message = parseJsonRpcMessage(input);
                 }
-
-                logger.trace("Incoming JSON-RPC message: {}", input);
-                final var message = parseJsonRpcMessage(input);
                 if (message == null) {
                     continue;
                 }
@@ -173,6 +201,39 @@ public class JsonRpcReader {
         return parseJsonRpcMessage(jsonNode);
     }
 
+    private JsonRpcMessage parseJsonRpcMessage(final ByteBuffer frame) {
+        if (isBlank(frame)) {
+            jsonRpcSender.sendResponse(JsonRpcResponse.forError(new JsonRpcResponse.Error(JsonRpcResponse.Error.PARSE_ERROR,
+                    "Empty input line",
+                    null), null));
+            return null;
+        }
+
+        final JsonNode jsonNode;
+        try {
+            // Parse directly from the frame buffer, it's only valid until the next frame is read
+            jsonNode = objectMapper.readTree(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+        } catch (JsonParseException e) {
+            jsonRpcSender.sendResponse(JsonRpcResponse.forError(new JsonRpcResponse.Error(JsonRpcResponse.Error.PARSE_ERROR,
+                    e.getMessage(),
+                    null), null));
+            return null;
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+
+        return parseJsonRpcMessage(jsonNode);
+    }
+
+    private static boolean isBlank(final ByteBuffer frame) {
+        for (var i = frame.position(); i < frame.limit(); i++) {
+            if (frame.get(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private JsonRpcMessage parseJsonRpcMessage(final InputStream input) {
         final JsonNode jsonNode;
         try {
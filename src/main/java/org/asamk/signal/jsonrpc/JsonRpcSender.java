@@ -16,6 +16,13 @@ public class JsonRpcSender {
         jsonWriter.write(request);
     }
 
+    /**
+     * Send a notification, whose params don't need to be a json tree, e.g. because they are already serialized.
+     */
+    public void sendNotification(String method, Object params) {
+        jsonWriter.write(new Notification("2.0", method, params));
+    }
+
     public void sendBatchRequests(List<JsonRpcRequest> requests) {
         jsonWriter.write(requests);
     }
@@ -27,4 +34,6 @@ public class JsonRpcSender {
     public void sendBatchResponses(List<JsonRpcResponse> responses) {
         jsonWriter.write(responses);
     }
+
+    record Notification(String jsonrpc, String method, Object params) {}
 }
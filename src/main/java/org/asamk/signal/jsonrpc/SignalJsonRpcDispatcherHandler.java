@@ -4,7 +4,6 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.ContainerNode;
 import com.fasterxml.jackson.databind.node.IntNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
@@ -19,6 +18,7 @@ import org.asamk.signal.json.JsonReceiveMessageHandler;
 import org.asamk.signal.manager.Manager;
 import org.asamk.signal.manager.MultiAccountManager;
 import org.asamk.signal.manager.api.Pair;
+import org.asamk.signal.manager.api.ReceiveQueueConfig;
 import org.asamk.signal.output.JsonWriter;
 import org.asamk.signal.util.Util;
 import org.slf4j.Logger;
@@ -40,22 +40,47 @@ public class SignalJsonRpcDispatcherHandler {
     private final JsonRpcSender jsonRpcSender;
     private final JsonRpcReader jsonRpcReader;
     private final boolean noReceiveOnStart;
+    private final ReceiveQueueConfig receiveQueueConfig;
 
     private final Map<Integer, List<Pair<Manager, Manager.ReceiveMessageHandler>>> receiveHandlers = new HashMap<>();
     private final Map<Integer, List<Pair<Manager, Manager.CallEventListener>>> callEventHandlers = new HashMap<>();
     private SignalJsonRpcCommandHandler commandHandler;
+    private volatile Thread connectionThread;
 
     public SignalJsonRpcDispatcherHandler(
             final JsonWriter jsonWriter,
             final Supplier<String> lineSupplier,
             final boolean noReceiveOnStart
+    ) {
+        this(jsonWriter, lineSupplier, noReceiveOnStart, ReceiveQueueConfig.DEFAULT);
+    }
+
+    public SignalJsonRpcDispatcherHandler(
+            final JsonWriter jsonWriter,
+            final Supplier<String> lineSupplier,
+            final boolean noReceiveOnStart,
+            final ReceiveQueueConfig receiveQueueConfig
     ) {
         this.noReceiveOnStart = noReceiveOnStart;
+        this.receiveQueueConfig = receiveQueueConfig;
         this.objectMapper = Util.createJsonObjectMapper();
         this.jsonRpcSender = new JsonRpcSender(jsonWriter);
         this.jsonRpcReader = new JsonRpcReader(jsonRpcSender, lineSupplier);
     }
 
+    public SignalJsonRpcDispatcherHandler(
+            final JsonWriter jsonWriter,
+            final ChannelFrameReader frameReader,
+            final boolean noReceiveOnStart,
+            final ReceiveQueueConfig receiveQueueConfig
+    ) {
+        this.noReceiveOnStart = noReceiveOnStart;
+        this.receiveQueueConfig = receiveQueueConfig;
+        this.objectMapper = Util.createJsonObjectMapper();
+        this.jsonRpcSender = new JsonRpcSender(jsonWriter);
+        this.jsonRpcReader = new JsonRpcReader(jsonRpcSender, frameReader);
+    }
+
     public void handleConnection(final MultiAccountManager c) {
         this.commandHandler = new SignalJsonRpcCommandHandler(c, this::getCommand);
 
@@ -158,25 +183,35 @@ public class SignalJsonRpcDispatcherHandler {
             final boolean internalSubscription
     ) {
         final var receiveMessageHandler = new JsonReceiveMessageHandler(m, s -> {
-            ContainerNode<?> params;
+            // The event is already serialized, it's embedded as is instead of being converted to a json tree
+            final Object params;
             if (internalSubscription) {
-                params = objectMapper.valueToTree(s);
+                params = s;
             } else {
                 final var paramsNode = new ObjectNode(objectMapper.getNodeFactory());
                 paramsNode.set("subscription", IntNode.valueOf(subscriptionId));
-                paramsNode.set("result", objectMapper.valueToTree(s));
+                paramsNode.set("result", objectMapper.getNodeFactory().pojoNode(s));
                 params = paramsNode;
             }
-            final var jsonRpcRequest = JsonRpcRequest.forNotification("receive", params, null);
             try {
-                jsonRpcSender.sendRequest(jsonRpcRequest);
+                jsonRpcSender.sendNotification("receive", params);
             } catch (AssertionError e) {
                 if (e.getCause() instanceof ClosedChannelException) {
                     unsubscribeReceive(subscriptionId);
                 }
             }
-        });
-        m.addReceiveHandler(receiveMessageHandler);
+        }) {
+            @Override
+            public void handleDisconnect() {
+                logger.info("Closing connection, because the client didn't keep up with received messages");
+                unsubscribeReceive(subscriptionId);
+                final var thread = connectionThread;
+                if (thread != null) {
+                    thread.interrupt();
+                }
+            }
+        };
+        m.addReceiveHandler(receiveMessageHandler, false, receiveQueueConfig);
         return new Pair<>(m, receiveMessageHandler);
     }
 
@@ -201,6 +236,7 @@ public class SignalJsonRpcDispatcherHandler {
     }
 
     private void handleConnection() {
+        connectionThread = Thread.currentThread();
         try {
             jsonRpcReader.readMessages((method, params) -> commandHandler.handleRequest(objectMapper, method, params),
                     response -> logger.debug("Received unexpected response for id {}", response.getId()));
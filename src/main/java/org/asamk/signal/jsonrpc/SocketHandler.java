@@ -2,18 +2,17 @@ package org.asamk.signal.jsonrpc;
 
 import org.asamk.signal.manager.Manager;
 import org.asamk.signal.manager.MultiAccountManager;
-import org.asamk.signal.output.JsonWriterImpl;
+import org.asamk.signal.manager.api.ReceiveQueueConfig;
+import org.asamk.signal.output.ChannelJsonWriter;
 import org.asamk.signal.util.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.SocketAddress;
-import java.nio.channels.Channels;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Executors;
@@ -31,21 +30,30 @@ public class SocketHandler implements AutoCloseable {
     private final List<AutoCloseable> channels = new ArrayList<>();
     private final Consumer<SocketChannel> socketHandler;
     private final boolean noReceiveOnStart;
+    private final ReceiveQueueConfig receiveQueueConfig;
 
-    public SocketHandler(final ServerSocketChannel serverChannel, final Manager m, final boolean noReceiveOnStart) {
+    public SocketHandler(
+            final ServerSocketChannel serverChannel,
+            final Manager m,
+            final boolean noReceiveOnStart,
+            final ReceiveQueueConfig receiveQueueConfig
+    ) {
         this.serverChannel = serverChannel;
-        this.socketHandler = channel -> getSignalJsonRpcDispatcherHandler(channel).handleConnection(m);
+        this.socketHandler = channel -> handleConnection(channel, handler -> handler.handleConnection(m));
         this.noReceiveOnStart = noReceiveOnStart;
+        this.receiveQueueConfig = receiveQueueConfig;
     }
 
     public SocketHandler(
             final ServerSocketChannel serverChannel,
             final MultiAccountManager c,
-            final boolean noReceiveOnStart
+            final boolean noReceiveOnStart,
+            final ReceiveQueueConfig receiveQueueConfig
     ) {
         this.serverChannel = serverChannel;
-        this.socketHandler = channel -> getSignalJsonRpcDispatcherHandler(channel).handleConnection(c);
+        this.socketHandler = channel -> handleConnection(channel, handler -> handler.handleConnection(c));
         this.noReceiveOnStart = noReceiveOnStart;
+        this.receiveQueueConfig = receiveQueueConfig;
     }
 
     public void init() {
@@ -111,10 +119,15 @@ public class SocketHandler implements AutoCloseable {
         listenerThread = null;
     }
 
-    private SignalJsonRpcDispatcherHandler getSignalJsonRpcDispatcherHandler(final SocketChannel c) {
-        final var lineSupplier = IOUtils.getLineSupplier(Channels.newReader(c, StandardCharsets.UTF_8));
-        final var jsonOutputWriter = new JsonWriterImpl(Channels.newWriter(c, StandardCharsets.UTF_8));
-
-        return new SignalJsonRpcDispatcherHandler(jsonOutputWriter, lineSupplier, noReceiveOnStart);
+    private void handleConnection(
+            final SocketChannel c,
+            final Consumer<SignalJsonRpcDispatcherHandler> connectionHandler
+    ) {
+        try (final var frameReader = new ChannelFrameReader(c); final var jsonOutputWriter = new ChannelJsonWriter(c)) {
+            connectionHandler.accept(new SignalJsonRpcDispatcherHandler(jsonOutputWriter,
+                    frameReader,
+                    noReceiveOnStart,
+                    receiveQueueConfig));
+        }
     }
 }
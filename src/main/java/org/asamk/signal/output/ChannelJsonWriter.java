@@ -0,0 +1,149 @@
+package org.asamk.signal.output;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.asamk.signal.util.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+
+/**
+ * Writes newline delimited JSON to a channel from a separate thread.
+ * <p>
+ * Objects are serialized by the calling thread and queued, the writer thread then writes all queued objects with a
+ * single gathering write instead of flushing after every object.
+ * If the client doesn't keep up and the queued output exceeds the limit, callers block until there's room again.
+ */
+public class ChannelJsonWriter implements JsonWriter, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChannelJsonWriter.class);
+
+    private static final long MAX_QUEUED_BYTES = 8 * 1024 * 1024;
+    private static final int MAX_BUFFERS_PER_WRITE = 128;
+    private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(5);
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    private final GatheringByteChannel channel;
+    private final ObjectMapper objectMapper;
+    private final Queue<ByteBuffer> queue = new ArrayDeque<>();
+    private final Thread thread;
+
+    private long queuedBytes;
+    private boolean closed;
+    private boolean failed;
+
+    public ChannelJsonWriter(final GatheringByteChannel channel) {
+        this.channel = channel;
+        this.objectMapper = Util.createJsonObjectMapper();
+        this.thread = Thread.ofVirtual().name("json-writer").start(this::run);
+    }
+
+    @Override
+    public void write(final Object object) {
+        final byte[] bytes;
+        try {
+            bytes = objectMapper.writeValueAsBytes(object);
+        } catch (JsonProcessingException e) {
+            // Some issue with json serialization, probably caused by a bug
+            throw new AssertionError(e);
+        }
+        final var length = bytes.length + LINE_SEPARATOR.length;
+
+        synchronized (this) {
+            while (!failed && !closed && queuedBytes > 0 && queuedBytes + length > MAX_QUEUED_BYTES) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new AssertionError(e);
+                }
+            }
+            if (failed || closed) {
+                throw new AssertionError(new ClosedChannelException());
+            }
+            queue.add(ByteBuffer.wrap(bytes));
+            queue.add(ByteBuffer.wrap(LINE_SEPARATOR));
+            queuedBytes += length;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Stop accepting new objects and wait a short time until the queued output has been written.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            if (!thread.join(CLOSE_TIMEOUT)) {
+                logger.debug("Client didn't read the remaining output, discarding it");
+                thread.interrupt();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        final var buffers = new ByteBuffer[MAX_BUFFERS_PER_WRITE];
+        while (true) {
+            var count = 0;
+            var bytes = 0L;
+            synchronized (this) {
+                while (queue.isEmpty() && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                while (count < buffers.length && !queue.isEmpty()) {
+                    final var buffer = queue.remove();
+                    bytes += buffer.remaining();
+                    buffers[count++] = buffer;
+                }
+            }
+            if (count == 0) {
+                return;
+            }
+
+            try {
+                var offset = 0;
+                while (offset < count) {
+                    channel.write(buffers, offset, count - offset);
+                    while (offset < count && !buffers[offset].hasRemaining()) {
+                        offset++;
+                    }
+                }
+            } catch (IOException e) {
+                logger.debug("Failed to write to channel: {}", e.getMessage());
+                synchronized (this) {
+                    failed = true;
+                    queue.clear();
+                    queuedBytes = 0;
+                    notifyAll();
+                }
+                return;
+            }
+            Arrays.fill(buffers, 0, count, null);
+
+            synchronized (this) {
+                queuedBytes -= bytes;
+                notifyAll();
+            }
+        }
+    }
+}
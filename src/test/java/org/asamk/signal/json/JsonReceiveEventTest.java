@@ -0,0 +1,92 @@
+package org.asamk.signal.json;
+
+import org.asamk.signal.manager.Manager;
+import org.asamk.signal.manager.api.MessageEnvelope;
+import org.junit.jupiter.api.Test;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Proxy;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JsonReceiveEventTest {
+
+    private final AtomicInteger selfNumberCalls = new AtomicInteger();
+
+    @Test
+    void encodesEnvelopeOnceForAllHandlers() {
+        final var m = fakeManager("+15551234567");
+        final var envelope = envelope(1000L);
+
+        final var first = JsonReceiveEvent.from(m, envelope, null);
+        final var second = JsonReceiveEvent.from(m, envelope, null);
+
+        assertSame(first, second);
+        assertEquals(1, selfNumberCalls.get());
+        assertTrue(first.toString().contains("\"account\":\"+15551234567\""));
+        assertTrue(first.toString().contains("\"timestamp\":1000"));
+    }
+
+    @Test
+    void encodesDifferentEnvelopesSeparately() {
+        final var m = fakeManager("+15551234567");
+
+        final var first = JsonReceiveEvent.from(m, envelope(1000L), null);
+        final var second = JsonReceiveEvent.from(m, envelope(2000L), null);
+
+        assertNotSame(first, second);
+        assertTrue(second.toString().contains("\"timestamp\":2000"));
+    }
+
+    @Test
+    void doesNotKeepManagerOrEnvelopeReachable() throws InterruptedException {
+        final var manager = new WeakReference<>(fakeManager("+15551234567"));
+        final var envelope = new WeakReference<>(envelope(1000L));
+        JsonReceiveEvent.from(manager.get(), envelope.get(), null);
+
+        for (var i = 0; i < 50 && (manager.get() != null || envelope.get() != null); i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        assertNull(manager.get());
+        assertNull(envelope.get());
+    }
+
+    private Manager fakeManager(final String number) {
+        return (Manager) Proxy.newProxyInstance(Manager.class.getClassLoader(),
+                new Class<?>[]{Manager.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getSelfNumber" -> {
+                        selfNumberCalls.incrementAndGet();
+                        yield number;
+                    }
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "FakeManager";
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private static MessageEnvelope envelope(final long timestamp) {
+        return new MessageEnvelope(Optional.empty(),
+                0,
+                timestamp,
+                0,
+                0,
+                false,
+                Optional.empty(),
+                Optional.empty(),
+                Optional.empty(),
+                Optional.empty(),
+                Optional.empty(),
+                Optional.empty(),
+                Optional.empty());
+    }
+}
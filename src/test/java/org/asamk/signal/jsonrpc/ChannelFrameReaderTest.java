@@ -0,0 +1,50 @@
+package org.asamk.signal.jsonrpc;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ChannelFrameReaderTest {
+
+    @Test
+    void splitsFramesAtLineSeparators() {
+        final var frames = readFrames("{\"a\":1}\n\r\n{\"b\":2}\r\n{\"c\":3}");
+        assertEquals(List.of("{\"a\":1}", "", "{\"b\":2}", "{\"c\":3}"), frames);
+    }
+
+    @Test
+    void readsFramesLargerThanTheBuffer() {
+        final var large = "x".repeat(200 * 1024);
+        assertEquals(List.of("a", large, "b"), readFrames("a\n" + large + "\nb\n"));
+    }
+
+    @Test
+    void stopsAtFramesLargerThanTheMaximumSize() {
+        final var large = "x".repeat(200 * 1024);
+        assertEquals(List.of("a"), readFrames("a\n" + large + "\nb\n", 128 * 1024));
+    }
+
+    private static List<String> readFrames(final String input) {
+        return readFrames(input, Integer.MAX_VALUE);
+    }
+
+    private static List<String> readFrames(final String input, final int maxFrameSize) {
+        final var channel = Channels.newChannel(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)));
+        final var frames = new ArrayList<String>();
+        try (final var reader = new ChannelFrameReader(channel, maxFrameSize)) {
+            while (true) {
+                final var frame = reader.readFrame();
+                if (frame == null) {
+                    return frames;
+                }
+                frames.add(StandardCharsets.UTF_8.decode(frame).toString());
+            }
+        }
+    }
+}
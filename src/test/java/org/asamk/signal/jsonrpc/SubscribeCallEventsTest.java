@@ -18,6 +18,8 @@ import org.asamk.signal.manager.api.Message;
 import org.asamk.signal.manager.api.MessageEnvelope;
 import org.asamk.signal.manager.api.Pair;
 import org.asamk.signal.manager.api.ReceiveConfig;
+import org.asamk.signal.manager.api.ReceiveQueueConfig;
+import org.asamk.signal.manager.api.ReceiveQueueStatistics;
 import org.asamk.signal.manager.api.Recipient;
 import org.asamk.signal.manager.api.RecipientIdentifier;
 import org.asamk.signal.manager.api.SendGroupMessageResults;
@@ -418,6 +420,15 @@ class SubscribeCallEventsTest {
         public void addReceiveHandler(ReceiveMessageHandler h, boolean w) {
         }
 
+        @Override
+        public void addReceiveHandler(ReceiveMessageHandler h, boolean w, ReceiveQueueConfig c) {
+        }
+
+        @Override
+        public ReceiveQueueStatistics getReceiveQueueStatistics(ReceiveMessageHandler h) {
+            return null;
+        }
+
         @Override
         public void removeReceiveHandler(ReceiveMessageHandler h) {
         }